@@ -0,0 +1,118 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.benchmarks;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One-shot {@link Encoder#compress} / {@link Decoder#decompress}, on arrays and direct buffers.
+ *
+ * <p> Inputs are shared by all benchmark threads, output buffers are per thread, so the scores
+ * scale with {@code -t}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+  @Param({"1", "5", "9", "11"})
+  public int quality;
+
+  @Param({"18", "22", "24"})
+  public int lgwin;
+
+  @Param({"1024", "65536", "1048576"})
+  public int payloadSize;
+
+  private byte[] data;
+  private byte[] compressed;
+  private ByteBuffer directData;
+  private ByteBuffer directCompressed;
+  private Encoder.Parameters params;
+
+  /** Per-thread destinations for the buffer variants. */
+  @State(Scope.Thread)
+  public static class Output {
+    ByteBuffer compressed;
+    ByteBuffer decompressed;
+
+    @Setup(Level.Trial)
+    public void setUp(CodecBenchmark benchmark) {
+      compressed = ByteBuffer.allocateDirect(Encoder.maxCompressedSize(benchmark.payloadSize));
+      decompressed = ByteBuffer.allocateDirect(benchmark.payloadSize);
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    if (!BrotliLoader.isBrotliAvailable()) {
+      throw new IllegalStateException("native brotli library is not available");
+    }
+    data = Payloads.text(payloadSize, 42);
+    params = new Encoder.Parameters().setQuality(quality).setWindow(lgwin);
+    compressed = Encoder.compress(data, params);
+    directData = ByteBuffer.allocateDirect(data.length);
+    directData.put(data);
+    ((Buffer) directData).flip();
+    directCompressed = ByteBuffer.allocateDirect(compressed.length);
+    directCompressed.put(compressed);
+    ((Buffer) directCompressed).flip();
+  }
+
+  @Benchmark
+  public byte[] compress() throws IOException {
+    return Encoder.compress(data, params);
+  }
+
+  @Benchmark
+  public byte[] decompress() throws IOException {
+    return Decoder.decompress(compressed);
+  }
+
+  @Benchmark
+  public int compressDirect(Output output) throws IOException {
+    ((Buffer) output.compressed).clear();
+    return Encoder.compress(directData.duplicate(), output.compressed, params);
+  }
+
+  @Benchmark
+  public int decompressDirect(Output output) throws IOException {
+    ((Buffer) output.decompressed).clear();
+    return Decoder.decompress(directCompressed.duplicate(), output.decompressed);
+  }
+}
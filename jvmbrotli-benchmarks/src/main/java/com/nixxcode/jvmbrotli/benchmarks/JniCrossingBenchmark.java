@@ -0,0 +1,119 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import com.nixxcode.jvmbrotli.enc.BrotliOutputStream;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-call cost of the native glue.
+ *
+ * <p> A single-byte intermediate buffer makes the streams cross into native code for every
+ * byte, so the score is dominated by the JNI crossing itself rather than by compression work.
+ * Scores are per crossing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JniCrossingBenchmark {
+  private static final int CROSSINGS = 4096;
+
+  private byte[] data;
+  private byte[] compressed;
+  private OutputStream encoder;
+
+  /** Discards everything; keeps the encoder side free of copying costs. */
+  private static final class NullOutputStream extends OutputStream {
+    @Override
+    public void write(int b) { }
+
+    @Override
+    public void write(byte[] b, int off, int len) { }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    if (!BrotliLoader.isBrotliAvailable()) {
+      throw new IllegalStateException("native brotli library is not available");
+    }
+    data = new byte[CROSSINGS];
+    for (int i = 0; i < CROSSINGS; ++i) {
+      data[i] = (byte) ('a' + i % 26);
+    }
+    Encoder.Parameters params = new Encoder.Parameters().setQuality(5);
+    encoder = new BrotliOutputStream(new NullOutputStream(), params, 1);
+
+    /* Stored (uncompressed) stream, so that every input byte yields output. */
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BrotliOutputStream stream = new BrotliOutputStream(output,
+        new Encoder.Parameters().setQuality(0));
+    for (int i = 0; i < CROSSINGS; ++i) {
+      stream.write(data, i, 1);
+    }
+    stream.close();
+    compressed = output.toByteArray();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    encoder.close();
+  }
+
+  /** Every byte is pushed to native encoder separately. */
+  @Benchmark
+  @OperationsPerInvocation(CROSSINGS)
+  public void encodePush() throws IOException {
+    encoder.write(data);
+  }
+
+  /** Every compressed byte is pushed to native decoder separately. */
+  @Benchmark
+  @OperationsPerInvocation(CROSSINGS)
+  public int decodePush() throws IOException {
+    BrotliInputStream decoder = new BrotliInputStream(new ByteArrayInputStream(compressed), 1);
+    int total = 0;
+    while (decoder.read() != -1) {
+      total++;
+    }
+    decoder.close();
+    return total;
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.enc.ParallelBrotliOutputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Speedup of chunked multi-core compression against its ratio loss.
+ *
+ * <p> {@code threads = 0} is the single-threaded {@link Encoder#compress} baseline. The
+ * {@code compressedBytes / inputBytes} counters give the ratio, so speedup and ratio loss are
+ * read from the same run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelCompressionBenchmark {
+  private static final int INPUT_SIZE = 16 << 20;
+
+  @Param({"9", "11"})
+  public int quality;
+
+  @Param({"0", "2", "4", "8"})
+  public int threads;
+
+  @Param({"1048576", "4194304"})
+  public int chunkSize;
+
+  private byte[] data;
+  private Encoder.Parameters params;
+  private ExecutorService executor;
+
+  /** Input and output volume; their quotient is the compression ratio. */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Volume {
+    public long inputBytes;
+    public long compressedBytes;
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    if (!BrotliLoader.isBrotliAvailable()) {
+      throw new IllegalStateException("native brotli library is not available");
+    }
+    data = Payloads.text(INPUT_SIZE, 42);
+    params = new Encoder.Parameters().setQuality(quality);
+    executor = (threads > 0) ? Executors.newFixedThreadPool(threads) : null;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  @Benchmark
+  public int compress(Volume volume) throws IOException {
+    byte[] compressed = (executor != null)
+        ? ParallelBrotliOutputStream.compress(data, params, chunkSize, executor)
+        : Encoder.compress(data, params);
+    volume.inputBytes += data.length;
+    volume.compressedBytes += compressed.length;
+    return compressed.length;
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Deterministic benchmark inputs.
+ */
+final class Payloads {
+  private Payloads() { }
+
+  /**
+   * Bundle-like input: words with long-range repetitions and Zipf-like skew, so that some words
+   * are far more frequent than others.
+   */
+  static byte[] text(int size, long seed) {
+    Random random = new Random(seed);
+    String[] words = new String[4096];
+    for (int i = 0; i < words.length; ++i) {
+      StringBuilder word = new StringBuilder();
+      int length = 3 + random.nextInt(10);
+      for (int j = 0; j < length; ++j) {
+        word.append((char) ('a' + random.nextInt(26)));
+      }
+      words[i] = word.append(random.nextInt(4) == 0 ? "(); " : " ").toString();
+    }
+    byte[] data = new byte[size];
+    int offset = 0;
+    while (offset < size) {
+      byte[] word = words[(int) (words.length * Math.pow(random.nextDouble(), 3))].getBytes();
+      int length = Math.min(word.length, size - offset);
+      System.arraycopy(word, 0, data, offset, length);
+      offset += length;
+    }
+    return data;
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.BrotliDecoderChannel;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import com.nixxcode.jvmbrotli.enc.BrotliEncoderChannel;
+import com.nixxcode.jvmbrotli.enc.BrotliOutputStream;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Streaming encoders and decoders: {@link BrotliOutputStream} / {@link BrotliInputStream} and
+ * {@link BrotliEncoderChannel} / {@link BrotliDecoderChannel}.
+ *
+ * <p> Data is written and read in {@code bufferSize} pieces, matching the intermediate buffer
+ * size, and destinations discard output; the scores are the cost of the streaming glue plus
+ * compression itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamBenchmark {
+  @Param({"1", "5", "9"})
+  public int quality;
+
+  @Param({"1024", "16384", "65536"})
+  public int bufferSize;
+
+  @Param({"65536", "1048576"})
+  public int payloadSize;
+
+  private byte[] data;
+  private byte[] compressed;
+  private Encoder.Parameters params;
+
+  /** Per-thread piece buffers. */
+  @State(Scope.Thread)
+  public static class Pieces {
+    byte[] array;
+    ByteBuffer direct;
+
+    @Setup(Level.Trial)
+    public void setUp(StreamBenchmark benchmark) {
+      array = new byte[benchmark.bufferSize];
+      direct = ByteBuffer.allocateDirect(benchmark.bufferSize);
+    }
+  }
+
+  private static final class NullOutputStream extends OutputStream {
+    @Override
+    public void write(int b) { }
+
+    @Override
+    public void write(byte[] b, int off, int len) { }
+  }
+
+  private static final class NullChannel implements WritableByteChannel {
+    @Override
+    public int write(ByteBuffer src) {
+      int length = src.remaining();
+      ((Buffer) src).position(src.limit());
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() { }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    if (!BrotliLoader.isBrotliAvailable()) {
+      throw new IllegalStateException("native brotli library is not available");
+    }
+    data = Payloads.text(payloadSize, 42);
+    params = new Encoder.Parameters().setQuality(quality);
+    compressed = Encoder.compress(data, params);
+  }
+
+  @Benchmark
+  public void outputStream() throws IOException {
+    BrotliOutputStream encoder =
+        new BrotliOutputStream(new NullOutputStream(), params, bufferSize);
+    for (int offset = 0; offset < data.length; offset += bufferSize) {
+      encoder.write(data, offset, Math.min(bufferSize, data.length - offset));
+    }
+    encoder.close();
+  }
+
+  @Benchmark
+  public int inputStream(Pieces pieces) throws IOException {
+    BrotliInputStream decoder =
+        new BrotliInputStream(new ByteArrayInputStream(compressed), bufferSize);
+    int total = 0;
+    int length;
+    while ((length = decoder.read(pieces.array)) != -1) {
+      total += length;
+    }
+    decoder.close();
+    return total;
+  }
+
+  @Benchmark
+  public void encoderChannel(Pieces pieces) throws IOException {
+    BrotliEncoderChannel encoder = new BrotliEncoderChannel(new NullChannel(), params, bufferSize);
+    for (int offset = 0; offset < data.length; offset += bufferSize) {
+      int length = Math.min(bufferSize, data.length - offset);
+      ByteBuffer piece = pieces.direct;
+      ((Buffer) piece).clear();
+      piece.put(data, offset, length);
+      ((Buffer) piece).flip();
+      encoder.write(piece);
+    }
+    encoder.close();
+  }
+
+  @Benchmark
+  public int decoderChannel(Pieces pieces) throws IOException {
+    BrotliDecoderChannel decoder = new BrotliDecoderChannel(
+        Channels.newChannel(new ByteArrayInputStream(compressed)), bufferSize);
+    int total = 0;
+    int length;
+    ByteBuffer piece = pieces.direct;
+    do {
+      ((Buffer) piece).clear();
+      length = decoder.read(piece);
+      total += Math.max(length, 0);
+    } while (length != -1);
+    decoder.close();
+    return total;
+  }
+}
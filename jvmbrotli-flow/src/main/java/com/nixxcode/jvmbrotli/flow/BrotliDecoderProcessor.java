@@ -0,0 +1,146 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.flow;
+
+import com.nixxcode.jvmbrotli.dec.BrotliDecoderChannel;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.dec.DecoderPool;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Decompresses a brotli stream that arrives as a sequence of {@link ByteBuffer}s.
+ *
+ * <p> Input buffers are read in place and not retained. Each output item is a heap buffer of up to
+ * buffer size bytes; decoder does not produce the next one until the subscriber requests it.
+ * Subscriber is completed as soon as the brotli stream ends, and publisher is cancelled then.
+ * Bytes after the end of the stream in the same item, or publisher completing before the end of
+ * the stream, are signalled as errors.
+ *
+ * <p> Processor supports one subscriber and must not be subscribed to more than one publisher.
+ */
+public class BrotliDecoderProcessor extends BrotliProcessor {
+  /** The default internal buffer size used by the decoder. */
+  private static final int DEFAULT_BUFFER_SIZE = 16384;
+
+  private final Decoder.Parameters params;
+  private final int bufferSize;
+  private final DecoderPool pool;
+  private BrotliDecoderChannel decoder;
+  /** Input being decoded; read by the source channel. */
+  private ByteBuffer input;
+  private boolean last;
+  /** Output buffer that got no data; reused for the next attempt. */
+  private ByteBuffer spare;
+  private boolean finished;
+
+  /**
+   * Creates a BrotliDecoderProcessor.
+   *
+   * @param params decoding settings
+   * @param bufferSize output item size
+   * @param pool pool to borrow native decoder from, or {@code null}
+   */
+  public BrotliDecoderProcessor(Decoder.Parameters params, int bufferSize, DecoderPool pool) {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("buffer size must be positive");
+    }
+    this.params = params;
+    this.bufferSize = bufferSize;
+    this.pool = pool;
+  }
+
+  public BrotliDecoderProcessor(Decoder.Parameters params, DecoderPool pool) {
+    this(params, DEFAULT_BUFFER_SIZE, pool);
+  }
+
+  public BrotliDecoderProcessor(DecoderPool pool) {
+    this(new Decoder.Parameters(), pool);
+  }
+
+  public BrotliDecoderProcessor() {
+    this((DecoderPool) null);
+  }
+
+  @Override
+  void open() throws IOException {
+    decoder = new BrotliDecoderChannel(new Source(), params, bufferSize, pool);
+  }
+
+  @Override
+  ByteBuffer process(ByteBuffer input, boolean last) throws IOException {
+    if (finished) {
+      return null;
+    }
+    this.input = input;
+    this.last = last;
+    ByteBuffer result = (spare != null) ? spare : ByteBuffer.allocate(bufferSize);
+    spare = null;
+    int length = decoder.read(result);
+    this.input = null;
+    if (length < 0 && input.hasRemaining()) {
+      throw new IOException("corrupted input");
+    }
+    if (length <= 0) {
+      finished = (length < 0);
+      spare = result;
+      return null;
+    }
+    ((Buffer) result).flip();
+    return result;
+  }
+
+  @Override
+  boolean isFinished() {
+    return finished;
+  }
+
+  @Override
+  void release() throws IOException {
+    spare = null;
+    decoder.close();
+  }
+
+  /**
+   * Hands out the current input; reports "no data available" once it is consumed.
+   */
+  private final class Source implements ReadableByteChannel {
+    @Override
+    public int read(ByteBuffer dst) {
+      if (!input.hasRemaining()) {
+        return last ? -1 : 0;
+      }
+      int length = Math.min(input.remaining(), dst.remaining());
+      ByteBuffer slice = input.slice();
+      ((Buffer) slice).limit(length);
+      dst.put(slice);
+      ((Buffer) input).position(input.position() + length);
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() { }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.flow;
+
+import com.nixxcode.jvmbrotli.enc.BrotliEncoderChannel;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.enc.EncoderPool;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Compresses a stream of {@link ByteBuffer}s into a single brotli stream.
+ *
+ * <p> Input buffers are read in place and not retained. Each output item is a heap buffer holding
+ * one chunk of encoder output; encoder does not produce the next chunk until the subscriber
+ * requests it. Stream is finished when the publisher completes.
+ *
+ * <p> Processor supports one subscriber and must not be subscribed to more than one publisher.
+ */
+public class BrotliEncoderProcessor extends BrotliProcessor {
+  /** The default internal buffer size used by the encoder. */
+  private static final int DEFAULT_BUFFER_SIZE = 16384;
+
+  private final Encoder.Parameters params;
+  private final int bufferSize;
+  private final EncoderPool pool;
+  private BrotliEncoderChannel encoder;
+  /** Chunk accepted from encoder, but not taken yet; encoder stalls until it is. */
+  private ByteBuffer output;
+  private boolean finished;
+
+  /**
+   * Creates a BrotliEncoderProcessor.
+   *
+   * @param params encoding settings
+   * @param bufferSize intermediate buffer size
+   * @param pool pool to borrow native encoder from, or {@code null}
+   */
+  public BrotliEncoderProcessor(Encoder.Parameters params, int bufferSize, EncoderPool pool) {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("buffer size must be positive");
+    }
+    this.params = params;
+    this.bufferSize = bufferSize;
+    this.pool = pool;
+  }
+
+  public BrotliEncoderProcessor(Encoder.Parameters params, EncoderPool pool) {
+    this(params, DEFAULT_BUFFER_SIZE, pool);
+  }
+
+  public BrotliEncoderProcessor(Encoder.Parameters params) {
+    this(params, null);
+  }
+
+  public BrotliEncoderProcessor() {
+    this(new Encoder.Parameters());
+  }
+
+  @Override
+  void open() throws IOException {
+    encoder = new BrotliEncoderChannel(new Sink(), params, bufferSize, pool);
+    encoder.configureBlocking(false);
+  }
+
+  @Override
+  ByteBuffer process(ByteBuffer input, boolean last) throws IOException {
+    if (output == null && !finished) {
+      if (input.hasRemaining()) {
+        encoder.write(input);
+      } else if (last) {
+        finished = encoder.finish();
+      }
+    }
+    ByteBuffer result = output;
+    output = null;
+    return result;
+  }
+
+  @Override
+  boolean isFinished() {
+    return finished && output == null;
+  }
+
+  @Override
+  void release() throws IOException {
+    output = null;
+    /* Unfinished stream is of no use; encoder reports truncation after it is released. */
+    encoder.close();
+  }
+
+  /**
+   * Accepts one chunk at a time; reports "would block" while the chunk is not taken.
+   */
+  private final class Sink implements WritableByteChannel {
+    @Override
+    public int write(ByteBuffer src) {
+      if (output != null) {
+        return 0;
+      }
+      ByteBuffer chunk = ByteBuffer.allocate(src.remaining());
+      chunk.put(src);
+      ((Buffer) chunk).flip();
+      output = chunk;
+      return chunk.remaining();
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() { }
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.flow;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Base class for processors that run a native encoder / decoder between a publisher and a single
+ * subscriber.
+ *
+ * <p> Signals from both sides only enqueue work; whichever thread signals first runs the codec
+ * until there is nothing left to do, so the codec is never touched by two threads at once and no
+ * thread ever waits. One upstream item is requested at a time, and only while the subscriber has
+ * outstanding demand and the codec has no pending output. Native state is allocated once both
+ * sides are subscribed, and released on completion, error or cancellation.
+ */
+abstract class BrotliProcessor implements Flow.Processor<ByteBuffer, ByteBuffer> {
+  private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+  /** Marks upstream that is cancelled, or should be cancelled as soon as it subscribes. */
+  private static final Flow.Subscription CANCELLED = new Flow.Subscription() {
+    @Override
+    public void request(long n) { }
+
+    @Override
+    public void cancel() { }
+  };
+
+  private final AtomicReference<Flow.Subscription> upstream =
+      new AtomicReference<Flow.Subscription>();
+  private final AtomicReference<Flow.Subscriber<? super ByteBuffer>> downstream =
+      new AtomicReference<Flow.Subscriber<? super ByteBuffer>>();
+  private final ConcurrentLinkedQueue<ByteBuffer> inputs = new ConcurrentLinkedQueue<ByteBuffer>();
+  private final AtomicLong demand = new AtomicLong();
+  /** Number of signals not yet seen by the thread that runs the codec. */
+  private final AtomicInteger pending = new AtomicInteger();
+  private volatile boolean downstreamReady;
+  private volatile boolean upstreamDone;
+  private volatile Throwable error;
+  private volatile boolean cancelled;
+
+  /* Owned by the thread that runs the codec. */
+  private boolean opened;
+  private boolean terminated;
+  private boolean requested;
+  private ByteBuffer input;
+
+  /**
+   * Allocates native state; called once, when both sides are subscribed.
+   */
+  abstract void open() throws IOException;
+
+  /**
+   * Feeds input to the codec.
+   *
+   * @param input data to consume; position is advanced past the consumed bytes
+   * @param last no more input follows
+   * @return next output item, or {@code null} if input is consumed and no output is ready
+   */
+  abstract ByteBuffer process(ByteBuffer input, boolean last) throws IOException;
+
+  /**
+   * @return true if the stream is complete and all the output is taken
+   */
+  abstract boolean isFinished();
+
+  /**
+   * Releases native state; called once, unless {@link #open} failed.
+   */
+  abstract void release() throws IOException;
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("subscriber can not be null");
+    }
+    if (!downstream.compareAndSet(null, subscriber)) {
+      subscriber.onSubscribe(CANCELLED);
+      subscriber.onError(new IllegalStateException("processor supports only one subscriber"));
+      return;
+    }
+    subscriber.onSubscribe(new Subscription());
+    downstreamReady = true;
+    drain();
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    if (!upstream.compareAndSet(null, subscription)) {
+      subscription.cancel();
+      return;
+    }
+    drain();
+  }
+
+  @Override
+  public void onNext(ByteBuffer item) {
+    if (item == null) {
+      throw new NullPointerException("item can not be null");
+    }
+    inputs.offer(item);
+    drain();
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    if (throwable == null) {
+      throw new NullPointerException("throwable can not be null");
+    }
+    error = throwable;
+    upstreamDone = true;
+    drain();
+  }
+
+  @Override
+  public void onComplete() {
+    upstreamDone = true;
+    drain();
+  }
+
+  /**
+   * Runs the codec, unless another thread does already; that thread then does one more round.
+   */
+  private void drain() {
+    if (pending.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      step();
+      missed = pending.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private void step() {
+    if (terminated) {
+      inputs.clear();
+      return;
+    }
+    if (cancelled) {
+      terminate();
+      return;
+    }
+    Flow.Subscriber<? super ByteBuffer> subscriber = downstream.get();
+    if (!downstreamReady) {
+      return;
+    }
+    Throwable failure = error;
+    if (failure != null) {
+      terminate();
+      subscriber.onError(failure);
+      return;
+    }
+    Flow.Subscription subscription = upstream.get();
+    if (subscription == null) {
+      return;
+    }
+    while (!cancelled) {
+      ByteBuffer output;
+      /* Input offered before completion is visible once completion is. */
+      boolean done = upstreamDone;
+      boolean last;
+      try {
+        if (!opened) {
+          open();
+          opened = true;
+        }
+        if (isFinished()) {
+          terminate();
+          subscriber.onComplete();
+          return;
+        }
+        if (demand.get() == 0) {
+          return;
+        }
+        if (input == null || !input.hasRemaining()) {
+          input = inputs.poll();
+          if (input != null) {
+            requested = false;
+          }
+        }
+        last = (input == null) && done;
+        output = process((input != null) ? input : EMPTY_BUFFER, last);
+      } catch (IOException ex) {
+        terminate();
+        subscriber.onError(ex);
+        return;
+      } catch (RuntimeException ex) {
+        terminate();
+        subscriber.onError(ex);
+        return;
+      }
+      if (output != null) {
+        demand.decrementAndGet();
+        subscriber.onNext(output);
+      } else if (isFinished()) {
+        continue;
+      } else if (last) {
+        /* Codec consumed everything, but did not complete the stream. */
+        terminate();
+        subscriber.onError(new IOException("unexpected end of input"));
+        return;
+      } else {
+        input = null;
+        if (done) {
+          continue;
+        }
+        if (!requested) {
+          requested = true;
+          subscription.request(1);
+        }
+        return;
+      }
+    }
+    terminate();
+  }
+
+  private void terminate() {
+    terminated = true;
+    input = null;
+    inputs.clear();
+    if (opened) {
+      try {
+        release();
+      } catch (IOException ex) {
+        /* Ignore */
+      }
+    }
+    Flow.Subscription subscription = upstream.getAndSet(CANCELLED);
+    if (subscription != null && !upstreamDone) {
+      subscription.cancel();
+    }
+  }
+
+  /**
+   * Subscription handed to the downstream subscriber.
+   */
+  private final class Subscription implements Flow.Subscription {
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        error = new IllegalArgumentException("request should be positive");
+      } else {
+        while (true) {
+          long current = demand.get();
+          long next = current + n;
+          if (next < 0) {
+            next = Long.MAX_VALUE;
+          }
+          if (demand.compareAndSet(current, next)) {
+            break;
+          }
+        }
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      drain();
+    }
+  }
+}
@@ -0,0 +1,307 @@
+package com.nixxcode.jvmbrotli.flow;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.common.NativeResources;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BrotliEncoderProcessor} and {@link BrotliDecoderProcessor}. */
+@RunWith(JUnit4.class)
+public class BrotliProcessorTest {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private static byte[] generate(int length) {
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      result[i] = (byte) ("flow".charAt(i % 4) ^ (i >> 9));
+    }
+    return result;
+  }
+
+  /** Publisher driven by the test thread; emits only what was requested. */
+  private static final class ManualPublisher implements Flow.Publisher<ByteBuffer> {
+    Flow.Subscriber<? super ByteBuffer> subscriber;
+    long requested;
+    boolean cancelled;
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+      this.subscriber = subscriber;
+      subscriber.onSubscribe(new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+          requested += n;
+        }
+
+        @Override
+        public void cancel() {
+          cancelled = true;
+        }
+      });
+    }
+
+    void emit(byte[] data, int offset, int length) {
+      assertTrue(requested > 0);
+      requested--;
+      subscriber.onNext(ByteBuffer.wrap(data, offset, length));
+    }
+  }
+
+  /** Collects items; requests as told. */
+  private static final class Collector implements Flow.Subscriber<ByteBuffer> {
+    final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    final CountDownLatch done = new CountDownLatch(1);
+    final long initialRequest;
+    Flow.Subscription subscription;
+    int items;
+    volatile boolean completed;
+    volatile Throwable error;
+
+    Collector(long initialRequest) {
+      this.initialRequest = initialRequest;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      if (initialRequest > 0) {
+        subscription.request(initialRequest);
+      }
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+      items++;
+      byte[] chunk = new byte[item.remaining()];
+      item.get(chunk);
+      data.write(chunk, 0, chunk.length);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+      done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+      done.countDown();
+    }
+
+    void await() throws InterruptedException {
+      assertTrue(done.await(30, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    byte[] data = generate(300000);
+    SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<ByteBuffer>();
+    BrotliEncoderProcessor encoder =
+        new BrotliEncoderProcessor(new Encoder.Parameters().setQuality(5), 4096, null);
+    BrotliDecoderProcessor decoder = new BrotliDecoderProcessor(new Decoder.Parameters(), 1000,
+        null);
+    Collector collector = new Collector(Long.MAX_VALUE);
+    publisher.subscribe(encoder);
+    encoder.subscribe(decoder);
+    decoder.subscribe(collector);
+    for (int offset = 0; offset < data.length; offset += 7000) {
+      publisher.submit(ByteBuffer.wrap(data, offset, Math.min(7000, data.length - offset)));
+    }
+    publisher.close();
+    collector.await();
+    assertNull(collector.error);
+    assertTrue(collector.completed);
+    assertArrayEquals(data, collector.data.toByteArray());
+  }
+
+  @Test
+  public void testDemand() throws Exception {
+    byte[] data = generate(200000);
+    ManualPublisher publisher = new ManualPublisher();
+    BrotliEncoderProcessor encoder =
+        new BrotliEncoderProcessor(new Encoder.Parameters().setQuality(1), 1024, null);
+    Collector collector = new Collector(0);
+    publisher.subscribe(encoder);
+    encoder.subscribe(collector);
+    /* Nothing is requested from upstream without downstream demand. */
+    assertEquals(0, publisher.requested);
+
+    collector.subscription.request(1);
+    int offset = 0;
+    while (collector.items == 0) {
+      assertEquals(1, publisher.requested);
+      publisher.emit(data, offset, 10000);
+      offset += 10000;
+    }
+    /* Output is pending; no more input until it is requested. */
+    assertEquals(1, collector.items);
+    assertEquals(0, publisher.requested);
+
+    collector.subscription.request(Long.MAX_VALUE);
+    while (offset < data.length) {
+      if (publisher.requested == 0) {
+        break;
+      }
+      int length = Math.min(10000, data.length - offset);
+      publisher.emit(data, offset, length);
+      offset += length;
+    }
+    assertEquals(data.length, offset);
+    publisher.subscriber.onComplete();
+    assertTrue(collector.completed);
+    assertArrayEquals(data, Decoder.decompress(collector.data.toByteArray()));
+  }
+
+  @Test
+  public void testCancelReleasesNativeState() throws Exception {
+    long encoders = NativeResources.getLiveCount(NativeResources.Kind.ENCODER);
+    long decoders = NativeResources.getLiveCount(NativeResources.Kind.DECODER);
+    byte[] data = generate(100000);
+    byte[] compressed = Encoder.compress(data);
+
+    ManualPublisher encoderInput = new ManualPublisher();
+    BrotliEncoderProcessor encoder = new BrotliEncoderProcessor();
+    Collector encoderOutput = new Collector(1);
+    encoderInput.subscribe(encoder);
+    encoder.subscribe(encoderOutput);
+    encoderInput.emit(data, 0, 1000);
+    assertEquals(encoders + 1, NativeResources.getLiveCount(NativeResources.Kind.ENCODER));
+
+    ManualPublisher decoderInput = new ManualPublisher();
+    BrotliDecoderProcessor decoder = new BrotliDecoderProcessor();
+    Collector decoderOutput = new Collector(1);
+    decoderInput.subscribe(decoder);
+    decoder.subscribe(decoderOutput);
+    decoderInput.emit(compressed, 0, 100);
+    assertEquals(decoders + 1, NativeResources.getLiveCount(NativeResources.Kind.DECODER));
+
+    encoderOutput.subscription.cancel();
+    decoderOutput.subscription.cancel();
+    assertTrue(encoderInput.cancelled);
+    assertTrue(decoderInput.cancelled);
+    assertEquals(encoders, NativeResources.getLiveCount(NativeResources.Kind.ENCODER));
+    assertEquals(decoders, NativeResources.getLiveCount(NativeResources.Kind.DECODER));
+    assertFalse(encoderOutput.completed);
+    assertNull(encoderOutput.error);
+  }
+
+  @Test
+  public void testTruncatedInput() throws Exception {
+    byte[] compressed = Encoder.compress(generate(100000));
+    ManualPublisher publisher = new ManualPublisher();
+    BrotliDecoderProcessor decoder = new BrotliDecoderProcessor();
+    Collector collector = new Collector(Long.MAX_VALUE);
+    publisher.subscribe(decoder);
+    decoder.subscribe(collector);
+    publisher.emit(compressed, 0, compressed.length - 10);
+    publisher.subscriber.onComplete();
+    assertFalse(collector.completed);
+    assertTrue(collector.error instanceof IOException);
+  }
+
+  @Test
+  public void testEndOfStream() throws Exception {
+    byte[] data = generate(5000);
+    byte[] compressed = Encoder.compress(data);
+    ManualPublisher publisher = new ManualPublisher();
+    BrotliDecoderProcessor decoder = new BrotliDecoderProcessor();
+    Collector collector = new Collector(Long.MAX_VALUE);
+    publisher.subscribe(decoder);
+    decoder.subscribe(collector);
+    publisher.emit(compressed, 0, compressed.length);
+    /* Stream end completes subscriber without waiting for publisher. */
+    assertTrue(collector.completed);
+    assertTrue(publisher.cancelled);
+    assertArrayEquals(data, collector.data.toByteArray());
+  }
+
+  @Test
+  public void testTrailingData() throws Exception {
+    byte[] compressed = Encoder.compress(generate(5000));
+    byte[] padded = Arrays.copyOf(compressed, compressed.length + 100);
+    ManualPublisher publisher = new ManualPublisher();
+    BrotliDecoderProcessor decoder = new BrotliDecoderProcessor();
+    Collector collector = new Collector(Long.MAX_VALUE);
+    publisher.subscribe(decoder);
+    decoder.subscribe(collector);
+    publisher.emit(padded, 0, padded.length);
+    assertFalse(collector.completed);
+    assertTrue(collector.error instanceof IOException);
+    assertTrue(publisher.cancelled);
+  }
+
+  @Test
+  public void testUpstreamError() throws Exception {
+    ManualPublisher publisher = new ManualPublisher();
+    BrotliEncoderProcessor encoder = new BrotliEncoderProcessor();
+    Collector collector = new Collector(0);
+    publisher.subscribe(encoder);
+    encoder.subscribe(collector);
+    IllegalStateException failure = new IllegalStateException("boom");
+    publisher.subscriber.onError(failure);
+    /* Errors are delivered without demand. */
+    assertEquals(failure, collector.error);
+  }
+
+  @Test
+  public void testSingleSubscriber() throws Exception {
+    BrotliEncoderProcessor encoder = new BrotliEncoderProcessor();
+    Collector first = new Collector(1);
+    Collector second = new Collector(1);
+    encoder.subscribe(first);
+    encoder.subscribe(second);
+    assertNull(first.error);
+    assertNotNull(second.error);
+  }
+
+  @Test
+  public void testInvalidRequest() throws Exception {
+    ManualPublisher publisher = new ManualPublisher();
+    BrotliEncoderProcessor encoder = new BrotliEncoderProcessor();
+    Collector collector = new Collector(0);
+    publisher.subscribe(encoder);
+    encoder.subscribe(collector);
+    collector.subscription.request(0);
+    assertTrue(collector.error instanceof IllegalArgumentException);
+    assertTrue(publisher.cancelled);
+  }
+
+  @Test
+  public void testEmptyStream() throws Exception {
+    List<byte[]> outputs = new ArrayList<byte[]>();
+    ManualPublisher publisher = new ManualPublisher();
+    BrotliEncoderProcessor encoder = new BrotliEncoderProcessor();
+    Collector collector = new Collector(Long.MAX_VALUE);
+    publisher.subscribe(encoder);
+    encoder.subscribe(collector);
+    publisher.subscriber.onComplete();
+    assertTrue(collector.completed);
+    outputs.add(collector.data.toByteArray());
+    assertEquals(0, Decoder.decompress(outputs.get(0)).length);
+  }
+}
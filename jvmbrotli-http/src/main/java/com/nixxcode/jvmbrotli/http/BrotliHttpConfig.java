@@ -0,0 +1,218 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.http;
+
+import com.nixxcode.jvmbrotli.dec.DecoderPool;
+import com.nixxcode.jvmbrotli.enc.BrotliOutputStream;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.enc.EncoderPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Settings shared by the HTTP filters: when to compress responses and how.
+ *
+ * <p> Responses are compressed when the client accepts {@code br}, the response does not carry a
+ * {@code Content-Encoding} already, its content type is not excluded, and its body is at least
+ * {@link #setMinSize min size} bytes long. Configure before the filter is installed; the settings
+ * are not meant to be modified while requests are served.
+ */
+public final class BrotliHttpConfig {
+  /** The default minimal size of a response body worth compressing. */
+  public static final int DEFAULT_MIN_SIZE = 1024;
+
+  /** The default quality; higher qualities are too slow for on-the-fly compression. */
+  public static final int DEFAULT_QUALITY = 5;
+
+  /** Content types that are compressed already, or do not compress. Matched as prefixes. */
+  private static final String[] DEFAULT_EXCLUDED_TYPES = {
+      "image/", "audio/", "video/", "font/woff", "application/zip", "application/gzip",
+      "application/x-gzip", "application/x-brotli", "application/x-bzip2", "application/x-xz",
+      "application/x-7z-compressed", "application/x-rar-compressed", "application/pdf",
+      "application/octet-stream"
+  };
+
+  private Encoder.Parameters params = new Encoder.Parameters().setQuality(DEFAULT_QUALITY);
+  private int minSize = DEFAULT_MIN_SIZE;
+  private String[] excludedTypes = DEFAULT_EXCLUDED_TYPES;
+  private EncoderPool encoderPool = new EncoderPool();
+  private DecoderPool decoderPool = new DecoderPool();
+  private boolean decodeRequests = true;
+
+  public BrotliHttpConfig() { }
+
+  /**
+   * @param params encoding settings of responses
+   */
+  public BrotliHttpConfig setParameters(Encoder.Parameters params) {
+    if (params == null) {
+      throw new NullPointerException("params can not be null");
+    }
+    this.params = params;
+    return this;
+  }
+
+  /**
+   * @param minSize responses shorter than this are sent uncompressed
+   */
+  public BrotliHttpConfig setMinSize(int minSize) {
+    if (minSize < 0) {
+      throw new IllegalArgumentException("min size should be non-negative");
+    }
+    this.minSize = minSize;
+    return this;
+  }
+
+  /**
+   * @param excludedTypes content type prefixes that are never compressed, e.g. {@code "image/"}
+   */
+  public BrotliHttpConfig setExcludedTypes(String... excludedTypes) {
+    String[] types = new String[excludedTypes.length];
+    for (int i = 0; i < types.length; ++i) {
+      types[i] = excludedTypes[i].toLowerCase(Locale.ROOT);
+    }
+    this.excludedTypes = types;
+    return this;
+  }
+
+  /**
+   * @param encoderPool pool to borrow response encoders from, or {@code null}
+   */
+  public BrotliHttpConfig setEncoderPool(EncoderPool encoderPool) {
+    this.encoderPool = encoderPool;
+    return this;
+  }
+
+  /**
+   * @param decoderPool pool to borrow request decoders from, or {@code null}
+   */
+  public BrotliHttpConfig setDecoderPool(DecoderPool decoderPool) {
+    this.decoderPool = decoderPool;
+    return this;
+  }
+
+  /**
+   * @param decodeRequests whether {@code Content-Encoding: br} request bodies are decoded
+   */
+  public BrotliHttpConfig setDecodeRequests(boolean decodeRequests) {
+    this.decodeRequests = decodeRequests;
+    return this;
+  }
+
+  Encoder.Parameters getParameters() {
+    return params;
+  }
+
+  int getMinSize() {
+    return minSize;
+  }
+
+  EncoderPool getEncoderPool() {
+    return encoderPool;
+  }
+
+  DecoderPool getDecoderPool() {
+    return decoderPool;
+  }
+
+  boolean isDecodeRequests() {
+    return decodeRequests;
+  }
+
+  /**
+   * Wraps the raw response body into an encoder borrowed from the pool.
+   */
+  OutputStream encode(OutputStream raw) throws IOException {
+    return new BrotliOutputStream(raw, params, encoderPool);
+  }
+
+  /**
+   * Checks whether a response with given headers may be compressed.
+   *
+   * @param contentType value of {@code Content-Type}, or {@code null}
+   * @param contentEncoding value of {@code Content-Encoding}, or {@code null}
+   */
+  boolean isCompressible(String contentType, String contentEncoding) {
+    if (contentEncoding != null && !contentEncoding.trim().isEmpty()
+        && !"identity".equalsIgnoreCase(contentEncoding.trim())) {
+      return false;
+    }
+    if (contentType == null) {
+      return true;
+    }
+    String type = contentType.trim().toLowerCase(Locale.ROOT);
+    for (String excluded : excludedTypes) {
+      if (type.startsWith(excluded)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether {@code Accept-Encoding} header value allows a {@code br} response.
+   *
+   * <p> {@code br} is chosen when its quality value (explicit, or inherited from {@code *}) is
+   * positive and not lower than that of {@code identity}. Unlisted {@code identity} does not
+   * compete, as per RFC 7231 it is merely acceptable.
+   *
+   * @param acceptEncoding header value, or {@code null} if header is absent
+   */
+  public static boolean acceptsBrotli(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    float brotli = -1;
+    float identity = 0;
+    float wildcard = -1;
+    for (String element : acceptEncoding.split(",")) {
+      String[] parts = element.split(";");
+      String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+      float q = 1;
+      for (int i = 1; i < parts.length; ++i) {
+        String param = parts[i].trim();
+        if (param.length() > 2 && (param.charAt(0) == 'q' || param.charAt(0) == 'Q')
+            && param.charAt(1) == '=') {
+          q = parseQuality(param.substring(2).trim());
+        }
+      }
+      if ("br".equals(coding)) {
+        brotli = Math.max(brotli, q);
+      } else if ("identity".equals(coding)) {
+        identity = q;
+      } else if ("*".equals(coding)) {
+        wildcard = q;
+      }
+    }
+    if (brotli < 0) {
+      brotli = wildcard;
+    }
+    return brotli > 0 && brotli >= identity;
+  }
+
+  /** Malformed values count as "not acceptable". */
+  private static float parseQuality(String value) {
+    try {
+      float q = Float.parseFloat(value);
+      return (q >= 0 && q <= 1) ? q : 0;
+    } catch (NumberFormatException ex) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.http;
+
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+/**
+ * Exchange seen by handlers behind {@link BrotliHttpFilter}.
+ *
+ * <p> Request body is decoded transparently; response headers are held back by
+ * {@link #sendResponseHeaders} until the body shows whether it is worth compressing.
+ */
+final class BrotliHttpExchange extends HttpExchange {
+  private final HttpExchange delegate;
+  private final BrotliHttpConfig config;
+  private final boolean acceptsBrotli;
+  private final boolean decodeRequest;
+  private final OutputStream responseBody = new ResponseBody();
+  private InputStream requestBody;
+  private Headers requestHeaders;
+  /** Stream the response body goes to; null until headers are "sent". */
+  private OutputStream target;
+  private int responseCode = -1;
+
+  BrotliHttpExchange(HttpExchange delegate, BrotliHttpConfig config) {
+    this.delegate = delegate;
+    this.config = config;
+    Headers headers = delegate.getRequestHeaders();
+    this.acceptsBrotli = BrotliHttpConfig.acceptsBrotli(joined(headers, "Accept-Encoding"));
+    this.decodeRequest = config.isDecodeRequests()
+        && "br".equalsIgnoreCase(String.valueOf(headers.getFirst("Content-Encoding")).trim());
+  }
+
+  private static String joined(Headers headers, String name) {
+    if (!headers.containsKey(name)) {
+      return null;
+    }
+    StringBuilder result = new StringBuilder();
+    for (String value : headers.get(name)) {
+      result.append(result.length() > 0 ? "," : "").append(value);
+    }
+    return result.toString();
+  }
+
+  @Override
+  public Headers getRequestHeaders() {
+    if (!decodeRequest) {
+      return delegate.getRequestHeaders();
+    }
+    if (requestHeaders == null) {
+      /* Handler sees the decoded body, so it must not see its encoding and length either. */
+      requestHeaders = new Headers();
+      requestHeaders.putAll(delegate.getRequestHeaders());
+      requestHeaders.remove("Content-Encoding");
+      requestHeaders.remove("Content-Length");
+    }
+    return requestHeaders;
+  }
+
+  @Override
+  public InputStream getRequestBody() {
+    if (!decodeRequest) {
+      return delegate.getRequestBody();
+    }
+    if (requestBody == null) {
+      try {
+        requestBody = new BrotliInputStream(delegate.getRequestBody(), config.getDecoderPool());
+      } catch (IOException ex) {
+        throw new IllegalStateException("failed to initialize brotli decoder", ex);
+      }
+    }
+    return requestBody;
+  }
+
+  @Override
+  public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+    if (target != null) {
+      throw new IOException("headers already sent");
+    }
+    responseCode = rCode;
+    Headers headers = delegate.getResponseHeaders();
+    boolean eligible = responseLength >= 0 && rCode >= 200 && rCode != 204 && rCode != 304
+        && !"HEAD".equalsIgnoreCase(delegate.getRequestMethod())
+        && config.isCompressible(headers.getFirst("Content-Type"),
+            headers.getFirst("Content-Encoding"));
+    if (eligible) {
+      headers.add("Vary", "Accept-Encoding");
+    }
+    if (!eligible || !acceptsBrotli
+        || (responseLength > 0 && responseLength < config.getMinSize())) {
+      delegate.sendResponseHeaders(rCode, responseLength);
+      target = delegate.getResponseBody();
+      return;
+    }
+    final long declaredLength = responseLength;
+    target = new EncodingOutputStream(config) {
+      @Override
+      OutputStream open(boolean compress, long contentLength) throws IOException {
+        Headers headers = delegate.getResponseHeaders();
+        /* Handler may still change the content type before writing the body. */
+        if (compress && config.isCompressible(headers.getFirst("Content-Type"),
+            headers.getFirst("Content-Encoding"))) {
+          headers.set("Content-Encoding", "br");
+          delegate.sendResponseHeaders(responseCode, 0);
+          return config.encode(delegate.getResponseBody());
+        }
+        long length = (contentLength >= 0) ? contentLength : declaredLength;
+        /* For this server 0 means "chunked", and -1 means "no body". */
+        delegate.sendResponseHeaders(responseCode, (length == 0) ? -1 : length);
+        return delegate.getResponseBody();
+      }
+    };
+  }
+
+  @Override
+  public OutputStream getResponseBody() {
+    return responseBody;
+  }
+
+  @Override
+  public int getResponseCode() {
+    return responseCode;
+  }
+
+  @Override
+  public void close() {
+    try {
+      if (target != null) {
+        target.close();
+      }
+    } catch (IOException ex) {
+      /* Same as the server does on close; connection is dropped anyway. */
+    } finally {
+      delegate.close();
+    }
+  }
+
+  @Override
+  public Headers getResponseHeaders() {
+    return delegate.getResponseHeaders();
+  }
+
+  @Override
+  public URI getRequestURI() {
+    return delegate.getRequestURI();
+  }
+
+  @Override
+  public String getRequestMethod() {
+    return delegate.getRequestMethod();
+  }
+
+  @Override
+  public HttpContext getHttpContext() {
+    return delegate.getHttpContext();
+  }
+
+  @Override
+  public InetSocketAddress getRemoteAddress() {
+    return delegate.getRemoteAddress();
+  }
+
+  @Override
+  public InetSocketAddress getLocalAddress() {
+    return delegate.getLocalAddress();
+  }
+
+  @Override
+  public String getProtocol() {
+    return delegate.getProtocol();
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    return delegate.getAttribute(name);
+  }
+
+  @Override
+  public void setAttribute(String name, Object value) {
+    delegate.setAttribute(name, value);
+  }
+
+  @Override
+  public void setStreams(InputStream i, OutputStream o) {
+    delegate.setStreams(i, o);
+  }
+
+  @Override
+  public HttpPrincipal getPrincipal() {
+    return delegate.getPrincipal();
+  }
+
+  /** Forwards to whichever stream {@link #sendResponseHeaders} has chosen. */
+  private final class ResponseBody extends OutputStream {
+    private OutputStream target() throws IOException {
+      if (target == null) {
+        throw new IOException("response headers not sent yet");
+      }
+      return target;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      target().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      target().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      target().flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      target().close();
+    }
+  }
+}
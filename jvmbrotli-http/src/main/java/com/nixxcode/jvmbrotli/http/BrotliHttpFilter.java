@@ -0,0 +1,54 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.http;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+
+/**
+ * Brotli {@code Content-Encoding} for the JDK built-in {@code com.sun.net.httpserver} server.
+ *
+ * <p> Responses are compressed as configured by {@link BrotliHttpConfig}; request bodies sent with
+ * {@code Content-Encoding: br} are decoded before they reach the handler. Handlers use the
+ * exchange as usual; the body must be closed, or the exchange closed, to finish the stream.
+ */
+public class BrotliHttpFilter extends Filter {
+  private final BrotliHttpConfig config;
+
+  public BrotliHttpFilter(BrotliHttpConfig config) {
+    if (config == null) {
+      throw new NullPointerException("config can not be null");
+    }
+    this.config = config;
+  }
+
+  public BrotliHttpFilter() {
+    this(new BrotliHttpConfig());
+  }
+
+  @Override
+  public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+    chain.doFilter(new BrotliHttpExchange(exchange, config));
+  }
+
+  @Override
+  public String description() {
+    return "brotli content encoding";
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.http;
+
+import com.nixxcode.jvmbrotli.enc.Encoder;
+
+import java.io.IOException;
+import java.util.Enumeration;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Brotli {@code Content-Encoding} for servlet containers.
+ *
+ * <p> Responses are compressed as configured by {@link BrotliHttpConfig}; request bodies sent with
+ * {@code Content-Encoding: br} are decoded before they reach the servlet. When declared in
+ * {@code web.xml}, the {@code quality}, {@code minSize}, {@code excludedTypes} (comma separated)
+ * and {@code decodeRequests} init parameters are applied on top of the defaults.
+ *
+ * <p> Body is finished when the filter chain returns; asynchronous requests have to close the
+ * response output themselves. Decoded request bodies also support a {@code ReadListener}: it is
+ * called once, on a thread started with {@code AsyncContext.start}, and its reads block while
+ * compressed input arrives.
+ */
+public class BrotliServletFilter implements Filter {
+  private final BrotliHttpConfig config;
+
+  public BrotliServletFilter(BrotliHttpConfig config) {
+    if (config == null) {
+      throw new NullPointerException("config can not be null");
+    }
+    this.config = config;
+  }
+
+  public BrotliServletFilter() {
+    this(new BrotliHttpConfig());
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) throws ServletException {
+    try {
+      String quality = filterConfig.getInitParameter("quality");
+      if (quality != null) {
+        config.setParameters(new Encoder.Parameters().setQuality(Integer.parseInt(quality.trim())));
+      }
+      String minSize = filterConfig.getInitParameter("minSize");
+      if (minSize != null) {
+        config.setMinSize(Integer.parseInt(minSize.trim()));
+      }
+      String excludedTypes = filterConfig.getInitParameter("excludedTypes");
+      if (excludedTypes != null) {
+        config.setExcludedTypes(excludedTypes.trim().split("\\s*,\\s*"));
+      }
+      String decodeRequests = filterConfig.getInitParameter("decodeRequests");
+      if (decodeRequests != null) {
+        config.setDecodeRequests(Boolean.parseBoolean(decodeRequests.trim()));
+      }
+    } catch (IllegalArgumentException ex) {
+      throw new ServletException("invalid brotli filter configuration", ex);
+    }
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+      chain.doFilter(request, response);
+      return;
+    }
+    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    String contentEncoding = httpRequest.getHeader("Content-Encoding");
+    if (config.isDecodeRequests() && contentEncoding != null
+        && "br".equalsIgnoreCase(contentEncoding.trim())) {
+      httpRequest = new BrotliServletRequest(httpRequest, config);
+    }
+    BrotliServletResponse httpResponse = new BrotliServletResponse(
+        (HttpServletResponse) response, config,
+        BrotliHttpConfig.acceptsBrotli(joinedAcceptEncoding(httpRequest)),
+        "HEAD".equalsIgnoreCase(httpRequest.getMethod()));
+    chain.doFilter(httpRequest, httpResponse);
+    if (!httpRequest.isAsyncStarted()) {
+      httpResponse.finish();
+    }
+  }
+
+  private static String joinedAcceptEncoding(HttpServletRequest request) {
+    StringBuilder result = null;
+    for (Enumeration<String> e = request.getHeaders("Accept-Encoding");
+        e != null && e.hasMoreElements(); ) {
+      result = (result == null) ? new StringBuilder() : result.append(',');
+      result.append(e.nextElement());
+    }
+    return (result != null) ? result.toString() : null;
+  }
+
+  @Override
+  public void destroy() { }
+}
@@ -0,0 +1,204 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.http;
+
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * Request with {@code Content-Encoding: br} body, as seen by servlets behind
+ * {@link BrotliServletFilter}: body is decoded, encoding and length headers are hidden.
+ */
+final class BrotliServletRequest extends HttpServletRequestWrapper {
+  private final BrotliHttpConfig config;
+  private ServletInputStream stream;
+  private BufferedReader reader;
+
+  BrotliServletRequest(HttpServletRequest request, BrotliHttpConfig config) {
+    super(request);
+    this.config = config;
+  }
+
+  private static boolean isHidden(String name) {
+    return "Content-Encoding".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name);
+  }
+
+  @Override
+  public ServletInputStream getInputStream() throws IOException {
+    if (reader != null) {
+      throw new IllegalStateException("getReader() has already been called");
+    }
+    if (stream == null) {
+      stream = new BodyStream(
+          new BrotliInputStream(super.getInputStream(), config.getDecoderPool()));
+    }
+    return stream;
+  }
+
+  @Override
+  public BufferedReader getReader() throws IOException {
+    if (stream != null) {
+      throw new IllegalStateException("getInputStream() has already been called");
+    }
+    if (reader == null) {
+      String charset = getCharacterEncoding();
+      InputStream body = new BrotliInputStream(super.getInputStream(), config.getDecoderPool());
+      reader = new BufferedReader(new InputStreamReader(body,
+          (charset != null) ? charset : "ISO-8859-1"));
+    }
+    return reader;
+  }
+
+  @Override
+  public int getContentLength() {
+    return -1;
+  }
+
+  @Override
+  public long getContentLengthLong() {
+    return -1;
+  }
+
+  @Override
+  public String getHeader(String name) {
+    return isHidden(name) ? null : super.getHeader(name);
+  }
+
+  @Override
+  public Enumeration<String> getHeaders(String name) {
+    if (isHidden(name)) {
+      return Collections.emptyEnumeration();
+    }
+    return super.getHeaders(name);
+  }
+
+  @Override
+  public int getIntHeader(String name) {
+    return isHidden(name) ? -1 : super.getIntHeader(name);
+  }
+
+  @Override
+  public Enumeration<String> getHeaderNames() {
+    List<String> names = new ArrayList<String>();
+    for (Enumeration<String> e = super.getHeaderNames(); e.hasMoreElements(); ) {
+      String name = e.nextElement();
+      if (!isHidden(name)) {
+        names.add(name);
+      }
+    }
+    return Collections.enumeration(names);
+  }
+
+  /**
+   * Blocking view of the decoded body.
+   *
+   * <p> Decoded data is always "ready": a read listener is run on a container thread (see
+   * {@link javax.servlet.AsyncContext#start}), where its reads block for compressed input.
+   * {@link ReadListener#onDataAvailable} is called until the body is finished, as long as the
+   * listener keeps reading; a listener that returns without reading is not called again.
+   */
+  private final class BodyStream extends ServletInputStream {
+    private final InputStream body;
+    private boolean finished;
+    private long reads;
+    private ReadListener listener;
+
+    BodyStream(InputStream body) {
+      this.body = body;
+    }
+
+    @Override
+    public int read() throws IOException {
+      reads++;
+      int result = body.read();
+      finished = (result == -1);
+      return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      reads++;
+      int result = body.read(b, off, len);
+      finished = (result == -1);
+      return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+      body.close();
+    }
+
+    @Override
+    public boolean isFinished() {
+      return finished;
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+      if (readListener == null) {
+        throw new NullPointerException("readListener can not be null");
+      }
+      if (!isAsyncStarted()) {
+        throw new IllegalStateException("request is not in async mode");
+      }
+      if (listener != null) {
+        throw new IllegalStateException("read listener is already set");
+      }
+      listener = readListener;
+      getAsyncContext().start(new Runnable() {
+        @Override
+        public void run() {
+          notifyListener();
+        }
+      });
+    }
+
+    private void notifyListener() {
+      try {
+        long lastReads = -1;
+        while (!finished && reads != lastReads) {
+          lastReads = reads;
+          listener.onDataAvailable();
+        }
+        if (finished) {
+          listener.onAllDataRead();
+        }
+      } catch (IOException ex) {
+        listener.onError(ex);
+      } catch (RuntimeException ex) {
+        listener.onError(ex);
+      }
+    }
+  }
+}
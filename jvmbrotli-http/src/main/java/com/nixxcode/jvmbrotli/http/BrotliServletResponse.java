@@ -0,0 +1,274 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response seen by servlets behind {@link BrotliServletFilter}.
+ *
+ * <p> Content length set by the servlet is held back along with the first bytes of the body, and
+ * is only passed on if the response goes out uncompressed.
+ */
+final class BrotliServletResponse extends HttpServletResponseWrapper {
+  private final BrotliHttpConfig config;
+  private final boolean acceptsBrotli;
+  private final boolean head;
+  private EncodingOutputStream body;
+  private ServletOutputStream stream;
+  private PrintWriter writer;
+  private long declaredLength = -1;
+
+  BrotliServletResponse(HttpServletResponse response, BrotliHttpConfig config,
+      boolean acceptsBrotli, boolean head) {
+    super(response);
+    this.config = config;
+    this.acceptsBrotli = acceptsBrotli;
+    this.head = head;
+  }
+
+  private EncodingOutputStream body() {
+    if (body == null) {
+      body = new EncodingOutputStream(config) {
+        @Override
+        OutputStream open(boolean compress, long contentLength) throws IOException {
+          return openBody(compress, contentLength);
+        }
+      };
+    }
+    return body;
+  }
+
+  private OutputStream openBody(boolean compress, long contentLength) throws IOException {
+    HttpServletResponse response = (HttpServletResponse) getResponse();
+    int status = response.getStatus();
+    boolean eligible = !head && status >= 200 && status != 204 && status != 304
+        && config.isCompressible(response.getContentType(), response.getHeader("Content-Encoding"));
+    if (eligible) {
+      response.addHeader("Vary", "Accept-Encoding");
+    }
+    if (compress && eligible && acceptsBrotli
+        && (declaredLength < 0 || declaredLength >= config.getMinSize())) {
+      response.setHeader("Content-Encoding", "br");
+      return config.encode(response.getOutputStream());
+    }
+    long length = (contentLength >= 0) ? contentLength : declaredLength;
+    if (length >= 0) {
+      response.setContentLengthLong(length);
+    }
+    return response.getOutputStream();
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (writer != null) {
+      throw new IllegalStateException("getWriter() has already been called");
+    }
+    if (stream == null) {
+      stream = new BodyStream(body());
+    }
+    return stream;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (stream != null) {
+      throw new IllegalStateException("getOutputStream() has already been called");
+    }
+    if (writer == null) {
+      writer = newWriter();
+    }
+    return writer;
+  }
+
+  private PrintWriter newWriter() throws UnsupportedEncodingException {
+    return new PrintWriter(new OutputStreamWriter(body(), getCharacterEncoding()));
+  }
+
+  @Override
+  public void setContentLength(int len) {
+    setContentLengthLong(len);
+  }
+
+  @Override
+  public void setContentLengthLong(long len) {
+    if (body != null && body.isOpen()) {
+      /* Too late to matter; container ignores it once committed, too. */
+      return;
+    }
+    declaredLength = len;
+  }
+
+  @Override
+  public void setHeader(String name, String value) {
+    if (isContentLength(name)) {
+      setContentLengthLong(parseLength(value));
+    } else {
+      super.setHeader(name, value);
+    }
+  }
+
+  @Override
+  public void addHeader(String name, String value) {
+    if (isContentLength(name)) {
+      setContentLengthLong(parseLength(value));
+    } else {
+      super.addHeader(name, value);
+    }
+  }
+
+  @Override
+  public void setIntHeader(String name, int value) {
+    if (isContentLength(name)) {
+      setContentLengthLong(value);
+    } else {
+      super.setIntHeader(name, value);
+    }
+  }
+
+  @Override
+  public void addIntHeader(String name, int value) {
+    if (isContentLength(name)) {
+      setContentLengthLong(value);
+    } else {
+      super.addIntHeader(name, value);
+    }
+  }
+
+  private static boolean isContentLength(String name) {
+    return "Content-Length".equalsIgnoreCase(name);
+  }
+
+  private static long parseLength(String value) {
+    try {
+      return Long.parseLong(value.trim());
+    } catch (RuntimeException ex) {
+      return -1;
+    }
+  }
+
+  @Override
+  public void flushBuffer() throws IOException {
+    if (writer != null) {
+      writer.flush();
+    } else if (stream != null) {
+      stream.flush();
+    }
+    super.flushBuffer();
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    /* Encoder, if any, is abandoned along with the discarded output. */
+    body = null;
+    stream = null;
+    writer = null;
+    declaredLength = -1;
+  }
+
+  @Override
+  public void resetBuffer() {
+    if (body != null && body.isOpen()) {
+      throw new IllegalStateException("response body has already been started");
+    }
+    super.resetBuffer();
+    body = null;
+    if (stream != null) {
+      stream = new BodyStream(body());
+    }
+    if (writer != null) {
+      try {
+        writer = newWriter();
+      } catch (UnsupportedEncodingException ex) {
+        /* Same encoding has been accepted before. */
+        throw new IllegalStateException(ex);
+      }
+    }
+  }
+
+  /**
+   * Completes the body: makes the pending encoding choice and finishes the brotli stream.
+   */
+  void finish() throws IOException {
+    if (writer != null) {
+      writer.close();
+    } else if (stream != null) {
+      stream.close();
+    } else if (body != null) {
+      body.close();
+    } else if (declaredLength >= 0) {
+      /* Servlet declared length, but wrote nothing through us. */
+      ((HttpServletResponse) getResponse()).setContentLengthLong(declaredLength);
+    }
+  }
+
+  /** Servlet view of the body; non-blocking writes are delegated to the container stream. */
+  private final class BodyStream extends ServletOutputStream {
+    private final OutputStream body;
+
+    BodyStream(OutputStream body) {
+      this.body = body;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      body.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      body.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      body.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      body.close();
+    }
+
+    @Override
+    public boolean isReady() {
+      try {
+        return getResponse().getOutputStream().isReady();
+      } catch (IOException ex) {
+        return false;
+      }
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      try {
+        getResponse().getOutputStream().setWriteListener(writeListener);
+      } catch (IOException ex) {
+        throw new IllegalStateException(ex);
+      }
+    }
+  }
+}
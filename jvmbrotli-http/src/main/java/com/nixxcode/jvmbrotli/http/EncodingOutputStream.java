@@ -0,0 +1,116 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Response body that postpones the choice between brotli and identity encoding.
+ *
+ * <p> Up to {@code minSize} bytes are held back. Compression is chosen once more data is written,
+ * or the body is flushed (streaming responses should not wait for the buffer to fill); identity is
+ * chosen if the body ends short. Headers are committed by {@link #open}, so that the size-based
+ * choice can still be vetoed by the content type set by then.
+ */
+abstract class EncodingOutputStream extends OutputStream {
+  private byte[] held;
+  private int heldLength;
+  private OutputStream output;
+  private boolean closed;
+
+  EncodingOutputStream(BrotliHttpConfig config) {
+    this.held = new byte[config.getMinSize()];
+  }
+
+  /**
+   * Commits response headers and returns the raw body stream.
+   *
+   * @param compress whether the body is long enough to be compressed; subclass applies the rest of
+   *     the policy, and marks the response accordingly
+   * @param contentLength uncompressed body length, or -1 if not known yet
+   * @return raw body stream, wrapped in encoder if subclass decided to compress
+   */
+  abstract OutputStream open(boolean compress, long contentLength) throws IOException;
+
+  /**
+   * @return whether encoding choice has been made
+   */
+  boolean isOpen() {
+    return output != null;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureNotClosed();
+    if (output == null && heldLength < held.length) {
+      held[heldLength++] = (byte) b;
+      return;
+    }
+    start(true, -1).write(b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureNotClosed();
+    if (output == null && len <= held.length - heldLength) {
+      System.arraycopy(b, off, held, heldLength, len);
+      heldLength += len;
+      return;
+    }
+    start(true, -1).write(b, off, len);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    ensureNotClosed();
+    start(true, -1).flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (output == null) {
+      /* Whole body is known: short one goes as is, with exact length. */
+      start(heldLength >= held.length && held.length > 0, heldLength);
+    }
+    output.close();
+  }
+
+  /**
+   * Makes the encoding choice, if not made yet, and writes out held data.
+   */
+  private OutputStream start(boolean compress, long contentLength) throws IOException {
+    if (output == null) {
+      output = open(compress, contentLength);
+      if (heldLength > 0) {
+        output.write(held, 0, heldLength);
+      }
+      held = null;
+    }
+    return output;
+  }
+
+  private void ensureNotClosed() throws IOException {
+    if (closed) {
+      throw new IOException("write after close");
+    }
+  }
+}
@@ -0,0 +1,357 @@
+package com.nixxcode.jvmbrotli.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BrotliHttpFilter} on an embedded loopback server. */
+@RunWith(JUnit4.class)
+public class BrotliHttpFilterTest {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private static final byte[] TEXT = generate(20000);
+
+  private HttpServer server;
+
+  private static byte[] generate(int length) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; result.length() < length; ++i) {
+      result.append("line ").append(i % 97).append(": the quick brown fox\n");
+    }
+    return result.substring(0, length).getBytes();
+  }
+
+  private static byte[] readAll(InputStream input) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int length;
+    while ((length = input.read(buffer)) != -1) {
+      result.write(buffer, 0, length);
+    }
+    input.close();
+    return result.toByteArray();
+  }
+
+  /** Responds with given body; {@code length} is passed to sendResponseHeaders as is. */
+  private static HttpHandler respond(final String contentType, final byte[] body,
+      final long length) {
+    return new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(body);
+        output.close();
+      }
+    };
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  private void handle(String path, HttpHandler handler) {
+    HttpContext context = server.createContext(path, handler);
+    context.getFilters().add(new BrotliHttpFilter(new BrotliHttpConfig().setMinSize(1000)));
+  }
+
+  private HttpURLConnection open(String path, String acceptEncoding) throws IOException {
+    URL url = new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(),
+        path);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    if (acceptEncoding != null) {
+      connection.setRequestProperty("Accept-Encoding", acceptEncoding);
+    }
+    return connection;
+  }
+
+  @Test
+  public void testNegotiation() {
+    assertTrue(BrotliHttpConfig.acceptsBrotli("br"));
+    assertTrue(BrotliHttpConfig.acceptsBrotli("gzip, deflate, br"));
+    assertTrue(BrotliHttpConfig.acceptsBrotli("gzip;q=1.0, br;q=0.5"));
+    assertTrue(BrotliHttpConfig.acceptsBrotli("*"));
+    assertTrue(BrotliHttpConfig.acceptsBrotli("BR;Q=0.1"));
+    assertFalse(BrotliHttpConfig.acceptsBrotli(null));
+    assertFalse(BrotliHttpConfig.acceptsBrotli(""));
+    assertFalse(BrotliHttpConfig.acceptsBrotli("gzip, deflate"));
+    assertFalse(BrotliHttpConfig.acceptsBrotli("br;q=0"));
+    assertFalse(BrotliHttpConfig.acceptsBrotli("*, br;q=0"));
+    assertFalse(BrotliHttpConfig.acceptsBrotli("br;q=0.5, identity;q=1"));
+    assertFalse(BrotliHttpConfig.acceptsBrotli("br;q=bogus"));
+  }
+
+  @Test
+  public void testCompressedResponse() throws IOException {
+    handle("/text", respond("text/plain", TEXT, 0));
+    HttpURLConnection connection = open("/text", "gzip, br");
+    assertEquals(200, connection.getResponseCode());
+    assertEquals("br", connection.getHeaderField("Content-Encoding"));
+    assertEquals("Accept-Encoding", connection.getHeaderField("Vary"));
+    byte[] compressed = readAll(connection.getInputStream());
+    assertTrue(compressed.length < TEXT.length / 4);
+    assertArrayEquals(TEXT, Decoder.decompress(compressed));
+  }
+
+  @Test
+  public void testDeclaredLengthIsDropped() throws IOException {
+    handle("/text", respond("text/plain", TEXT, TEXT.length));
+    HttpURLConnection connection = open("/text", "br");
+    assertEquals("br", connection.getHeaderField("Content-Encoding"));
+    assertArrayEquals(TEXT, Decoder.decompress(readAll(connection.getInputStream())));
+  }
+
+  @Test
+  public void testShortResponseIsNotCompressed() throws IOException {
+    byte[] body = generate(500);
+    /* Length is not declared, so it is only known once the body ends. */
+    handle("/short", respond("text/plain", body, 0));
+    HttpURLConnection connection = open("/short", "br");
+    assertNull(connection.getHeaderField("Content-Encoding"));
+    assertEquals(String.valueOf(body.length), connection.getHeaderField("Content-Length"));
+    assertArrayEquals(body, readAll(connection.getInputStream()));
+  }
+
+  @Test
+  public void testExcludedTypeIsNotCompressed() throws IOException {
+    handle("/image", respond("image/png", TEXT, 0));
+    HttpURLConnection connection = open("/image", "br");
+    assertNull(connection.getHeaderField("Content-Encoding"));
+    assertArrayEquals(TEXT, readAll(connection.getInputStream()));
+  }
+
+  @Test
+  public void testNotAccepted() throws IOException {
+    handle("/text", respond("text/plain", TEXT, 0));
+    HttpURLConnection connection = open("/text", "gzip");
+    assertNull(connection.getHeaderField("Content-Encoding"));
+    assertEquals("Accept-Encoding", connection.getHeaderField("Vary"));
+    assertArrayEquals(TEXT, readAll(connection.getInputStream()));
+  }
+
+  @Test
+  public void testAlreadyEncoded() throws IOException {
+    final byte[] compressed = Encoder.compress(TEXT);
+    handle("/encoded", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Encoding", "br");
+        exchange.sendResponseHeaders(200, compressed.length);
+        exchange.getResponseBody().write(compressed);
+        exchange.close();
+      }
+    });
+    HttpURLConnection connection = open("/encoded", "br");
+    /* Passed through without double compression. */
+    assertArrayEquals(compressed, readAll(connection.getInputStream()));
+  }
+
+  @Test
+  public void testFlushStartsCompression() throws IOException {
+    handle("/stream", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream output = exchange.getResponseBody();
+        output.write(TEXT, 0, 10);
+        output.flush();
+        output.write(TEXT, 10, 10);
+        output.close();
+      }
+    });
+    HttpURLConnection connection = open("/stream", "br");
+    assertEquals("br", connection.getHeaderField("Content-Encoding"));
+    byte[] expected = new byte[20];
+    System.arraycopy(TEXT, 0, expected, 0, 20);
+    assertArrayEquals(expected, Decoder.decompress(readAll(connection.getInputStream())));
+  }
+
+  @Test
+  public void testRequestDecoding() throws IOException {
+    handle("/echo", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = readAll(exchange.getRequestBody());
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        exchange.getResponseHeaders().set("X-Request-Encoding", String.valueOf(encoding));
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+      }
+    });
+    HttpURLConnection connection = open("/echo", null);
+    connection.setDoOutput(true);
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Content-Encoding", "br");
+    OutputStream output = connection.getOutputStream();
+    output.write(Encoder.compress(TEXT));
+    output.close();
+    assertEquals(200, connection.getResponseCode());
+    assertEquals("null", connection.getHeaderField("X-Request-Encoding"));
+    assertArrayEquals(TEXT, readAll(connection.getInputStream()));
+  }
+
+  /** Async request with given body; {@link AsyncContext#start} runs the task right away. */
+  private static HttpServletRequest asyncRequest(byte[] body) {
+    final ByteArrayInputStream input = new ByteArrayInputStream(body);
+    final ServletInputStream stream = new ServletInputStream() {
+      @Override
+      public int read() throws IOException {
+        return input.read();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return input.read(b, off, len);
+      }
+
+      @Override
+      public boolean isFinished() {
+        return input.available() == 0;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setReadListener(ReadListener readListener) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    final AsyncContext context = (AsyncContext) Proxy.newProxyInstance(
+        AsyncContext.class.getClassLoader(), new Class<?>[] {AsyncContext.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("start".equals(method.getName())) {
+              ((Runnable) args[0]).run();
+              return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+    return (HttpServletRequest) Proxy.newProxyInstance(
+        HttpServletRequest.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("isAsyncStarted".equals(method.getName())) {
+              return true;
+            } else if ("getAsyncContext".equals(method.getName())) {
+              return context;
+            } else if ("getInputStream".equals(method.getName())) {
+              return stream;
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  /** Reads at most {@code chunk} bytes per {@link #onDataAvailable} call. */
+  private static final class CollectingListener implements ReadListener {
+    final ServletInputStream input;
+    final int chunk;
+    final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    int calls;
+    boolean allDataRead;
+    Throwable error;
+
+    CollectingListener(ServletInputStream input, int chunk) {
+      this.input = input;
+      this.chunk = chunk;
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+      calls++;
+      byte[] buffer = new byte[chunk];
+      int length = input.read(buffer);
+      if (length > 0) {
+        data.write(buffer, 0, length);
+      }
+    }
+
+    @Override
+    public void onAllDataRead() {
+      allDataRead = true;
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      error = t;
+    }
+  }
+
+  @Test
+  public void testRequestReadListener() throws IOException {
+    BrotliServletRequest request =
+        new BrotliServletRequest(asyncRequest(Encoder.compress(TEXT)), new BrotliHttpConfig());
+    ServletInputStream input = request.getInputStream();
+    CollectingListener listener = new CollectingListener(input, 1000);
+    input.setReadListener(listener);
+    /* Listener is called until body is drained, one chunk at a time. */
+    assertTrue(listener.calls > TEXT.length / 1000);
+    assertTrue(listener.allDataRead);
+    assertNull(listener.error);
+    assertTrue(input.isFinished());
+    assertArrayEquals(TEXT, listener.data.toByteArray());
+  }
+
+  @Test
+  public void testRequestReadListenerError() throws IOException {
+    byte[] compressed = Encoder.compress(TEXT);
+    byte[] truncated = new byte[compressed.length / 2];
+    System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+    BrotliServletRequest request =
+        new BrotliServletRequest(asyncRequest(truncated), new BrotliHttpConfig());
+    ServletInputStream input = request.getInputStream();
+    CollectingListener listener = new CollectingListener(input, 1000);
+    input.setReadListener(listener);
+    assertFalse(listener.allDataRead);
+    assertTrue(listener.error instanceof IOException);
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.netty;
+
+import com.nixxcode.jvmbrotli.dec.BrotliDecoderChannel;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.dec.DecoderPool;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.compression.DecompressionException;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+
+/**
+ * Decompresses an inbound brotli stream into direct {@link ByteBuf}s.
+ *
+ * <p> Output is emitted as soon as the decoder produces it, so data flushed by the peer is
+ * delivered without waiting for the rest of the stream. Bytes following the end of the stream are
+ * discarded.
+ *
+ * <p> Each handler instance owns one native decoder and must not be shared between channels.
+ */
+public class BrotliDecoder extends ByteToMessageDecoder {
+  /** The default internal buffer size used by the decoder. */
+  private static final int DEFAULT_BUFFER_SIZE = 16384;
+
+  private final Decoder.Parameters params;
+  private final int bufferSize;
+  private final DecoderPool pool;
+  private final InputSource source = new InputSource();
+  private BrotliDecoderChannel decoder;
+  private boolean finished;
+
+  /**
+   * Creates a BrotliDecoder.
+   *
+   * @param params decoding settings
+   * @param bufferSize intermediate buffer size, also the size of emitted buffers
+   * @param pool pool to borrow native decoder from, or {@code null}
+   */
+  public BrotliDecoder(Decoder.Parameters params, int bufferSize, DecoderPool pool) {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("buffer size must be positive");
+    }
+    this.params = params;
+    this.bufferSize = bufferSize;
+    this.pool = pool;
+  }
+
+  public BrotliDecoder(Decoder.Parameters params, DecoderPool pool) {
+    this(params, DEFAULT_BUFFER_SIZE, pool);
+  }
+
+  public BrotliDecoder(Decoder.Parameters params) {
+    this(params, null);
+  }
+
+  public BrotliDecoder() {
+    this(new Decoder.Parameters());
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+    decoder = new BrotliDecoderChannel(source, params, bufferSize, pool);
+    decoder.enableEagerOutput();
+  }
+
+  @Override
+  protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+    if (decoder != null) {
+      try {
+        decoder.close();
+      } finally {
+        decoder = null;
+      }
+    }
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out)
+      throws Exception {
+    if (finished) {
+      in.skipBytes(in.readableBytes());
+      return;
+    }
+    source.input = in;
+    try {
+      while (true) {
+        ByteBuf output = ctx.alloc().directBuffer(bufferSize);
+        int read;
+        try {
+          read = decoder.read(output.nioBuffer(0, output.capacity()));
+        } catch (IOException ex) {
+          output.release();
+          finished = true;
+          throw new DecompressionException(ex);
+        }
+        if (read > 0) {
+          output.writerIndex(read);
+          out.add(output);
+          continue;
+        }
+        output.release();
+        if (read < 0) {
+          finished = true;
+          in.skipBytes(in.readableBytes());
+        }
+        /* Otherwise decoder needs more input. */
+        break;
+      }
+    } finally {
+      source.input = null;
+    }
+  }
+
+  /**
+   * Feeds the decoder from the cumulation buffer; reports "no data" once it is drained.
+   */
+  private static final class InputSource implements ReadableByteChannel {
+    ByteBuf input;
+
+    @Override
+    public int read(ByteBuffer dst) {
+      if (input == null || !input.isReadable()) {
+        return 0;
+      }
+      int length = Math.min(dst.remaining(), input.readableBytes());
+      ByteBuffer limited = dst.duplicate();
+      ((Buffer) limited).limit(limited.position() + length);
+      input.readBytes(limited);
+      ((Buffer) dst).position(dst.position() + length);
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() { }
+  }
+}
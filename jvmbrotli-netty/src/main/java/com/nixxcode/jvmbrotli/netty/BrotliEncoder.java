@@ -0,0 +1,179 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.netty;
+
+import com.nixxcode.jvmbrotli.enc.BrotliEncoderChannel;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.enc.EncoderPool;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.EncoderException;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses outbound {@link ByteBuf}s into a single brotli stream per channel.
+ *
+ * <p> Output is produced as the encoder sees fit and is written (not flushed) along with the
+ * message; a message that produces no output yet completes its promise right away.
+ * {@code flush()} flushes the encoder, so that the peer can decode everything written so far.
+ * Stream is finished when the channel is closed. Other messages pass through untouched.
+ * Direct buffers are compressed in place; heap ones are copied to native memory first.
+ *
+ * <p> Each handler instance owns one native encoder and must not be shared between channels.
+ */
+public class BrotliEncoder extends ChannelOutboundHandlerAdapter {
+  /** The default internal buffer size used by the encoder. */
+  private static final int DEFAULT_BUFFER_SIZE = 16384;
+
+  private final Encoder.Parameters params;
+  private final int bufferSize;
+  private final EncoderPool pool;
+  private ByteBufSink sink;
+  private BrotliEncoderChannel encoder;
+  private boolean finished;
+
+  /**
+   * Creates a BrotliEncoder.
+   *
+   * @param params encoding settings
+   * @param bufferSize intermediate buffer size
+   * @param pool pool to borrow native encoder from, or {@code null}
+   */
+  public BrotliEncoder(Encoder.Parameters params, int bufferSize, EncoderPool pool) {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("buffer size must be positive");
+    }
+    this.params = params;
+    this.bufferSize = bufferSize;
+    this.pool = pool;
+  }
+
+  public BrotliEncoder(Encoder.Parameters params, EncoderPool pool) {
+    this(params, DEFAULT_BUFFER_SIZE, pool);
+  }
+
+  public BrotliEncoder(Encoder.Parameters params) {
+    this(params, null);
+  }
+
+  public BrotliEncoder() {
+    this(new Encoder.Parameters());
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+    sink = new ByteBufSink(ctx.alloc());
+    encoder = new BrotliEncoderChannel(sink, params, bufferSize, pool);
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+    if (encoder != null) {
+      /* Output of an unfinished stream is of no use anymore. */
+      finished = true;
+      try {
+        encoder.close();
+      } finally {
+        encoder = null;
+        sink.take().release();
+      }
+    }
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+      throws Exception {
+    if (!(msg instanceof ByteBuf)) {
+      ctx.write(msg, promise);
+      return;
+    }
+    ByteBuf input = (ByteBuf) msg;
+    try {
+      if (finished) {
+        promise.setFailure(new EncoderException("brotli stream is already finished"));
+        return;
+      }
+      /*
+       * Sink accepts everything, so encoder consumes whole buffers; memory of direct buffers is
+       * read by native encoder in place.
+       */
+      for (ByteBuffer chunk : input.nioBuffers()) {
+        encoder.write(chunk);
+      }
+    } catch (IOException ex) {
+      promise.setFailure(new EncoderException(ex));
+      return;
+    } finally {
+      ReferenceCountUtil.release(input);
+    }
+    ByteBuf output = sink.take();
+    if (output.isReadable()) {
+      ctx.write(output, promise);
+    } else {
+      output.release();
+      promise.setSuccess();
+    }
+  }
+
+  @Override
+  public void flush(ChannelHandlerContext ctx) throws Exception {
+    if (!finished) {
+      try {
+        encoder.flush();
+      } catch (IOException ex) {
+        throw new EncoderException(ex);
+      }
+      ByteBuf output = sink.take();
+      if (output.isReadable()) {
+        ctx.write(output);
+      } else {
+        output.release();
+      }
+    }
+    ctx.flush();
+  }
+
+  @Override
+  public void close(ChannelHandlerContext ctx, final ChannelPromise promise) throws Exception {
+    if (finished) {
+      ctx.close(promise);
+      return;
+    }
+    finished = true;
+    try {
+      encoder.finish();
+    } catch (IOException ex) {
+      sink.take().release();
+      ctx.close(promise);
+      throw new EncoderException(ex);
+    }
+    final ChannelHandlerContext context = ctx;
+    ctx.writeAndFlush(sink.take()).addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture future) {
+        context.close(promise);
+      }
+    });
+  }
+}
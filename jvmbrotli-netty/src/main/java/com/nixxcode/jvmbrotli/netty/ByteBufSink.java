@@ -0,0 +1,63 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Collects encoder output into a direct {@link ByteBuf} taken from the channel allocator.
+ */
+final class ByteBufSink implements WritableByteChannel {
+  private final ByteBufAllocator allocator;
+  private ByteBuf output;
+
+  ByteBufSink(ByteBufAllocator allocator) {
+    this.allocator = allocator;
+  }
+
+  @Override
+  public int write(ByteBuffer src) {
+    int length = src.remaining();
+    if (output == null) {
+      output = allocator.directBuffer(length);
+    }
+    output.writeBytes(src);
+    return length;
+  }
+
+  /**
+   * Hands over the output collected so far; the caller becomes responsible for releasing it.
+   */
+  ByteBuf take() {
+    ByteBuf result = (output != null) ? output : Unpooled.EMPTY_BUFFER;
+    output = null;
+    return result;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return true;
+  }
+
+  @Override
+  public void close() { }
+}
@@ -0,0 +1,123 @@
+package com.nixxcode.jvmbrotli.netty;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BrotliEncoder} and {@link BrotliDecoder}. */
+@RunWith(JUnit4.class)
+public class BrotliCodecTest {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private static byte[] generate(int length) {
+    Random random = new Random(length);
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      result[i] = (byte) ('a' + random.nextInt(4));
+    }
+    return result;
+  }
+
+  private static byte[] drainOutbound(EmbeddedChannel channel) {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    ByteBuf buf;
+    while ((buf = channel.readOutbound()) != null) {
+      byte[] chunk = new byte[buf.readableBytes()];
+      buf.readBytes(chunk);
+      buf.release();
+      result.write(chunk, 0, chunk.length);
+    }
+    return result.toByteArray();
+  }
+
+  private static byte[] drainInbound(EmbeddedChannel channel) {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    ByteBuf buf;
+    while ((buf = channel.readInbound()) != null) {
+      byte[] chunk = new byte[buf.readableBytes()];
+      buf.readBytes(chunk);
+      buf.release();
+      result.write(chunk, 0, chunk.length);
+    }
+    return result.toByteArray();
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    byte[] data = generate(300000);
+    EmbeddedChannel encoder = new EmbeddedChannel(
+        new BrotliEncoder(new Encoder.Parameters().setQuality(5)));
+    /* Direct input goes to the encoder without copying to heap first. */
+    ByteBuf input = Unpooled.directBuffer(data.length);
+    input.writeBytes(data);
+    encoder.writeOutbound(input);
+    encoder.finish();
+    byte[] compressed = drainOutbound(encoder);
+    assertTrue(compressed.length < data.length / 2);
+    assertArrayEquals(data, Decoder.decompress(compressed));
+
+    EmbeddedChannel decoder = new EmbeddedChannel(new BrotliDecoder());
+    /* Feed in small slices to exercise stalls on input. */
+    for (int offset = 0; offset < compressed.length; offset += 1000) {
+      int length = Math.min(1000, compressed.length - offset);
+      decoder.writeInbound(Unpooled.wrappedBuffer(compressed, offset, length));
+    }
+    assertArrayEquals(data, drainInbound(decoder));
+    decoder.finish();
+  }
+
+  @Test
+  public void testFlushSemantics() throws Exception {
+    byte[] first = generate(5000);
+    byte[] second = generate(7000);
+    EmbeddedChannel encoder = new EmbeddedChannel(new BrotliEncoder());
+    EmbeddedChannel decoder = new EmbeddedChannel(new BrotliDecoder());
+
+    encoder.writeOneOutbound(Unpooled.wrappedBuffer(first));
+    assertNull(encoder.readOutbound());
+    encoder.flushOutbound();
+    decoder.writeInbound(Unpooled.wrappedBuffer(drainOutbound(encoder)));
+    /* Everything written before flush is decodable on the other side. */
+    assertArrayEquals(first, drainInbound(decoder));
+
+    encoder.writeOutbound(Unpooled.wrappedBuffer(second));
+    encoder.finish();
+    decoder.writeInbound(Unpooled.wrappedBuffer(drainOutbound(encoder)));
+    assertArrayEquals(second, drainInbound(decoder));
+    decoder.finish();
+  }
+
+  @Test
+  public void testWriteWithoutOutput() throws Exception {
+    byte[] data = generate(3000);
+    EmbeddedChannel encoder = new EmbeddedChannel(new BrotliEncoder());
+    ByteBuf input = Unpooled.directBuffer(data.length);
+    input.writeBytes(data);
+    /* Input is buffered by the encoder, so nothing is written and the write is complete. */
+    ChannelFuture future = encoder.writeOneOutbound(input);
+    assertTrue(future.isSuccess());
+    encoder.flushOutbound();
+    byte[] compressed = drainOutbound(encoder);
+    encoder.finish();
+    EmbeddedChannel decoder = new EmbeddedChannel(new BrotliDecoder());
+    decoder.writeInbound(Unpooled.wrappedBuffer(compressed));
+    assertArrayEquals(data, drainInbound(decoder));
+    decoder.finish();
+  }
+}
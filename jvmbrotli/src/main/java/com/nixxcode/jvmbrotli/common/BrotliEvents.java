@@ -0,0 +1,103 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.common;
+
+/**
+ * JDK Flight Recorder events of encoders and decoders; internal hook, not meant for applications.
+ *
+ * <p> Events are disabled by default; enable them with the {@code jvmbrotli.jfc} settings
+ * profile shipped in this package, or in recording settings by their {@code com.nixxcode.jvmbrotli}
+ * names. Operations shorter than event threshold are not recorded. On runtimes without
+ * {@code jdk.jfr} all the methods are no-ops; {@code jvmbrotli.jfr=false} system property turns
+ * them off as well.
+ *
+ * <p> Events are passed around as opaque {@code Object}s, so that callers do not link against
+ * {@code jdk.jfr}; {@code null} stands for "disabled". Event classes are compiled separately for
+ * Java 11 and looked up by name, so builds on JDK 8 simply leave them out.
+ */
+public final class BrotliEvents {
+  public static final int COMPRESS = 0;
+  public static final int DECOMPRESS = 1;
+  public static final int ENCODER_STREAM = 2;
+  public static final int DECODER_STREAM = 3;
+  public static final int FLUSH = 4;
+  public static final int FINISH = 5;
+
+  /**
+   * Implemented by {@code JfrEvents}.
+   */
+  interface Recorder {
+    Object begin(int kind);
+
+    void endEncode(Object event, int[] params, long bytesIn, long bytesOut, long nativeNanos,
+        int flushes);
+
+    void endDecode(Object event, long bytesIn, long bytesOut, long nativeNanos);
+  }
+
+  private static final Recorder RECORDER = loadRecorder();
+
+  private BrotliEvents() { }
+
+  private static Recorder loadRecorder() {
+    if (!Boolean.parseBoolean(System.getProperty("jvmbrotli.jfr", "true"))) {
+      return null;
+    }
+    try {
+      Class.forName("jdk.jfr.Event");
+      return (Recorder) Class.forName("com.nixxcode.jvmbrotli.common.JfrEvents")
+          .getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException ex) {
+      return null;
+    } catch (LinkageError ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Starts timing an operation of given kind.
+   *
+   * @return event, or {@code null} if events of this kind are disabled
+   */
+  public static Object begin(int kind) {
+    return (RECORDER != null) ? RECORDER.begin(kind) : null;
+  }
+
+  /**
+   * Completes encoder event; values not applicable to the event kind are ignored.
+   *
+   * @param event event returned by {@link #begin}, or {@code null}
+   * @param params native encoder parameters
+   */
+  public static void endEncode(Object event, int[] params, long bytesIn, long bytesOut,
+      long nativeNanos, int flushes) {
+    if (event != null) {
+      RECORDER.endEncode(event, params, bytesIn, bytesOut, nativeNanos, flushes);
+    }
+  }
+
+  /**
+   * Completes decoder event; values not applicable to the event kind are ignored.
+   *
+   * @param event event returned by {@link #begin}, or {@code null}
+   */
+  public static void endDecode(Object event, long bytesIn, long bytesOut, long nativeNanos) {
+    if (event != null) {
+      RECORDER.endDecode(event, bytesIn, bytesOut, nativeNanos);
+    }
+  }
+}
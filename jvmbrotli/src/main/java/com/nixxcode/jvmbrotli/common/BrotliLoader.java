@@ -87,6 +87,9 @@ public class BrotliLoader {
         } finally {
             loadAttempted = true;
         }
+        if (libLoaded) {
+            NativeMemory.configure();
+        }
     }
 
     private static String determineOsArchName() {
@@ -0,0 +1,44 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.common;
+
+/**
+ * Global hook for compression metrics.
+ *
+ * <p> Encoders and decoders pick the listener up when they are created; with no listener set
+ * they skip timing entirely, so disabled metrics cost one volatile read per stream or call.
+ */
+public final class BrotliMetrics {
+  private static volatile CompressionListener listener;
+
+  private BrotliMetrics() { }
+
+  /**
+   * @param listener listener for subsequently created encoders and decoders, or {@code null} to
+   *     disable metrics
+   */
+  public static void setListener(CompressionListener listener) {
+    BrotliMetrics.listener = listener;
+  }
+
+  /**
+   * @return current listener, or {@code null} if metrics are disabled
+   */
+  public static CompressionListener getListener() {
+    return listener;
+  }
+}
@@ -13,4 +13,8 @@ import java.nio.ByteBuffer;
  */
 class CommonJNI {
   static native boolean nativeSetDictionaryData(ByteBuffer data);
+  static native long nativeGetAllocatedBytes();
+  static native long nativeGetPeakBytes(boolean reset);
+  static native void nativeSetArenaCapacity(long capacity);
+  static native long nativeGetArenaBytes();
 }
@@ -0,0 +1,42 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.common;
+
+/**
+ * Receives a summary of each completed compression or decompression.
+ *
+ * <p> Streams report once, when closed; one-shot {@code compress} / {@code decompress} calls
+ * report when they return. Callbacks are made on the thread that did the work, so they must be
+ * cheap and thread-safe. Install with {@link BrotliMetrics#setListener}.
+ */
+public interface CompressionListener {
+  /**
+   * @param quality encoder quality, or -1 for default
+   * @param bytesIn uncompressed bytes consumed
+   * @param bytesOut compressed bytes produced
+   * @param nanos time spent in native encoder
+   * @param flushes number of explicit flushes
+   */
+  void encoded(int quality, long bytesIn, long bytesOut, long nanos, int flushes);
+
+  /**
+   * @param bytesIn compressed bytes consumed
+   * @param bytesOut uncompressed bytes produced
+   * @param nanos time spent in native decoder
+   */
+  void decoded(long bytesIn, long bytesOut, long nanos);
+}
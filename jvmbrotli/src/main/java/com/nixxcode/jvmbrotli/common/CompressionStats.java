@@ -0,0 +1,253 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.common;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Built-in {@link CompressionListener}: totals and per-quality encode latency histograms, kept in
+ * {@link LongAdder}s so that concurrent streams do not contend.
+ *
+ * <p> {@link #install()} makes it the global listener and exposes it as
+ * {@code com.nixxcode.jvmbrotli:type=CompressionStats} MBean. Live and leaked instance counts are
+ * those of {@link NativeResources}, and include pooled instances.
+ */
+public final class CompressionStats implements CompressionListener, CompressionStatsMBean {
+  /** Name the MBean is registered with by {@link #install()}. */
+  public static final String OBJECT_NAME = "com.nixxcode.jvmbrotli:type=CompressionStats";
+
+  private static final int QUALITIES = 12;
+  private static final int DEFAULT_QUALITY = 11;
+  private static final int BUCKETS = 40;
+
+  private final LongAdder encodedStreams = new LongAdder();
+  private final LongAdder encodedBytesIn = new LongAdder();
+  private final LongAdder encodedBytesOut = new LongAdder();
+  private final LongAdder encodeNanos = new LongAdder();
+  private final LongAdder flushes = new LongAdder();
+  private final LongAdder decodedStreams = new LongAdder();
+  private final LongAdder decodedBytesIn = new LongAdder();
+  private final LongAdder decodedBytesOut = new LongAdder();
+  private final LongAdder decodeNanos = new LongAdder();
+  private final LongAdder[][] latency = new LongAdder[QUALITIES][BUCKETS];
+
+  public CompressionStats() {
+    for (LongAdder[] histogram : latency) {
+      for (int i = 0; i < BUCKETS; ++i) {
+        histogram[i] = new LongAdder();
+      }
+    }
+  }
+
+  /**
+   * Creates stats, registers them as platform MBean and installs them as the global listener.
+   *
+   * @throws IllegalStateException if MBean with the same name is registered already
+   */
+  public static CompressionStats install() {
+    CompressionStats stats = new CompressionStats();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      server.registerMBean(stats, new ObjectName(OBJECT_NAME));
+    } catch (JMException ex) {
+      throw new IllegalStateException("failed to register " + OBJECT_NAME, ex);
+    }
+    BrotliMetrics.setListener(stats);
+    return stats;
+  }
+
+  /**
+   * Uninstalls stats installed by {@link #install()}: disables metrics and unregisters MBean.
+   */
+  public void uninstall() {
+    if (BrotliMetrics.getListener() == this) {
+      BrotliMetrics.setListener(null);
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+    } catch (JMException ex) {
+      /* Not registered. */
+    }
+  }
+
+  @Override
+  public void encoded(int quality, long bytesIn, long bytesOut, long nanos, int flushes) {
+    encodedStreams.increment();
+    encodedBytesIn.add(bytesIn);
+    encodedBytesOut.add(bytesOut);
+    encodeNanos.add(nanos);
+    if (flushes != 0) {
+      this.flushes.add(flushes);
+    }
+    int q = (quality < 0 || quality >= QUALITIES) ? DEFAULT_QUALITY : quality;
+    latency[q][bucket(TimeUnit.NANOSECONDS.toMicros(nanos))].increment();
+  }
+
+  @Override
+  public void decoded(long bytesIn, long bytesOut, long nanos) {
+    decodedStreams.increment();
+    decodedBytesIn.add(bytesIn);
+    decodedBytesOut.add(bytesOut);
+    decodeNanos.add(nanos);
+  }
+
+  private static int bucket(long micros) {
+    int bits = 63 - Long.numberOfLeadingZeros(micros);
+    return Math.min(Math.max(bits, 0), BUCKETS - 1);
+  }
+
+  @Override
+  public long getEncodedStreams() {
+    return encodedStreams.sum();
+  }
+
+  @Override
+  public long getEncodedBytesIn() {
+    return encodedBytesIn.sum();
+  }
+
+  @Override
+  public long getEncodedBytesOut() {
+    return encodedBytesOut.sum();
+  }
+
+  @Override
+  public double getCompressionRatio() {
+    long out = encodedBytesOut.sum();
+    return (out == 0) ? 0 : (double) encodedBytesIn.sum() / out;
+  }
+
+  @Override
+  public long getEncodeNanos() {
+    return encodeNanos.sum();
+  }
+
+  @Override
+  public long getFlushCount() {
+    return flushes.sum();
+  }
+
+  @Override
+  public long getDecodedStreams() {
+    return decodedStreams.sum();
+  }
+
+  @Override
+  public long getDecodedBytesIn() {
+    return decodedBytesIn.sum();
+  }
+
+  @Override
+  public long getDecodedBytesOut() {
+    return decodedBytesOut.sum();
+  }
+
+  @Override
+  public long getDecodeNanos() {
+    return decodeNanos.sum();
+  }
+
+  @Override
+  public long getLiveEncoders() {
+    return NativeResources.getLiveCount(NativeResources.Kind.ENCODER);
+  }
+
+  @Override
+  public long getLiveDecoders() {
+    return NativeResources.getLiveCount(NativeResources.Kind.DECODER);
+  }
+
+  @Override
+  public long getLeakedEncoders() {
+    return NativeResources.getLeakCount(NativeResources.Kind.ENCODER);
+  }
+
+  @Override
+  public long getLeakedDecoders() {
+    return NativeResources.getLeakCount(NativeResources.Kind.DECODER);
+  }
+
+  @Override
+  public long getNativeBytes() {
+    return NativeResources.getNativeBytes();
+  }
+
+  @Override
+  public long getPeakNativeBytes() {
+    return NativeMemory.getPeakBytes();
+  }
+
+  @Override
+  public long getArenaBytes() {
+    return NativeMemory.getArenaBytes();
+  }
+
+  @Override
+  public long[] latencyHistogram(int quality) {
+    if (quality < 0 || quality >= QUALITIES) {
+      throw new IllegalArgumentException("quality should be in range [0, 11]");
+    }
+    long[] result = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; ++i) {
+      result[i] = latency[quality][i].sum();
+    }
+    return result;
+  }
+
+  @Override
+  public long latencyPercentileMicros(int quality, double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile should be in range [0, 100]");
+    }
+    long[] histogram = latencyHistogram(quality);
+    long total = 0;
+    for (long count : histogram) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; ++i) {
+      seen += histogram[i];
+      if (seen >= rank) {
+        return 1L << (i + 1);
+      }
+    }
+    return 1L << BUCKETS;
+  }
+
+  @Override
+  public void reset() {
+    LongAdder[] totals = {encodedStreams, encodedBytesIn, encodedBytesOut, encodeNanos, flushes,
+        decodedStreams, decodedBytesIn, decodedBytesOut, decodeNanos};
+    for (LongAdder counter : totals) {
+      counter.reset();
+    }
+    for (LongAdder[] histogram : latency) {
+      for (LongAdder counter : histogram) {
+        counter.reset();
+      }
+    }
+  }
+}
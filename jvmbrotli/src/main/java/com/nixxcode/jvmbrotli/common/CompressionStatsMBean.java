@@ -0,0 +1,74 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.common;
+
+/**
+ * JMX view of {@link CompressionStats}.
+ */
+public interface CompressionStatsMBean {
+  long getEncodedStreams();
+
+  long getEncodedBytesIn();
+
+  long getEncodedBytesOut();
+
+  /** @return uncompressed to compressed size ratio, or 0 if nothing was encoded */
+  double getCompressionRatio();
+
+  long getEncodeNanos();
+
+  long getFlushCount();
+
+  long getDecodedStreams();
+
+  long getDecodedBytesIn();
+
+  long getDecodedBytesOut();
+
+  long getDecodeNanos();
+
+  long getLiveEncoders();
+
+  long getLiveDecoders();
+
+  long getLeakedEncoders();
+
+  long getLeakedDecoders();
+
+  long getNativeBytes();
+
+  long getPeakNativeBytes();
+
+  long getArenaBytes();
+
+  /**
+   * @param quality encoder quality in range [0, 11]
+   * @return encode latency histogram; element {@code i} counts latencies in
+   *     [2^i, 2^(i + 1)) microseconds, the first one also those below 1 microsecond
+   */
+  long[] latencyHistogram(int quality);
+
+  /**
+   * @param quality encoder quality in range [0, 11]
+   * @param percentile percentile in range [0, 100]
+   * @return upper bound of histogram bucket containing the percentile, in microseconds, or 0 if
+   *     nothing was encoded with given quality
+   */
+  long latencyPercentileMicros(int quality, double percentile);
+
+  void reset();
+}
@@ -0,0 +1,236 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.common;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Event definitions; only loaded when {@code jdk.jfr} is present.
+ *
+ * <p> Lives in a separate source set compiled for Java 11, so that the rest of the library builds
+ * with {@code --release 8}; {@link BrotliEvents} loads it by name.
+ */
+final class JfrEvents implements BrotliEvents.Recorder {
+  /** Index of quality and window in native encoder parameters; see {@code EncoderJNI}. */
+  private static final int PARAM_QUALITY = 1;
+  private static final int PARAM_LGWIN = 2;
+
+  JfrEvents() { }
+
+  @Name("com.nixxcode.jvmbrotli.Compress")
+  @Label("Brotli Compress")
+  @Description("One-shot compression")
+  @Category("Brotli")
+  @Enabled(false)
+  @Threshold("1 ms")
+  @StackTrace(false)
+  static final class CompressEvent extends Event {
+    @Label("Quality")
+    int quality;
+    @Label("Window Bits")
+    int window;
+    @Label("Input Size")
+    @DataAmount
+    long inputSize;
+    @Label("Output Size")
+    @DataAmount
+    long outputSize;
+  }
+
+  @Name("com.nixxcode.jvmbrotli.Decompress")
+  @Label("Brotli Decompress")
+  @Description("One-shot decompression")
+  @Category("Brotli")
+  @Enabled(false)
+  @Threshold("1 ms")
+  @StackTrace(false)
+  static final class DecompressEvent extends Event {
+    @Label("Input Size")
+    @DataAmount
+    long inputSize;
+    @Label("Output Size")
+    @DataAmount
+    long outputSize;
+  }
+
+  @Name("com.nixxcode.jvmbrotli.EncoderStream")
+  @Label("Brotli Encoder Stream")
+  @Description("Lifetime of streaming encoder, from creation to close")
+  @Category("Brotli")
+  @Enabled(false)
+  @Threshold("10 ms")
+  @StackTrace(false)
+  static final class EncoderStreamEvent extends Event {
+    @Label("Quality")
+    int quality;
+    @Label("Window Bits")
+    int window;
+    @Label("Input Size")
+    @DataAmount
+    long inputSize;
+    @Label("Output Size")
+    @DataAmount
+    long outputSize;
+    @Label("Native Time")
+    @Timespan
+    long nativeTime;
+    @Label("Flushes")
+    int flushes;
+  }
+
+  @Name("com.nixxcode.jvmbrotli.DecoderStream")
+  @Label("Brotli Decoder Stream")
+  @Description("Lifetime of streaming decoder, from creation to close")
+  @Category("Brotli")
+  @Enabled(false)
+  @Threshold("10 ms")
+  @StackTrace(false)
+  static final class DecoderStreamEvent extends Event {
+    @Label("Input Size")
+    @DataAmount
+    long inputSize;
+    @Label("Output Size")
+    @DataAmount
+    long outputSize;
+    @Label("Native Time")
+    @Timespan
+    long nativeTime;
+  }
+
+  @Name("com.nixxcode.jvmbrotli.Flush")
+  @Label("Brotli Flush")
+  @Description("Flush of streaming encoder, including writing the output")
+  @Category("Brotli")
+  @Enabled(false)
+  @Threshold("1 ms")
+  @StackTrace(false)
+  static final class FlushEvent extends Event {
+    @Label("Quality")
+    int quality;
+    @Label("Window Bits")
+    int window;
+  }
+
+  @Name("com.nixxcode.jvmbrotli.Finish")
+  @Label("Brotli Finish")
+  @Description("Finish of streaming encoder, including writing the output")
+  @Category("Brotli")
+  @Enabled(false)
+  @Threshold("1 ms")
+  @StackTrace(false)
+  static final class FinishEvent extends Event {
+    @Label("Quality")
+    int quality;
+    @Label("Window Bits")
+    int window;
+  }
+
+  @Override
+  public Object begin(int kind) {
+    Event event;
+    switch (kind) {
+      case BrotliEvents.COMPRESS:
+        event = new CompressEvent();
+        break;
+      case BrotliEvents.DECOMPRESS:
+        event = new DecompressEvent();
+        break;
+      case BrotliEvents.ENCODER_STREAM:
+        event = new EncoderStreamEvent();
+        break;
+      case BrotliEvents.DECODER_STREAM:
+        event = new DecoderStreamEvent();
+        break;
+      case BrotliEvents.FLUSH:
+        event = new FlushEvent();
+        break;
+      case BrotliEvents.FINISH:
+        event = new FinishEvent();
+        break;
+      default:
+        throw new IllegalArgumentException("unknown event kind");
+    }
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void endEncode(Object event, int[] params, long bytesIn, long bytesOut,
+      long nativeNanos, int flushes) {
+    Event e = (Event) event;
+    e.end();
+    if (!e.shouldCommit()) {
+      return;
+    }
+    int quality = params[PARAM_QUALITY];
+    int window = params[PARAM_LGWIN];
+    if (e instanceof CompressEvent) {
+      CompressEvent compress = (CompressEvent) e;
+      compress.quality = quality;
+      compress.window = window;
+      compress.inputSize = bytesIn;
+      compress.outputSize = bytesOut;
+    } else if (e instanceof EncoderStreamEvent) {
+      EncoderStreamEvent stream = (EncoderStreamEvent) e;
+      stream.quality = quality;
+      stream.window = window;
+      stream.inputSize = bytesIn;
+      stream.outputSize = bytesOut;
+      stream.nativeTime = nativeNanos;
+      stream.flushes = flushes;
+    } else if (e instanceof FlushEvent) {
+      ((FlushEvent) e).quality = quality;
+      ((FlushEvent) e).window = window;
+    } else if (e instanceof FinishEvent) {
+      ((FinishEvent) e).quality = quality;
+      ((FinishEvent) e).window = window;
+    }
+    e.commit();
+  }
+
+  @Override
+  public void endDecode(Object event, long bytesIn, long bytesOut, long nativeNanos) {
+    Event e = (Event) event;
+    e.end();
+    if (!e.shouldCommit()) {
+      return;
+    }
+    if (e instanceof DecompressEvent) {
+      DecompressEvent decompress = (DecompressEvent) e;
+      decompress.inputSize = bytesIn;
+      decompress.outputSize = bytesOut;
+    } else if (e instanceof DecoderStreamEvent) {
+      DecoderStreamEvent stream = (DecoderStreamEvent) e;
+      stream.inputSize = bytesIn;
+      stream.outputSize = bytesOut;
+      stream.nativeTime = nativeNanos;
+    }
+    e.commit();
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.common;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Global limit on the number of threads that run native encoder / decoder work at once.
+ *
+ * <p> Native calls can not be preempted, and a virtual thread inside one occupies its carrier
+ * thread. With a limit set (e.g. to the number of cores), threads beyond it wait for a permit
+ * in FIFO order; waiting virtual threads are unmounted, so carriers stay free for other work.
+ * Permits are taken for each slice of work: one native push of at most buffer size bytes for
+ * streams, and a bounded slice of input / output for one-shot calls, so long streams and large
+ * payloads do not starve the others.
+ *
+ * <p> Limit is off by default; it could also be set with {@code jvmbrotli.nativeConcurrency}
+ * system property. Interrupted waits fail with {@link InterruptedIOException}.
+ */
+public final class NativeConcurrency {
+  /** Permits of the current limit; {@code null} if unlimited. */
+  private static volatile Limit permits =
+      create(Integer.getInteger("jvmbrotli.nativeConcurrency", 0));
+
+  private NativeConcurrency() { }
+
+  /**
+   * Fair semaphore that remembers its size.
+   */
+  private static final class Limit extends Semaphore {
+    private static final long serialVersionUID = 1L;
+
+    final int limit;
+
+    Limit(int limit) {
+      super(limit, true);
+      this.limit = limit;
+    }
+  }
+
+  private static Limit create(int limit) {
+    if (limit < 0) {
+      throw new IllegalArgumentException("limit should be non-negative");
+    }
+    return (limit == 0) ? null : new Limit(limit);
+  }
+
+  /**
+   * Changes the limit; calls that already hold a permit are not affected.
+   *
+   * @param limit maximal number of concurrent native calls, or 0 for unlimited
+   */
+  public static void setLimit(int limit) {
+    permits = create(limit);
+  }
+
+  /**
+   * @return current limit, or 0 if unlimited
+   */
+  public static int getLimit() {
+    Limit current = permits;
+    return (current == null) ? 0 : current.limit;
+  }
+
+  /**
+   * @return estimated number of threads waiting for a permit
+   */
+  public static int getQueueLength() {
+    Limit current = permits;
+    return (current == null) ? 0 : current.getQueueLength();
+  }
+
+  /**
+   * Waits for a permit; internal hook, not meant for applications.
+   *
+   * @return permit to pass to {@link #release}; {@code null} if unlimited
+   */
+  public static Semaphore acquire() throws InterruptedIOException {
+    Semaphore current = permits;
+    if (current == null) {
+      return null;
+    }
+    try {
+      current.acquire();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for native concurrency permit");
+    }
+    return current;
+  }
+
+  /**
+   * Returns permit taken by {@link #acquire}.
+   */
+  public static void release(Semaphore permit) {
+    if (permit != null) {
+      permit.release();
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.common;
+
+/**
+ * Accounting and reuse of native memory allocated by brotli.
+ *
+ * <p> All encoders and decoders, including the ones behind one-shot methods, allocate through an
+ * accounting allocator, so live and peak amounts of native memory are known globally (here) and
+ * per instance (see {@code Encoder#getNativeBytes} and {@code Decoder#getNativeBytes}).
+ *
+ * <p> Optionally, memory released by instances is kept in a process-wide arena and handed to the
+ * next instance that asks for a block of exactly the same size. Hasher tables and ring buffers of
+ * a given configuration recur in size, so a busy service reuses them instead of cycling them
+ * through {@code malloc}, which keeps resident memory flat and avoids fragmenting malloc arenas.
+ * Arena is off by default; its capacity could also be set with {@code jvmbrotli.nativeArena}
+ * system property (in bytes), which is applied when the native library is loaded.
+ */
+public final class NativeMemory {
+  private static volatile long arenaCapacity;
+
+  private NativeMemory() { }
+
+  /** Applies system properties; called once the native library is loaded. */
+  static void configure() {
+    long capacity = Long.getLong("jvmbrotli.nativeArena", 0);
+    if (capacity > 0) {
+      setArenaCapacity(capacity);
+    }
+  }
+
+  /**
+   * @return native memory held by all encoders and decoders (including memory cached for reuse),
+   *     or 0 if native library is not loaded
+   */
+  public static long getLiveBytes() {
+    return NativeResources.getNativeBytes();
+  }
+
+  /**
+   * @return the highest value of {@link #getLiveBytes} since start or the last
+   *     {@link #resetPeakBytes}, or 0 if native library is not loaded
+   */
+  public static long getPeakBytes() {
+    try {
+      return CommonJNI.nativeGetPeakBytes(false);
+    } catch (UnsatisfiedLinkError ex) {
+      return 0;
+    }
+  }
+
+  /**
+   * Starts new peak measurement from the current amount of live memory.
+   *
+   * @return the peak of the finished measurement, or 0 if native library is not loaded
+   */
+  public static long resetPeakBytes() {
+    try {
+      return CommonJNI.nativeGetPeakBytes(true);
+    } catch (UnsatisfiedLinkError ex) {
+      return 0;
+    }
+  }
+
+  /**
+   * Sets the amount of released memory kept for reuse; blocks above the new capacity are
+   * returned to the system right away.
+   *
+   * @param capacity number of bytes, or 0 to disable the arena
+   */
+  public static synchronized void setArenaCapacity(long capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("capacity should be non-negative");
+    }
+    CommonJNI.nativeSetArenaCapacity(capacity);
+    arenaCapacity = capacity;
+  }
+
+  /**
+   * @return arena capacity in bytes, or 0 if arena is disabled
+   */
+  public static long getArenaCapacity() {
+    return arenaCapacity;
+  }
+
+  /**
+   * @return native memory kept by the arena for reuse; it is included in {@link #getLiveBytes}
+   */
+  public static long getArenaBytes() {
+    try {
+      return CommonJNI.nativeGetArenaBytes();
+    } catch (UnsatisfiedLinkError ex) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.common;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lifecycle of native encoders and decoders.
+ *
+ * <p> Each native instance is registered together with its Java owner. Instances are normally
+ * released explicitly; if the owner becomes unreachable first, the instance is reported as a leak
+ * and released by a daemon cleaner thread (the Java 8 counterpart of
+ * {@code java.lang.ref.Cleaner}). Instances marked idle (e.g. parked in a pool) are released
+ * quietly when they become unreachable together with their pool.
+ *
+ * <p> Allocation stacks of leaked instances are recorded for every N-th registration, where N is
+ * set by {@link #setLeakSamplingInterval} or the {@code jvmbrotli.leakSamplingInterval} system
+ * property; 0 (the default) disables recording.
+ */
+public final class NativeResources {
+  private static final Logger LOGGER = Logger.getLogger(NativeResources.class.getName());
+
+  /**
+   * Kind of native instance.
+   */
+  public enum Kind {
+    ENCODER,
+    DECODER
+  }
+
+  /**
+   * Releases native instance identified by cookie.
+   */
+  public interface Releaser {
+    void release(long cookie);
+  }
+
+  private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<Object>();
+  /** Keeps handles reachable until they are released. */
+  private static final Set<Handle> LIVE =
+      Collections.newSetFromMap(new ConcurrentHashMap<Handle, Boolean>());
+  private static final LongAdder[] LIVE_COUNT = newCounters();
+  private static final LongAdder[] LEAK_COUNT = newCounters();
+  private static final AtomicLong REGISTRATIONS = new AtomicLong();
+  private static volatile int samplingInterval =
+      Integer.getInteger("jvmbrotli.leakSamplingInterval", 0);
+
+  static {
+    Thread cleaner = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (true) {
+          try {
+            ((Handle) QUEUE.remove()).leak();
+          } catch (InterruptedException ex) {
+            /* Ignore */
+          } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "failed to release leaked brotli instance", ex);
+          }
+        }
+      }
+    }, "jvmbrotli-cleaner");
+    cleaner.setDaemon(true);
+    cleaner.start();
+  }
+
+  private NativeResources() { }
+
+  private static LongAdder[] newCounters() {
+    LongAdder[] result = new LongAdder[Kind.values().length];
+    for (int i = 0; i < result.length; ++i) {
+      result[i] = new LongAdder();
+    }
+    return result;
+  }
+
+  /**
+   * Registration of native instance.
+   */
+  public static final class Handle extends PhantomReference<Object> {
+    private final Kind kind;
+    private final long cookie;
+    private final Releaser releaser;
+    private final Throwable allocationSite;
+    private final AtomicBoolean released = new AtomicBoolean();
+    private volatile boolean idle;
+
+    private Handle(Object owner, Kind kind, long cookie, Releaser releaser,
+        Throwable allocationSite) {
+      super(owner, QUEUE);
+      this.kind = kind;
+      this.cookie = cookie;
+      this.releaser = releaser;
+      this.allocationSite = allocationSite;
+    }
+
+    /**
+     * Releases native instance; subsequent calls have no effect.
+     */
+    public void release() {
+      if (released.compareAndSet(false, true)) {
+        unregister();
+      }
+    }
+
+    /**
+     * Marks native instance as idle (owned by a pool and not in use) or busy; idle instances
+     * that become unreachable are not reported as leaks.
+     */
+    public void setIdle(boolean idle) {
+      this.idle = idle;
+    }
+
+    private void leak() {
+      if (released.compareAndSet(false, true)) {
+        if (idle) {
+          unregister();
+          return;
+        }
+        String name = kind.name().toLowerCase(Locale.US);
+        if (allocationSite != null) {
+          LOGGER.log(Level.WARNING, "brotli " + name + " was not closed; allocated at",
+              allocationSite);
+        } else {
+          LOGGER.warning("brotli " + name + " was not closed; set jvmbrotli.leakSamplingInterval"
+              + " to record allocation stacks");
+        }
+        unregister();
+        LEAK_COUNT[kind.ordinal()].increment();
+      }
+    }
+
+    private void unregister() {
+      clear();
+      LIVE.remove(this);
+      LIVE_COUNT[kind.ordinal()].decrement();
+      releaser.release(cookie);
+    }
+  }
+
+  /**
+   * Registers native instance owned by {@code owner}.
+   *
+   * @return handle used to release native instance
+   */
+  public static Handle register(Object owner, Kind kind, long cookie, Releaser releaser) {
+    int interval = samplingInterval;
+    Throwable allocationSite = null;
+    if (interval > 0 && REGISTRATIONS.getAndIncrement() % interval == 0) {
+      allocationSite = new Throwable("allocation site");
+    }
+    Handle handle = new Handle(owner, kind, cookie, releaser, allocationSite);
+    LIVE.add(handle);
+    LIVE_COUNT[kind.ordinal()].increment();
+    return handle;
+  }
+
+  /**
+   * @param interval record allocation stack for every {@code interval}-th instance; 0 disables
+   *     recording
+   */
+  public static void setLeakSamplingInterval(int interval) {
+    if (interval < 0) {
+      throw new IllegalArgumentException("interval should be non-negative");
+    }
+    samplingInterval = interval;
+  }
+
+  /**
+   * @return number of native instances of given kind that are not released yet
+   */
+  public static long getLiveCount(Kind kind) {
+    return LIVE_COUNT[kind.ordinal()].sum();
+  }
+
+  /**
+   * @return number of native instances of given kind released by cleaner rather than explicitly
+   */
+  public static long getLeakCount(Kind kind) {
+    return LEAK_COUNT[kind.ordinal()].sum();
+  }
+
+  /**
+   * @return native memory held by all encoders and decoders (including memory cached for reuse
+   *     after reset), or 0 if native library is not loaded
+   */
+  public static long getNativeBytes() {
+    try {
+      return CommonJNI.nativeGetAllocatedBytes();
+    } catch (UnsatisfiedLinkError ex) {
+      return 0;
+    }
+  }
+}
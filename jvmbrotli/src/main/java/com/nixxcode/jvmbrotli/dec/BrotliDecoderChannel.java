@@ -10,47 +10,93 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * ReadableByteChannel that wraps native brotli decoder.
+ *
+ * <p> Channel never waits on its own: if source is non-blocking and has no data, {@link #read}
+ * returns 0 and {@link #needsInput} reports that source should be registered with a
+ * {@code Selector} for {@code OP_READ} before retrying.
  */
 public class BrotliDecoderChannel extends Decoder implements ReadableByteChannel {
   /** The default internal buffer size used by the decoder. */
   private static final int DEFAULT_BUFFER_SIZE = 16384;
 
-  private final Object mutex = new Object();
+  private final ReentrantLock lock = new ReentrantLock();
 
   /**
    * Creates a BrotliDecoderChannel.
    *
    * @param source underlying source
+   * @param params decoding settings
    * @param bufferSize intermediate buffer size
+   * @param pool pool to borrow native decoder from, or {@code null}
    */
+  public BrotliDecoderChannel(ReadableByteChannel source, Decoder.Parameters params,
+      int bufferSize, DecoderPool pool) throws IOException {
+    super(source, params, bufferSize, pool);
+  }
+
+  public BrotliDecoderChannel(ReadableByteChannel source, Decoder.Parameters params)
+      throws IOException {
+    this(source, params, DEFAULT_BUFFER_SIZE, null);
+  }
+
+  public BrotliDecoderChannel(ReadableByteChannel source, int bufferSize, DecoderPool pool)
+      throws IOException {
+    this(source, new Decoder.Parameters(), bufferSize, pool);
+  }
+
   public BrotliDecoderChannel(ReadableByteChannel source, int bufferSize) throws IOException {
-    super(source, bufferSize);
+    this(source, bufferSize, null);
+  }
+
+  public BrotliDecoderChannel(ReadableByteChannel source, DecoderPool pool) throws IOException {
+    this(source, DEFAULT_BUFFER_SIZE, pool);
   }
 
   public BrotliDecoderChannel(ReadableByteChannel source) throws IOException {
     this(source, DEFAULT_BUFFER_SIZE);
   }
 
+  /**
+   * @return true if the last read stopped because source had no data available
+   */
+  @Override
+  public boolean needsInput() {
+    lock.lock();
+    try {
+      return super.needsInput();
+    } finally {
+      lock.unlock();
+    }
+  }
+
   @Override
   public boolean isOpen() {
-    synchronized (mutex) {
+    lock.lock();
+    try {
       return !closed;
+    } finally {
+      lock.unlock();
     }
   }
 
   @Override
   public void close() throws IOException {
-    synchronized (mutex) {
+    lock.lock();
+    try {
       super.close();
+    } finally {
+      lock.unlock();
     }
   }
 
   @Override
   public int read(ByteBuffer dst) throws IOException {
-    synchronized (mutex) {
+    lock.lock();
+    try {
       if (closed) {
         throw new ClosedChannelException();
       }
@@ -63,6 +109,8 @@ public class BrotliDecoderChannel extends Decoder implements ReadableByteChannel
         result += consume(dst);
       }
       return result;
+    } finally {
+      lock.unlock();
     }
   }
 }
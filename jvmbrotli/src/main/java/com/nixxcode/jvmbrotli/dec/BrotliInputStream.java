@@ -8,7 +8,9 @@ package com.nixxcode.jvmbrotli.dec;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * InputStream that wraps native brotli decoder.
@@ -19,15 +21,74 @@ public class BrotliInputStream extends InputStream {
 
   private final Decoder decoder;
 
+  /**
+   * Channel that blocks until at least one byte is read, even if source returns empty reads;
+   * thus decoder always makes progress.
+   */
+  private static final class SourceChannel implements ReadableByteChannel {
+    private final InputStream source;
+    private final ReadableByteChannel channel;
+
+    SourceChannel(InputStream source) {
+      this.source = source;
+      this.channel = Channels.newChannel(source);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      int result = channel.read(dst);
+      if (result != 0 || !dst.hasRemaining()) {
+        return result;
+      }
+      /* Single byte read blocks until data is available. */
+      int value = source.read();
+      if (value == -1) {
+        return -1;
+      }
+      dst.put((byte) value);
+      return 1;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
   /**
    * Creates a BrotliInputStream.
    *
    * @param source underlying source
+   * @param params decoding settings
    * @param bufferSize intermediate buffer size
+   * @param pool pool to borrow native decoder from, or {@code null}
    */
+  public BrotliInputStream(InputStream source, Decoder.Parameters params, int bufferSize,
+      DecoderPool pool) throws IOException {
+    this.decoder = new Decoder(new SourceChannel(source), params, bufferSize, pool);
+  }
+
+  public BrotliInputStream(InputStream source, Decoder.Parameters params) throws IOException {
+    this(source, params, DEFAULT_BUFFER_SIZE, null);
+  }
+
+  public BrotliInputStream(InputStream source, int bufferSize, DecoderPool pool)
+      throws IOException {
+    this(source, new Decoder.Parameters(), bufferSize, pool);
+  }
+
   public BrotliInputStream(InputStream source, int bufferSize)
       throws IOException {
-    this.decoder = new Decoder(Channels.newChannel(source), bufferSize);
+    this(source, bufferSize, null);
+  }
+
+  public BrotliInputStream(InputStream source, DecoderPool pool) throws IOException {
+    this(source, DEFAULT_BUFFER_SIZE, pool);
   }
 
   public BrotliInputStream(InputStream source) throws IOException {
@@ -38,6 +99,20 @@ public class BrotliInputStream extends InputStream {
     decoder.enableEagerOutput();
   }
 
+  /**
+   * @see Decoder#getNativeBytes
+   */
+  public long getNativeBytes() {
+    return decoder.getNativeBytes();
+  }
+
+  /**
+   * @see Decoder#getPeakNativeBytes
+   */
+  public long getPeakNativeBytes() {
+    return decoder.getPeakNativeBytes();
+  }
+
   @Override
   public void close() throws IOException {
     decoder.close();
@@ -53,16 +128,7 @@ public class BrotliInputStream extends InputStream {
     if (decoder.closed) {
       throw new IOException("read after close");
     }
-    int decoded;
-    // Iterate until at leat one byte is decoded, or EOF reached.
-    while (true) {
-      decoded = decoder.decode();
-      if (decoded != 0) {
-        break;
-      }
-    }
-
-    if (decoded == -1) {
+    if (decoder.decode() == -1) {
       return -1;
     }
     return decoder.buffer.get() & 0xFF;
@@ -78,17 +144,20 @@ public class BrotliInputStream extends InputStream {
     if (decoder.closed) {
       throw new IOException("read after close");
     }
+    if (len == 0) {
+      return 0;
+    }
     if (decoder.decode() == -1) {
       return -1;
     }
     int result = 0;
-    while (len > 0) {
+    while (true) {
       int limit = Math.min(len, decoder.buffer.remaining());
       decoder.buffer.get(b, off, limit);
       off += limit;
       len -= limit;
       result += limit;
-      if (decoder.decode() == -1) {
+      if (len == 0 || decoder.decode() == -1) {
         break;
       }
     }
@@ -6,31 +6,233 @@
 
 package com.nixxcode.jvmbrotli.dec;
 
+import com.nixxcode.jvmbrotli.common.BrotliEvents;
+import com.nixxcode.jvmbrotli.common.BrotliMetrics;
+import com.nixxcode.jvmbrotli.common.CompressionListener;
+import com.nixxcode.jvmbrotli.common.NativeConcurrency;
+import com.nixxcode.jvmbrotli.enc.PreparedDictionary;
 import java.io.IOException;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
-import java.util.ArrayList;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
 
 /**
  * Base class for InputStream / Channel implementations.
  */
 public class Decoder {
   private static final ByteBuffer EMPTY_BUFER = ByteBuffer.allocate(0);
+  /** Some VMs reserve header words in arrays. */
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+  /** Initial output capacity for inputs of unknown decoded size. */
+  private static final int MIN_ESTIMATE = 1024;
+  /** Largest part of a file that is mapped at once. */
+  private static final int MAX_MAPPED_WINDOW = 1 << 28;
+  /** Input passed to native decoder per call; bounds the duration of a single call. */
+  private static final int MAX_REGION_SLICE = 1 << 20;
+  /** Output produced by native decoder per call in one-shot decoding. */
+  private static final int MAX_OUTPUT_SLICE = 4 << 20;
+  /** Size of direct output buffer used for files. */
+  private static final int FILE_OUTPUT_SIZE = 1 << 20;
   private final ReadableByteChannel source;
   private final DecoderJNI.Wrapper decoder;
+  private final DecoderPool pool;
+  /** Receives stream summary on close; null if metrics are disabled. */
+  private final CompressionListener listener;
+  /** Flight recorder event of the stream; null if disabled. */
+  private final Object streamEvent;
+  private final long maxOutputSize;
+  private final double maxExpansionRatio;
+  private final int maxWindow;
+  /** Stream header bits read so far; see {@link #windowBits}. */
+  private int header;
+  /** Number of bits in {@link #header}, or -1 if window is already checked. */
+  private int headerBits = -1;
+  private long inputBytes;
+  private long outputBytes;
+  private long decodeNanos;
   ByteBuffer buffer;
   boolean closed;
   boolean eager;
 
+  /**
+   * Brotli decoder settings.
+   */
+  public static final class Parameters {
+    private boolean largeWindow;
+    private PreparedDictionary dictionary;
+    private boolean fixedRingBuffer;
+    private int maxWindow = -1;
+    private long maxOutputSize = -1;
+    private double maxExpansionRatio = -1;
+
+    public Parameters() { }
+
+    /**
+     * Accepts "large window brotli" streams, with windows of up to 1 GiB.
+     *
+     * <p> Ring buffer of up to window size is allocated in native memory when stream declares
+     * large window; see {@code NativeResources#getNativeBytes}.
+     */
+    public Parameters setLargeWindow(boolean largeWindow) {
+      this.largeWindow = largeWindow;
+      return this;
+    }
+
+    /**
+     * Primes decoder with raw prefix dictionary; input should be produced by encoder using the
+     * same dictionary.
+     *
+     * @param dictionary prepared dictionary, or {@code null} for none
+     */
+    public Parameters setDictionary(PreparedDictionary dictionary) {
+      this.dictionary = dictionary;
+      return this;
+    }
+
+    /**
+     * Allocates ring buffer of the declared window size at once, instead of growing it along with
+     * the content.
+     *
+     * <p> Together with {@link #setMaxWindow} this makes native memory of each decoder fixed and
+     * known in advance.
+     */
+    public Parameters setFixedRingBuffer(boolean fixedRingBuffer) {
+      this.fixedRingBuffer = fixedRingBuffer;
+      return this;
+    }
+
+    /**
+     * Rejects streams that declare larger window; header is checked before native decoder sees
+     * the input, so the ring buffer for such a window is never allocated.
+     *
+     * @param lgwin log2(largest accepted window size), or -1 for no limit
+     */
+    public Parameters setMaxWindow(int lgwin) {
+      if ((lgwin != -1) && ((lgwin < 10) || (lgwin > 30))) {
+        throw new IllegalArgumentException("lgwin should be in range [10, 30], or -1");
+      }
+      this.maxWindow = lgwin;
+      return this;
+    }
+
+    /**
+     * Fails decoding once output exceeds the limit; bytes beyond the limit are never returned.
+     *
+     * @param maxOutputSize largest number of decoded bytes, or -1 for no limit
+     */
+    public Parameters setMaxOutputSize(long maxOutputSize) {
+      if (maxOutputSize < -1) {
+        throw new IllegalArgumentException("maxOutputSize should be non-negative, or -1");
+      }
+      this.maxOutputSize = maxOutputSize;
+      return this;
+    }
+
+    /**
+     * Fails decoding once output exceeds {@code ratio} times the input read so far.
+     *
+     * @param ratio largest accepted expansion ratio, or -1 for no limit
+     */
+    public Parameters setMaxExpansionRatio(double ratio) {
+      if ((ratio != -1) && !(ratio > 0)) {
+        throw new IllegalArgumentException("ratio should be positive, or -1");
+      }
+      this.maxExpansionRatio = ratio;
+      return this;
+    }
+
+    /**
+     * @return true if any limit is set; stateless native decoder does not support them
+     */
+    boolean isBounded() {
+      return fixedRingBuffer || maxWindow != -1 || maxOutputSize != -1 || maxExpansionRatio != -1;
+    }
+
+    /**
+     * @return largest number of bytes that may be decoded from {@code inputSize} bytes
+     */
+    long outputLimit(long inputSize) {
+      long result = (maxOutputSize != -1) ? maxOutputSize : Long.MAX_VALUE;
+      if (maxExpansionRatio != -1) {
+        /* Conversion saturates at Long.MAX_VALUE. */
+        result = Math.min(result, (long) (maxExpansionRatio * inputSize));
+      }
+      return result;
+    }
+
+    /**
+     * Checks window declared by the stream; dictionary prefix carries the header when present.
+     *
+     * @param data stream start; header is looked for at its position
+     */
+    void checkWindow(ByteBuffer data) throws IOException {
+      if (maxWindow == -1) {
+        return;
+      }
+      ByteBuffer start = (dictionary != null) ? dictionary.getPrefix() : data;
+      int header = 0;
+      int bits = 0;
+      for (int i = 0; i < 2 && start.position() + i < start.limit(); ++i) {
+        header |= (start.get(start.position() + i) & 0xFF) << bits;
+        bits += 8;
+      }
+      /* Malformed and incomplete headers are left for native decoder to report. */
+      if (windowBits(header, bits) > maxWindow) {
+        throw new IOException("stream window exceeds limit");
+      }
+    }
+  }
+
+  /**
+   * Parses WBITS of stream header (RFC 7932, section 9.1) and its large window extension.
+   *
+   * @param header header bits, the first one in the lowest bit
+   * @param bits number of valid bits in {@code header}
+   * @return log2(window size); 0 if header is malformed; -1 if more bits are needed
+   */
+  static int windowBits(int header, int bits) {
+    if (bits < 1) {
+      return -1;
+    }
+    if ((header & 1) == 0) {
+      return 16;
+    }
+    if (bits < 4) {
+      return -1;
+    }
+    int n = (header >> 1) & 7;
+    if (n != 0) {
+      return 17 + n;
+    }
+    if (bits < 7) {
+      return -1;
+    }
+    n = (header >> 4) & 7;
+    if (n == 1) {
+      /* Large window: reserved bit, then 6 bits of window size. */
+      if (bits < 14) {
+        return -1;
+      }
+      return (((header >> 7) & 1) != 0) ? 0 : (header >> 8) & 63;
+    }
+    return (n != 0) ? 8 + n : 17;
+  }
+
   /**
    * Creates a Decoder wrapper.
    *
    * @param source underlying source
+   * @param params decoding parameters
    * @param inputBufferSize read buffer size
+   * @param pool pool to borrow native decoder from, or {@code null}
    */
-  public Decoder(ReadableByteChannel source, int inputBufferSize)
-      throws IOException {
+  public Decoder(ReadableByteChannel source, Parameters params, int inputBufferSize,
+      DecoderPool pool) throws IOException {
     if (inputBufferSize <= 0) {
       throw new IllegalArgumentException("buffer size must be positive");
     }
@@ -38,7 +240,32 @@ public class Decoder {
       throw new NullPointerException("source can not be null");
     }
     this.source = source;
-    this.decoder = new DecoderJNI.Wrapper(inputBufferSize);
+    this.pool = pool;
+    this.listener = BrotliMetrics.getListener();
+    this.streamEvent = BrotliEvents.begin(BrotliEvents.DECODER_STREAM);
+    this.maxOutputSize = params.maxOutputSize;
+    this.maxExpansionRatio = params.maxExpansionRatio;
+    this.maxWindow = params.maxWindow;
+    if (params.dictionary != null) {
+      params.checkWindow(null);
+    } else if (maxWindow != -1) {
+      headerBits = 0;
+    }
+    this.decoder = (pool != null)
+        ? pool.acquire(inputBufferSize, params.largeWindow, params.fixedRingBuffer,
+            params.dictionary)
+        : new DecoderJNI.Wrapper(inputBufferSize, params.largeWindow, params.fixedRingBuffer,
+            params.dictionary);
+  }
+
+  public Decoder(ReadableByteChannel source, int inputBufferSize, DecoderPool pool)
+      throws IOException {
+    this(source, new Parameters(), inputBufferSize, pool);
+  }
+
+  public Decoder(ReadableByteChannel source, int inputBufferSize)
+      throws IOException {
+    this(source, inputBufferSize, null);
   }
 
   private void fail(String message) throws IOException {
@@ -74,13 +301,13 @@ public class Decoder {
           return -1;
 
         case OK:
-          decoder.push(0);
+          push(0);
           break;
 
         case NEEDS_MORE_INPUT:
           // In "eager" more pulling preempts pushing.
           if (eager && decoder.hasOutput()) {
-            buffer = decoder.pull();
+            pull();
             break;
           }
           ByteBuffer inputBuffer = decoder.getInputBuffer();
@@ -94,11 +321,14 @@ public class Decoder {
             buffer = EMPTY_BUFER;
             return 0;
           }
-          decoder.push(bytesRead);
+          if (headerBits != -1) {
+            readHeader(inputBuffer, bytesRead);
+          }
+          push(bytesRead);
           break;
 
         case NEEDS_MORE_OUTPUT:
-          buffer = decoder.pull();
+          pull();
           break;
 
         default:
@@ -107,6 +337,70 @@ public class Decoder {
     }
   }
 
+  /**
+   * Collects stream header from the first input bytes and checks the declared window before
+   * native decoder allocates it.
+   */
+  private void readHeader(ByteBuffer input, int length) throws IOException {
+    for (int i = 0; i < length && headerBits < 16; ++i) {
+      header |= (input.get(i) & 0xFF) << headerBits;
+      headerBits += 8;
+    }
+    int lgwin = windowBits(header, headerBits);
+    if (lgwin != -1 || headerBits == 16) {
+      headerBits = -1;
+      if (lgwin > maxWindow) {
+        fail("stream window exceeds limit");
+      }
+    }
+  }
+
+  private void push(int length) throws IOException {
+    boolean timed = listener != null || streamEvent != null;
+    Semaphore permit = NativeConcurrency.acquire();
+    long start = timed ? System.nanoTime() : 0;
+    try {
+      decoder.push(length);
+    } finally {
+      NativeConcurrency.release(permit);
+    }
+    if (timed) {
+      decodeNanos += System.nanoTime() - start;
+    }
+    inputBytes += length;
+  }
+
+  private void pull() throws IOException {
+    buffer = decoder.pull();
+    outputBytes += buffer.remaining();
+    if ((maxOutputSize != -1 && outputBytes > maxOutputSize) || (maxExpansionRatio != -1
+        && outputBytes > (long) (maxExpansionRatio * inputBytes))) {
+      fail("decoded data exceeds output limit");
+    }
+  }
+
+  /**
+   * @return true if decoding stopped because source had no data available
+   */
+  boolean needsInput() {
+    return buffer == EMPTY_BUFER;
+  }
+
+  /**
+   * @return native memory held by the decoder (state, ring buffer, input buffer and blocks
+   *     cached for reuse), or 0 once it is closed
+   */
+  public long getNativeBytes() {
+    return closed ? 0 : decoder.getNativeBytes();
+  }
+
+  /**
+   * @return the highest amount of native memory held during the stream, or 0 once it is closed
+   */
+  public long getPeakNativeBytes() {
+    return closed ? 0 : decoder.getPeakNativeBytes();
+  }
+
   void discard(int length) {
     ((Buffer) buffer).position(buffer.position() + length);
     if (!buffer.hasRemaining()) {
@@ -128,7 +422,16 @@ public class Decoder {
       return;
     }
     closed = true;
-    decoder.destroy();
+    buffer = null;
+    if (listener != null) {
+      listener.decoded(inputBytes, outputBytes, decodeNanos);
+    }
+    BrotliEvents.endDecode(streamEvent, inputBytes, outputBytes, decodeNanos);
+    if (pool != null) {
+      pool.release(decoder);
+    } else {
+      decoder.destroy();
+    }
     source.close();
   }
 
@@ -136,42 +439,458 @@ public class Decoder {
    * Decodes the given data buffer.
    */
   public static byte[] decompress(byte[] data) throws IOException {
-    DecoderJNI.Wrapper decoder = new DecoderJNI.Wrapper(data.length);
-    ArrayList<byte[]> output = new ArrayList<byte[]>();
-    int totalOutputSize = 0;
+    return decompress(data, (DecoderPool) null);
+  }
+
+  /**
+   * Decodes the given data buffer with native decoder borrowed from {@code pool}.
+   *
+   * @param pool pool to borrow native decoder from, or {@code null}
+   */
+  public static byte[] decompress(byte[] data, DecoderPool pool) throws IOException {
+    return decompress(data, new Parameters(), pool);
+  }
+
+  /**
+   * Decodes the given data buffer with given parameters.
+   */
+  public static byte[] decompress(byte[] data, Parameters params) throws IOException {
+    return decompress(data, params, null);
+  }
+
+  /**
+   * Decodes the given data buffer with given parameters and native decoder borrowed from
+   * {@code pool}.
+   *
+   * @param pool pool to borrow native decoder from, or {@code null}
+   */
+  public static byte[] decompress(byte[] data, Parameters params, DecoderPool pool)
+      throws IOException {
+    return decompress(data, estimateSize(data.length), params, pool);
+  }
+
+  /** Initial output capacity for input of unknown decoded size. */
+  private static int estimateSize(int inputLength) {
+    return (int) Math.min(MAX_ARRAY_SIZE, Math.max(MIN_ESTIMATE, 4L * inputLength));
+  }
+
+  /**
+   * Decodes the given data buffer, which is expected to decode into {@code expectedSize} bytes.
+   *
+   * <p> If the expectation holds, the result is the only array allocated; otherwise the output
+   * array is grown as needed.
+   */
+  public static byte[] decompress(byte[] data, int expectedSize) throws IOException {
+    return decompress(data, expectedSize, null);
+  }
+
+  /**
+   * Decodes the given data buffer, which is expected to decode into {@code expectedSize} bytes,
+   * with native decoder borrowed from {@code pool}.
+   *
+   * @param pool pool to borrow native decoder from, or {@code null}
+   */
+  public static byte[] decompress(byte[] data, int expectedSize, DecoderPool pool)
+      throws IOException {
+    return decompress(data, expectedSize, new Parameters(), pool);
+  }
+
+  /**
+   * Decodes the given data buffer, which is expected to decode into {@code expectedSize} bytes,
+   * with given parameters and native decoder borrowed from {@code pool}.
+   *
+   * @param pool pool to borrow native decoder from, or {@code null}
+   */
+  public static byte[] decompress(byte[] data, int expectedSize, Parameters params,
+      DecoderPool pool) throws IOException {
+    CompressionListener listener = BrotliMetrics.getListener();
+    Object event = BrotliEvents.begin(BrotliEvents.DECOMPRESS);
+    if (listener == null && event == null) {
+      return decompressArray(data, expectedSize, params, pool);
+    }
+    long start = System.nanoTime();
+    byte[] result = decompressArray(data, expectedSize, params, pool);
+    long nanos = System.nanoTime() - start;
+    if (listener != null) {
+      listener.decoded(data.length, result.length, nanos);
+    }
+    BrotliEvents.endDecode(event, data.length, result.length, nanos);
+    return result;
+  }
+
+  private static byte[] decompressArray(byte[] data, int expectedSize, Parameters params,
+      DecoderPool pool) throws IOException {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("expected size should be non-negative");
+    }
+    params.checkWindow(ByteBuffer.wrap(data));
+    long limit = params.outputLimit(data.length);
+    DecoderJNI.Wrapper decoder = (pool != null)
+        ? pool.acquire(0, params.largeWindow, params.fixedRingBuffer, params.dictionary)
+        : new DecoderJNI.Wrapper(0, params.largeWindow, params.fixedRingBuffer,
+            params.dictionary);
+    byte[] output = new byte[(int) Math.min(expectedSize, limit)];
+    int inputOffset = 0;
+    int outputSize = 0;
     try {
-      decoder.getInputBuffer().put(data);
-      decoder.push(data.length);
-      while (decoder.getStatus() != DecoderJNI.Status.DONE) {
+      while (true) {
+        /* Slices keep each native call, and the permit it holds, short. */
+        int inputLength = Math.min(data.length - inputOffset, MAX_REGION_SLICE);
+        int outputLength = Math.min(output.length - outputSize, MAX_OUTPUT_SLICE);
+        Semaphore permit = NativeConcurrency.acquire();
+        try {
+          outputSize += decoder.decompress(data, inputOffset, inputLength,
+              output, outputSize, outputLength);
+        } finally {
+          NativeConcurrency.release(permit);
+        }
+        inputOffset += decoder.getLastConsumed();
         switch (decoder.getStatus()) {
-          case OK:
-            decoder.push(0);
-            break;
+          case DONE:
+            if (inputOffset < data.length) {
+              /* Bytes after stream end are not allowed. */
+              throw new IOException("corrupted input");
+            }
+            return (outputSize == output.length) ? output : Arrays.copyOf(output, outputSize);
 
           case NEEDS_MORE_OUTPUT:
-            ByteBuffer buffer = decoder.pull();
-            byte[] chunk = new byte[buffer.remaining()];
-            buffer.get(chunk);
-            output.add(chunk);
-            totalOutputSize += chunk.length;
+            if (outputSize < output.length) {
+              break;
+            }
+            if (output.length >= limit) {
+              throw new IOException("decoded data exceeds output limit");
+            }
+            if (output.length == MAX_ARRAY_SIZE) {
+              throw new IOException("decoded data is too large");
+            }
+            long grown = Math.min(limit, Math.max(MIN_ESTIMATE, 2L * output.length));
+            output = Arrays.copyOf(output, (int) Math.min(MAX_ARRAY_SIZE, grown));
             break;
 
+          case NEEDS_MORE_INPUT:
+            if (inputOffset < data.length) {
+              break;
+            }
+            throw new IOException("unexpected end of input");
+
           default:
             throw new IOException("corrupted input");
         }
       }
+    } finally {
+      if (pool != null) {
+        pool.release(decoder);
+      } else {
+        decoder.destroy();
+      }
+    }
+  }
+
+  /**
+   * Decodes the given data buffer into {@code dst}.
+   *
+   * <p> {@code data} must contain exactly one complete brotli stream.
+   *
+   * @return number of bytes written to {@code dst}
+   */
+  public static int decompress(byte[] data, byte[] dst) throws IOException {
+    CompressionListener listener = BrotliMetrics.getListener();
+    Object event = BrotliEvents.begin(BrotliEvents.DECOMPRESS);
+    long start = (listener != null || event != null) ? System.nanoTime() : 0;
+    int result = decompressInPlace(ByteBuffer.wrap(data), ByteBuffer.wrap(dst), new Parameters());
+    report(listener, event, data.length, result, start);
+    return result;
+  }
+
+  /**
+   * Decodes the remaining bytes of {@code src} into {@code dst}.
+   *
+   * <p> {@code src} must contain exactly one complete brotli stream. Direct buffers and arrays of
+   * heap buffers are read and written by native code in place. On success the position of
+   * {@code src} is moved to its limit, and the position of {@code dst} is advanced by the number
+   * of bytes written.
+   *
+   * @return number of bytes written to {@code dst}
+   */
+  public static int decompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+    return decompress(src, dst, new Parameters());
+  }
+
+  /**
+   * Decodes {@code source} from its position to its end into {@code destination}.
+   *
+   * <p> Source must contain exactly one complete brotli stream. It is memory-mapped in windows of
+   * up to 256 MiB that native decoder reads in place, so files of any size are decoded without
+   * copying input through the heap. Output is written from a direct buffer. On success the
+   * position of {@code source} is moved to its end.
+   *
+   * @return number of bytes written to {@code destination}
+   */
+  public static long decompress(FileChannel source, WritableByteChannel destination,
+      Parameters params) throws IOException {
+    CompressionListener listener = BrotliMetrics.getListener();
+    Object event = BrotliEvents.begin(BrotliEvents.DECOMPRESS);
+    long start = (listener != null || event != null) ? System.nanoTime() : 0;
+    long offset = source.position();
+    long size = source.size();
+    long inputSize = Math.max(size - offset, 0);
+    long limit = params.outputLimit(inputSize);
+    DecoderJNI.Wrapper decoder = new DecoderJNI.Wrapper(0, params.largeWindow,
+        params.fixedRingBuffer, params.dictionary);
+    ByteBuffer output = ByteBuffer.allocateDirect(FILE_OUTPUT_SIZE);
+    long written = 0;
+    try {
+      while (decoder.getStatus() != DecoderJNI.Status.DONE) {
+        long windowSize = Math.min(MAX_MAPPED_WINDOW, size - offset);
+        if (windowSize <= 0) {
+          throw new IOException("unexpected end of input");
+        }
+        ByteBuffer window = source.map(FileChannel.MapMode.READ_ONLY, offset, windowSize);
+        if (offset == source.position()) {
+          params.checkWindow(window);
+        }
+        offset += windowSize;
+        written += decompressRegion(decoder, window, output, destination, limit - written);
+      }
+      if (offset < size) {
+        /* Bytes after stream end are not allowed. */
+        throw new IOException("corrupted input");
+      }
+      written += writeOutput(output, destination);
     } finally {
       decoder.destroy();
     }
-    if (output.size() == 1) {
-      return output.get(0);
+    source.position(size);
+    if (listener != null || event != null) {
+      long nanos = System.nanoTime() - start;
+      if (listener != null) {
+        listener.decoded(inputSize, written, nanos);
+      }
+      BrotliEvents.endDecode(event, inputSize, written, nanos);
+    }
+    return written;
+  }
+
+  public static long decompress(FileChannel source, WritableByteChannel destination)
+      throws IOException {
+    return decompress(source, destination, new Parameters());
+  }
+
+  /**
+   * Feeds mapped window to decoder in slices; output buffer is written out whenever it is full.
+   *
+   * @param limit largest number of bytes that may be written, including the ones already in
+   *     {@code output}
+   * @return number of bytes written to {@code destination}
+   */
+  private static long decompressRegion(DecoderJNI.Wrapper decoder, ByteBuffer input,
+      ByteBuffer output, WritableByteChannel destination, long limit) throws IOException {
+    long written = 0;
+    while (true) {
+      if (!output.hasRemaining()) {
+        written += writeOutput(output, destination);
+      }
+      int length = Math.min(input.remaining(), MAX_REGION_SLICE);
+      int produced;
+      Semaphore permit = NativeConcurrency.acquire();
+      try {
+        produced = decoder.decompress(input, input.position(), length,
+            output, output.position(), output.remaining());
+      } finally {
+        NativeConcurrency.release(permit);
+      }
+      ((Buffer) input).position(input.position() + decoder.getLastConsumed());
+      ((Buffer) output).position(output.position() + produced);
+      if (written + output.position() > limit) {
+        throw new IOException("decoded data exceeds output limit");
+      }
+      switch (decoder.getStatus()) {
+        case DONE:
+          if (input.hasRemaining()) {
+            throw new IOException("corrupted input");
+          }
+          return written;
+
+        case NEEDS_MORE_OUTPUT:
+          break;
+
+        case NEEDS_MORE_INPUT:
+          if (!input.hasRemaining()) {
+            return written;
+          }
+          break;
+
+        default:
+          throw new IOException("corrupted input");
+      }
+    }
+  }
+
+  /**
+   * Writes out and clears {@code output}.
+   *
+   * @return number of bytes written
+   */
+  private static int writeOutput(ByteBuffer output, WritableByteChannel destination)
+      throws IOException {
+    ((Buffer) output).flip();
+    int result = output.remaining();
+    while (output.hasRemaining()) {
+      destination.write(output);
+    }
+    ((Buffer) output).clear();
+    return result;
+  }
+
+  /**
+   * Decodes the remaining bytes of {@code src} into {@code dst} with given parameters; see
+   * {@link #decompress(ByteBuffer, ByteBuffer)}.
+   *
+   * @return number of bytes written to {@code dst}
+   */
+  public static int decompress(ByteBuffer src, ByteBuffer dst, Parameters params)
+      throws IOException {
+    if (dst.isReadOnly()) {
+      throw new ReadOnlyBufferException();
     }
-    byte[] result = new byte[totalOutputSize];
-    int offset = 0;
-    for (byte[] chunk : output) {
-      System.arraycopy(chunk, 0, result, offset, chunk.length);
-      offset += chunk.length;
+    CompressionListener listener = BrotliMetrics.getListener();
+    Object event = BrotliEvents.begin(BrotliEvents.DECOMPRESS);
+    long start = (listener != null || event != null) ? System.nanoTime() : 0;
+    int srcLength = src.remaining();
+    int result;
+    if ((src.isDirect() || src.hasArray()) && (dst.isDirect() || dst.hasArray())) {
+      result = decompressInPlace(src, dst, params);
+      ((Buffer) dst).position(dst.position() + result);
+    } else {
+      byte[] data = new byte[src.remaining()];
+      src.duplicate().get(data);
+      byte[] output = decompressArray(data, estimateSize(data.length), params, null);
+      if (output.length > dst.remaining()) {
+        throw new IOException("output buffer is too small");
+      }
+      dst.put(output);
+      result = output.length;
     }
+    ((Buffer) src).position(src.limit());
+    report(listener, event, srcLength, result, start);
     return result;
   }
+
+  /** Reports one-shot decompression that started at {@code start}. */
+  private static void report(CompressionListener listener, Object event, int inputSize,
+      int outputSize, long start) {
+    if (listener == null && event == null) {
+      return;
+    }
+    long nanos = System.nanoTime() - start;
+    if (listener != null) {
+      listener.decoded(inputSize, outputSize, nanos);
+    }
+    BrotliEvents.endDecode(event, inputSize, outputSize, nanos);
+  }
+
+  /**
+   * Decodes the remaining bytes of {@code src} into {@code dst} in place; buffer positions are
+   * not changed. Each native call holds a native concurrency permit.
+   *
+   * <p> Small input is decoded by stateless decoder in one call. Stateless decoder does not
+   * support dictionaries and limits; with those, or for larger input, stateful decoder is fed
+   * slice by slice.
+   */
+  private static int decompressInPlace(ByteBuffer src, ByteBuffer dst, Parameters params)
+      throws IOException {
+    if (params.dictionary != null || params.isBounded()
+        || src.remaining() > MAX_REGION_SLICE || dst.remaining() > MAX_OUTPUT_SLICE) {
+      return decompressSlices(src, dst, params);
+    }
+    Semaphore permit = NativeConcurrency.acquire();
+    try {
+      return check(DecoderJNI.decompress(regionOf(src), offsetOf(src), src.remaining(),
+          regionOf(dst), offsetOf(dst), dst.remaining(), params.largeWindow));
+    } finally {
+      NativeConcurrency.release(permit);
+    }
+  }
+
+  private static int decompressSlices(ByteBuffer src, ByteBuffer dst, Parameters params)
+      throws IOException {
+    params.checkWindow(src);
+    Object input = regionOf(src);
+    int inputOffset = offsetOf(src);
+    int inputEnd = inputOffset + src.remaining();
+    Object output = regionOf(dst);
+    int outputOffset = offsetOf(dst);
+    /* Output beyond the limit is never produced. */
+    int dstLength = (int) Math.min(dst.remaining(), params.outputLimit(src.remaining()));
+    DecoderJNI.Wrapper decoder = new DecoderJNI.Wrapper(0, params.largeWindow,
+        params.fixedRingBuffer, params.dictionary);
+    int result = 0;
+    try {
+      while (true) {
+        int inputLength = Math.min(inputEnd - inputOffset, MAX_REGION_SLICE);
+        int outputLength = Math.min(dstLength - result, MAX_OUTPUT_SLICE);
+        Semaphore permit = NativeConcurrency.acquire();
+        try {
+          result += decoder.decompress(input, inputOffset, inputLength,
+              output, outputOffset + result, outputLength);
+        } finally {
+          NativeConcurrency.release(permit);
+        }
+        inputOffset += decoder.getLastConsumed();
+        switch (decoder.getStatus()) {
+          case DONE:
+            if (inputOffset < inputEnd) {
+              /* Bytes after stream end are not allowed. */
+              throw new IOException("corrupted input");
+            }
+            return result;
+
+          case NEEDS_MORE_OUTPUT:
+            if (result < dstLength) {
+              break;
+            }
+            if (dstLength < dst.remaining()) {
+              throw new IOException("decoded data exceeds output limit");
+            }
+            throw new IOException("output buffer is too small");
+
+          case NEEDS_MORE_INPUT:
+            if (inputOffset < inputEnd) {
+              break;
+            }
+            throw new IOException("unexpected end of input");
+
+          default:
+            throw new IOException("corrupted input");
+        }
+      }
+    } finally {
+      decoder.destroy();
+    }
+  }
+
+  private static int check(int result) throws IOException {
+    switch (result) {
+      case -2:
+        throw new IOException("output buffer is too small");
+
+      case -3:
+        throw new IOException("unexpected end of input");
+
+      default:
+        if (result < 0) {
+          throw new IOException("corrupted input");
+        }
+        return result;
+    }
+  }
+
+  /** Memory passed to native code: direct buffer itself, or its backing array. */
+  private static Object regionOf(ByteBuffer buffer) {
+    return buffer.isDirect() ? buffer : buffer.array();
+  }
+
+  private static int offsetOf(ByteBuffer buffer) {
+    return buffer.isDirect() ? buffer.position() : buffer.arrayOffset() + buffer.position();
+  }
 }
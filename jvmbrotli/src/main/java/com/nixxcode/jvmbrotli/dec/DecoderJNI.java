@@ -6,17 +6,27 @@
 
 package com.nixxcode.jvmbrotli.dec;
 
+import com.nixxcode.jvmbrotli.common.NativeResources;
+import com.nixxcode.jvmbrotli.enc.PreparedDictionary;
 import java.io.IOException;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * JNI wrapper for brotli decoder.
  */
 class DecoderJNI {
-  private static native ByteBuffer nativeCreate(long[] context);
-  private static native void nativePush(long[] context, int length);
-  private static native ByteBuffer nativePull(long[] context);
-  private static native void nativeDestroy(long[] context);
+  private static native ByteBuffer nativeCreate(ByteBuffer statusBlock, int inputBufferSize,
+      boolean largeWindow, boolean fixedRingBuffer, ByteBuffer prefix);
+  private static native void nativePush(long cookie, int length);
+  private static native ByteBuffer nativePull(long cookie);
+  private static native void nativeDestroy(long cookie);
+  private static native boolean nativeReset(long cookie);
+  private static native int nativeDecompress(Object src, int srcOffset, int srcLength,
+      Object dst, int dstOffset, int dstLength, boolean largeWindow);
+  private static native long nativeDecompressStream(long cookie, Object src, int srcOffset,
+      int srcLength, Object dst, int dstOffset, int dstLength);
 
   public enum Status {
     ERROR,
@@ -26,25 +36,83 @@ class DecoderJNI {
     OK
   };
 
+  /**
+   * Decompresses memory region into another memory region in one go.
+   *
+   * <p> Source and destination are either direct {@link ByteBuffer}s or {@code byte[]}s; arrays
+   * are pinned by native code for the duration of the call.
+   *
+   * @param largeWindow accept large window streams
+   * @return number of bytes written to destination, or negative error code: -1 if input is
+   *     corrupted, -2 if destination is not large enough, -3 if input is truncated
+   */
+  static int decompress(Object src, int srcOffset, int srcLength,
+      Object dst, int dstOffset, int dstLength, boolean largeWindow) {
+    return nativeDecompress(src, srcOffset, srcLength, dst, dstOffset, dstLength, largeWindow);
+  }
+
+  /**
+   * Status block layout: {int64 cookie, int32 status, int32 has_more_output,
+   * int64 native_bytes, int64 peak_native_bytes}.
+   *
+   * <p> Native code publishes decoder state here, so calls do not need to marshal arrays.
+   */
+  private static final int STATUS_BLOCK_SIZE = 32;
+  private static final int STATUS_OFFSET = 8;
+  private static final int HAS_MORE_OUTPUT_OFFSET = 12;
+  private static final int NATIVE_BYTES_OFFSET = 16;
+  private static final int PEAK_NATIVE_BYTES_OFFSET = 24;
+
+  private static final NativeResources.Releaser DESTROY = new NativeResources.Releaser() {
+    @Override
+    public void release(long cookie) {
+      nativeDestroy(cookie);
+    }
+  };
+
   public static class Wrapper {
-    private final long[] context = new long[3];
+    private final ByteBuffer statusBlock =
+        ByteBuffer.allocateDirect(STATUS_BLOCK_SIZE).order(ByteOrder.nativeOrder());
+    private long cookie;
+    private final NativeResources.Handle resource;
     private final ByteBuffer inputBuffer;
     private Status lastStatus = Status.NEEDS_MORE_INPUT;
+    private int lastConsumed;
     private boolean fresh = true;
+    final int inputBufferSize;
+    final boolean largeWindow;
+    final boolean fixedRingBuffer;
+    /** Keeps dictionary memory reachable while native decoder refers to it. */
+    final PreparedDictionary dictionary;
 
-    public Wrapper(int inputBufferSize) throws IOException {
-      this.context[1] = inputBufferSize;
-      this.inputBuffer = nativeCreate(this.context);
-      if (this.context[0] == 0) {
+    /**
+     * @param inputBufferSize internal input buffer size; 0 for decoders that only decompress
+     *     caller memory (see {@link #decompress})
+     * @param largeWindow accept large window streams
+     * @param fixedRingBuffer allocate ring buffer of window size at once, instead of growing it
+     *     along with the content
+     * @param dictionary dictionary to prime decoder with (also after reset), or {@code null}
+     */
+    public Wrapper(int inputBufferSize, boolean largeWindow, boolean fixedRingBuffer,
+        PreparedDictionary dictionary) throws IOException {
+      this.inputBufferSize = inputBufferSize;
+      this.largeWindow = largeWindow;
+      this.fixedRingBuffer = fixedRingBuffer;
+      this.dictionary = dictionary;
+      this.inputBuffer = nativeCreate(this.statusBlock, inputBufferSize, largeWindow,
+          fixedRingBuffer, (dictionary != null) ? dictionary.getPrefix() : null);
+      this.cookie = this.statusBlock.getLong(0);
+      if (this.cookie == 0) {
         throw new IOException("failed to initialize native brotli decoder");
       }
+      this.resource = NativeResources.register(this, NativeResources.Kind.DECODER, cookie, DESTROY);
     }
 
     public void push(int length) {
       if (length < 0) {
         throw new IllegalArgumentException("negative block length");
       }
-      if (context[0] == 0) {
+      if (cookie == 0) {
         throw new IllegalStateException("brotli decoder is already destroyed");
       }
       if (lastStatus != Status.NEEDS_MORE_INPUT && lastStatus != Status.OK) {
@@ -54,12 +122,12 @@ class DecoderJNI {
         throw new IllegalStateException("pushing input to decoder in OK state");
       }
       fresh = false;
-      nativePush(context, length);
+      nativePush(cookie, length);
       parseStatus();
     }
 
     private void parseStatus() {
-      long status = context[1];
+      int status = statusBlock.getInt(STATUS_OFFSET);
       if (status == 1) {
         lastStatus = Status.DONE;
       } else if (status == 2) {
@@ -82,40 +150,110 @@ class DecoderJNI {
     }
 
     public boolean hasOutput() {
-      return context[2] != 0;
+      return statusBlock.getInt(HAS_MORE_OUTPUT_OFFSET) != 0;
+    }
+
+    /**
+     * @return native memory held by this decoder, including memory cached for reuse after reset
+     */
+    public long getNativeBytes() {
+      return (cookie != 0) ? statusBlock.getLong(NATIVE_BYTES_OFFSET) : 0;
+    }
+
+    /**
+     * @return the highest amount of native memory held since creation or the last reset
+     */
+    public long getPeakNativeBytes() {
+      return (cookie != 0) ? statusBlock.getLong(PEAK_NATIVE_BYTES_OFFSET) : 0;
     }
 
     public ByteBuffer pull() {
-      if (context[0] == 0) {
+      if (cookie == 0) {
         throw new IllegalStateException("brotli decoder is already destroyed");
       }
       if (lastStatus != Status.NEEDS_MORE_OUTPUT && !hasOutput()) {
         throw new IllegalStateException("pulling output from decoder in " + lastStatus + " state");
       }
       fresh = false;
-      ByteBuffer result = nativePull(context);
+      ByteBuffer result = nativePull(cookie);
       parseStatus();
       return result;
     }
 
     /**
-     * Releases native resources.
+     * Decodes caller memory into caller memory; internal input buffer is not involved.
+     *
+     * <p> Source and destination are either direct {@link ByteBuffer}s or {@code byte[]}s.
+     *
+     * @return number of bytes written to destination; number of consumed input bytes is
+     *     reported by {@link #getLastConsumed()}
      */
-    public void destroy() {
-      if (context[0] == 0) {
+    public int decompress(Object src, int srcOffset, int srcLength,
+        Object dst, int dstOffset, int dstLength) {
+      if (srcLength < 0 || dstLength < 0) {
+        throw new IllegalArgumentException("negative block length");
+      }
+      if (cookie == 0) {
+        throw new IllegalStateException("brotli decoder is already destroyed");
+      }
+      if (lastStatus == Status.ERROR || lastStatus == Status.DONE) {
+        throw new IllegalStateException("decoding in " + lastStatus + " state");
+      }
+      fresh = false;
+      long result = nativeDecompressStream(cookie, src, srcOffset, srcLength,
+          dst, dstOffset, dstLength);
+      parseStatus();
+      lastConsumed = (int) (result >>> 32);
+      return (int) result;
+    }
+
+    /**
+     * @return number of input bytes consumed by the last {@link #decompress} call
+     */
+    public int getLastConsumed() {
+      return lastConsumed;
+    }
+
+    /**
+     * Prepares decoder for a new stream.
+     *
+     * <p> Native memory (ring buffer, tables, input buffer) is kept and reused.
+     */
+    public void reset() throws IOException {
+      if (cookie == 0) {
         throw new IllegalStateException("brotli decoder is already destroyed");
       }
-      nativeDestroy(context);
-      context[0] = 0;
+      if (fresh) {
+        return;
+      }
+      if (!nativeReset(cookie)) {
+        lastStatus = Status.ERROR;
+        throw new IOException("failed to reset native brotli decoder");
+      }
+      if (inputBuffer != null) {
+        ((Buffer) inputBuffer).clear();
+      }
+      lastStatus = Status.NEEDS_MORE_INPUT;
+      lastConsumed = 0;
+      fresh = true;
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-      if (context[0] != 0) {
-        /* TODO: log resource leak? */
-        destroy();
+    /**
+     * Marks decoder as parked in a pool ({@code true}) or taken out of it ({@code false}).
+     */
+    void setIdle(boolean idle) {
+      resource.setIdle(idle);
+    }
+
+    /**
+     * Releases native resources.
+     */
+    public void destroy() {
+      if (cookie == 0) {
+        throw new IllegalStateException("brotli decoder is already destroyed");
       }
-      super.finalize();
+      resource.release();
+      cookie = 0;
     }
   }
 }
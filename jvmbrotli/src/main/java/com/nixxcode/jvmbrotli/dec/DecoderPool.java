@@ -0,0 +1,161 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.dec;
+
+import com.nixxcode.jvmbrotli.enc.PreparedDictionary;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pool of native decoders, keyed by buffer size, window mode, ring buffer mode and dictionary.
+ *
+ * <p> Decoders returned to the pool are reset, so the next stream reuses native memory (ring
+ * buffer, tables, input buffer) instead of allocating it anew. Pool is thread-safe; each
+ * borrowed decoder is used by one stream at a time.
+ */
+public final class DecoderPool {
+  /** The default number of idle decoders kept per key. */
+  private static final int DEFAULT_MAX_IDLE = 8;
+
+  private final int maxIdlePerKey;
+  private final Map<Key, ArrayDeque<DecoderJNI.Wrapper>> idle =
+      new HashMap<Key, ArrayDeque<DecoderJNI.Wrapper>>();
+
+  private static final class Key {
+    final int inputBufferSize;
+    final boolean largeWindow;
+    final boolean fixedRingBuffer;
+    final PreparedDictionary dictionary;
+
+    Key(int inputBufferSize, boolean largeWindow, boolean fixedRingBuffer,
+        PreparedDictionary dictionary) {
+      this.inputBufferSize = inputBufferSize;
+      this.largeWindow = largeWindow;
+      this.fixedRingBuffer = fixedRingBuffer;
+      this.dictionary = dictionary;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return inputBufferSize == key.inputBufferSize && largeWindow == key.largeWindow
+          && fixedRingBuffer == key.fixedRingBuffer && dictionary == key.dictionary;
+    }
+
+    @Override
+    public int hashCode() {
+      return (inputBufferSize * 4 + (largeWindow ? 2 : 0) + (fixedRingBuffer ? 1 : 0)) * 31
+          + System.identityHashCode(dictionary);
+    }
+  }
+
+  /**
+   * Creates a pool.
+   *
+   * @param maxIdlePerKey maximal number of idle decoders kept for each key
+   */
+  public DecoderPool(int maxIdlePerKey) {
+    if (maxIdlePerKey < 0) {
+      throw new IllegalArgumentException("maxIdlePerKey should be non-negative");
+    }
+    this.maxIdlePerKey = maxIdlePerKey;
+  }
+
+  public DecoderPool() {
+    this(DEFAULT_MAX_IDLE);
+  }
+
+  /**
+   * Takes an idle decoder, or creates a new one.
+   */
+  DecoderJNI.Wrapper acquire(int inputBufferSize, boolean largeWindow, boolean fixedRingBuffer,
+      PreparedDictionary dictionary) throws IOException {
+    synchronized (idle) {
+      ArrayDeque<DecoderJNI.Wrapper> decoders =
+          idle.get(new Key(inputBufferSize, largeWindow, fixedRingBuffer, dictionary));
+      if (decoders != null && !decoders.isEmpty()) {
+        DecoderJNI.Wrapper decoder = decoders.pop();
+        decoder.setIdle(false);
+        return decoder;
+      }
+    }
+    return new DecoderJNI.Wrapper(inputBufferSize, largeWindow, fixedRingBuffer, dictionary);
+  }
+
+  /**
+   * Resets decoder and makes it available for the next stream; decoder is destroyed if it can
+   * not be reset or there are enough idle ones.
+   */
+  void release(DecoderJNI.Wrapper decoder) {
+    try {
+      decoder.reset();
+    } catch (IOException ex) {
+      decoder.destroy();
+      return;
+    }
+    Key key = new Key(decoder.inputBufferSize, decoder.largeWindow, decoder.fixedRingBuffer,
+        decoder.dictionary);
+    synchronized (idle) {
+      ArrayDeque<DecoderJNI.Wrapper> decoders = idle.get(key);
+      if (decoders == null) {
+        decoders = new ArrayDeque<DecoderJNI.Wrapper>();
+        idle.put(key, decoders);
+      }
+      if (decoders.size() < maxIdlePerKey) {
+        decoder.setIdle(true);
+        decoders.push(decoder);
+        return;
+      }
+    }
+    decoder.destroy();
+  }
+
+  /**
+   * @return number of idle decoders held by the pool
+   */
+  public int getIdleCount() {
+    synchronized (idle) {
+      int result = 0;
+      for (ArrayDeque<DecoderJNI.Wrapper> decoders : idle.values()) {
+        result += decoders.size();
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Destroys all idle decoders.
+   */
+  public void clear() {
+    ArrayList<DecoderJNI.Wrapper> decoders = new ArrayList<DecoderJNI.Wrapper>();
+    synchronized (idle) {
+      for (ArrayDeque<DecoderJNI.Wrapper> queue : idle.values()) {
+        decoders.addAll(queue);
+      }
+      idle.clear();
+    }
+    for (DecoderJNI.Wrapper decoder : decoders) {
+      decoder.destroy();
+    }
+  }
+}
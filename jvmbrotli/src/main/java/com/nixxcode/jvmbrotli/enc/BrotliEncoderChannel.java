@@ -11,15 +11,23 @@ import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * WritableByteChannel that wraps native brotli encoder.
+ *
+ * <p> In non-blocking mode (see {@link #configureBlocking}) no method waits for destination:
+ * {@link #write}, {@link #flush} and {@link #finish} report that they would block, and
+ * {@link #hasPendingOutput} tells whether destination should be registered with a
+ * {@code Selector} for {@code OP_WRITE} before retrying. Stream should be completed with
+ * {@link #finish} before {@link #close}.
  */
 public class BrotliEncoderChannel extends Encoder implements WritableByteChannel {
   /** The default internal buffer size used by the decoder. */
   private static final int DEFAULT_BUFFER_SIZE = 16384;
 
-  private final Object mutex = new Object();
+  private final ReentrantLock lock = new ReentrantLock();
+  private boolean finishing;
 
   /**
    * Creates a BrotliEncoderChannel.
@@ -27,10 +35,16 @@ public class BrotliEncoderChannel extends Encoder implements WritableByteChannel
    * @param destination underlying destination
    * @param params encoding settings
    * @param bufferSize intermediate buffer size
+   * @param pool pool to borrow native encoder from, or {@code null}
    */
+  public BrotliEncoderChannel(WritableByteChannel destination, Encoder.Parameters params,
+      int bufferSize, EncoderPool pool) throws IOException {
+    super(destination, params, bufferSize, pool);
+  }
+
   public BrotliEncoderChannel(WritableByteChannel destination, Encoder.Parameters params,
       int bufferSize) throws IOException {
-    super(destination, params, bufferSize);
+    this(destination, params, bufferSize, null);
   }
 
   public BrotliEncoderChannel(WritableByteChannel destination, Encoder.Parameters params)
@@ -38,30 +52,135 @@ public class BrotliEncoderChannel extends Encoder implements WritableByteChannel
     this(destination, params, DEFAULT_BUFFER_SIZE);
   }
 
+  public BrotliEncoderChannel(WritableByteChannel destination, Encoder.Parameters params,
+      EncoderPool pool) throws IOException {
+    this(destination, params, DEFAULT_BUFFER_SIZE, pool);
+  }
+
   public BrotliEncoderChannel(WritableByteChannel destination) throws IOException {
     this(destination, new Encoder.Parameters());
   }
 
+  /**
+   * Adjusts blocking mode; channels are blocking initially.
+   *
+   * <p> Blocking mode only affects {@link #flush}, {@link #finish} and {@link #close}: those
+   * wait until destination accepts all the output. {@link #write} never waits.
+   */
+  public BrotliEncoderChannel configureBlocking(boolean block) {
+    lock.lock();
+    try {
+      blocking = block;
+      return this;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public boolean isBlocking() {
+    lock.lock();
+    try {
+      return blocking;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return true if encoded data waits for destination to accept it; writable destination
+   *     should be awaited before retrying the operation that reported "would block"
+   */
+  @Override
+  public boolean hasPendingOutput() {
+    lock.lock();
+    try {
+      return super.hasPendingOutput();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Flushes encoded data to destination.
+   *
+   * @return true if flush is complete; false if destination would block, in which case the call
+   *     should be repeated once destination is writable
+   */
+  @Override
+  public boolean flush() throws IOException {
+    lock.lock();
+    try {
+      if (closed) {
+        throw new ClosedChannelException();
+      }
+      return super.flush();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Completes the stream; no more data could be written afterwards.
+   *
+   * @return true if all the output is accepted by destination; false if destination would
+   *     block, in which case the call should be repeated once destination is writable
+   */
+  public boolean finish() throws IOException {
+    lock.lock();
+    try {
+      if (closed) {
+        throw new ClosedChannelException();
+      }
+      finishing = true;
+      return encode(EncoderJNI.Operation.FINISH);
+    } finally {
+      lock.unlock();
+    }
+  }
+
   @Override
   public boolean isOpen() {
-    synchronized (mutex) {
+    lock.lock();
+    try {
       return !closed;
+    } finally {
+      lock.unlock();
     }
   }
 
+  /**
+   * Completes the stream and closes destination.
+   *
+   * <p> In non-blocking mode output that destination does not accept right away is lost;
+   * {@link IOException} is thrown after resources are released.
+   */
   @Override
   public void close() throws IOException {
-    synchronized (mutex) {
+    lock.lock();
+    try {
       super.close();
+    } finally {
+      lock.unlock();
     }
   }
 
+  /**
+   * Encodes bytes of {@code src}; direct buffers are read by native encoder in place, others are
+   * copied through the input buffer.
+   */
   @Override
   public int write(ByteBuffer src) throws IOException {
-    synchronized (mutex) {
+    lock.lock();
+    try {
       if (closed) {
         throw new ClosedChannelException();
       }
+      if (finishing) {
+        throw new IOException("write after finish");
+      }
+      if (src.isDirect()) {
+        return encodeRegion(src);
+      }
       int result = 0;
       while (src.hasRemaining() && encode(EncoderJNI.Operation.PROCESS)) {
         int limit = Math.min(src.remaining(), inputBuffer.remaining());
@@ -72,6 +191,8 @@ public class BrotliEncoderChannel extends Encoder implements WritableByteChannel
         ((Buffer) src).position(src.position() + limit);
       }
       return result;
+    } finally {
+      lock.unlock();
     }
   }
 }
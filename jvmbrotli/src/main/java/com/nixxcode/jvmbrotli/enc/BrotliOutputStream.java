@@ -25,10 +25,16 @@ public class BrotliOutputStream extends OutputStream {
    * @param destination underlying destination
    * @param params encoding settings
    * @param bufferSize intermediate buffer size
+   * @param pool pool to borrow native encoder from, or {@code null}
    */
+  public BrotliOutputStream(OutputStream destination, Encoder.Parameters params, int bufferSize,
+      EncoderPool pool) throws IOException {
+    this.encoder = new Encoder(Channels.newChannel(destination), params, bufferSize, pool);
+  }
+
   public BrotliOutputStream(OutputStream destination, Encoder.Parameters params, int bufferSize)
       throws IOException {
-    this.encoder = new Encoder(Channels.newChannel(destination), params, bufferSize);
+    this(destination, params, bufferSize, null);
   }
 
   public BrotliOutputStream(OutputStream destination, Encoder.Parameters params)
@@ -36,15 +42,46 @@ public class BrotliOutputStream extends OutputStream {
     this(destination, params, DEFAULT_BUFFER_SIZE);
   }
 
+  public BrotliOutputStream(OutputStream destination, Encoder.Parameters params,
+      EncoderPool pool) throws IOException {
+    this(destination, params, DEFAULT_BUFFER_SIZE, pool);
+  }
+
   public BrotliOutputStream(OutputStream destination) throws IOException {
     this(destination, new Encoder.Parameters());
   }
 
+  /**
+   * @see Encoder#getNativeBytes
+   */
+  public long getNativeBytes() {
+    return encoder.getNativeBytes();
+  }
+
+  /**
+   * @see Encoder#getPeakNativeBytes
+   */
+  public long getPeakNativeBytes() {
+    return encoder.getPeakNativeBytes();
+  }
+
   @Override
   public void close() throws IOException {
     encoder.close();
   }
 
+  /**
+   * Encodes buffered input if there is no space left for more.
+   *
+   * <p> Channel over {@link OutputStream} writes all the data it is given, so encoder never has
+   * to wait for destination.
+   */
+  private void makeRoom() throws IOException {
+    if (!encoder.encode(EncoderJNI.Operation.PROCESS)) {
+      throw new IOException("destination did not accept encoded data");
+    }
+  }
+
   @Override
   public void flush() throws IOException {
     if (encoder.closed) {
@@ -58,9 +95,7 @@ public class BrotliOutputStream extends OutputStream {
     if (encoder.closed) {
       throw new IOException("write after close");
     }
-    while (!encoder.encode(EncoderJNI.Operation.PROCESS)) {
-      // Busy-wait loop.
-    }
+    makeRoom();
     encoder.inputBuffer.put((byte) b);
   }
 
@@ -75,9 +110,7 @@ public class BrotliOutputStream extends OutputStream {
       throw new IOException("write after close");
     }
     while (len > 0) {
-      if (!encoder.encode(EncoderJNI.Operation.PROCESS)) {
-        continue;
-      }
+      makeRoom();
       int limit = Math.min(len, encoder.inputBuffer.remaining());
       encoder.inputBuffer.put(b, off, limit);
       off += limit;
@@ -0,0 +1,345 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.enc;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of compressed payloads, keyed by the content of the input and the encoder parameters.
+ *
+ * <p> Compressed bytes are kept in direct buffers, off the Java heap. Cache holds at most
+ * {@code maxBytes} of them, evicting least recently used entries first. Concurrent requests for
+ * the same missing entry are coalesced: one thread compresses, the others wait for its result.
+ *
+ * <p> Input is identified by its length and SHA-256 digest rather than by its bytes, so inputs
+ * themselves are not retained. Finding two inputs with the same digest is computationally
+ * infeasible, so a caller can not be served a payload compressed for different input. Cache is
+ * thread-safe.
+ *
+ * <p> Cache should be closed when no longer needed; encoders of the pool created by the cache
+ * itself are released then.
+ */
+public final class CompressionCache implements AutoCloseable {
+  private final long maxBytes;
+  private final EncoderPool pool;
+  private final boolean ownsPool;
+  private final LinkedHashMap<Key, ByteBuffer> entries =
+      new LinkedHashMap<Key, ByteBuffer>(16, 0.75f, true);
+  private final ConcurrentHashMap<Key, FutureTask<ByteBuffer>> loading =
+      new ConcurrentHashMap<Key, FutureTask<ByteBuffer>>();
+  private long sizeBytes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /** Capacity of scratch buffers; larger outputs use a temporary buffer. */
+  private static final int SCRATCH_SIZE = 64 * 1024;
+
+  /**
+   * Output buffers for compression, copied into an exact-size entry afterwards. At most one per
+   * processor is kept.
+   */
+  private final ArrayBlockingQueue<ByteBuffer> scratch =
+      new ArrayBlockingQueue<ByteBuffer>(Runtime.getRuntime().availableProcessors());
+
+  private static final class Key {
+    final int[] params;
+    final PreparedDictionary dictionary;
+    final int length;
+    final byte[] digest;
+
+    Key(int[] params, PreparedDictionary dictionary, int length, byte[] digest) {
+      this.params = params;
+      this.dictionary = dictionary;
+      this.length = length;
+      this.digest = digest;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return length == key.length && Arrays.equals(digest, key.digest)
+          && dictionary == key.dictionary && Arrays.equals(params, key.params);
+    }
+
+    @Override
+    public int hashCode() {
+      /* Digest bytes are uniformly distributed; any four of them make a good hash. */
+      int hash = (digest[0] & 0xFF) | (digest[1] & 0xFF) << 8 | (digest[2] & 0xFF) << 16
+          | digest[3] << 24;
+      return hash * 31 + Arrays.hashCode(params);
+    }
+  }
+
+  /**
+   * Creates a cache.
+   *
+   * @param maxBytes maximal total size of cached compressed payloads
+   * @param pool pool to borrow native encoders from, or {@code null}; not cleared on close
+   */
+  public CompressionCache(long maxBytes, EncoderPool pool) {
+    this(maxBytes, pool, false);
+  }
+
+  /**
+   * Creates a cache with its own encoder pool, which is cleared on close.
+   *
+   * @param maxBytes maximal total size of cached compressed payloads
+   */
+  public CompressionCache(long maxBytes) {
+    this(maxBytes, new EncoderPool(), true);
+  }
+
+  private CompressionCache(long maxBytes, EncoderPool pool, boolean ownsPool) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes should be positive");
+    }
+    this.maxBytes = maxBytes;
+    this.pool = pool;
+    this.ownsPool = ownsPool;
+  }
+
+  /**
+   * Returns compressed form of {@code data}, compressing it on a miss.
+   *
+   * @return read-only direct buffer with the compressed payload; stays valid after eviction
+   */
+  public ByteBuffer compress(byte[] data, Encoder.Parameters params) throws IOException {
+    return compress(ByteBuffer.wrap(data), params);
+  }
+
+  /**
+   * Returns compressed form of the remaining bytes of {@code data}, compressing them on a miss.
+   * Position of {@code data} is not changed.
+   *
+   * @return read-only direct buffer with the compressed payload; stays valid after eviction
+   */
+  public ByteBuffer compress(ByteBuffer data, final Encoder.Parameters params)
+      throws IOException {
+    final ByteBuffer input = data.duplicate();
+    final Key key = new Key(params.toNative(), params.getDictionary(), input.remaining(),
+        sha256(input));
+
+    ByteBuffer result = lookup(key);
+    if (result != null) {
+      hits.incrementAndGet();
+      return result;
+    }
+    FutureTask<ByteBuffer> task = new FutureTask<ByteBuffer>(new Callable<ByteBuffer>() {
+      @Override
+      public ByteBuffer call() throws IOException {
+        /* Previous loader might have finished between lookup and registration. */
+        ByteBuffer cached = lookup(key);
+        if (cached != null) {
+          hits.incrementAndGet();
+          return cached;
+        }
+        misses.incrementAndGet();
+        ByteBuffer compressed = encode(input, params);
+        store(key, compressed);
+        return compressed.asReadOnlyBuffer();
+      }
+    });
+    FutureTask<ByteBuffer> existing = loading.putIfAbsent(key, task);
+    if (existing == null) {
+      try {
+        task.run();
+      } finally {
+        loading.remove(key, task);
+      }
+      return await(task);
+    }
+    coalesced.incrementAndGet();
+    return await(existing);
+  }
+
+  private ByteBuffer lookup(Key key) {
+    synchronized (entries) {
+      ByteBuffer entry = entries.get(key);
+      return (entry != null) ? entry.asReadOnlyBuffer() : null;
+    }
+  }
+
+  private void store(Key key, ByteBuffer compressed) {
+    int size = compressed.capacity();
+    if (size > maxBytes) {
+      return;
+    }
+    synchronized (entries) {
+      if (entries.put(key, compressed) != null) {
+        return;
+      }
+      sizeBytes += size;
+      Iterator<Map.Entry<Key, ByteBuffer>> it = entries.entrySet().iterator();
+      while (sizeBytes > maxBytes) {
+        sizeBytes -= it.next().getValue().capacity();
+        it.remove();
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  private static ByteBuffer await(FutureTask<ByteBuffer> task) throws IOException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException ex) {
+          /* Result is shared with other waiters; do not abandon it halfway. */
+          interrupted = true;
+        } catch (ExecutionException ex) {
+          if (ex.getCause() instanceof IOException) {
+            throw (IOException) ex.getCause();
+          }
+          if (ex.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) ex.getCause();
+          }
+          throw new IOException("encoding failed", ex.getCause());
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Compresses into a scratch buffer, then copies into an exact-size entry. */
+  private ByteBuffer encode(ByteBuffer input, Encoder.Parameters params) throws IOException {
+    int bound = Encoder.maxCompressedSize(input.remaining());
+    if (bound == 0) {
+      throw new IOException("input is too large");
+    }
+    ByteBuffer output = null;
+    if (bound <= SCRATCH_SIZE) {
+      output = scratch.poll();
+    }
+    if (output == null) {
+      output = ByteBuffer.allocateDirect(Math.max(bound, SCRATCH_SIZE));
+    }
+    try {
+      ((Buffer) output).clear();
+      Encoder.compress(input.duplicate(), output, params, pool);
+      ((Buffer) output).flip();
+      ByteBuffer entry = ByteBuffer.allocateDirect(output.remaining());
+      entry.put(output);
+      ((Buffer) entry).flip();
+      return entry;
+    } finally {
+      if (output.capacity() == SCRATCH_SIZE) {
+        scratch.offer(output);
+      }
+    }
+  }
+
+  /**
+   * Removes all the entries; buffers handed out before stay valid.
+   */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+      sizeBytes = 0;
+    }
+  }
+
+  /**
+   * Removes all the entries and drops scratch buffers; encoders of the pool created by the cache
+   * itself are destroyed. Cache stays usable, but starts from scratch.
+   */
+  @Override
+  public void close() {
+    clear();
+    scratch.clear();
+    if (ownsPool) {
+      pool.clear();
+    }
+  }
+
+  /** @return number of requests served from the cache, including coalesced ones */
+  public long getHitCount() {
+    return hits.get() + coalesced.get();
+  }
+
+  /** @return number of requests that had to be compressed */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /** @return number of requests that waited for compression started by another thread */
+  public long getCoalescedCount() {
+    return coalesced.get();
+  }
+
+  /** @return number of entries evicted to stay within size limit */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /** @return share of requests served without compressing, or 0 if there were no requests */
+  public double getHitRate() {
+    long served = getHitCount();
+    long total = served + misses.get();
+    return (total == 0) ? 0 : (double) served / total;
+  }
+
+  /** @return total size of cached compressed payloads */
+  public long getSizeBytes() {
+    synchronized (entries) {
+      return sizeBytes;
+    }
+  }
+
+  /** @return number of cached entries */
+  public int getEntryCount() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /** @return SHA-256 digest of the remaining bytes of {@code data} */
+  private static byte[] sha256(ByteBuffer data) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      /* Every Java platform implementation is required to support SHA-256. */
+      throw new IllegalStateException(ex);
+    }
+    digest.update(data.duplicate());
+    return digest.digest();
+  }
+}
@@ -6,21 +6,91 @@
 
 package com.nixxcode.jvmbrotli.enc;
 
+import com.nixxcode.jvmbrotli.common.BrotliEvents;
+import com.nixxcode.jvmbrotli.common.BrotliMetrics;
+import com.nixxcode.jvmbrotli.common.CompressionListener;
+import com.nixxcode.jvmbrotli.common.NativeConcurrency;
 import java.io.IOException;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
 
 /**
  * Base class for OutputStream / Channel implementations.
  */
 public class Encoder {
+  /** Largest input compressed in one go; larger inputs are fed through the streaming encoder. */
+  private static final int MAX_ONE_SHOT_INPUT_SIZE = 1 << 20;
+
+  /**
+   * Largest input that is compressed straight from / into pinned {@code byte[]} memory, by
+   * quality.
+   *
+   * <p> Pinning blocks garbage collection for the duration of the native call, so the limit
+   * keeps that call within a few milliseconds. Larger inputs are copied into direct memory
+   * first; qualities 10 and 11 are too slow to pin at all.
+   */
+  private static final int[] MAX_PINNED_INPUT_SIZE = {
+    1 << 20, 1 << 20, 1 << 20, 1 << 20, 256 << 10, 256 << 10, 128 << 10, 64 << 10, 64 << 10,
+    32 << 10, 0, 0
+  };
+
+  /**
+   * Input passed to native encoder per call in one-shot compression, by quality; keeps a single
+   * call, and the native concurrency permit it holds, short. Encoder processes input in blocks of
+   * up to 256 KiB, so a call at the slowest qualities might still take a few hundred ms.
+   */
+  private static final int[] MAX_SLICE = {
+    1 << 20, 1 << 20, 1 << 20, 1 << 20, 1 << 20, 256 << 10, 256 << 10, 256 << 10, 256 << 10,
+    256 << 10, 64 << 10, 64 << 10
+  };
+
+  /** Largest part of a file that is mapped at once. */
+  private static final int MAX_MAPPED_WINDOW = 1 << 28;
+
+  /** Input passed to native encoder per call; bounds the duration of a single call. */
+  private static final int MAX_REGION_SLICE = 1 << 20;
+
+  /** Size of direct output buffer used for files. */
+  private static final int FILE_OUTPUT_SIZE = 1 << 20;
+
+  private static final ByteBuffer EMPTY_REGION = ByteBuffer.allocateDirect(0);
+
+  /** ISLAST and ISLASTEMPTY bits; terminates byte-aligned stream. */
+  static final byte LAST_EMPTY_METABLOCK = 3;
+
   private final WritableByteChannel destination;
   private final EncoderJNI.Wrapper encoder;
+  private final EncoderPool pool;
   private ByteBuffer buffer;
   final ByteBuffer inputBuffer;
+  /** Output of {@link #encodeRegion}; allocated on first use. */
+  private ByteBuffer regionOutput;
   boolean closed;
+  /** Force operations wait for destination to accept all the output. */
+  boolean blocking = true;
+  /** Operation pushed to native encoder, but not completed yet; null if none. */
+  private EncoderJNI.Operation pendingOp;
+  private boolean repeatPending;
+  /** Receives encode timing on close; null if quality is fixed. */
+  private final QualityController qualityController;
+  /** Receives stream summary on close; null if metrics are disabled. */
+  private final CompressionListener listener;
+  /** Flight recorder event of the stream, and of the force operation in progress; or null. */
+  private final Object streamEvent;
+  private Object opEvent;
+  /** Push timing is collected if anyone consumes it. */
+  private final boolean timed;
+  private final int quality;
+  private long encodedBytes;
+  private long encodeNanos;
+  private long outputBytes;
+  private int flushes;
 
   /**
    * Brotli encoder settings.
@@ -28,12 +98,32 @@ public class Encoder {
   public static final class Parameters {
     private int quality = -1;
     private int lgwin = -1;
+    private boolean largeWindow;
+    private Mode mode;
+    private int lgblock = -1;
+    private boolean disableLiteralContextModeling;
+    private int sizeHint = -1;
+    private int npostfix = -1;
+    private int ndirect = -1;
+    private int streamOffset = -1;
+    private PreparedDictionary dictionary;
+    private QualityController qualityController;
 
     public Parameters() { }
 
     private Parameters(Parameters other) {
       this.quality = other.quality;
       this.lgwin = other.lgwin;
+      this.largeWindow = other.largeWindow;
+      this.mode = other.mode;
+      this.lgblock = other.lgblock;
+      this.disableLiteralContextModeling = other.disableLiteralContextModeling;
+      this.sizeHint = other.sizeHint;
+      this.npostfix = other.npostfix;
+      this.ndirect = other.ndirect;
+      this.streamOffset = other.streamOffset;
+      this.dictionary = other.dictionary;
+      this.qualityController = other.qualityController;
     }
 
     /**
@@ -48,15 +138,217 @@ public class Encoder {
     }
 
     /**
-     * @param lgwin log2(LZ window size), or -1 for default
+     * @param lgwin log2(LZ window size), or -1 for default; values above 24 require
+     *     {@link #setLargeWindow large window}
      */
     public Parameters setWindow(int lgwin) {
-      if ((lgwin != -1) && ((lgwin < 10) || (lgwin > 24))) {
-        throw new IllegalArgumentException("lgwin should be in range [10, 24], or -1");
+      if ((lgwin != -1) && ((lgwin < 10) || (lgwin > 30))) {
+        throw new IllegalArgumentException("lgwin should be in range [10, 30], or -1");
       }
       this.lgwin = lgwin;
       return this;
     }
+
+    /**
+     * Enables "large window brotli", which allows windows of up to 1 GiB.
+     *
+     * <p> Large window streams are not RFC 7932 compliant; they can only be decoded by decoders
+     * that opt in (see {@code Decoder.Parameters#setLargeWindow}). Both encoder and decoder keep
+     * a ring buffer of up to {@code 1 << lgwin} bytes in native memory for the duration of the
+     * stream.
+     */
+    public Parameters setLargeWindow(boolean largeWindow) {
+      this.largeWindow = largeWindow;
+      return this;
+    }
+
+    /**
+     * @param mode compression mode, or {@code null} for default
+     */
+    public Parameters setMode(Mode mode) {
+      this.mode = mode;
+      return this;
+    }
+
+    /**
+     * @param lgblock log2(input block size), or -1 for default
+     */
+    public Parameters setBlock(int lgblock) {
+      if ((lgblock != -1) && ((lgblock < 16) || (lgblock > 24))) {
+        throw new IllegalArgumentException("lgblock should be in range [16, 24], or -1");
+      }
+      this.lgblock = lgblock;
+      return this;
+    }
+
+    /**
+     * @param disable trade compression ratio for compression and decompression speed by not
+     *     using literal context modeling
+     */
+    public Parameters setDisableLiteralContextModeling(boolean disable) {
+      this.disableLiteralContextModeling = disable;
+      return this;
+    }
+
+    /**
+     * @param sizeHint estimated total input size, 0 if unknown, or -1 to let one-shot
+     *     compression use the actual input size
+     */
+    public Parameters setSizeHint(int sizeHint) {
+      if (sizeHint < -1) {
+        throw new IllegalArgumentException("sizeHint should be non-negative, or -1");
+      }
+      this.sizeHint = sizeHint;
+      return this;
+    }
+
+    /**
+     * @param npostfix number of postfix bits, or -1 for default
+     */
+    public Parameters setPostfixBits(int npostfix) {
+      if (npostfix < -1 || npostfix > 3) {
+        throw new IllegalArgumentException("npostfix should be in range [0, 3], or -1");
+      }
+      this.npostfix = npostfix;
+      return this;
+    }
+
+    /**
+     * @param ndirect number of direct distance codes, or -1 for default; should be a multiple
+     *     of {@code 1 << npostfix} not exceeding {@code 15 << npostfix}
+     */
+    public Parameters setDirectDistanceCodes(int ndirect) {
+      if (ndirect < -1 || ndirect > (15 << 3)) {
+        throw new IllegalArgumentException("ndirect should be in range [0, 120], or -1");
+      }
+      this.ndirect = ndirect;
+      return this;
+    }
+
+    /**
+     * @param streamOffset number of input bytes already compressed by a different encoder, or
+     *     -1 for default; stream header is omitted if offset is not 0
+     */
+    public Parameters setStreamOffset(int streamOffset) {
+      if (streamOffset < -1 || streamOffset > (1 << 30)) {
+        throw new IllegalArgumentException("streamOffset should be in range [0, 2^30], or -1");
+      }
+      this.streamOffset = streamOffset;
+      return this;
+    }
+
+    /**
+     * Primes encoder with raw prefix dictionary.
+     *
+     * <p> Dictionary should be prepared with the same parameters (apart from the dictionary
+     * itself); output can only be decoded by decoders using the same dictionary.
+     *
+     * @param dictionary prepared dictionary, or {@code null} for none
+     * @throws IllegalArgumentException if quality controller is set; dictionary is prepared with
+     *     fixed quality
+     */
+    public Parameters setDictionary(PreparedDictionary dictionary) {
+      if (dictionary != null && qualityController != null) {
+        throw new IllegalArgumentException("dictionary can not be used with quality controller");
+      }
+      this.dictionary = dictionary;
+      return this;
+    }
+
+    /**
+     * Lets controller choose quality of each streaming encoder created with these parameters;
+     * explicit {@link #setQuality quality} is ignored then.
+     *
+     * @param qualityController controller, or {@code null} for fixed quality
+     * @throws IllegalArgumentException if dictionary is set; dictionary is prepared with fixed
+     *     quality
+     */
+    public Parameters setQualityController(QualityController qualityController) {
+      if (qualityController != null && dictionary != null) {
+        throw new IllegalArgumentException("dictionary can not be used with quality controller");
+      }
+      this.qualityController = qualityController;
+      return this;
+    }
+
+    /**
+     * @return copy with quality chosen by controller, if any
+     */
+    Parameters withControlledQuality() {
+      if (qualityController == null) {
+        return this;
+      }
+      Parameters result = new Parameters(this);
+      result.quality = qualityController.chooseQuality();
+      return result;
+    }
+
+    PreparedDictionary getDictionary() {
+      return dictionary;
+    }
+
+    /**
+     * @return copy with size hint set to {@code inputSize}, unless size hint is set explicitly
+     *     or fixed by dictionary
+     */
+    Parameters withInputSize(int inputSize) {
+      if (sizeHint != -1 || dictionary != null) {
+        return this;
+      }
+      Parameters result = new Parameters(this);
+      result.sizeHint = inputSize;
+      return result;
+    }
+
+    /**
+     * @return values indexed by {@code BrotliEncoderParameter}; -1 for unset parameters
+     */
+    int[] toNative() {
+      return toNative(true);
+    }
+
+    /**
+     * @param checkDictionary verify that dictionary was prepared with these parameters
+     */
+    int[] toNative(boolean checkDictionary) {
+      if (lgwin > 24 && !largeWindow) {
+        throw new IllegalArgumentException("lgwin above 24 requires large window");
+      }
+      int postfix = Math.max(npostfix, 0);
+      if (ndirect != -1 && (ndirect > (15 << postfix) || (ndirect & ((1 << postfix) - 1)) != 0)) {
+        throw new IllegalArgumentException(
+            "ndirect should be a multiple of (1 << npostfix) not exceeding (15 << npostfix)");
+      }
+      int[] result = new int[EncoderJNI.NUM_PARAMS];
+      Arrays.fill(result, -1);
+      result[EncoderJNI.PARAM_MODE] = (mode != null) ? mode.ordinal() : -1;
+      result[EncoderJNI.PARAM_QUALITY] = quality;
+      result[EncoderJNI.PARAM_LGWIN] = lgwin;
+      result[EncoderJNI.PARAM_LGBLOCK] = lgblock;
+      result[EncoderJNI.PARAM_DISABLE_LITERAL_CONTEXT_MODELING] =
+          disableLiteralContextModeling ? 1 : -1;
+      result[EncoderJNI.PARAM_SIZE_HINT] = sizeHint;
+      result[EncoderJNI.PARAM_LARGE_WINDOW] = largeWindow ? 1 : -1;
+      result[EncoderJNI.PARAM_NPOSTFIX] = npostfix;
+      result[EncoderJNI.PARAM_NDIRECT] = ndirect;
+      result[EncoderJNI.PARAM_STREAM_OFFSET] = streamOffset;
+      if (checkDictionary && dictionary != null && !Arrays.equals(result, dictionary.params)) {
+        throw new IllegalArgumentException("dictionary was prepared with different parameters");
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Compression mode; order matches {@code BrotliEncoderMode}.
+   */
+  public enum Mode {
+    /** Default compression mode; no assumptions about the input. */
+    GENERIC,
+    /** Compression mode for UTF-8 formatted text input. */
+    TEXT,
+    /** Compression mode used in WOFF 2.0. */
+    FONT
   }
 
   /**
@@ -65,9 +357,10 @@ public class Encoder {
    * @param destination underlying destination
    * @param params encoding parameters
    * @param inputBufferSize read buffer size
+   * @param pool pool to borrow native encoder from, or {@code null}
    */
-  Encoder(WritableByteChannel destination, Parameters params, int inputBufferSize)
-      throws IOException {
+  Encoder(WritableByteChannel destination, Parameters params, int inputBufferSize,
+      EncoderPool pool) throws IOException {
     if (inputBufferSize <= 0) {
       throw new IllegalArgumentException("buffer size must be positive");
     }
@@ -75,10 +368,27 @@ public class Encoder {
       throw new NullPointerException("destination can not be null");
     }
     this.destination = destination;
-    this.encoder = new EncoderJNI.Wrapper(inputBufferSize, params.quality, params.lgwin);
+    this.pool = pool;
+    params = params.withControlledQuality();
+    this.qualityController = params.qualityController;
+    this.listener = BrotliMetrics.getListener();
+    this.streamEvent = BrotliEvents.begin(BrotliEvents.ENCODER_STREAM);
+    this.timed = qualityController != null || listener != null || streamEvent != null;
+    this.quality = params.quality;
+    if (pool != null) {
+      this.encoder = pool.acquire(inputBufferSize, params.toNative(), params.dictionary);
+    } else {
+      this.encoder =
+          new EncoderJNI.Wrapper(inputBufferSize, params.toNative(), params.dictionary);
+    }
     this.inputBuffer = this.encoder.getInputBuffer();
   }
 
+  Encoder(WritableByteChannel destination, Parameters params, int inputBufferSize)
+      throws IOException {
+    this(destination, params, inputBufferSize, null);
+  }
+
   private void fail(String message) throws IOException {
     try {
       close();
@@ -107,16 +417,26 @@ public class Encoder {
   }
 
   /**
-   * @return true if there is space in inputBuffer.
+   * Continues encoding; resumes the operation in progress, if any.
+   *
+   * <p> Input is pushed to native encoder only once, so after {@code false} is returned the
+   * call should be repeated when destination accepts more data. In non-blocking mode force
+   * operations return {@code false} instead of waiting for destination.
+   *
+   * @return true if operation is complete and there is space in inputBuffer.
    */
   boolean encode(EncoderJNI.Operation op) throws IOException {
-    boolean force = (op != EncoderJNI.Operation.PROCESS);
-    if (force) {
-      ((Buffer) inputBuffer).limit(inputBuffer.position());
-    } else if (inputBuffer.hasRemaining()) {
-      return true;
+    if (pendingOp == null) {
+      if (op != EncoderJNI.Operation.PROCESS) {
+        ((Buffer) inputBuffer).limit(inputBuffer.position());
+      } else if (inputBuffer.hasRemaining()) {
+        return true;
+      }
+    } else if (op.compareTo(pendingOp) < 0) {
+      /* Complete the stronger operation that is in progress. */
+      op = pendingOp;
     }
-    boolean hasInput = true;
+    boolean force = blocking && (op != EncoderJNI.Operation.PROCESS);
     while (true) {
       if (!encoder.isSuccess()) {
         fail("encoding failed");
@@ -124,20 +444,164 @@ public class Encoder {
         return false;
       } else if (encoder.hasMoreOutput()) {
         buffer = encoder.pull();
-      } else if (encoder.hasRemainingInput()) {
-        encoder.push(op, 0);
-      } else if (hasInput) {
-        encoder.push(op, inputBuffer.limit());
-        hasInput = false;
+        outputBytes += buffer.remaining();
+      } else if (encoder.hasRemainingInput() || pendingOp != op) {
+        if (pendingOp != op) {
+          repeatPending = repeatsFlush(encoder, op);
+          if (op != EncoderJNI.Operation.PROCESS) {
+            endOpEvent();
+            opEvent = BrotliEvents.begin((op == EncoderJNI.Operation.FLUSH)
+                ? BrotliEvents.FLUSH : BrotliEvents.FINISH);
+          }
+        }
+        push(op, (pendingOp == null) ? inputBuffer.limit() : 0);
+        pendingOp = op;
+      } else if (repeatPending) {
+        push(op, 0);
+        repeatPending = false;
       } else {
         ((Buffer) inputBuffer).clear();
+        pendingOp = null;
+        endOpEvent();
         return true;
       }
     }
   }
 
-  void flush() throws IOException {
-    encode(EncoderJNI.Operation.FLUSH);
+  /**
+   * Encodes direct {@code src} in place, without copying it to the input buffer; input buffered
+   * earlier is pushed first, so the order of data is kept.
+   *
+   * <p> Like {@link #encode} with {@code PROCESS}, never waits for destination.
+   *
+   * @return number of consumed bytes; fewer than remaining if destination would block
+   */
+  int encodeRegion(ByteBuffer src) throws IOException {
+    if (pendingOp != null || inputBuffer.position() > 0) {
+      if (pendingOp == null) {
+        ((Buffer) inputBuffer).limit(inputBuffer.position());
+      }
+      if (!encode(EncoderJNI.Operation.PROCESS)) {
+        return 0;
+      }
+    }
+    int start = src.position();
+    while (src.hasRemaining()) {
+      if (!encoder.isSuccess()) {
+        fail("encoding failed");
+      } else if (!pushOutput(false)) {
+        break;
+      } else if (encoder.hasMoreOutput()) {
+        buffer = encoder.pull();
+        outputBytes += buffer.remaining();
+      } else {
+        if (regionOutput == null) {
+          regionOutput = ByteBuffer.allocateDirect(inputBuffer.capacity());
+        }
+        ((Buffer) regionOutput).clear();
+        int length = Math.min(src.remaining(), MAX_REGION_SLICE);
+        int produced = pushRegion(src, length);
+        ((Buffer) src).position(src.position() + encoder.getLastConsumed());
+        if (produced > 0) {
+          ((Buffer) regionOutput).limit(produced);
+          buffer = regionOutput;
+          outputBytes += produced;
+        }
+      }
+    }
+    return src.position() - start;
+  }
+
+  private void endOpEvent() {
+    if (opEvent != null) {
+      BrotliEvents.endEncode(opEvent, encoder.params, 0, 0, 0, 0);
+      opEvent = null;
+    }
+  }
+
+  private void push(EncoderJNI.Operation op, int length) throws IOException {
+    Semaphore permit = NativeConcurrency.acquire();
+    long start = timed ? System.nanoTime() : 0;
+    try {
+      encoder.push(op, length);
+    } finally {
+      NativeConcurrency.release(permit);
+    }
+    if (timed) {
+      encodeNanos += System.nanoTime() - start;
+      encodedBytes += length;
+    }
+  }
+
+  private int pushRegion(ByteBuffer src, int length) throws IOException {
+    Semaphore permit = NativeConcurrency.acquire();
+    long start = timed ? System.nanoTime() : 0;
+    int produced;
+    try {
+      produced = encoder.compress(EncoderJNI.Operation.PROCESS, src, src.position(), length,
+          regionOutput, 0, regionOutput.capacity());
+    } finally {
+      NativeConcurrency.release(permit);
+    }
+    if (timed) {
+      encodeNanos += System.nanoTime() - start;
+      encodedBytes += encoder.getLastConsumed();
+    }
+    return produced;
+  }
+
+  /**
+   * Pushes one slice of one-shot work within native concurrency limit.
+   */
+  private static void push(EncoderJNI.Wrapper encoder, EncoderJNI.Operation op, int length)
+      throws IOException {
+    Semaphore permit = NativeConcurrency.acquire();
+    try {
+      encoder.push(op, length);
+    } finally {
+      NativeConcurrency.release(permit);
+    }
+  }
+
+  /**
+   * @return true if some encoded data is not accepted by destination yet
+   */
+  boolean hasPendingOutput() {
+    return buffer != null;
+  }
+
+  /**
+   * @return native memory held by the encoder (state, input buffer and blocks cached for reuse),
+   *     or 0 once it is closed
+   */
+  public long getNativeBytes() {
+    return closed ? 0 : encoder.getNativeBytes();
+  }
+
+  /**
+   * @return the highest amount of native memory held during the stream, or 0 once it is closed
+   */
+  public long getPeakNativeBytes() {
+    return closed ? 0 : encoder.getPeakNativeBytes();
+  }
+
+  /**
+   * With stream offset, the first flush returns as soon as the leading bytes are emitted, even
+   * if the rest of the input is already consumed; the second one flushes the rest.
+   */
+  private static boolean repeatsFlush(EncoderJNI.Wrapper encoder, EncoderJNI.Operation op) {
+    return op == EncoderJNI.Operation.FLUSH
+        && encoder.params[EncoderJNI.PARAM_STREAM_OFFSET] > 0;
+  }
+
+  /**
+   * @return true if flush is complete; always the case in blocking mode
+   */
+  boolean flush() throws IOException {
+    if (pendingOp != EncoderJNI.Operation.FLUSH) {
+      flushes++;
+    }
+    return encode(EncoderJNI.Operation.FLUSH);
   }
 
   void close() throws IOException {
@@ -145,30 +609,329 @@ public class Encoder {
       return;
     }
     closed = true;
+    boolean finished;
     try {
-      encode(EncoderJNI.Operation.FINISH);
+      finished = encode(EncoderJNI.Operation.FINISH);
+      if (finished && qualityController != null) {
+        qualityController.record(quality, encodedBytes, encodeNanos);
+      }
+      if (finished && listener != null) {
+        listener.encoded(quality, encodedBytes, outputBytes, encodeNanos, flushes);
+      }
     } finally {
-      encoder.destroy();
+      BrotliEvents.endEncode(streamEvent, encoder.params, encodedBytes, outputBytes, encodeNanos,
+          flushes);
+      if (pool != null) {
+        pool.release(encoder);
+      } else {
+        encoder.destroy();
+      }
       destination.close();
     }
+    if (!finished) {
+      throw new IOException("destination did not accept all the output; stream is truncated");
+    }
   }
 
   /**
    * Encodes the given data buffer.
    */
   public static byte[] compress(byte[] data, Parameters params) throws IOException {
-    if (data.length == 0) {
+    return compress(data, params, null);
+  }
+
+  /**
+   * Encodes the given data buffer with native encoder borrowed from {@code pool}.
+   *
+   * @param pool pool to borrow native encoder from, or {@code null}
+   */
+  public static byte[] compress(byte[] data, Parameters params, EncoderPool pool)
+      throws IOException {
+    CompressionListener listener = BrotliMetrics.getListener();
+    Object event = BrotliEvents.begin(BrotliEvents.COMPRESS);
+    if (listener == null && event == null) {
+      return compressArray(data, params, pool);
+    }
+    long start = System.nanoTime();
+    byte[] result = compressArray(data, params, pool);
+    long nanos = System.nanoTime() - start;
+    if (listener != null) {
+      listener.encoded(params.quality, data.length, result.length, nanos, 0);
+    }
+    if (event != null) {
+      BrotliEvents.endEncode(event, params.toNative(false), data.length, result.length, nanos, 0);
+    }
+    return result;
+  }
+
+  private static byte[] compressArray(byte[] data, Parameters params, EncoderPool pool)
+      throws IOException {
+    if (data.length == 0 && params.dictionary == null) {
       byte[] empty = new byte[1];
       empty[0] = 6;
       return empty;
     }
     /* data.length > 0 */
-    EncoderJNI.Wrapper encoder = new EncoderJNI.Wrapper(data.length, params.quality, params.lgwin);
+    int bound = maxCompressedSize(data.length);
+    if (bound != 0 && data.length <= MAX_ONE_SHOT_INPUT_SIZE) {
+      byte[] output = (data.length <= maxPinnedInputSize(params))
+          ? compressPinned(data, bound, params, pool)
+          : compressDirect(data, bound, params, pool);
+      if (output != null) {
+        return output;
+      }
+      /* Primed encoder has no uncompressed fallback; streaming output is not bounded. */
+      if (params.dictionary == null) {
+        throw new IOException("encoding failed");
+      }
+    }
+    return compressStream(data, params);
+  }
+
+  /** @return compressed data, or {@code null} if it does not fit into bound */
+  private static byte[] compressPinned(byte[] data, int bound, Parameters params,
+      EncoderPool pool) throws IOException {
+    byte[] output = new byte[bound];
+    int outputSize = compress(data, 0, data.length, output, 0, bound, params, pool);
+    if (outputSize < 0) {
+      return null;
+    }
+    return (outputSize == bound) ? output : Arrays.copyOf(output, outputSize);
+  }
+
+  /**
+   * Compresses copy of data held in direct memory, so that Java heap is not pinned.
+   *
+   * @return compressed data, or {@code null} if it does not fit into bound
+   */
+  private static byte[] compressDirect(byte[] data, int bound, Parameters params,
+      EncoderPool pool) throws IOException {
+    ByteBuffer input = ByteBuffer.allocateDirect(data.length);
+    input.put(data);
+    ByteBuffer output = ByteBuffer.allocateDirect(bound);
+    int outputSize = compress(input, 0, data.length, output, 0, bound, params, pool);
+    if (outputSize < 0) {
+      return null;
+    }
+    byte[] result = new byte[outputSize];
+    output.get(result);
+    return result;
+  }
+
+  private static int maxPinnedInputSize(Parameters params) {
+    return MAX_PINNED_INPUT_SIZE[effectiveQuality(params.quality)];
+  }
+
+  private static int maxSlice(int quality) {
+    return MAX_SLICE[effectiveQuality(quality)];
+  }
+
+  private static int effectiveQuality(int quality) {
+    /* Brotli default quality is the highest one. */
+    return (quality == -1) ? 11 : quality;
+  }
+
+  /**
+   * Compresses memory region into another memory region.
+   *
+   * <p> Input that fits into a slice is compressed in one go under a single native concurrency
+   * permit: pooled encoder is tried first; stateless encoder is the fallback, as streaming output
+   * might slightly exceed {@link #maxCompressedSize} for incompressible input. Stateless encoder
+   * does not support dictionaries, so with dictionary only the streaming encoder is used.
+   *
+   * <p> Larger input is fed to an encoder slice by slice; see {@link #compressSlices}.
+   */
+  private static int compress(Object src, int srcOffset, int srcLength,
+      Object dst, int dstOffset, int dstLength, Parameters params, EncoderPool pool)
+      throws IOException {
+    if (srcLength > maxSlice(params.quality)) {
+      return compressSlices(src, srcOffset, srcLength, dst, dstOffset, dstLength, params,
+          pool);
+    }
+    Semaphore permit = NativeConcurrency.acquire();
+    try {
+      return compressRegion(src, srcOffset, srcLength, dst, dstOffset, dstLength, params, pool);
+    } finally {
+      NativeConcurrency.release(permit);
+    }
+  }
+
+  /**
+   * Compresses memory region slice by slice, each under its own native concurrency permit.
+   * Incompressible input that does not fit into the bound this way is stored uncompressed, like
+   * stateless encoder does (see {@link #storeUncompressed}).
+   *
+   * @param pool pool to borrow native encoder from, or {@code null}
+   * @return number of bytes written to destination, or -1 if output does not fit into it
+   */
+  private static int compressSlices(Object src, int srcOffset, int srcLength,
+      Object dst, int dstOffset, int dstLength, Parameters params, EncoderPool pool)
+      throws IOException {
+    int slice = maxSlice(params.quality);
+    int[] nativeParams = params.toNative();
+    EncoderJNI.Wrapper encoder = (pool != null)
+        ? pool.acquire(0, nativeParams, params.dictionary)
+        : new EncoderJNI.Wrapper(0, nativeParams, params.dictionary);
+    int consumed = 0;
+    int produced = 0;
+    boolean fits = true;
+    try {
+      encoder.setSizeHint(srcLength);
+      while (true) {
+        int length = Math.min(srcLength - consumed, slice);
+        EncoderJNI.Operation op = (consumed + length == srcLength)
+            ? EncoderJNI.Operation.FINISH : EncoderJNI.Operation.PROCESS;
+        Semaphore permit = NativeConcurrency.acquire();
+        try {
+          produced += encoder.compress(op, src, srcOffset + consumed, length,
+              dst, dstOffset + produced, dstLength - produced);
+        } finally {
+          NativeConcurrency.release(permit);
+        }
+        if (!encoder.isSuccess()) {
+          throw new IOException("encoding failed");
+        }
+        consumed += encoder.getLastConsumed();
+        if (encoder.hasMoreOutput()) {
+          if (produced == dstLength) {
+            fits = false;
+            break;
+          }
+        } else if (op == EncoderJNI.Operation.FINISH && encoder.isFinished()) {
+          break;
+        }
+      }
+    } finally {
+      if (pool != null) {
+        pool.release(encoder);
+      } else {
+        encoder.destroy();
+      }
+    }
+    if (fits) {
+      return produced;
+    }
+    if (params.dictionary != null || dstLength < maxCompressedSize(srcLength)) {
+      return -1;
+    }
+    return storeUncompressed(src, srcOffset, srcLength, dst, dstOffset);
+  }
+
+  /**
+   * Wraps data into uncompressed brotli stream with minimal window, like
+   * {@code MakeUncompressedStream} does for the stateless encoder; destination should have at
+   * least {@link #maxCompressedSize} bytes. Only copies memory, so no native call is involved.
+   *
+   * @return number of bytes written to destination
+   */
+  private static int storeUncompressed(Object src, int srcOffset, int srcLength,
+      Object dst, int dstOffset) {
+    ByteBuffer input = viewOf(src, srcOffset, srcLength);
+    ByteBuffer output = viewOf(dst, dstOffset, maxCompressedSize(srcLength));
+    /* Window bits = 10, is_last = false; empty metadata, padding. */
+    output.put((byte) 0x21);
+    output.put((byte) 0x03);
+    while (input.hasRemaining()) {
+      int chunkSize = Math.min(input.remaining(), 1 << 24);
+      int nibbles = (chunkSize > (1 << 16)) ? ((chunkSize > (1 << 20)) ? 2 : 1) : 0;
+      int bits = (nibbles << 1) | ((chunkSize - 1) << 3) | (1 << (19 + 4 * nibbles));
+      output.put((byte) bits);
+      output.put((byte) (bits >>> 8));
+      output.put((byte) (bits >>> 16));
+      if (nibbles == 2) {
+        output.put((byte) (bits >>> 24));
+      }
+      ByteBuffer chunk = input.slice();
+      ((Buffer) chunk).limit(chunkSize);
+      output.put(chunk);
+      ((Buffer) input).position(input.position() + chunkSize);
+    }
+    output.put(LAST_EMPTY_METABLOCK);
+    return output.position() - dstOffset;
+  }
+
+  /** @return buffer positioned at {@code offset} of region memory, limited to its length */
+  private static ByteBuffer viewOf(Object region, int offset, int length) {
+    ByteBuffer result = (region instanceof ByteBuffer)
+        ? ((ByteBuffer) region).duplicate() : ByteBuffer.wrap((byte[]) region);
+    ((Buffer) result).limit(offset + length);
+    ((Buffer) result).position(offset);
+    return result;
+  }
+
+  private static int compressRegion(Object src, int srcOffset, int srcLength,
+      Object dst, int dstOffset, int dstLength, Parameters params, EncoderPool pool)
+      throws IOException {
+    if (pool != null || params.dictionary != null) {
+      int[] nativeParams = params.toNative();
+      EncoderJNI.Wrapper encoder = (pool != null)
+          ? pool.acquire(0, nativeParams, params.dictionary)
+          : new EncoderJNI.Wrapper(0, nativeParams, params.dictionary);
+      int result;
+      try {
+        result = encoder.compress(src, srcOffset, srcLength, dst, dstOffset, dstLength);
+      } finally {
+        if (pool != null) {
+          pool.release(encoder);
+        } else {
+          encoder.destroy();
+        }
+      }
+      if (result >= 0 || params.dictionary != null
+          || dstLength < maxCompressedSize(srcLength)) {
+        return result;
+      }
+    }
+    return EncoderJNI.compress(src, srcOffset, srcLength, dst, dstOffset, dstLength,
+        params.toNative());
+  }
+
+  /**
+   * Encodes the given data buffer with streaming encoder; used for inputs that are too large to
+   * be compressed in one go, or do not fit into bound with dictionary.
+   */
+  private static byte[] compressStream(byte[] data, Parameters params) throws IOException {
+    return compressStream(data, data.length, params.withInputSize(data.length).toNative(),
+        params.dictionary, EncoderJNI.Operation.FINISH);
+  }
+
+  /**
+   * Encodes a part of larger input that starts {@code offset} bytes into it. Output is flushed,
+   * but not finished; parts produced for consecutive ranges could be concatenated, followed by
+   * the {@link #LAST_EMPTY_METABLOCK}.
+   */
+  static byte[] compressPart(byte[] data, int length, long offset, Parameters params)
+      throws IOException {
+    checkPartParams(params);
+    Parameters partParams = new Parameters(params.withInputSize(length));
+    long streamOffset = Math.max(params.streamOffset, 0) + offset;
+    partParams.streamOffset = (int) Math.min(streamOffset, 1 << 30);
+    return compressStream(data, length, partParams.toNative(), null,
+        EncoderJNI.Operation.FLUSH);
+  }
+
+  /**
+   * Verifies that parameters are consistent and could be used to encode parts.
+   */
+  static void checkPartParams(Parameters params) {
+    if (params.dictionary != null) {
+      throw new IllegalArgumentException("dictionary is not supported for parts");
+    }
+    params.toNative();
+  }
+
+  /** Pushes input slice by slice, so that each native call holds its permit briefly. */
+  private static byte[] compressStream(byte[] data, int length, int[] nativeParams,
+      PreparedDictionary dictionary, EncoderJNI.Operation op) throws IOException {
+    int slice = maxSlice(nativeParams[EncoderJNI.PARAM_QUALITY]);
+    EncoderJNI.Wrapper encoder =
+        new EncoderJNI.Wrapper(Math.max(Math.min(length, slice), 1), nativeParams, dictionary);
     ArrayList<byte[]> output = new ArrayList<byte[]>();
     int totalOutputSize = 0;
+    int consumed = 0;
+    EncoderJNI.Operation sliceOp = null;
+    boolean needsRepeat = repeatsFlush(encoder, op);
     try {
-      encoder.getInputBuffer().put(data);
-      encoder.push(EncoderJNI.Operation.FINISH, data.length);
       while (true) {
         if (!encoder.isSuccess()) {
           throw new IOException("encoding failed");
@@ -178,8 +941,21 @@ public class Encoder {
           buffer.get(chunk);
           output.add(chunk);
           totalOutputSize += chunk.length;
-        } else if (!encoder.isFinished()) {
-          encoder.push(EncoderJNI.Operation.FINISH, 0);
+        } else if (encoder.hasRemainingInput()) {
+          push(encoder, sliceOp, 0);
+        } else if (sliceOp != op) {
+          int sliceLength = Math.min(length - consumed, slice);
+          ByteBuffer input = encoder.getInputBuffer();
+          ((Buffer) input).clear();
+          input.put(data, consumed, sliceLength);
+          consumed += sliceLength;
+          sliceOp = (consumed == length) ? op : EncoderJNI.Operation.PROCESS;
+          push(encoder, sliceOp, sliceLength);
+        } else if (op == EncoderJNI.Operation.FINISH && !encoder.isFinished()) {
+          push(encoder, op, 0);
+        } else if (needsRepeat) {
+          push(encoder, op, 0);
+          needsRepeat = false;
         } else {
           break;
         }
@@ -202,4 +978,220 @@ public class Encoder {
   public static byte[] compress(byte[] data) throws IOException {
     return compress(data, new Parameters());
   }
+
+  /**
+   * Calculates the output size bound for the given input size; mirrors
+   * {@code BrotliEncoderMaxCompressedSize}.
+   *
+   * <p> Result is only valid for one-shot compression.
+   *
+   * @return the bound, or 0 if it does not fit into {@code int}
+   */
+  public static int maxCompressedSize(int inputSize) {
+    if (inputSize < 0) {
+      throw new IllegalArgumentException("negative input size");
+    }
+    if (inputSize == 0) {
+      return 2;
+    }
+    /* [window bits / empty metadata] + N * [uncompressed] + [last empty] */
+    long numLargeBlocks = inputSize >> 14;
+    long result = inputSize + 2 + (4 * numLargeBlocks) + 3 + 1;
+    return (result > Integer.MAX_VALUE) ? 0 : (int) result;
+  }
+
+  /**
+   * Encodes the remaining bytes of {@code src} into {@code dst}.
+   *
+   * <p> Direct buffers and arrays of heap buffers are read and written by native code in place.
+   * On success the position of {@code src} is moved to its limit, and the position of
+   * {@code dst} is advanced by the number of bytes written. {@code dst} with at least
+   * {@link #maxCompressedSize} remaining bytes is always large enough.
+   *
+   * @return number of bytes written to {@code dst}
+   */
+  public static int compress(ByteBuffer src, ByteBuffer dst, Parameters params)
+      throws IOException {
+    return compress(src, dst, params, null);
+  }
+
+  /**
+   * Encodes the remaining bytes of {@code src} into {@code dst} with native encoder borrowed
+   * from {@code pool}; see {@link #compress(ByteBuffer, ByteBuffer, Parameters)}.
+   *
+   * @param pool pool to borrow native encoder from, or {@code null}
+   * @return number of bytes written to {@code dst}
+   */
+  public static int compress(ByteBuffer src, ByteBuffer dst, Parameters params,
+      EncoderPool pool) throws IOException {
+    if (dst.isReadOnly()) {
+      throw new ReadOnlyBufferException();
+    }
+    CompressionListener listener = BrotliMetrics.getListener();
+    Object event = BrotliEvents.begin(BrotliEvents.COMPRESS);
+    long start = (listener != null || event != null) ? System.nanoTime() : 0;
+    int srcLength = src.remaining();
+    int dstLength = dst.remaining();
+    boolean pinned = !src.isDirect() || !dst.isDirect();
+    int result;
+    if ((src.isDirect() || src.hasArray()) && (dst.isDirect() || dst.hasArray())
+        && (!pinned || srcLength <= maxPinnedInputSize(params))) {
+      result = compress(regionOf(src), offsetOf(src), srcLength,
+          regionOf(dst), offsetOf(dst), dstLength, params, pool);
+      if (result < 0) {
+        int bound = maxCompressedSize(srcLength);
+        throw new IOException((bound == 0 || dstLength < bound)
+            ? "encoding failed; output buffer might be too small" : "encoding failed");
+      }
+      ((Buffer) dst).position(dst.position() + result);
+    } else {
+      byte[] data = new byte[srcLength];
+      src.duplicate().get(data);
+      byte[] output = compressArray(data, params, pool);
+      if (output.length > dstLength) {
+        throw new IOException("output buffer is too small");
+      }
+      dst.put(output);
+      result = output.length;
+    }
+    ((Buffer) src).position(src.limit());
+    if (listener != null || event != null) {
+      long nanos = System.nanoTime() - start;
+      if (listener != null) {
+        listener.encoded(params.quality, srcLength, result, nanos, 0);
+      }
+      if (event != null) {
+        BrotliEvents.endEncode(event, params.toNative(false), srcLength, result, nanos, 0);
+      }
+    }
+    return result;
+  }
+
+  /** Memory passed to native code: direct buffer itself, or its backing array. */
+  private static Object regionOf(ByteBuffer buffer) {
+    return buffer.isDirect() ? buffer : buffer.array();
+  }
+
+  private static int offsetOf(ByteBuffer buffer) {
+    return buffer.isDirect() ? buffer.position() : buffer.arrayOffset() + buffer.position();
+  }
+
+  public static int compress(ByteBuffer src, ByteBuffer dst) throws IOException {
+    return compress(src, dst, new Parameters());
+  }
+
+  /**
+   * Encodes {@code source} from its position to its end into {@code destination}.
+   *
+   * <p> Source is memory-mapped in windows of up to 256 MiB that native encoder reads in place,
+   * so files of any size are encoded without copying input through the heap. Output is written
+   * from a direct buffer. On success the position of {@code source} is moved to its end.
+   *
+   * @param pool pool to borrow native encoder from, or {@code null}
+   * @return number of bytes written to {@code destination}
+   */
+  public static long compress(FileChannel source, WritableByteChannel destination,
+      Parameters params, EncoderPool pool) throws IOException {
+    CompressionListener listener = BrotliMetrics.getListener();
+    Object event = BrotliEvents.begin(BrotliEvents.COMPRESS);
+    long start = (listener != null || event != null) ? System.nanoTime() : 0;
+    long offset = source.position();
+    long size = source.size();
+    long inputSize = Math.max(size - offset, 0);
+    int[] nativeParams = params.toNative();
+    EncoderJNI.Wrapper encoder = (pool != null)
+        ? pool.acquire(0, nativeParams, params.dictionary)
+        : new EncoderJNI.Wrapper(0, nativeParams, params.dictionary);
+    encoder.setSizeHint((int) Math.min(inputSize, 1 << 30));
+    ByteBuffer output = ByteBuffer.allocateDirect(FILE_OUTPUT_SIZE);
+    long written = 0;
+    try {
+      do {
+        long windowSize = Math.min(MAX_MAPPED_WINDOW, size - offset);
+        ByteBuffer window = (windowSize > 0)
+            ? source.map(FileChannel.MapMode.READ_ONLY, offset, windowSize)
+            : EMPTY_REGION.duplicate();
+        offset += Math.max(windowSize, 0);
+        EncoderJNI.Operation op =
+            (offset >= size) ? EncoderJNI.Operation.FINISH : EncoderJNI.Operation.PROCESS;
+        written += compressRegion(encoder, op, window, output, destination);
+      } while (offset < size);
+      written += writeOutput(output, destination);
+    } finally {
+      if (pool != null) {
+        pool.release(encoder);
+      } else {
+        encoder.destroy();
+      }
+    }
+    source.position(Math.max(offset, source.position()));
+    if (listener != null || event != null) {
+      long nanos = System.nanoTime() - start;
+      if (listener != null) {
+        listener.encoded(params.quality, inputSize, written, nanos, 0);
+      }
+      BrotliEvents.endEncode(event, nativeParams, inputSize, written, nanos, 0);
+    }
+    return written;
+  }
+
+  public static long compress(FileChannel source, WritableByteChannel destination,
+      Parameters params) throws IOException {
+    return compress(source, destination, params, null);
+  }
+
+  /**
+   * Feeds mapped window to encoder in slices; output buffer is written out whenever it is full.
+   *
+   * @return number of bytes written to {@code destination}
+   */
+  private static long compressRegion(EncoderJNI.Wrapper encoder, EncoderJNI.Operation op,
+      ByteBuffer input, ByteBuffer output, WritableByteChannel destination) throws IOException {
+    long written = 0;
+    while (true) {
+      if (!output.hasRemaining()) {
+        written += writeOutput(output, destination);
+      }
+      int length = Math.min(input.remaining(), MAX_REGION_SLICE);
+      /* Once finishing starts, the rest of the input fits into a slice. */
+      EncoderJNI.Operation sliceOp =
+          (length < input.remaining()) ? EncoderJNI.Operation.PROCESS : op;
+      int produced;
+      Semaphore permit = NativeConcurrency.acquire();
+      try {
+        produced = encoder.compress(sliceOp, input, input.position(), length,
+            output, output.position(), output.remaining());
+      } finally {
+        NativeConcurrency.release(permit);
+      }
+      if (!encoder.isSuccess()) {
+        throw new IOException("encoding failed");
+      }
+      ((Buffer) input).position(input.position() + encoder.getLastConsumed());
+      ((Buffer) output).position(output.position() + produced);
+      if (input.hasRemaining() || encoder.hasMoreOutput()) {
+        continue;
+      }
+      if (sliceOp == EncoderJNI.Operation.FINISH && !encoder.isFinished()) {
+        continue;
+      }
+      return written;
+    }
+  }
+
+  /**
+   * Writes out and clears {@code output}.
+   *
+   * @return number of bytes written
+   */
+  private static int writeOutput(ByteBuffer output, WritableByteChannel destination)
+      throws IOException {
+    ((Buffer) output).flip();
+    int result = output.remaining();
+    while (output.hasRemaining()) {
+      destination.write(output);
+    }
+    ((Buffer) output).clear();
+    return result;
+  }
 }
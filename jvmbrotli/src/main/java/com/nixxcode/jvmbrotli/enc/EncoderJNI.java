@@ -6,17 +6,43 @@
 
 package com.nixxcode.jvmbrotli.enc;
 
+import com.nixxcode.jvmbrotli.common.NativeResources;
 import java.io.IOException;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * JNI wrapper for brotli encoder.
  */
 class EncoderJNI {
-  private static native ByteBuffer nativeCreate(long[] context);
-  private static native void nativePush(long[] context, int length);
-  private static native ByteBuffer nativePull(long[] context);
-  private static native void nativeDestroy(long[] context);
+  private static native ByteBuffer nativeCreate(ByteBuffer statusBlock, int inputBufferSize,
+      int[] params, ByteBuffer dictionary);
+  private static native void nativePush(long cookie, int operation, int length);
+  private static native ByteBuffer nativePull(long cookie);
+  private static native void nativeDestroy(long cookie);
+  private static native boolean nativeReset(long cookie);
+  private static native void nativeSetSizeHint(long cookie, int sizeHint);
+  private static native int nativeCompressStream(long cookie, Object src, int srcOffset,
+      int srcLength, Object dst, int dstOffset, int dstLength);
+  private static native long nativeCompressRegion(long cookie, int operation, Object src,
+      int srcOffset, int srcLength, Object dst, int dstOffset, int dstLength);
+  private static native int nativeCompress(Object src, int srcOffset, int srcLength,
+      Object dst, int dstOffset, int dstLength, int[] params);
+  private static native byte[] nativePrepareDictionary(ByteBuffer dictionary, int[] params);
+
+  /* Parameter indices; values match BrotliEncoderParameter. */
+  static final int PARAM_MODE = 0;
+  static final int PARAM_QUALITY = 1;
+  static final int PARAM_LGWIN = 2;
+  static final int PARAM_LGBLOCK = 3;
+  static final int PARAM_DISABLE_LITERAL_CONTEXT_MODELING = 4;
+  static final int PARAM_SIZE_HINT = 5;
+  static final int PARAM_LARGE_WINDOW = 6;
+  static final int PARAM_NPOSTFIX = 7;
+  static final int PARAM_NDIRECT = 8;
+  static final int PARAM_STREAM_OFFSET = 9;
+  static final int NUM_PARAMS = 10;
 
   enum Operation {
     PROCESS,
@@ -24,33 +50,95 @@ class EncoderJNI {
     FINISH
   }
 
+  /**
+   * Compresses memory region into another memory region in one go.
+   *
+   * <p> Source and destination are either direct {@link ByteBuffer}s or {@code byte[]}s; arrays
+   * are pinned by native code for the duration of the call.
+   *
+   * @param params values indexed by {@code PARAM_*}; -1 for unset parameters
+   * @return number of bytes written to destination, or -1 in case of error
+   */
+  static int compress(Object src, int srcOffset, int srcLength,
+      Object dst, int dstOffset, int dstLength, int[] params) {
+    return nativeCompress(src, srcOffset, srcLength, dst, dstOffset, dstLength, params);
+  }
+
+  /**
+   * Compresses dictionary with given parameters and flushes.
+   *
+   * @param dictionary direct buffer with dictionary data
+   * @return compressed stream prefix, or {@code null} in case of error
+   */
+  static byte[] prepareDictionary(ByteBuffer dictionary, int[] params) {
+    return nativePrepareDictionary(dictionary, params);
+  }
+
+  /**
+   * Status block layout: {int64 cookie, int32 success, int32 has_more_output,
+   * int32 has_remaining_input, int32 is_finished, int64 native_bytes, int64 peak_native_bytes}.
+   *
+   * <p> Native code publishes encoder state here, so calls do not need to marshal arrays.
+   */
+  private static final int STATUS_BLOCK_SIZE = 40;
+  private static final int SUCCESS_OFFSET = 8;
+  private static final int HAS_MORE_OUTPUT_OFFSET = 12;
+  private static final int HAS_REMAINING_INPUT_OFFSET = 16;
+  private static final int IS_FINISHED_OFFSET = 20;
+  private static final int NATIVE_BYTES_OFFSET = 24;
+  private static final int PEAK_NATIVE_BYTES_OFFSET = 32;
+
+  private static final NativeResources.Releaser DESTROY = new NativeResources.Releaser() {
+    @Override
+    public void release(long cookie) {
+      nativeDestroy(cookie);
+    }
+  };
+
   static class Wrapper {
-    protected final long[] context = new long[5];
+    private final ByteBuffer statusBlock =
+        ByteBuffer.allocateDirect(STATUS_BLOCK_SIZE).order(ByteOrder.nativeOrder());
+    private long cookie;
+    private final NativeResources.Handle resource;
     private final ByteBuffer inputBuffer;
     private boolean fresh = true;
+    private int lastConsumed;
+    final int inputBufferSize;
+    final int[] params;
+    /** Keeps dictionary memory reachable while native encoder refers to it. */
+    final PreparedDictionary dictionary;
 
-    Wrapper(int inputBufferSize, int quality, int lgwin)
+    /**
+     * @param inputBufferSize internal input buffer size; 0 for encoders that only compress
+     *     caller memory (see {@link #compress})
+     * @param params values indexed by {@code PARAM_*}; -1 for unset parameters
+     * @param dictionary dictionary to prime encoder with (also after reset), or {@code null}
+     */
+    Wrapper(int inputBufferSize, int[] params, PreparedDictionary dictionary)
         throws IOException {
-      if (inputBufferSize <= 0) {
-        throw new IOException("buffer size must be positive");
-      }
-      this.context[1] = inputBufferSize;
-      this.context[2] = quality;
-      this.context[3] = lgwin;
-      this.inputBuffer = nativeCreate(this.context);
-      if (this.context[0] == 0) {
+      if (inputBufferSize < 0) {
+        throw new IOException("buffer size must be non-negative");
+      }
+      if (params.length != NUM_PARAMS) {
+        throw new IllegalArgumentException("unexpected number of encoder parameters");
+      }
+      this.inputBufferSize = inputBufferSize;
+      this.params = params.clone();
+      this.dictionary = dictionary;
+      this.inputBuffer = nativeCreate(this.statusBlock, inputBufferSize, this.params,
+          (dictionary != null) ? dictionary.data : null);
+      this.cookie = this.statusBlock.getLong(0);
+      if (this.cookie == 0) {
         throw new IOException("failed to initialize native brotli encoder");
       }
-      this.context[1] = 1;
-      this.context[2] = 0;
-      this.context[3] = 0;
+      this.resource = NativeResources.register(this, NativeResources.Kind.ENCODER, cookie, DESTROY);
     }
 
     void push(Operation op, int length) {
       if (length < 0) {
         throw new IllegalArgumentException("negative block length");
       }
-      if (context[0] == 0) {
+      if (cookie == 0) {
         throw new IllegalStateException("brotli encoder is already destroyed");
       }
       if (!isSuccess() || hasMoreOutput()) {
@@ -59,25 +147,38 @@ class EncoderJNI {
       if (hasRemainingInput() && length != 0) {
         throw new IllegalStateException("pushing input to encoder over previous input");
       }
-      context[1] = op.ordinal();
       fresh = false;
-      nativePush(context, length);
+      nativePush(cookie, op.ordinal(), length);
     }
 
     boolean isSuccess() {
-      return context[1] != 0;
+      return statusBlock.getInt(SUCCESS_OFFSET) != 0;
     }
 
     boolean hasMoreOutput() {
-      return context[2] != 0;
+      return statusBlock.getInt(HAS_MORE_OUTPUT_OFFSET) != 0;
     }
 
     boolean hasRemainingInput() {
-      return context[3] != 0;
+      return statusBlock.getInt(HAS_REMAINING_INPUT_OFFSET) != 0;
     }
 
     boolean isFinished() {
-      return context[4] != 0;
+      return statusBlock.getInt(IS_FINISHED_OFFSET) != 0;
+    }
+
+    /**
+     * @return native memory held by this encoder, including memory cached for reuse after reset
+     */
+    long getNativeBytes() {
+      return (cookie != 0) ? statusBlock.getLong(NATIVE_BYTES_OFFSET) : 0;
+    }
+
+    /**
+     * @return the highest amount of native memory held since creation or the last reset
+     */
+    long getPeakNativeBytes() {
+      return (cookie != 0) ? statusBlock.getLong(PEAK_NATIVE_BYTES_OFFSET) : 0;
     }
 
     ByteBuffer getInputBuffer() {
@@ -85,34 +186,124 @@ class EncoderJNI {
     }
 
     ByteBuffer pull() {
-      if (context[0] == 0) {
+      if (cookie == 0) {
         throw new IllegalStateException("brotli encoder is already destroyed");
       }
       if (!isSuccess() || !hasMoreOutput()) {
         throw new IllegalStateException("pulling while data is not ready");
       }
       fresh = false;
-      return nativePull(context);
+      return nativePull(cookie);
     }
 
     /**
-     * Releases native resources.
+     * Compresses caller memory into caller memory in one go; internal input buffer is not
+     * involved. Only allowed for fresh (or just reset) encoder.
+     *
+     * <p> Source and destination are either direct {@link ByteBuffer}s or {@code byte[]}s.
+     *
+     * @return number of bytes written to destination, or -1 in case of error
      */
-    void destroy() {
-      if (context[0] == 0) {
+    int compress(Object src, int srcOffset, int srcLength,
+        Object dst, int dstOffset, int dstLength) {
+      if (cookie == 0) {
         throw new IllegalStateException("brotli encoder is already destroyed");
       }
-      nativeDestroy(context);
-      context[0] = 0;
+      if (!fresh) {
+        throw new IllegalStateException("compressing with encoder in use");
+      }
+      fresh = false;
+      return nativeCompressStream(cookie, src, srcOffset, srcLength, dst, dstOffset, dstLength);
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-      if (context[0] != 0) {
-        /* TODO: log resource leak? */
-        destroy();
+    /**
+     * Sets size hint of the upcoming stream, unless size hint is among encoder parameters or
+     * fixed by dictionary. Only allowed for fresh (or just reset) encoder; afterwards encoder
+     * counts as used, so that reset brings back the original size hint.
+     */
+    void setSizeHint(int sizeHint) {
+      if (cookie == 0) {
+        throw new IllegalStateException("brotli encoder is already destroyed");
+      }
+      if (!fresh) {
+        throw new IllegalStateException("setting size hint of encoder in use");
+      }
+      fresh = false;
+      nativeSetSizeHint(cookie, sizeHint);
+    }
+
+    /**
+     * Compresses caller memory into caller memory, keeping state in between calls; internal
+     * input buffer is not involved. Outcome is reported by {@link #isSuccess} and friends.
+     *
+     * <p> Source and destination are either direct {@link ByteBuffer}s or {@code byte[]}s.
+     *
+     * @return number of bytes written to destination; number of consumed input bytes is
+     *     reported by {@link #getLastConsumed()}
+     */
+    int compress(Operation op, Object src, int srcOffset, int srcLength,
+        Object dst, int dstOffset, int dstLength) {
+      if (srcLength < 0 || dstLength < 0) {
+        throw new IllegalArgumentException("negative block length");
+      }
+      if (cookie == 0) {
+        throw new IllegalStateException("brotli encoder is already destroyed");
+      }
+      if (!isSuccess() || hasRemainingInput()) {
+        throw new IllegalStateException("compressing with encoder in unexpected state");
+      }
+      fresh = false;
+      long result = nativeCompressRegion(cookie, op.ordinal(), src, srcOffset, srcLength,
+          dst, dstOffset, dstLength);
+      lastConsumed = (int) (result >>> 32);
+      return (int) result;
+    }
+
+    /**
+     * @return number of input bytes consumed by the last region {@link #compress} call
+     */
+    int getLastConsumed() {
+      return lastConsumed;
+    }
+
+    /**
+     * Prepares encoder for a new stream with the same parameters.
+     *
+     * <p> Native memory (hasher tables, ring buffer, input buffer) is kept and reused.
+     */
+    void reset() throws IOException {
+      if (cookie == 0) {
+        throw new IllegalStateException("brotli encoder is already destroyed");
+      }
+      if (fresh) {
+        return;
+      }
+      if (!nativeReset(cookie)) {
+        throw new IOException("failed to reset native brotli encoder");
+      }
+      if (inputBuffer != null) {
+        ((Buffer) inputBuffer).clear();
+      }
+      lastConsumed = 0;
+      fresh = true;
+    }
+
+    /**
+     * Marks encoder as parked in a pool ({@code true}) or taken out of it ({@code false}).
+     */
+    void setIdle(boolean idle) {
+      resource.setIdle(idle);
+    }
+
+    /**
+     * Releases native resources.
+     */
+    void destroy() {
+      if (cookie == 0) {
+        throw new IllegalStateException("brotli encoder is already destroyed");
       }
-      super.finalize();
+      resource.release();
+      cookie = 0;
     }
   }
 }
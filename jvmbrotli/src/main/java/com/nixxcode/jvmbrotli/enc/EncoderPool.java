@@ -0,0 +1,157 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.enc;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pool of native encoders, keyed by encoder parameters, dictionary and buffer size.
+ *
+ * <p> Encoders returned to the pool are reset, so the next stream reuses native memory (hasher
+ * tables, ring buffer, input buffer) instead of allocating it anew. Pool is thread-safe; each
+ * borrowed encoder is used by one stream at a time.
+ */
+public final class EncoderPool {
+  /** The default number of idle encoders kept per key. */
+  private static final int DEFAULT_MAX_IDLE = 8;
+
+  private final int maxIdlePerKey;
+  private final Map<Key, ArrayDeque<EncoderJNI.Wrapper>> idle =
+      new HashMap<Key, ArrayDeque<EncoderJNI.Wrapper>>();
+
+  private static final class Key {
+    final int inputBufferSize;
+    final int[] params;
+    final PreparedDictionary dictionary;
+
+    Key(int inputBufferSize, int[] params, PreparedDictionary dictionary) {
+      this.inputBufferSize = inputBufferSize;
+      this.params = params;
+      this.dictionary = dictionary;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return inputBufferSize == key.inputBufferSize && Arrays.equals(params, key.params)
+          && dictionary == key.dictionary;
+    }
+
+    @Override
+    public int hashCode() {
+      return (inputBufferSize * 31 + Arrays.hashCode(params)) * 31
+          + System.identityHashCode(dictionary);
+    }
+  }
+
+  /**
+   * Creates a pool.
+   *
+   * @param maxIdlePerKey maximal number of idle encoders kept for each parameter combination
+   */
+  public EncoderPool(int maxIdlePerKey) {
+    if (maxIdlePerKey < 0) {
+      throw new IllegalArgumentException("maxIdlePerKey should be non-negative");
+    }
+    this.maxIdlePerKey = maxIdlePerKey;
+  }
+
+  public EncoderPool() {
+    this(DEFAULT_MAX_IDLE);
+  }
+
+  /**
+   * Takes an idle encoder, or creates a new one.
+   */
+  EncoderJNI.Wrapper acquire(int inputBufferSize, int[] params, PreparedDictionary dictionary)
+      throws IOException {
+    synchronized (idle) {
+      ArrayDeque<EncoderJNI.Wrapper> encoders =
+          idle.get(new Key(inputBufferSize, params, dictionary));
+      if (encoders != null && !encoders.isEmpty()) {
+        EncoderJNI.Wrapper encoder = encoders.pop();
+        encoder.setIdle(false);
+        return encoder;
+      }
+    }
+    return new EncoderJNI.Wrapper(inputBufferSize, params, dictionary);
+  }
+
+  /**
+   * Resets encoder and makes it available for the next stream; encoder is destroyed if it can
+   * not be reset or there are enough idle ones.
+   */
+  void release(EncoderJNI.Wrapper encoder) {
+    try {
+      encoder.reset();
+    } catch (IOException ex) {
+      encoder.destroy();
+      return;
+    }
+    Key key = new Key(encoder.inputBufferSize, encoder.params, encoder.dictionary);
+    synchronized (idle) {
+      ArrayDeque<EncoderJNI.Wrapper> encoders = idle.get(key);
+      if (encoders == null) {
+        encoders = new ArrayDeque<EncoderJNI.Wrapper>();
+        idle.put(key, encoders);
+      }
+      if (encoders.size() < maxIdlePerKey) {
+        encoder.setIdle(true);
+        encoders.push(encoder);
+        return;
+      }
+    }
+    encoder.destroy();
+  }
+
+  /**
+   * @return number of idle encoders held by the pool
+   */
+  public int getIdleCount() {
+    synchronized (idle) {
+      int result = 0;
+      for (ArrayDeque<EncoderJNI.Wrapper> encoders : idle.values()) {
+        result += encoders.size();
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Destroys all idle encoders.
+   */
+  public void clear() {
+    ArrayList<EncoderJNI.Wrapper> encoders = new ArrayList<EncoderJNI.Wrapper>();
+    synchronized (idle) {
+      for (ArrayDeque<EncoderJNI.Wrapper> queue : idle.values()) {
+        encoders.addAll(queue);
+      }
+      idle.clear();
+    }
+    for (EncoderJNI.Wrapper encoder : encoders) {
+      encoder.destroy();
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.enc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Output stream that compresses chunks of input concurrently into a single standard brotli
+ * stream.
+ *
+ * <p> Each chunk is compressed by its own encoder, configured with the offset of the chunk
+ * ({@code BROTLI_PARAM_STREAM_OFFSET}) and flushed to a byte boundary; chunks are then
+ * concatenated in order and terminated with an empty last metablock. Any brotli decoder can
+ * decode the result. Chunks can not refer to data of preceding chunks, so compression ratio is
+ * slightly worse than that of {@link BrotliOutputStream}; the loss shrinks as chunk size grows
+ * relative to the window size.
+ *
+ * <p> {@link #flush()} waits for all the pending chunks. Dictionaries are not supported.
+ */
+public class ParallelBrotliOutputStream extends OutputStream {
+  /** The default uncompressed chunk size. */
+  public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+  private final OutputStream destination;
+  private final Encoder.Parameters params;
+  private final ExecutorService executor;
+  private final int chunkSize;
+  private final int maxInFlight;
+  private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<Future<byte[]>>();
+  private byte[] chunk;
+  private int chunkLength;
+  /** Uncompressed bytes submitted so far. */
+  private long offset;
+  private boolean closed;
+
+  /**
+   * Creates a ParallelBrotliOutputStream.
+   *
+   * @param destination underlying destination
+   * @param params encoding settings, applied to each chunk
+   * @param chunkSize uncompressed chunk size
+   * @param executor executor that compresses the chunks
+   */
+  public ParallelBrotliOutputStream(OutputStream destination, Encoder.Parameters params,
+      int chunkSize, ExecutorService executor) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunk size must be positive");
+    }
+    if (destination == null) {
+      throw new NullPointerException("destination can not be null");
+    }
+    Encoder.checkPartParams(params);
+    this.destination = destination;
+    this.params = params;
+    this.chunkSize = chunkSize;
+    this.executor = executor;
+    this.maxInFlight = 2 * Runtime.getRuntime().availableProcessors();
+    this.chunk = new byte[chunkSize];
+  }
+
+  public ParallelBrotliOutputStream(OutputStream destination, Encoder.Parameters params,
+      int chunkSize) {
+    this(destination, params, chunkSize, ForkJoinPool.commonPool());
+  }
+
+  public ParallelBrotliOutputStream(OutputStream destination, Encoder.Parameters params) {
+    this(destination, params, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Encodes the given data buffer using all the cores of the common pool.
+   */
+  public static byte[] compress(byte[] data, Encoder.Parameters params) throws IOException {
+    return compress(data, params, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Encodes the given data buffer on {@code executor}.
+   *
+   * @param chunkSize uncompressed chunk size
+   */
+  public static byte[] compress(byte[] data, Encoder.Parameters params, int chunkSize,
+      ExecutorService executor) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2 + 16);
+    ParallelBrotliOutputStream encoder =
+        new ParallelBrotliOutputStream(output, params, chunkSize, executor);
+    encoder.write(data);
+    encoder.close();
+    return output.toByteArray();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureOpen();
+    chunk[chunkLength++] = (byte) b;
+    if (chunkLength == chunkSize) {
+      submitChunk();
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    while (len > 0) {
+      int limit = Math.min(len, chunkSize - chunkLength);
+      System.arraycopy(b, off, chunk, chunkLength, limit);
+      chunkLength += limit;
+      off += limit;
+      len -= limit;
+      if (chunkLength == chunkSize) {
+        submitChunk();
+      }
+    }
+  }
+
+  /**
+   * Compresses buffered input and writes out all the pending chunks.
+   */
+  @Override
+  public void flush() throws IOException {
+    ensureOpen();
+    if (chunkLength > 0) {
+      submitChunk();
+    }
+    while (!inFlight.isEmpty()) {
+      writeChunk();
+    }
+    destination.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      if (offset == 0 && chunkLength == 0) {
+        /* Stream header is produced with the first chunk. */
+        submitChunk();
+      }
+      flush();
+      destination.write(Encoder.LAST_EMPTY_METABLOCK);
+    } finally {
+      closed = true;
+      for (Future<byte[]> pending : inFlight) {
+        pending.cancel(false);
+      }
+      inFlight.clear();
+      chunk = null;
+      destination.close();
+    }
+  }
+
+  private void submitChunk() throws IOException {
+    if (inFlight.size() == maxInFlight) {
+      writeChunk();
+    }
+    final byte[] data = chunk;
+    final int length = chunkLength;
+    final long chunkOffset = offset;
+    inFlight.add(executor.submit(new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws IOException {
+        return Encoder.compressPart(data, length, chunkOffset, params);
+      }
+    }));
+    offset += length;
+    chunk = new byte[chunkSize];
+    chunkLength = 0;
+  }
+
+  private void writeChunk() throws IOException {
+    byte[] output;
+    try {
+      output = inFlight.poll().get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while encoding");
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException) ex.getCause();
+      }
+      throw new IOException("encoding failed", ex.getCause());
+    }
+    destination.write(output);
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("write after close");
+    }
+  }
+}
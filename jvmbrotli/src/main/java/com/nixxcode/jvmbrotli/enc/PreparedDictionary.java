@@ -0,0 +1,88 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.enc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Caller-supplied raw prefix dictionary, shared by encoders and decoders.
+ *
+ * <p> Encoders using the dictionary are primed by compressing it and flushing; the resulting
+ * compressed prefix is recorded once, and decoders are primed by decoding it. Payloads then
+ * refer back to dictionary bytes as if they preceded the payload in the same stream. Such
+ * payloads have no stream header and can only be decoded with the same dictionary; they are not
+ * compatible with shared dictionaries of other brotli implementations.
+ *
+ * <p> Brotli 1.0.7 can not attach a prepared dictionary to a state, so every stream is primed
+ * anew, pooled ones included (pools only save allocations); priming time grows with the
+ * dictionary size and quality.
+ *
+ * <p> Dictionary is bound to the encoder parameters it was prepared with; window should be large
+ * enough to cover dictionary and payload. Instances are immutable; native memory is shared
+ * read-only by all encoders and decoders using the dictionary, across threads and pools.
+ */
+public final class PreparedDictionary {
+  final ByteBuffer data;
+  final ByteBuffer prefix;
+  final int[] params;
+
+  private PreparedDictionary(ByteBuffer data, ByteBuffer prefix, int[] params) {
+    this.data = data;
+    this.prefix = prefix;
+    this.params = params;
+  }
+
+  /**
+   * Prepares dictionary for encoders with given parameters.
+   *
+   * @param data raw dictionary; typically samples of the payloads to be compressed
+   * @param params encoder parameters; payloads should be compressed with the same ones
+   */
+  public static PreparedDictionary prepare(byte[] data, Encoder.Parameters params)
+      throws IOException {
+    if (data.length == 0) {
+      throw new IllegalArgumentException("dictionary should not be empty");
+    }
+    int[] nativeParams = params.toNative(false);
+    ByteBuffer directData = ByteBuffer.allocateDirect(data.length);
+    directData.put(data);
+    directData.flip();
+    byte[] compressedPrefix = EncoderJNI.prepareDictionary(directData, nativeParams);
+    if (compressedPrefix == null) {
+      throw new IOException("failed to prepare brotli dictionary");
+    }
+    ByteBuffer directPrefix = ByteBuffer.allocateDirect(compressedPrefix.length);
+    directPrefix.put(compressedPrefix);
+    directPrefix.flip();
+    return new PreparedDictionary(directData, directPrefix, nativeParams);
+  }
+
+  /**
+   * @return dictionary size in bytes
+   */
+  public int getSize() {
+    return data.capacity();
+  }
+
+  /**
+   * @return read-only view of the compressed stream prefix that primes decoders; direct buffer
+   */
+  public ByteBuffer getPrefix() {
+    return prefix.asReadOnlyBuffer();
+  }
+}
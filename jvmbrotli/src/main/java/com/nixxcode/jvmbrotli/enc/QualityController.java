@@ -0,0 +1,248 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.enc;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks compression quality for each new stream from the current load.
+ *
+ * <p> Attach to {@link Encoder.Parameters#setQualityController parameters} of streaming encoders
+ * ({@link BrotliOutputStream}, {@link BrotliEncoderChannel}); quality is chosen once, when the
+ * encoder is created, and the time spent in native encoder is reported back on close.
+ *
+ * <p> The choice is the highest quality in range whose encode time per MiB, as measured in this
+ * process (or estimated, until measured), fits into the latency budget. The budget shrinks with CPU
+ * utilisation and with queue depth, so that quality backs off during load spikes and recovers once
+ * there is headroom again. Controller is thread-safe and meant to be shared.
+ *
+ * <p> Only the chosen quality is measured, so a quality that was measured slowly (e.g. during a
+ * load spike) would never be chosen again. To avoid that, once per {@link #setExplorationInterval
+ * exploration interval} one stream is encoded with the next higher quality, unless that quality was
+ * measured recently; measurements older than the interval are replaced rather than averaged.
+ */
+public final class QualityController {
+  /** Load and queue depth sources. */
+  public interface LoadSource {
+    /**
+     * @return CPU utilisation in range [0, 1], or negative value if unknown
+     */
+    double cpuLoad();
+
+    /**
+     * @return number of requests waiting to be served, or 0 if unknown
+     */
+    int queueDepth();
+  }
+
+  /**
+   * Rough single-core throughput in MiB/s per quality; used until quality is measured.
+   */
+  private static final double[] PRIOR_MIB_PER_SECOND = {
+      350, 250, 120, 100, 80, 45, 35, 25, 20, 12, 1, 0.5
+  };
+
+  /** Weight of the newest measurement in the running average. */
+  private static final double SMOOTHING = 0.2;
+
+  /** Streams shorter than this are not measured; their timing is dominated by overhead. */
+  private static final long MIN_MEASURED_BYTES = 16384;
+
+  /** Minimal interval between load samples. */
+  private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /** Default interval between explorations of higher quality. */
+  private static final long DEFAULT_EXPLORATION_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final int minQuality;
+  private final int maxQuality;
+  private final long budgetNanosPerMiB;
+  private final int maxQueueDepth;
+  private final LoadSource loadSource;
+  private final double[] nanosPerMiB = new double[12];
+  private final long[] measuredStreams = new long[12];
+  private final long[] measuredAt = new long[12];
+  private final long[] exploredAt = new long[12];
+
+  private long lastSample = System.nanoTime() - SAMPLE_INTERVAL_NANOS;
+  private double loadFactor = 1;
+  private volatile int lastQuality = -1;
+  private volatile long explorationIntervalNanos = DEFAULT_EXPLORATION_INTERVAL_NANOS;
+
+  /**
+   * Creates a controller.
+   *
+   * @param minQuality quality used when there is no headroom at all
+   * @param maxQuality quality used when idle, budget permitting
+   * @param budget encode time allowed per MiB of input when idle
+   * @param unit unit of {@code budget}
+   * @param maxQueueDepth queue depth at which quality drops to {@code minQuality}
+   * @param loadSource source of CPU utilisation and queue depth
+   */
+  public QualityController(int minQuality, int maxQuality, long budget, TimeUnit unit,
+      int maxQueueDepth, LoadSource loadSource) {
+    if (minQuality < 0 || maxQuality > 11 || minQuality > maxQuality) {
+      throw new IllegalArgumentException("quality range should be within [0, 11]");
+    }
+    if (budget <= 0 || maxQueueDepth <= 0) {
+      throw new IllegalArgumentException("budget and max queue depth should be positive");
+    }
+    if (loadSource == null) {
+      throw new NullPointerException("load source can not be null");
+    }
+    this.minQuality = minQuality;
+    this.maxQuality = maxQuality;
+    this.budgetNanosPerMiB = unit.toNanos(budget);
+    this.maxQueueDepth = maxQueueDepth;
+    this.loadSource = loadSource;
+    long now = System.nanoTime();
+    for (int q = 0; q < nanosPerMiB.length; ++q) {
+      nanosPerMiB[q] = 1e9 / PRIOR_MIB_PER_SECOND[q];
+      measuredAt[q] = now;
+      exploredAt[q] = now;
+    }
+  }
+
+  /**
+   * Creates a controller driven by system load average; queue depth is not taken into account.
+   */
+  public QualityController(int minQuality, int maxQuality, long budget, TimeUnit unit) {
+    this(minQuality, maxQuality, budget, unit, 1, systemLoad());
+  }
+
+  /**
+   * @return load source based on {@link OperatingSystemMXBean#getSystemLoadAverage}; reports
+   *     unknown CPU load where load average is not available
+   */
+  public static LoadSource systemLoad() {
+    final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    return new LoadSource() {
+      @Override
+      public double cpuLoad() {
+        double average = os.getSystemLoadAverage();
+        return (average < 0) ? -1 : Math.min(1, average / os.getAvailableProcessors());
+      }
+
+      @Override
+      public int queueDepth() {
+        return 0;
+      }
+    };
+  }
+
+  /**
+   * Sets interval between explorations of higher quality; also the age after which measurements
+   * are replaced by new ones instead of being averaged. Default is 10 seconds.
+   *
+   * @return this controller
+   */
+  public QualityController setExplorationInterval(long interval, TimeUnit unit) {
+    if (interval < 0) {
+      throw new IllegalArgumentException("exploration interval should not be negative");
+    }
+    this.explorationIntervalNanos = unit.toNanos(interval);
+    return this;
+  }
+
+  /**
+   * Chooses quality for a new stream.
+   */
+  public int chooseQuality() {
+    double budget = budgetNanosPerMiB * sampleLoadFactor();
+    int result = minQuality;
+    synchronized (nanosPerMiB) {
+      for (int q = maxQuality; q > minQuality; --q) {
+        if (nanosPerMiB[q] <= budget) {
+          result = q;
+          break;
+        }
+      }
+      /* Re-measure next quality if its measurement is outdated; at most once per interval. */
+      int next = result + 1;
+      long now = System.nanoTime();
+      long interval = explorationIntervalNanos;
+      if (budget > 0 && next <= maxQuality && now - measuredAt[next] >= interval
+          && now - exploredAt[next] >= interval) {
+        exploredAt[next] = now;
+        result = next;
+      }
+    }
+    lastQuality = result;
+    return result;
+  }
+
+  /** @return share of the budget available under the current load, in range [0, 1] */
+  private synchronized double sampleLoadFactor() {
+    long now = System.nanoTime();
+    if (now - lastSample >= SAMPLE_INTERVAL_NANOS) {
+      lastSample = now;
+      double cpu = loadSource.cpuLoad();
+      double cpuFactor = (cpu < 0) ? 1 : 1 - Math.min(cpu, 1);
+      int depth = Math.max(loadSource.queueDepth(), 0);
+      double queueFactor = 1 - Math.min((double) depth / maxQueueDepth, 1);
+      loadFactor = cpuFactor * queueFactor;
+    }
+    return loadFactor;
+  }
+
+  /**
+   * Reports encoding time of a finished stream.
+   *
+   * @param quality quality of the stream
+   * @param bytes number of uncompressed bytes
+   * @param nanos time spent in native encoder
+   */
+  void record(int quality, long bytes, long nanos) {
+    if (quality < 0 || quality > 11 || bytes < MIN_MEASURED_BYTES || nanos <= 0) {
+      return;
+    }
+    double sample = nanos * (double) (1 << 20) / bytes;
+    synchronized (nanosPerMiB) {
+      long now = System.nanoTime();
+      boolean stale = now - measuredAt[quality] >= explorationIntervalNanos;
+      double weight = (measuredStreams[quality]++ == 0 || stale) ? 1 : SMOOTHING;
+      nanosPerMiB[quality] += weight * (sample - nanosPerMiB[quality]);
+      measuredAt[quality] = now;
+    }
+  }
+
+  /** @return quality chosen most recently, or -1 if none yet */
+  public int getLastQuality() {
+    return lastQuality;
+  }
+
+  /** @return share of the latency budget available at the last load sample, in range [0, 1] */
+  public synchronized double getLoadFactor() {
+    return loadFactor;
+  }
+
+  /** @return measured (or, until measured, estimated) encode time per MiB, in nanoseconds */
+  public double getNanosPerMiB(int quality) {
+    synchronized (nanosPerMiB) {
+      return nanosPerMiB[quality];
+    }
+  }
+
+  /** @return number of streams measured with given quality */
+  public long getMeasuredStreams(int quality) {
+    synchronized (nanosPerMiB) {
+      return measuredStreams[quality];
+    }
+  }
+}
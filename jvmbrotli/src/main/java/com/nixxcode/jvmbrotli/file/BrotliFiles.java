@@ -0,0 +1,102 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.file;
+
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.enc.EncoderPool;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compresses and decompresses whole files through memory mapping.
+ *
+ * <p> Source file is mapped in windows and native code reads the mapped memory in place; output
+ * is written to the target file from a direct buffer. Compared to stream wrappers, no data is
+ * copied through heap arrays, and files larger than 2 GiB are supported. Target file is created,
+ * or truncated if it exists.
+ *
+ * <p> See {@link Encoder#compress(FileChannel, java.nio.channels.WritableByteChannel,
+ * Encoder.Parameters, EncoderPool)} and {@link Decoder#decompress(FileChannel,
+ * java.nio.channels.WritableByteChannel, Decoder.Parameters)} for channel-level variants.
+ */
+public final class BrotliFiles {
+  private BrotliFiles() { }
+
+  /**
+   * Compresses {@code source} file into {@code target} file.
+   *
+   * @param pool pool to borrow native encoder from, or {@code null}
+   * @return size of the compressed file
+   */
+  public static long compress(Path source, Path target, Encoder.Parameters params,
+      EncoderPool pool) throws IOException {
+    FileChannel input = FileChannel.open(source, StandardOpenOption.READ);
+    try {
+      FileChannel output = openTarget(target);
+      try {
+        return Encoder.compress(input, output, params, pool);
+      } finally {
+        output.close();
+      }
+    } finally {
+      input.close();
+    }
+  }
+
+  public static long compress(Path source, Path target, Encoder.Parameters params)
+      throws IOException {
+    return compress(source, target, params, null);
+  }
+
+  public static long compress(Path source, Path target) throws IOException {
+    return compress(source, target, new Encoder.Parameters());
+  }
+
+  /**
+   * Decompresses {@code source} file, which must contain exactly one brotli stream, into
+   * {@code target} file.
+   *
+   * @return size of the decompressed file
+   */
+  public static long decompress(Path source, Path target, Decoder.Parameters params)
+      throws IOException {
+    FileChannel input = FileChannel.open(source, StandardOpenOption.READ);
+    try {
+      FileChannel output = openTarget(target);
+      try {
+        return Decoder.decompress(input, output, params);
+      } finally {
+        output.close();
+      }
+    } finally {
+      input.close();
+    }
+  }
+
+  public static long decompress(Path source, Path target) throws IOException {
+    return decompress(source, target, new Decoder.Parameters());
+  }
+
+  private static FileChannel openTarget(Path target) throws IOException {
+    return FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.framed;
+
+import com.nixxcode.jvmbrotli.dec.Decoder;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read-only SeekableByteChannel over framed brotli file.
+ *
+ * <p> Position and size are those of uncompressed data. Reads decode only the blocks that cover
+ * the requested range; the last decoded block is cached, so sequential reads decode each block
+ * once.
+ */
+public class BrotliFramedChannel implements SeekableByteChannel {
+  private final ReentrantLock lock = new ReentrantLock();
+  private final SeekableByteChannel source;
+  private final Decoder.Parameters params;
+  private final FrameIndex index;
+  private final ByteBuffer compressed;
+  private final ByteBuffer block;
+  /** Index of the block held in {@link #block}; -1 if none. */
+  private int blockIndex = -1;
+  private long position;
+  private boolean closed;
+
+  /**
+   * Creates a BrotliFramedChannel; header and index are read immediately.
+   *
+   * @param source underlying framed file
+   * @param params decoding settings, applied to each block
+   */
+  public BrotliFramedChannel(SeekableByteChannel source, Decoder.Parameters params)
+      throws IOException {
+    this.source = source;
+    this.params = params;
+    this.index = FrameIndex.read(source);
+    this.compressed = ByteBuffer.allocateDirect(index.getMaxCompressedLength());
+    this.block = ByteBuffer.allocateDirect(index.getMaxUncompressedLength());
+  }
+
+  public BrotliFramedChannel(SeekableByteChannel source) throws IOException {
+    this(source, new Decoder.Parameters());
+  }
+
+  /**
+   * @return index of the underlying framed file
+   */
+  public FrameIndex getIndex() {
+    return index;
+  }
+
+  @Override
+  public boolean isOpen() {
+    lock.lock();
+    try {
+      return !closed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      source.close();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    lock.lock();
+    try {
+      ensureOpen();
+      int result = 0;
+      while (dst.hasRemaining()) {
+        int current = index.findBlock(position);
+        if (current < 0) {
+          return result == 0 ? -1 : result;
+        }
+        loadBlock(current);
+        int offset = (int) (position - index.getUncompressedOffset(current));
+        ByteBuffer slice = block.duplicate();
+        ((Buffer) slice).position(offset);
+        int limit = Math.min(slice.remaining(), dst.remaining());
+        ((Buffer) slice).limit(offset + limit);
+        dst.put(slice);
+        position += limit;
+        result += limit;
+      }
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Decodes block into {@link #block}, unless it is already there.
+   */
+  private void loadBlock(int current) throws IOException {
+    if (blockIndex == current) {
+      return;
+    }
+    blockIndex = -1;
+    ((Buffer) compressed).clear();
+    ((Buffer) compressed).limit(index.getCompressedLength(current));
+    source.position(index.getCompressedOffset(current));
+    FrameIndex.readFully(source, compressed);
+    ((Buffer) compressed).flip();
+    ((Buffer) block).clear();
+    int length = Decoder.decompress(compressed, block, params);
+    if (length != index.getUncompressedLength(current)) {
+      throw new IOException("block size does not match framed brotli index");
+    }
+    ((Buffer) block).flip();
+    blockIndex = current;
+  }
+
+  @Override
+  public long position() throws IOException {
+    lock.lock();
+    try {
+      ensureOpen();
+      return position;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public SeekableByteChannel position(long newPosition) throws IOException {
+    if (newPosition < 0) {
+      throw new IllegalArgumentException("negative position");
+    }
+    lock.lock();
+    try {
+      ensureOpen();
+      position = newPosition;
+      return this;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public long size() throws IOException {
+    lock.lock();
+    try {
+      ensureOpen();
+      return index.getUncompressedSize();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int write(ByteBuffer src) {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public SeekableByteChannel truncate(long size) {
+    throw new NonWritableChannelException();
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new ClosedChannelException();
+    }
+  }
+}
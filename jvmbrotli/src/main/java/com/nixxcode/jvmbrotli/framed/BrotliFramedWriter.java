@@ -0,0 +1,169 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.framed;
+
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.enc.EncoderPool;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * WritableByteChannel that produces framed brotli file; see {@link FrameIndex} for the layout.
+ *
+ * <p> Input is cut into blocks of fixed uncompressed size, and each block is compressed
+ * independently, so it can be decoded without the preceding ones. Index is written on close.
+ */
+public class BrotliFramedWriter implements WritableByteChannel {
+  /** The default uncompressed block size. */
+  public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final WritableByteChannel destination;
+  private final Encoder.Parameters params;
+  private final EncoderPool pool;
+  private final ByteBuffer inputBuffer;
+  private final ByteBuffer outputBuffer;
+  /** Compressed and uncompressed length pairs of written blocks. */
+  private int[] lengths = new int[32];
+  private int blockCount;
+  private long offset;
+  private boolean closed;
+
+  /**
+   * Creates a BrotliFramedWriter.
+   *
+   * @param destination underlying destination
+   * @param params encoding settings, applied to each block
+   * @param blockSize uncompressed block size
+   * @param pool pool to borrow native encoder from, or {@code null}
+   */
+  public BrotliFramedWriter(WritableByteChannel destination, Encoder.Parameters params,
+      int blockSize, EncoderPool pool) throws IOException {
+    if (blockSize <= 0 || blockSize > FrameIndex.MAX_BLOCK_SIZE) {
+      throw new IllegalArgumentException("block size should be in range [1, 2^30]");
+    }
+    if (destination == null) {
+      throw new NullPointerException("destination");
+    }
+    this.destination = destination;
+    this.params = params;
+    this.pool = pool;
+    this.inputBuffer = ByteBuffer.allocateDirect(blockSize);
+    this.outputBuffer = ByteBuffer.allocateDirect(Encoder.maxCompressedSize(blockSize));
+    FrameIndex.writeHeader(destination, blockSize);
+    this.offset = FrameIndex.HEADER_SIZE;
+  }
+
+  public BrotliFramedWriter(WritableByteChannel destination, Encoder.Parameters params,
+      int blockSize) throws IOException {
+    this(destination, params, blockSize, null);
+  }
+
+  public BrotliFramedWriter(WritableByteChannel destination, Encoder.Parameters params)
+      throws IOException {
+    this(destination, params, DEFAULT_BLOCK_SIZE);
+  }
+
+  public BrotliFramedWriter(WritableByteChannel destination) throws IOException {
+    this(destination, new Encoder.Parameters());
+  }
+
+  @Override
+  public boolean isOpen() {
+    lock.lock();
+    try {
+      return !closed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    lock.lock();
+    try {
+      if (closed) {
+        throw new ClosedChannelException();
+      }
+      int result = 0;
+      while (src.hasRemaining()) {
+        int limit = Math.min(src.remaining(), inputBuffer.remaining());
+        ByteBuffer slice = src.slice();
+        ((Buffer) slice).limit(limit);
+        inputBuffer.put(slice);
+        result += limit;
+        ((Buffer) src).position(src.position() + limit);
+        if (!inputBuffer.hasRemaining()) {
+          writeBlock();
+        }
+      }
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Compresses buffered input as a block and writes it to destination.
+   */
+  private void writeBlock() throws IOException {
+    ((Buffer) inputBuffer).flip();
+    ((Buffer) outputBuffer).clear();
+    int uncompressedLength = inputBuffer.remaining();
+    int compressedLength = Encoder.compress(inputBuffer, outputBuffer, params, pool);
+    ((Buffer) outputBuffer).flip();
+    FrameIndex.writeFully(destination, outputBuffer);
+    ((Buffer) inputBuffer).clear();
+    if (2 * blockCount + 2 > lengths.length) {
+      lengths = Arrays.copyOf(lengths, 2 * lengths.length);
+    }
+    lengths[2 * blockCount] = compressedLength;
+    lengths[2 * blockCount + 1] = uncompressedLength;
+    blockCount++;
+    offset += compressedLength;
+  }
+
+  /**
+   * Writes the last (partial) block and index, then closes destination.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        if (inputBuffer.position() > 0) {
+          writeBlock();
+        }
+        FrameIndex.writeIndex(destination, lengths, blockCount, offset);
+      } finally {
+        destination.close();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+}
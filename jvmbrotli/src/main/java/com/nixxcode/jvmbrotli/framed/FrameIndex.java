@@ -0,0 +1,233 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.framed;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Index of a framed brotli file.
+ *
+ * <p> Framed file consists of a header, independently compressed blocks (each one a complete
+ * brotli stream), block index and trailer. All numbers are big-endian:
+ * <pre>
+ *   header:  int32 magic, int32 version, int32 block size
+ *   blocks:  brotli streams, back to back
+ *   index:   int32 compressed length, int32 uncompressed length; per block
+ *   trailer: int64 index offset, int32 block count, int32 magic
+ * </pre>
+ *
+ * <p> Block size is the writer's (maximal) uncompressed block length; index entries that exceed it
+ * are rejected as corrupted, which bounds the buffers allocated by readers.
+ */
+public final class FrameIndex {
+  /** "BRFR" */
+  static final int MAGIC = 0x42524652;
+  static final int VERSION = 2;
+  static final int HEADER_SIZE = 12;
+  /** Blocks should fit into arrays together with their compressed form. */
+  static final int MAX_BLOCK_SIZE = 1 << 30;
+  static final int ENTRY_SIZE = 8;
+  static final int TRAILER_SIZE = 16;
+
+  /** Block offsets; one extra trailing element holds the total size. */
+  private final long[] compressedOffsets;
+  private final long[] uncompressedOffsets;
+  private final int blockSize;
+
+  private FrameIndex(long[] compressedOffsets, long[] uncompressedOffsets, int blockSize) {
+    this.compressedOffsets = compressedOffsets;
+    this.uncompressedOffsets = uncompressedOffsets;
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * @return uncompressed block size the file was written with; no block is longer
+   */
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * @return number of blocks
+   */
+  public int getBlockCount() {
+    return compressedOffsets.length - 1;
+  }
+
+  /**
+   * @return total size of uncompressed data
+   */
+  public long getUncompressedSize() {
+    return uncompressedOffsets[getBlockCount()];
+  }
+
+  /**
+   * @return offset of compressed block within the framed file
+   */
+  public long getCompressedOffset(int block) {
+    return compressedOffsets[block];
+  }
+
+  public int getCompressedLength(int block) {
+    return (int) (compressedOffsets[block + 1] - compressedOffsets[block]);
+  }
+
+  /**
+   * @return offset of the first byte of block within uncompressed data
+   */
+  public long getUncompressedOffset(int block) {
+    return uncompressedOffsets[block];
+  }
+
+  public int getUncompressedLength(int block) {
+    return (int) (uncompressedOffsets[block + 1] - uncompressedOffsets[block]);
+  }
+
+  /**
+   * @return index of the block that covers uncompressed {@code position}, or -1 if position is
+   *         beyond the end of data
+   */
+  public int findBlock(long position) {
+    if (position < 0) {
+      throw new IllegalArgumentException("negative position");
+    }
+    if (position >= getUncompressedSize()) {
+      return -1;
+    }
+    int index = Arrays.binarySearch(uncompressedOffsets, position);
+    if (index < 0) {
+      return -index - 2;
+    }
+    /* Skip empty blocks that start at the same offset. */
+    while (uncompressedOffsets[index + 1] == position) {
+      index++;
+    }
+    return index;
+  }
+
+  int getMaxCompressedLength() {
+    int result = 0;
+    for (int i = 0; i < getBlockCount(); ++i) {
+      result = Math.max(result, getCompressedLength(i));
+    }
+    return result;
+  }
+
+  int getMaxUncompressedLength() {
+    int result = 0;
+    for (int i = 0; i < getBlockCount(); ++i) {
+      result = Math.max(result, getUncompressedLength(i));
+    }
+    return result;
+  }
+
+  static void writeHeader(WritableByteChannel destination, int blockSize) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(VERSION).putInt(blockSize);
+    ((Buffer) header).flip();
+    writeFully(destination, header);
+  }
+
+  /**
+   * Writes index and trailer.
+   *
+   * @param lengths compressed and uncompressed length pairs
+   * @param blockCount number of blocks
+   * @param indexOffset offset of index within the framed file
+   */
+  static void writeIndex(WritableByteChannel destination, int[] lengths, int blockCount,
+      long indexOffset) throws IOException {
+    ByteBuffer index = ByteBuffer.allocate(blockCount * ENTRY_SIZE + TRAILER_SIZE);
+    for (int i = 0; i < blockCount; ++i) {
+      index.putInt(lengths[2 * i]).putInt(lengths[2 * i + 1]);
+    }
+    index.putLong(indexOffset).putInt(blockCount).putInt(MAGIC);
+    ((Buffer) index).flip();
+    writeFully(destination, index);
+  }
+
+  /**
+   * Reads and validates header and index of the framed file.
+   */
+  public static FrameIndex read(SeekableByteChannel source) throws IOException {
+    long size = source.size();
+    if (size < HEADER_SIZE + TRAILER_SIZE) {
+      throw new IOException("not a framed brotli file");
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    source.position(0);
+    readFully(source, header);
+    if (header.getInt(0) != MAGIC) {
+      throw new IOException("not a framed brotli file");
+    }
+    if (header.getInt(4) != VERSION) {
+      throw new IOException("unsupported framed brotli version");
+    }
+    int blockSize = header.getInt(8);
+    if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+      throw new IOException("corrupted framed brotli header");
+    }
+    ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+    source.position(size - TRAILER_SIZE);
+    readFully(source, trailer);
+    long indexOffset = trailer.getLong(0);
+    int blockCount = trailer.getInt(8);
+    if (trailer.getInt(12) != MAGIC || blockCount < 0 || indexOffset < HEADER_SIZE
+        || indexOffset + (long) blockCount * ENTRY_SIZE + TRAILER_SIZE != size) {
+      throw new IOException("corrupted framed brotli index");
+    }
+    ByteBuffer index = ByteBuffer.allocate(blockCount * ENTRY_SIZE);
+    source.position(indexOffset);
+    readFully(source, index);
+    long[] compressedOffsets = new long[blockCount + 1];
+    long[] uncompressedOffsets = new long[blockCount + 1];
+    compressedOffsets[0] = HEADER_SIZE;
+    for (int i = 0; i < blockCount; ++i) {
+      int compressedLength = index.getInt(i * ENTRY_SIZE);
+      int uncompressedLength = index.getInt(i * ENTRY_SIZE + 4);
+      if (compressedLength <= 0 || uncompressedLength < 0 || uncompressedLength > blockSize) {
+        throw new IOException("corrupted framed brotli index");
+      }
+      compressedOffsets[i + 1] = compressedOffsets[i] + compressedLength;
+      uncompressedOffsets[i + 1] = uncompressedOffsets[i] + uncompressedLength;
+    }
+    if (compressedOffsets[blockCount] != indexOffset) {
+      throw new IOException("corrupted framed brotli index");
+    }
+    return new FrameIndex(compressedOffsets, uncompressedOffsets, blockSize);
+  }
+
+  static void readFully(ReadableByteChannel source, ByteBuffer dst) throws IOException {
+    while (dst.hasRemaining()) {
+      if (source.read(dst) < 0) {
+        throw new IOException("unexpected end of input");
+      }
+    }
+  }
+
+  static void writeFully(WritableByteChannel destination, ByteBuffer src) throws IOException {
+    while (src.hasRemaining()) {
+      destination.write(src);
+    }
+  }
+}
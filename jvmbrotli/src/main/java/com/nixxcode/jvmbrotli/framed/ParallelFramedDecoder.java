@@ -0,0 +1,148 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.framed;
+
+import com.nixxcode.jvmbrotli.dec.Decoder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Decodes whole framed brotli file, decoding blocks concurrently on a fork-join pool.
+ *
+ * <p> Compressed blocks are read sequentially by the calling thread and decoded by pool workers;
+ * decoded blocks are written to destination in order. At most two blocks per pool thread are
+ * in flight, so memory use does not depend on file size.
+ */
+public final class ParallelFramedDecoder {
+
+  private static final class BlockTask extends RecursiveTask<ByteBuffer> {
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] compressed;
+    private final int uncompressedLength;
+    private final Decoder.Parameters params;
+
+    BlockTask(byte[] compressed, int uncompressedLength, Decoder.Parameters params) {
+      this.compressed = compressed;
+      this.uncompressedLength = uncompressedLength;
+      this.params = params;
+    }
+
+    @Override
+    protected ByteBuffer compute() {
+      ByteBuffer result = ByteBuffer.allocate(uncompressedLength);
+      try {
+        int length = Decoder.decompress(ByteBuffer.wrap(compressed), result, params);
+        if (length != uncompressedLength) {
+          throw new IOException("block size does not match framed brotli index");
+        }
+      } catch (IOException ex) {
+        /* Unwrapped by the caller. */
+        throw new BlockException(ex);
+      }
+      ((Buffer) result).flip();
+      return result;
+    }
+  }
+
+  private static final class BlockException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    BlockException(IOException cause) {
+      super(cause);
+    }
+  }
+
+  private ParallelFramedDecoder() { }
+
+  /**
+   * Decodes framed file into destination.
+   *
+   * @param source framed file
+   * @param destination receives uncompressed data
+   * @param params decoding settings, applied to each block
+   * @param pool pool that decodes the blocks
+   * @return number of uncompressed bytes written
+   */
+  public static long decode(SeekableByteChannel source, WritableByteChannel destination,
+      Decoder.Parameters params, ForkJoinPool pool) throws IOException {
+    FrameIndex index = FrameIndex.read(source);
+    int maxInFlight = 2 * pool.getParallelism();
+    ArrayDeque<ForkJoinTask<ByteBuffer>> inFlight = new ArrayDeque<ForkJoinTask<ByteBuffer>>();
+    long result = 0;
+    try {
+      source.position(FrameIndex.HEADER_SIZE);
+      for (int i = 0; i < index.getBlockCount(); ++i) {
+        if (inFlight.size() == maxInFlight) {
+          result += writeBlock(inFlight.poll(), destination);
+        }
+        byte[] compressed = new byte[index.getCompressedLength(i)];
+        FrameIndex.readFully(source, ByteBuffer.wrap(compressed));
+        inFlight.add(pool.submit(
+            new BlockTask(compressed, index.getUncompressedLength(i), params)));
+      }
+      while (!inFlight.isEmpty()) {
+        result += writeBlock(inFlight.poll(), destination);
+      }
+    } finally {
+      for (ForkJoinTask<ByteBuffer> task : inFlight) {
+        task.cancel(false);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Decodes framed file into destination on the common pool.
+   */
+  public static long decode(SeekableByteChannel source, WritableByteChannel destination)
+      throws IOException {
+    return decode(source, destination, new Decoder.Parameters(), ForkJoinPool.commonPool());
+  }
+
+  private static int writeBlock(ForkJoinTask<ByteBuffer> task, WritableByteChannel destination)
+      throws IOException {
+    ByteBuffer block;
+    try {
+      block = task.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while decoding framed brotli file");
+    } catch (ExecutionException ex) {
+      /* Pool might rethrow a copy of the exception that wraps the original one. */
+      for (Throwable cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+      }
+      throw new IOException("failed to decode framed brotli block", ex.getCause());
+    }
+    int length = block.remaining();
+    FrameIndex.writeFully(destination, block);
+    return length;
+  }
+}
@@ -0,0 +1,410 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.nixxcode.jvmbrotli.service;
+
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.dec.DecoderPool;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.enc.EncoderPool;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compresses and decompresses on a dedicated, bounded set of threads with pooled native
+ * encoders / decoders, so that request threads only wait for {@link CompletableFuture}s.
+ *
+ * <p> Calls are queued in order; when the queue is full, {@link RejectionPolicy} decides what
+ * happens. Optional deadline is counted from submission: call that is still queued by then is
+ * skipped, and call that is still running completes with {@link TimeoutException} (native work
+ * can not be interrupted, so its result is discarded). Futures completed by the caller, e.g. by
+ * {@code cancel}, are skipped as well.
+ *
+ * <p> Input buffers are read on service threads; their content should not change until the future
+ * completes. Futures complete on service threads, so dependent stages should be cheap or use their
+ * own executor.
+ */
+public final class BrotliService implements AutoCloseable {
+  /**
+   * What happens to a call that does not fit into the queue.
+   */
+  public enum RejectionPolicy {
+    /** Call fails with {@link RejectedExecutionException}. */
+    ABORT,
+    /** Call runs on the submitting thread; this slows submitters down. */
+    CALLER_RUNS,
+    /** Oldest queued call fails with {@link RejectedExecutionException}; call is queued. */
+    DISCARD_OLDEST
+  }
+
+  /**
+   * Service settings.
+   */
+  public static final class Parameters {
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 1024;
+    private RejectionPolicy rejectionPolicy = RejectionPolicy.ABORT;
+    private long deadlineNanos;
+
+    public Parameters() { }
+
+    /**
+     * @param threads number of service threads
+     */
+    public Parameters setThreads(int threads) {
+      if (threads <= 0) {
+        throw new IllegalArgumentException("threads should be positive");
+      }
+      this.threads = threads;
+      return this;
+    }
+
+    /**
+     * @param queueCapacity number of calls that could wait for a thread
+     */
+    public Parameters setQueueCapacity(int queueCapacity) {
+      if (queueCapacity <= 0) {
+        throw new IllegalArgumentException("queue capacity should be positive");
+      }
+      this.queueCapacity = queueCapacity;
+      return this;
+    }
+
+    public Parameters setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+      if (rejectionPolicy == null) {
+        throw new NullPointerException("rejection policy can not be null");
+      }
+      this.rejectionPolicy = rejectionPolicy;
+      return this;
+    }
+
+    /**
+     * @param deadline default deadline of calls that do not set their own, or 0 for none
+     */
+    public Parameters setDeadline(long deadline, TimeUnit unit) {
+      if (deadline < 0) {
+        throw new IllegalArgumentException("deadline should be non-negative");
+      }
+      this.deadlineNanos = unit.toNanos(deadline);
+      return this;
+    }
+  }
+
+  private final EncoderPool encoders;
+  private final DecoderPool decoders;
+  private final ThreadPoolExecutor executor;
+  private final ScheduledThreadPoolExecutor timer;
+  private final RejectionPolicy rejectionPolicy;
+  private final long deadlineNanos;
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder timedOut = new LongAdder();
+  private final LongAdder started = new LongAdder();
+  private final LongAdder queueNanos = new LongAdder();
+
+  /**
+   * Queued call; completes its future with the result of {@code run}.
+   */
+  private abstract class Task implements Runnable {
+    final ByteBuffer input;
+    final CompletableFuture<ByteBuffer> future = new CompletableFuture<ByteBuffer>();
+    final long submitNanos = System.nanoTime();
+    ScheduledFuture<?> deadline;
+
+    Task(ByteBuffer input) {
+      this.input = input.duplicate();
+    }
+
+    abstract byte[] process(byte[] data) throws Exception;
+
+    @Override
+    public void run() {
+      if (future.isDone()) {
+        return;
+      }
+      started.increment();
+      queueNanos.add(System.nanoTime() - submitNanos);
+      try {
+        byte[] output = process(toArray(input));
+        settle(future, ByteBuffer.wrap(output), null, completed);
+      } catch (Throwable ex) {
+        settle(future, null, ex, failed);
+      } finally {
+        if (deadline != null) {
+          deadline.cancel(false);
+        }
+      }
+    }
+
+    void reject(String message) {
+      settle(future, null, new RejectedExecutionException(message), rejected);
+      if (deadline != null) {
+        deadline.cancel(false);
+      }
+    }
+  }
+
+  public BrotliService(Parameters params) {
+    this.rejectionPolicy = params.rejectionPolicy;
+    this.deadlineNanos = params.deadlineNanos;
+    this.encoders = new EncoderPool(params.threads);
+    this.decoders = new DecoderPool(params.threads);
+    this.timer = new ScheduledThreadPoolExecutor(1, new Threads("jvmbrotli-service-timer"));
+    this.timer.setRemoveOnCancelPolicy(true);
+    this.executor = new ThreadPoolExecutor(params.threads, params.threads, 0,
+        TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(params.queueCapacity),
+        new Threads("jvmbrotli-service"), new Rejection()) {
+      @Override
+      protected void terminated() {
+        timer.shutdownNow();
+        encoders.clear();
+        decoders.clear();
+      }
+    };
+  }
+
+  public BrotliService() {
+    this(new Parameters());
+  }
+
+  /**
+   * Compresses the remaining bytes of {@code src}; see {@link Encoder#compress(byte[],
+   * Encoder.Parameters, EncoderPool)}.
+   *
+   * @return future of heap buffer holding the compressed data
+   */
+  public CompletableFuture<ByteBuffer> compressAsync(ByteBuffer src, Encoder.Parameters params) {
+    return compressAsync(src, params, deadlineNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Compresses the remaining bytes of {@code src} within the given deadline.
+   *
+   * @param deadline time from now, or 0 for none
+   */
+  public CompletableFuture<ByteBuffer> compressAsync(ByteBuffer src,
+      final Encoder.Parameters params, long deadline, TimeUnit unit) {
+    return submit(new Task(src) {
+      @Override
+      byte[] process(byte[] data) throws Exception {
+        return Encoder.compress(data, params, encoders);
+      }
+    }, unit.toNanos(deadline));
+  }
+
+  public CompletableFuture<ByteBuffer> compressAsync(ByteBuffer src) {
+    return compressAsync(src, new Encoder.Parameters());
+  }
+
+  /**
+   * Decompresses the remaining bytes of {@code src}, which must contain exactly one complete
+   * brotli stream.
+   *
+   * @return future of heap buffer holding the decompressed data
+   */
+  public CompletableFuture<ByteBuffer> decompressAsync(ByteBuffer src, Decoder.Parameters params) {
+    return decompressAsync(src, params, deadlineNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Decompresses the remaining bytes of {@code src} within the given deadline.
+   *
+   * @param deadline time from now, or 0 for none
+   */
+  public CompletableFuture<ByteBuffer> decompressAsync(ByteBuffer src,
+      final Decoder.Parameters params, long deadline, TimeUnit unit) {
+    return submit(new Task(src) {
+      @Override
+      byte[] process(byte[] data) throws Exception {
+        return Decoder.decompress(data, params, decoders);
+      }
+    }, unit.toNanos(deadline));
+  }
+
+  public CompletableFuture<ByteBuffer> decompressAsync(ByteBuffer src) {
+    return decompressAsync(src, new Decoder.Parameters());
+  }
+
+  private CompletableFuture<ByteBuffer> submit(final Task task, long deadline) {
+    if (deadline < 0) {
+      throw new IllegalArgumentException("deadline should be non-negative");
+    }
+    submitted.increment();
+    if (deadline > 0) {
+      try {
+        task.deadline = timer.schedule(new Runnable() {
+          @Override
+          public void run() {
+            settle(task.future, null, new TimeoutException("deadline exceeded"), timedOut);
+          }
+        }, deadline, TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException ex) {
+        /* Timer stops when service terminates. */
+        task.reject("service is closed");
+        return task.future;
+      }
+    }
+    executor.execute(task);
+    return task.future;
+  }
+
+  /**
+   * Completes future, unless it is completed already; counter is updated first, so that it
+   * agrees with the future by the time dependent stages run.
+   */
+  private static void settle(CompletableFuture<ByteBuffer> future, ByteBuffer result,
+      Throwable failure, LongAdder counter) {
+    counter.increment();
+    boolean settled = (failure != null)
+        ? future.completeExceptionally(failure) : future.complete(result);
+    if (!settled) {
+      counter.decrement();
+    }
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+        && buffer.remaining() == buffer.array().length) {
+      return buffer.array();
+    }
+    byte[] result = new byte[buffer.remaining()];
+    buffer.get(result);
+    return result;
+  }
+
+  /**
+   * @return number of calls waiting for a thread
+   */
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * @return number of calls being processed
+   */
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  public long getSubmittedCount() {
+    return submitted.sum();
+  }
+
+  public long getCompletedCount() {
+    return completed.sum();
+  }
+
+  /**
+   * @return number of calls that failed with an error of the codec
+   */
+  public long getFailedCount() {
+    return failed.sum();
+  }
+
+  public long getRejectedCount() {
+    return rejected.sum();
+  }
+
+  public long getTimedOutCount() {
+    return timedOut.sum();
+  }
+
+  /**
+   * @return mean time calls waited for a thread, in microseconds; 0 if none started yet
+   */
+  public double getMeanQueueMicros() {
+    long count = started.sum();
+    return (count == 0) ? 0 : queueNanos.sum() / 1000.0 / count;
+  }
+
+  /**
+   * Stops accepting calls; queued calls are still processed. Native encoders / decoders are
+   * released once the last call completes.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  /**
+   * Waits until all the calls complete after {@link #close}.
+   *
+   * @return true if service terminated, false if the timeout elapsed
+   */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return executor.awaitTermination(timeout, unit);
+  }
+
+  private final class Rejection implements RejectedExecutionHandler {
+    @Override
+    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+      Task task = (Task) runnable;
+      if (executor.isShutdown()) {
+        task.reject("service is closed");
+        return;
+      }
+      switch (rejectionPolicy) {
+        case CALLER_RUNS:
+          task.run();
+          break;
+
+        case DISCARD_OLDEST:
+          Runnable oldest = executor.getQueue().poll();
+          if (oldest != null) {
+            ((Task) oldest).reject("discarded by newer call");
+          }
+          executor.execute(task);
+          break;
+
+        default:
+          task.reject("queue is full");
+      }
+    }
+  }
+
+  /**
+   * Creates named daemon threads.
+   */
+  private static final class Threads implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    Threads(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
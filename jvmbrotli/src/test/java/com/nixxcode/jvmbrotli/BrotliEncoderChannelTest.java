@@ -28,7 +28,9 @@ public class BrotliEncoderChannelTest extends BrotliJniTestBase {
 
   private enum TestMode {
     WRITE_ALL,
-    WRITE_CHUNKS
+    WRITE_CHUNKS,
+    WRITE_DIRECT,
+    WRITE_MIXED_CHUNKS
   }
 
   private static final int CHUNK_SIZE = 256;
@@ -52,6 +54,8 @@ public class BrotliEncoderChannelTest extends BrotliJniTestBase {
       for (String entry : entries) {
         suite.addTest(new ChannleTestCase(entry, TestMode.WRITE_ALL));
         suite.addTest(new ChannleTestCase(entry, TestMode.WRITE_CHUNKS));
+        suite.addTest(new ChannleTestCase(entry, TestMode.WRITE_DIRECT));
+        suite.addTest(new ChannleTestCase(entry, TestMode.WRITE_MIXED_CHUNKS));
       }
     } finally {
       bundle.close();
@@ -87,7 +91,8 @@ public class BrotliEncoderChannelTest extends BrotliJniTestBase {
       throw new RuntimeException("Can't read bundle entry: " + entryName);
     }
 
-    if ((mode == TestMode.WRITE_CHUNKS) && (original.length <= CHUNK_SIZE)) {
+    if ((mode == TestMode.WRITE_CHUNKS || mode == TestMode.WRITE_MIXED_CHUNKS)
+        && (original.length <= CHUNK_SIZE)) {
       return;
     }
 
@@ -109,6 +114,32 @@ public class BrotliEncoderChannelTest extends BrotliJniTestBase {
             encoder.write(slice);
           }
           break;
+
+        case WRITE_DIRECT:
+          ByteBuffer direct = ByteBuffer.allocateDirect(original.length);
+          direct.put(original);
+          ((Buffer) direct).flip();
+          while (direct.hasRemaining()) {
+            encoder.write(direct);
+          }
+          break;
+
+        case WRITE_MIXED_CHUNKS:
+          /* Direct chunks are encoded in place, heap ones go through the input buffer. */
+          boolean isDirect = false;
+          while (src.hasRemaining()) {
+            int limit = Math.min(CHUNK_SIZE, src.remaining());
+            ByteBuffer chunk =
+                isDirect ? ByteBuffer.allocateDirect(limit) : ByteBuffer.allocate(limit);
+            chunk.put(original, src.position(), limit);
+            ((Buffer) chunk).flip();
+            ((Buffer) src).position(src.position() + limit);
+            while (chunk.hasRemaining()) {
+              encoder.write(chunk);
+            }
+            isDirect = !isDirect;
+          }
+          break;
       }
     } finally {
       encoder.close();
@@ -0,0 +1,143 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.enc.EncoderPool;
+import com.nixxcode.jvmbrotli.file.BrotliFiles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BrotliFiles}. */
+@RunWith(JUnit4.class)
+public class BrotliFilesTest extends BrotliJniTestBase {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private Path source;
+  private Path compressed;
+  private Path decompressed;
+
+  private static byte[] generate(int length) {
+    byte[] result = new byte[length];
+    long seed = 42;
+    for (int i = 0; i < length; ++i) {
+      seed = seed * 6364136223846793005L + 1442695040888963407L;
+      result[i] = (i % 3 == 0) ? (byte) (seed >>> 59) : (byte) "mapped".charAt(i % 6);
+    }
+    return result;
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    source = Files.createTempFile("brotli", ".src");
+    compressed = Files.createTempFile("brotli", ".br");
+    decompressed = Files.createTempFile("brotli", ".out");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(source);
+    Files.deleteIfExists(compressed);
+    Files.deleteIfExists(decompressed);
+  }
+
+  private void roundTrip(byte[] data) throws IOException {
+    Files.write(source, data);
+    long size = BrotliFiles.compress(source, compressed, new Encoder.Parameters().setQuality(5));
+    assertEquals(Files.size(compressed), size);
+    byte[] encoded = Files.readAllBytes(compressed);
+    assertArrayEquals(data, Decoder.decompress(encoded));
+    assertEquals(data.length, BrotliFiles.decompress(compressed, decompressed));
+    assertArrayEquals(data, Files.readAllBytes(decompressed));
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    /* Several native slices. */
+    roundTrip(generate(3 * 1048576 + 12345));
+  }
+
+  @Test
+  public void testSmall() throws IOException {
+    roundTrip(generate(100));
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    roundTrip(new byte[0]);
+  }
+
+  @Test
+  public void testTargetTruncated() throws IOException {
+    Files.write(compressed, new byte[1 << 20]);
+    roundTrip(generate(1000));
+  }
+
+  @Test
+  public void testPool() throws IOException {
+    byte[] data = generate(200000);
+    Files.write(source, data);
+    Encoder.Parameters params = new Encoder.Parameters().setQuality(4);
+    EncoderPool pool = new EncoderPool(2);
+    try {
+      BrotliFiles.compress(source, compressed, params, pool);
+      assertArrayEquals(data, Decoder.decompress(Files.readAllBytes(compressed)));
+      assertEquals(1, pool.getIdleCount());
+      BrotliFiles.compress(source, compressed, params, pool);
+      assertArrayEquals(data, Decoder.decompress(Files.readAllBytes(compressed)));
+      assertEquals(1, pool.getIdleCount());
+      /* Files of other sizes share the encoder; size hint is set per stream. */
+      byte[] other = generate(70000);
+      Files.write(source, other);
+      BrotliFiles.compress(source, compressed, params, pool);
+      assertEquals(1, pool.getIdleCount());
+      byte[] hinted = Encoder.compress(other, new Encoder.Parameters().setQuality(4)
+          .setSizeHint(other.length));
+      assertArrayEquals(hinted, Files.readAllBytes(compressed));
+    } finally {
+      pool.clear();
+    }
+  }
+
+  @Test
+  public void testTruncatedInput() throws IOException {
+    Files.write(source, generate(100000));
+    BrotliFiles.compress(source, compressed);
+    byte[] encoded = Files.readAllBytes(compressed);
+    Files.write(compressed, Arrays.copyOf(encoded, encoded.length - 5));
+    try {
+      BrotliFiles.decompress(compressed, decompressed);
+      fail("truncated input accepted");
+    } catch (IOException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testTrailingInput() throws IOException {
+    Files.write(source, generate(1000));
+    BrotliFiles.compress(source, compressed);
+    byte[] encoded = Files.readAllBytes(compressed);
+    Files.write(compressed, Arrays.copyOf(encoded, encoded.length + 1));
+    try {
+      BrotliFiles.decompress(compressed, decompressed);
+      fail("trailing input accepted");
+    } catch (IOException ex) {
+      // expected
+    }
+  }
+}
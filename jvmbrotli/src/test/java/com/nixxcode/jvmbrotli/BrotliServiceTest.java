@@ -0,0 +1,184 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.service.BrotliService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BrotliService}. */
+@RunWith(JUnit4.class)
+public class BrotliServiceTest extends BrotliJniTestBase {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private static byte[] generate(int length) {
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      result[i] = (byte) ("service".charAt(i % 7) ^ (i >> 10));
+    }
+    return result;
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    byte[] result = new byte[buffer.remaining()];
+    buffer.duplicate().get(result);
+    return result;
+  }
+
+  private static Throwable failure(CompletableFuture<?> future) throws InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException ex) {
+      return ex.getCause();
+    }
+    fail("expected failure");
+    return null;
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    byte[] data = generate(500000);
+    BrotliService service = new BrotliService(new BrotliService.Parameters().setThreads(2));
+    try {
+      List<CompletableFuture<ByteBuffer>> futures = new ArrayList<CompletableFuture<ByteBuffer>>();
+      for (int quality = 0; quality <= 9; ++quality) {
+        ByteBuffer src = ByteBuffer.allocateDirect(data.length);
+        src.put(data);
+        src.flip();
+        futures.add(service.compressAsync(src, new Encoder.Parameters().setQuality(quality)));
+      }
+      for (CompletableFuture<ByteBuffer> future : futures) {
+        byte[] compressed = toArray(future.get());
+        assertArrayEquals(data, Decoder.decompress(compressed));
+        ByteBuffer decoded = service.decompressAsync(ByteBuffer.wrap(compressed)).get();
+        assertArrayEquals(data, toArray(decoded));
+      }
+      assertEquals(20, service.getSubmittedCount());
+      assertEquals(20, service.getCompletedCount());
+      assertEquals(0, service.getQueueDepth());
+      assertTrue(service.getMeanQueueMicros() >= 0);
+    } finally {
+      service.close();
+    }
+    assertTrue(service.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testCorruptedInput() throws Exception {
+    BrotliService service = new BrotliService();
+    try {
+      CompletableFuture<ByteBuffer> future =
+          service.decompressAsync(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5}));
+      assertTrue(failure(future) instanceof IOException);
+      assertEquals(1, service.getFailedCount());
+    } finally {
+      service.close();
+    }
+  }
+
+  /**
+   * Fills the single thread and the queue of a service with slow calls.
+   */
+  private static List<CompletableFuture<ByteBuffer>> saturate(BrotliService service, int count) {
+    byte[] data = generate(4 << 20);
+    List<CompletableFuture<ByteBuffer>> result = new ArrayList<CompletableFuture<ByteBuffer>>();
+    for (int i = 0; i < count; ++i) {
+      result.add(service.compressAsync(ByteBuffer.wrap(data),
+          new Encoder.Parameters().setQuality(9)));
+    }
+    return result;
+  }
+
+  @Test
+  public void testAbort() throws Exception {
+    BrotliService service = new BrotliService(
+        new BrotliService.Parameters().setThreads(1).setQueueCapacity(1));
+    try {
+      List<CompletableFuture<ByteBuffer>> futures = saturate(service, 4);
+      /* One runs, one waits, the rest do not fit. */
+      assertTrue(failure(futures.get(3)) instanceof RejectedExecutionException);
+      assertTrue(service.getRejectedCount() >= 1);
+      futures.get(0).get();
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testDiscardOldest() throws Exception {
+    BrotliService service = new BrotliService(new BrotliService.Parameters().setThreads(1)
+        .setQueueCapacity(1).setRejectionPolicy(BrotliService.RejectionPolicy.DISCARD_OLDEST));
+    try {
+      List<CompletableFuture<ByteBuffer>> futures = saturate(service, 4);
+      assertTrue(failure(futures.get(1)) instanceof RejectedExecutionException);
+      futures.get(3).get();
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testCallerRuns() throws Exception {
+    BrotliService service = new BrotliService(new BrotliService.Parameters().setThreads(1)
+        .setQueueCapacity(1).setRejectionPolicy(BrotliService.RejectionPolicy.CALLER_RUNS));
+    try {
+      List<CompletableFuture<ByteBuffer>> futures = saturate(service, 3);
+      /* Rejected call ran on this thread, so it is complete already. */
+      assertTrue(futures.get(2).isDone());
+      for (CompletableFuture<ByteBuffer> future : futures) {
+        future.get();
+      }
+      assertEquals(0, service.getRejectedCount());
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testDeadline() throws Exception {
+    BrotliService service = new BrotliService(new BrotliService.Parameters().setThreads(1));
+    try {
+      List<CompletableFuture<ByteBuffer>> futures = saturate(service, 1);
+      CompletableFuture<ByteBuffer> late = service.compressAsync(ByteBuffer.wrap(generate(1000)),
+          new Encoder.Parameters(), 1, TimeUnit.MILLISECONDS);
+      assertTrue(failure(late) instanceof TimeoutException);
+      assertEquals(1, service.getTimedOutCount());
+      futures.get(0).get();
+      /* Expired call is skipped. */
+      assertEquals(1, service.getCompletedCount());
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testClosed() throws Exception {
+    BrotliService service = new BrotliService();
+    service.close();
+    assertTrue(service.awaitTermination(10, TimeUnit.SECONDS));
+    CompletableFuture<ByteBuffer> future = service.compressAsync(ByteBuffer.wrap(generate(10)));
+    assertTrue(failure(future) instanceof RejectedExecutionException);
+    future = service.compressAsync(ByteBuffer.wrap(generate(10)), new Encoder.Parameters(),
+        1, TimeUnit.SECONDS);
+    assertTrue(failure(future) instanceof RejectedExecutionException);
+  }
+}
@@ -0,0 +1,153 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.CompressionCache;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.enc.EncoderPool;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CompressionCache}. */
+@RunWith(JUnit4.class)
+public class CompressionCacheTest extends BrotliJniTestBase {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private static byte[] generate(int length, int seed) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; result.length() < length; ++i) {
+      result.append("{\"id\": ").append(seed).append(", \"item\": ").append(i % 31).append("}\n");
+    }
+    return result.substring(0, length).getBytes();
+  }
+
+  private static byte[] decode(ByteBuffer compressed) throws IOException {
+    byte[] data = new byte[compressed.remaining()];
+    compressed.duplicate().get(data);
+    return Decoder.decompress(data);
+  }
+
+  @Test
+  public void testHitsAndKeys() throws IOException {
+    CompressionCache cache = new CompressionCache(1 << 20);
+    try {
+      checkHitsAndKeys(cache);
+    } finally {
+      cache.close();
+    }
+    assertEquals(0, cache.getEntryCount());
+  }
+
+  private static void checkHitsAndKeys(CompressionCache cache) throws IOException {
+    byte[] data = generate(10000, 1);
+    Encoder.Parameters params = new Encoder.Parameters().setQuality(6);
+
+    ByteBuffer first = cache.compress(data, params);
+    assertTrue(first.isDirect());
+    assertTrue(first.isReadOnly());
+    assertArrayEquals(data, decode(first));
+    assertEquals(1, cache.getMissCount());
+
+    /* Equal content in a different array, behind an offset. */
+    byte[] copy = new byte[data.length + 5];
+    System.arraycopy(data, 0, copy, 5, data.length);
+    ByteBuffer input = ByteBuffer.wrap(copy, 5, data.length);
+    ByteBuffer second = cache.compress(input, new Encoder.Parameters().setQuality(6));
+    assertEquals(5, input.position());
+    assertEquals(first, second);
+    assertEquals(1, cache.getHitCount());
+
+    /* Different parameters, or different content, are different entries. */
+    cache.compress(data, new Encoder.Parameters().setQuality(5));
+    byte[] other = data.clone();
+    other[other.length - 1] ^= 1;
+    assertArrayEquals(other, decode(cache.compress(other, params)));
+    assertEquals(3, cache.getMissCount());
+    assertEquals(3, cache.getEntryCount());
+    assertEquals(0.25, cache.getHitRate(), 1e-9);
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    Encoder.Parameters params = new Encoder.Parameters().setQuality(4);
+    int entrySize = cacheSize(generate(20000, 0), params);
+    EncoderPool pool = new EncoderPool();
+    CompressionCache cache = new CompressionCache(3 * entrySize + entrySize / 2, pool);
+    try {
+      for (int i = 0; i < 4; ++i) {
+        cache.compress(generate(20000, 0), params);
+        cache.compress(generate(20000, 100 + i), params);
+      }
+      /* Recently used entry survives; older ones are gone. */
+      assertTrue(cache.getEvictionCount() > 0);
+      assertTrue(cache.getSizeBytes() <= 3 * entrySize + entrySize / 2);
+      assertEquals(5, cache.getMissCount());
+      long misses = cache.getMissCount();
+      cache.compress(generate(20000, 100), params);
+      assertEquals(misses + 1, cache.getMissCount());
+      ByteBuffer evictedView = cache.compress(generate(20000, 0), params);
+      cache.clear();
+      assertEquals(0, cache.getSizeBytes());
+      /* Handed out buffers outlive their entries. */
+      assertArrayEquals(generate(20000, 0), decode(evictedView));
+    } finally {
+      cache.close();
+    }
+    /* Pool provided by the caller is not cleared. */
+    assertEquals(1, pool.getIdleCount());
+    pool.clear();
+  }
+
+  private static int cacheSize(byte[] data, Encoder.Parameters params) throws IOException {
+    CompressionCache cache = new CompressionCache(1 << 20);
+    try {
+      return cache.compress(data, params).remaining();
+    } finally {
+      cache.close();
+    }
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+    final CompressionCache cache = new CompressionCache(1 << 24);
+    final byte[] data = generate(1 << 20, 7);
+    final Encoder.Parameters params = new Encoder.Parameters().setQuality(9);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<ByteBuffer>> results = new ArrayList<Future<ByteBuffer>>();
+      for (int i = 0; i < 8; ++i) {
+        results.add(executor.submit(new Callable<ByteBuffer>() {
+          @Override
+          public ByteBuffer call() throws IOException {
+            return cache.compress(data, params);
+          }
+        }));
+      }
+      ByteBuffer expected = results.get(0).get();
+      for (Future<ByteBuffer> result : results) {
+        assertEquals(expected, result.get());
+      }
+    } finally {
+      executor.shutdown();
+      cache.close();
+    }
+    assertEquals(1, cache.getMissCount());
+    assertEquals(7, cache.getHitCount());
+  }
+}
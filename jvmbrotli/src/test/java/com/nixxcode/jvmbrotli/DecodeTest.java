@@ -0,0 +1,136 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.junit.runner.RunWith;
+import org.junit.runners.AllTests;
+
+/** Tests for {@link Decoder} one-shot decompression. */
+@RunWith(AllTests.class)
+public class DecodeTest extends BrotliJniTestBase {
+
+  private enum TestMode {
+    BYTE_ARRAY,
+    EXPECTED_SIZE,
+    WRONG_EXPECTED_SIZE,
+    CALLER_ARRAY,
+    DIRECT_BUFFER,
+    HEAP_BUFFER
+  }
+
+  static InputStream getBundle() throws IOException {
+    Class clazz = DecodeTest.class;
+    return clazz.getResourceAsStream("/file/test_data.zip");
+  }
+
+  static void loadLib() {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  /** Creates a test suite. */
+  public static TestSuite suite() throws IOException {
+    loadLib();
+    TestSuite suite = new TestSuite();
+    InputStream bundle = getBundle();
+    try {
+      List<String> entries = BundleHelper.listEntries(bundle);
+      for (String entry : entries) {
+        for (TestMode mode : TestMode.values()) {
+          suite.addTest(new DecodeTestCase(entry, mode));
+        }
+      }
+    } finally {
+      bundle.close();
+    }
+    return suite;
+  }
+
+  /** Test case with a unique name. */
+  static class DecodeTestCase extends TestCase {
+    final String entryName;
+    final TestMode mode;
+    DecodeTestCase(String entryName, TestMode mode) {
+      super("DecodeTest." + entryName + "." + mode.name());
+      this.entryName = entryName;
+      this.mode = mode;
+    }
+
+    @Override
+    protected void runTest() throws Throwable {
+      DecodeTest.run(entryName, mode);
+    }
+  }
+
+  private static void run(String entryName, TestMode mode) throws Throwable {
+    InputStream bundle = getBundle();
+    byte[] compressed;
+    try {
+      compressed = BundleHelper.readEntry(bundle, entryName);
+    } finally {
+      bundle.close();
+    }
+    if (compressed == null) {
+      throw new RuntimeException("Can't read bundle entry: " + entryName);
+    }
+
+    byte[] decompressed;
+    switch (mode) {
+      case BYTE_ARRAY:
+        decompressed = Decoder.decompress(compressed);
+        break;
+
+      case EXPECTED_SIZE:
+        decompressed = Decoder.decompress(compressed, Decoder.decompress(compressed).length);
+        break;
+
+      case WRONG_EXPECTED_SIZE:
+        decompressed = Decoder.decompress(compressed, Decoder.decompress(compressed).length / 3);
+        break;
+
+      case CALLER_ARRAY:
+        byte[] output = new byte[Decoder.decompress(compressed).length + 7];
+        int length = Decoder.decompress(compressed, output);
+        decompressed = new byte[length];
+        System.arraycopy(output, 0, decompressed, 0, length);
+        break;
+
+      default:
+        boolean direct = (mode == TestMode.DIRECT_BUFFER);
+        int size = Decoder.decompress(compressed).length;
+        ByteBuffer src = EncodeTest.toBuffer(compressed, direct);
+        ByteBuffer dst = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        assertEquals(size, Decoder.decompress(src, dst));
+        assertEquals(0, src.remaining());
+        assertEquals(0, dst.remaining());
+        if (size > 0) {
+          ByteBuffer small = direct ? ByteBuffer.allocateDirect(size - 1) : ByteBuffer.allocate(size - 1);
+          ((Buffer) src).rewind();
+          try {
+            Decoder.decompress(src, small);
+            fail("output buffer overflow is not detected");
+          } catch (IOException ex) {
+            // Expected.
+          }
+        }
+        dst.flip();
+        decompressed = new byte[size];
+        dst.get(decompressed);
+        break;
+    }
+
+    long crc = BundleHelper.fingerprintStream(new ByteArrayInputStream(decompressed));
+    assertEquals(BundleHelper.getExpectedFingerprint(entryName), crc);
+  }
+}
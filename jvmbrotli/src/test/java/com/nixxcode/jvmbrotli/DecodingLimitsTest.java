@@ -0,0 +1,235 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.common.NativeResources;
+import com.nixxcode.jvmbrotli.dec.BrotliDecoderChannel;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.dec.DecoderPool;
+import com.nixxcode.jvmbrotli.enc.BrotliOutputStream;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for decoder output, ratio and window limits. */
+@RunWith(JUnit4.class)
+public class DecodingLimitsTest extends BrotliJniTestBase {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private static byte[] generate(int length) {
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      result[i] = (byte) ("limits".charAt(i % 6) + (i >> 10));
+    }
+    return result;
+  }
+
+  private static byte[] encode(byte[] data, int lgwin) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BrotliOutputStream encoder =
+        new BrotliOutputStream(output, new Encoder.Parameters().setQuality(4).setWindow(lgwin));
+    encoder.write(data);
+    encoder.close();
+    return output.toByteArray();
+  }
+
+  private static byte[] readAll(InputStream input) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int length;
+    while ((length = input.read(buffer)) != -1) {
+      output.write(buffer, 0, length);
+    }
+    input.close();
+    return output.toByteArray();
+  }
+
+  private static byte[] decodeStream(byte[] data, Decoder.Parameters params, int bufferSize)
+      throws IOException {
+    return readAll(new BrotliInputStream(new ByteArrayInputStream(data), params, bufferSize,
+        null));
+  }
+
+  private static void assertRejected(byte[] data, Decoder.Parameters params, String message) {
+    try {
+      decodeStream(data, params, 16384);
+      fail("stream accepted");
+    } catch (IOException ex) {
+      assertEquals(message, ex.getMessage());
+    }
+    try {
+      Decoder.decompress(data, params);
+      fail("array accepted");
+    } catch (IOException ex) {
+      assertEquals(message, ex.getMessage());
+    }
+    try {
+      Decoder.decompress(ByteBuffer.wrap(data), ByteBuffer.allocateDirect(1 << 20), params);
+      fail("buffer accepted");
+    } catch (IOException ex) {
+      assertEquals(message, ex.getMessage());
+    }
+  }
+
+  private static void assertAccepted(byte[] data, Decoder.Parameters params, byte[] expected)
+      throws IOException {
+    assertArrayEquals(expected, decodeStream(data, params, 16384));
+    assertArrayEquals(expected, Decoder.decompress(data, params));
+    ByteBuffer output = ByteBuffer.allocate(expected.length);
+    Decoder.decompress(ByteBuffer.wrap(data), output, params);
+    assertArrayEquals(expected, output.array());
+  }
+
+  @Test
+  public void testMaxOutputSize() throws IOException {
+    byte[] data = generate(100000);
+    byte[] encoded = encode(data, 22);
+    assertRejected(encoded, new Decoder.Parameters().setMaxOutputSize(99999),
+        "decoded data exceeds output limit");
+    assertAccepted(encoded, new Decoder.Parameters().setMaxOutputSize(100000), data);
+  }
+
+  @Test
+  public void testMaxExpansionRatio() throws IOException {
+    byte[] data = new byte[1 << 20];
+    byte[] encoded = encode(data, 22);
+    assertTrue(encoded.length < 1000);
+    assertRejected(encoded, new Decoder.Parameters().setMaxExpansionRatio(100),
+        "decoded data exceeds output limit");
+    assertAccepted(encoded, new Decoder.Parameters().setMaxExpansionRatio(1 << 20), data);
+  }
+
+  @Test
+  public void testMaxWindow() throws IOException {
+    byte[] data = generate(1 << 18);
+    for (int lgwin = 10; lgwin <= 24; ++lgwin) {
+      byte[] encoded = encode(data, lgwin);
+      assertAccepted(encoded, new Decoder.Parameters().setMaxWindow(lgwin), data);
+      if (lgwin > 10) {
+        assertRejected(encoded, new Decoder.Parameters().setMaxWindow(lgwin - 1),
+            "stream window exceeds limit");
+      }
+    }
+  }
+
+  @Test
+  public void testMaxLargeWindow() throws IOException {
+    byte[] data = generate(100000);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BrotliOutputStream encoder = new BrotliOutputStream(output,
+        new Encoder.Parameters().setQuality(4).setLargeWindow(true).setWindow(26));
+    encoder.write(data);
+    encoder.close();
+    byte[] encoded = output.toByteArray();
+    assertRejected(encoded, new Decoder.Parameters().setLargeWindow(true).setMaxWindow(25),
+        "stream window exceeds limit");
+    assertAccepted(encoded, new Decoder.Parameters().setLargeWindow(true).setMaxWindow(26), data);
+
+    /* Large window header spans two bytes; input arrives one byte per read. */
+    try {
+      decodeStream(encoded, new Decoder.Parameters().setLargeWindow(true).setMaxWindow(25), 1);
+      fail("stream accepted");
+    } catch (IOException ex) {
+      assertEquals("stream window exceeds limit", ex.getMessage());
+    }
+    assertArrayEquals(data, decodeStream(encoded,
+        new Decoder.Parameters().setLargeWindow(true).setMaxWindow(26), 1));
+  }
+
+  @Test
+  public void testChannel() throws IOException {
+    byte[] data = generate(100000);
+    byte[] encoded = encode(data, 22);
+    BrotliDecoderChannel channel = new BrotliDecoderChannel(
+        Channels.newChannel(new ByteArrayInputStream(encoded)),
+        new Decoder.Parameters().setMaxWindow(20));
+    try {
+      channel.read(ByteBuffer.allocate(100));
+      fail("stream accepted");
+    } catch (IOException ex) {
+      assertEquals("stream window exceeds limit", ex.getMessage());
+    }
+    channel = new BrotliDecoderChannel(Channels.newChannel(new ByteArrayInputStream(encoded)),
+        new Decoder.Parameters().setMaxOutputSize(50000));
+    ByteBuffer buffer = ByteBuffer.allocate(100000);
+    try {
+      while (channel.read(buffer) >= 0) {
+        /* Keep reading. */
+      }
+      fail("stream accepted");
+    } catch (IOException ex) {
+      assertEquals("decoded data exceeds output limit", ex.getMessage());
+    }
+    assertTrue(buffer.position() <= 50000);
+    assertTrue(!channel.isOpen());
+  }
+
+  @Test
+  public void testFixedRingBuffer() throws IOException {
+    byte[] data = generate(1000);
+    byte[] encoded = encode(data, 22);
+    Decoder.Parameters params = new Decoder.Parameters().setFixedRingBuffer(true);
+    assertAccepted(encoded, params, data);
+
+    /* Short stream gets small ring buffer unless it is fixed. */
+    long before = NativeResources.getNativeBytes();
+    InputStream canny = new BrotliInputStream(new ByteArrayInputStream(encoded));
+    canny.read();
+    long cannyBytes = NativeResources.getNativeBytes() - before;
+    canny.close();
+    before = NativeResources.getNativeBytes();
+    InputStream fixed = new BrotliInputStream(new ByteArrayInputStream(encoded), params);
+    fixed.read();
+    long fixedBytes = NativeResources.getNativeBytes() - before;
+    fixed.close();
+    assertTrue(fixedBytes - cannyBytes >= (1 << 22) - (1 << 16));
+
+    DecoderPool pool = new DecoderPool();
+    try {
+      assertArrayEquals(data, readAll(new BrotliInputStream(new ByteArrayInputStream(encoded),
+          params, 16384, pool)));
+      assertArrayEquals(data, readAll(new BrotliInputStream(new ByteArrayInputStream(encoded),
+          new Decoder.Parameters(), 16384, pool)));
+      assertEquals(2, pool.getIdleCount());
+    } finally {
+      pool.clear();
+    }
+  }
+
+  @Test
+  public void testInvalidParameters() {
+    try {
+      new Decoder.Parameters().setMaxWindow(9);
+      fail("lgwin 9 accepted");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+    try {
+      new Decoder.Parameters().setMaxOutputSize(-2);
+      fail("negative size accepted");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+    try {
+      new Decoder.Parameters().setMaxExpansionRatio(0);
+      fail("zero ratio accepted");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+}
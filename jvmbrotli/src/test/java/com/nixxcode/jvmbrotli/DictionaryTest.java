@@ -0,0 +1,152 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.dec.DecoderPool;
+import com.nixxcode.jvmbrotli.enc.BrotliOutputStream;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.enc.EncoderPool;
+import com.nixxcode.jvmbrotli.enc.PreparedDictionary;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PreparedDictionary}. */
+@RunWith(JUnit4.class)
+public class DictionaryTest extends BrotliJniTestBase {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private static byte[] record(int id) throws IOException {
+    return ("{\"id\":" + id + ",\"name\":\"user" + id + "\",\"status\":\"active\","
+        + "\"roles\":[\"reader\",\"writer\"]}").getBytes("UTF-8");
+  }
+
+  private static byte[] dictionary() throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    for (int i = 0; i < 50; ++i) {
+      result.write(record(i));
+    }
+    return result.toByteArray();
+  }
+
+  private static Encoder.Parameters encoderParams() {
+    return new Encoder.Parameters().setQuality(9).setWindow(18);
+  }
+
+  @Test
+  public void testOneShot() throws IOException {
+    PreparedDictionary dictionary = PreparedDictionary.prepare(dictionary(), encoderParams());
+    byte[] message = record(777);
+    byte[] plain = Encoder.compress(message, encoderParams());
+    byte[] compressed = Encoder.compress(message, encoderParams().setDictionary(dictionary));
+    assertTrue(compressed.length * 2 < plain.length);
+
+    Decoder.Parameters params = new Decoder.Parameters().setDictionary(dictionary);
+    assertArrayEquals(message, Decoder.decompress(compressed, params));
+
+    ByteBuffer dst = ByteBuffer.allocateDirect(message.length);
+    assertEquals(message.length, Decoder.decompress(ByteBuffer.wrap(compressed), dst, params));
+  }
+
+  @Test
+  public void testPooledStream() throws IOException {
+    PreparedDictionary dictionary = PreparedDictionary.prepare(dictionary(), encoderParams());
+    Encoder.Parameters encoderParams = encoderParams().setDictionary(dictionary);
+    Decoder.Parameters decoderParams = new Decoder.Parameters().setDictionary(dictionary);
+    EncoderPool encoderPool = new EncoderPool();
+    DecoderPool decoderPool = new DecoderPool();
+    byte[] message = record(42);
+    /* Second iteration runs on reset (and re-primed) instances. */
+    for (int i = 0; i < 2; ++i) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      OutputStream encoder = new BrotliOutputStream(compressed, encoderParams, encoderPool);
+      encoder.write(message);
+      encoder.close();
+      InputStream decoder = new BrotliInputStream(
+          new ByteArrayInputStream(compressed.toByteArray()), decoderParams, 1024, decoderPool);
+      byte[] decoded = new byte[message.length];
+      int offset = 0;
+      int read;
+      while (offset < decoded.length
+          && (read = decoder.read(decoded, offset, decoded.length - offset)) > 0) {
+        offset += read;
+      }
+      assertEquals(-1, decoder.read());
+      decoder.close();
+      assertArrayEquals(message, decoded);
+    }
+  }
+
+  private static byte[] compress(byte[] message, Encoder.Parameters params, EncoderPool pool)
+      throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    OutputStream encoder = new BrotliOutputStream(output, params, pool);
+    encoder.write(message);
+    encoder.close();
+    return output.toByteArray();
+  }
+
+  @Test
+  public void testResetMatchesFreshInstance() throws IOException {
+    PreparedDictionary dictionary = PreparedDictionary.prepare(dictionary(), encoderParams());
+    Encoder.Parameters encoderParams = encoderParams().setDictionary(dictionary);
+    Decoder.Parameters decoderParams = new Decoder.Parameters().setDictionary(dictionary);
+    EncoderPool encoderPool = new EncoderPool();
+    DecoderPool decoderPool = new DecoderPool();
+    ByteArrayOutputStream large = new ByteArrayOutputStream();
+    for (int i = 0; i < 5000; ++i) {
+      large.write(record(i * 7919));
+    }
+    /* Large stream dirties memory the primed state does not use; streams after it must not
+       depend on that. */
+    byte[][] messages = {large.toByteArray(), record(42), large.toByteArray(), record(43)};
+    try {
+      for (byte[] message : messages) {
+        byte[] compressed = compress(message, encoderParams, encoderPool);
+        assertArrayEquals(compress(message, encoderParams, null), compressed);
+        InputStream decoder = new BrotliInputStream(
+            new ByteArrayInputStream(compressed), decoderParams, 1024, decoderPool);
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = decoder.read(buffer)) != -1) {
+          decoded.write(buffer, 0, read);
+        }
+        decoder.close();
+        assertArrayEquals(message, decoded.toByteArray());
+      }
+      assertEquals(1, encoderPool.getIdleCount());
+    } finally {
+      encoderPool.clear();
+      decoderPool.clear();
+    }
+  }
+
+  @Test
+  public void testEmptyInput() throws IOException {
+    PreparedDictionary dictionary = PreparedDictionary.prepare(dictionary(), encoderParams());
+    byte[] compressed = Encoder.compress(new byte[0], encoderParams().setDictionary(dictionary));
+    assertEquals(0,
+        Decoder.decompress(compressed, new Decoder.Parameters().setDictionary(dictionary)).length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParametersMismatch() throws IOException {
+    PreparedDictionary dictionary = PreparedDictionary.prepare(dictionary(), encoderParams());
+    Encoder.compress(record(1), encoderParams().setQuality(5).setDictionary(dictionary));
+  }
+}
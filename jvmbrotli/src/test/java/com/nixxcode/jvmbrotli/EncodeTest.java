@@ -0,0 +1,136 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.junit.runner.RunWith;
+import org.junit.runners.AllTests;
+
+/** Tests for {@link Encoder} one-shot compression. */
+@RunWith(AllTests.class)
+public class EncodeTest extends BrotliJniTestBase {
+
+  private enum TestMode {
+    BYTE_ARRAY,
+    BYTE_ARRAY_TUNED,
+    BYTE_ARRAY_UNPINNED,
+    DIRECT_BUFFER,
+    HEAP_BUFFER
+  }
+
+  static InputStream getBundle() throws IOException {
+    Class clazz = EncodeTest.class;
+    return clazz.getResourceAsStream("/file/test_corpus.zip");
+  }
+
+  static void loadLib() {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  /** Creates a test suite. */
+  public static TestSuite suite() throws IOException {
+    loadLib();
+    TestSuite suite = new TestSuite();
+    InputStream bundle = getBundle();
+    try {
+      List<String> entries = BundleHelper.listEntries(bundle);
+      for (String entry : entries) {
+        for (TestMode mode : TestMode.values()) {
+          suite.addTest(new EncodeTestCase(entry, mode));
+        }
+      }
+    } finally {
+      bundle.close();
+    }
+    return suite;
+  }
+
+  /** Test case with a unique name. */
+  static class EncodeTestCase extends TestCase {
+    final String entryName;
+    final TestMode mode;
+    EncodeTestCase(String entryName, TestMode mode) {
+      super("EncodeTest." + entryName + "." + mode.name());
+      this.entryName = entryName;
+      this.mode = mode;
+    }
+
+    @Override
+    protected void runTest() throws Throwable {
+      EncodeTest.run(entryName, mode);
+    }
+  }
+
+  static ByteBuffer toBuffer(byte[] data, boolean direct) {
+    ByteBuffer result = direct ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+    result.put(data);
+    result.flip();
+    return result;
+  }
+
+  private static void run(String entryName, TestMode mode) throws Throwable {
+    InputStream bundle = getBundle();
+    byte[] original;
+    try {
+      original = BundleHelper.readEntry(bundle, entryName);
+    } finally {
+      bundle.close();
+    }
+    if (original == null) {
+      throw new RuntimeException("Can't read bundle entry: " + entryName);
+    }
+
+    Encoder.Parameters params = new Encoder.Parameters().setQuality(6);
+    byte[] compressed;
+    switch (mode) {
+      case BYTE_ARRAY:
+        compressed = Encoder.compress(original, params);
+        break;
+
+      case BYTE_ARRAY_TUNED:
+        params.setMode(Encoder.Mode.TEXT).setBlock(18).setDisableLiteralContextModeling(true)
+            .setPostfixBits(1).setDirectDistanceCodes(4);
+        compressed = Encoder.compress(original, params);
+        break;
+
+      case BYTE_ARRAY_UNPINNED:
+        /* Slow quality is compressed from a direct copy; input is cut to keep test fast. */
+        original = Arrays.copyOf(original, Math.min(original.length, 1 << 17));
+        compressed = Encoder.compress(original, params.setQuality(10));
+        break;
+
+      default:
+        boolean direct = (mode == TestMode.DIRECT_BUFFER);
+        ByteBuffer src = toBuffer(original, direct);
+        int bound = Encoder.maxCompressedSize(original.length);
+        ByteBuffer dst = direct ? ByteBuffer.allocateDirect(bound) : ByteBuffer.allocate(bound);
+        int size = Encoder.compress(src, dst, params);
+        assertEquals(0, src.remaining());
+        assertEquals(size, dst.position());
+        dst.flip();
+        compressed = new byte[size];
+        dst.get(compressed);
+        break;
+    }
+
+    InputStream decoder = new BrotliInputStream(new ByteArrayInputStream(compressed));
+    try {
+      long originalCrc = BundleHelper.fingerprintStream(new ByteArrayInputStream(original));
+      long crc = BundleHelper.fingerprintStream(decoder);
+      assertEquals(originalCrc, crc);
+    } finally {
+      decoder.close();
+    }
+  }
+}
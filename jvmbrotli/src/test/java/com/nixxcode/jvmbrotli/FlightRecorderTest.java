@@ -0,0 +1,199 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import com.nixxcode.jvmbrotli.common.BrotliEvents;
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.BrotliOutputStream;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for flight recorder events of encoders and decoders. */
+@RunWith(JUnit4.class)
+public class FlightRecorderTest extends BrotliJniTestBase {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private static final String[] EVENTS = {"Compress", "Decompress", "EncoderStream",
+      "DecoderStream", "Flush", "Finish"};
+
+  private static byte[] generate(int length) {
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      result[i] = (byte) ("recorder".charAt(i % 8) ^ (i >> 10));
+    }
+    return result;
+  }
+
+  private static List<RecordedEvent> record(Recording recording, Runnable work) throws Exception {
+    recording.start();
+    work.run();
+    recording.stop();
+    Path file = File.createTempFile("jvmbrotli", ".jfr").toPath();
+    try {
+      recording.dump(file);
+      List<RecordedEvent> result = new ArrayList<RecordedEvent>();
+      for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+        if (event.getEventType().getName().startsWith("com.nixxcode.jvmbrotli.")) {
+          result.add(event);
+        }
+      }
+      return result;
+    } finally {
+      recording.close();
+      file.toFile().delete();
+    }
+  }
+
+  private static List<RecordedEvent> ofType(List<RecordedEvent> events, String name) {
+    List<RecordedEvent> result = new ArrayList<RecordedEvent>();
+    for (RecordedEvent event : events) {
+      if (event.getEventType().getName().equals("com.nixxcode.jvmbrotli." + name)) {
+        result.add(event);
+      }
+    }
+    return result;
+  }
+
+  private static Recording allEvents() {
+    Recording recording = new Recording();
+    for (String name : EVENTS) {
+      recording.enable("com.nixxcode.jvmbrotli." + name).withoutThreshold();
+    }
+    return recording;
+  }
+
+  @Test
+  public void testDisabledByDefault() throws Exception {
+    assertTrue(BrotliEvents.begin(BrotliEvents.COMPRESS) == null);
+    final byte[] data = generate(10000);
+    List<RecordedEvent> events = record(new Recording(), new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Decoder.decompress(Encoder.compress(data));
+        } catch (Exception ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+    });
+    assertTrue(events.isEmpty());
+  }
+
+  @Test
+  public void testOneShot() throws Exception {
+    final byte[] data = generate(50000);
+    final byte[][] compressed = new byte[1][];
+    List<RecordedEvent> events = record(allEvents(), new Runnable() {
+      @Override
+      public void run() {
+        try {
+          compressed[0] = Encoder.compress(data,
+              new Encoder.Parameters().setQuality(4).setWindow(18));
+          assertArrayEquals(data, Decoder.decompress(compressed[0]));
+        } catch (Exception ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+    });
+    List<RecordedEvent> compress = ofType(events, "Compress");
+    assertEquals(1, compress.size());
+    assertEquals(4, compress.get(0).getInt("quality"));
+    assertEquals(18, compress.get(0).getInt("window"));
+    assertEquals(data.length, compress.get(0).getLong("inputSize"));
+    assertEquals(compressed[0].length, compress.get(0).getLong("outputSize"));
+    List<RecordedEvent> decompress = ofType(events, "Decompress");
+    assertEquals(1, decompress.size());
+    assertEquals(compressed[0].length, decompress.get(0).getLong("inputSize"));
+    assertEquals(data.length, decompress.get(0).getLong("outputSize"));
+    assertTrue(ofType(events, "EncoderStream").isEmpty());
+  }
+
+  @Test
+  public void testStreams() throws Exception {
+    final byte[] data = generate(100000);
+    final byte[][] compressed = new byte[1][];
+    List<RecordedEvent> events = record(allEvents(), new Runnable() {
+      @Override
+      public void run() {
+        try {
+          ByteArrayOutputStream output = new ByteArrayOutputStream();
+          BrotliOutputStream encoder =
+              new BrotliOutputStream(output, new Encoder.Parameters().setQuality(6));
+          encoder.write(data, 0, 1000);
+          encoder.flush();
+          encoder.write(data, 1000, data.length - 1000);
+          encoder.close();
+          compressed[0] = output.toByteArray();
+
+          InputStream decoder = new BrotliInputStream(new ByteArrayInputStream(compressed[0]));
+          byte[] decoded = new byte[data.length];
+          int offset = 0;
+          int length;
+          while ((length = decoder.read(decoded, offset, decoded.length - offset)) > 0) {
+            offset += length;
+          }
+          assertEquals(-1, decoder.read());
+          decoder.close();
+          assertArrayEquals(data, decoded);
+        } catch (Exception ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+    });
+    List<RecordedEvent> encoder = ofType(events, "EncoderStream");
+    assertEquals(1, encoder.size());
+    assertEquals(6, encoder.get(0).getInt("quality"));
+    assertEquals(data.length, encoder.get(0).getLong("inputSize"));
+    assertEquals(compressed[0].length, encoder.get(0).getLong("outputSize"));
+    assertEquals(1, encoder.get(0).getInt("flushes"));
+    assertTrue(encoder.get(0).getDuration("nativeTime").toNanos() > 0);
+    List<RecordedEvent> decoder = ofType(events, "DecoderStream");
+    assertEquals(1, decoder.size());
+    assertEquals(compressed[0].length, decoder.get(0).getLong("inputSize"));
+    assertEquals(data.length, decoder.get(0).getLong("outputSize"));
+    assertFalse(ofType(events, "Flush").isEmpty());
+    assertEquals(6, ofType(events, "Flush").get(0).getInt("quality"));
+    assertFalse(ofType(events, "Finish").isEmpty());
+  }
+
+  @Test
+  public void testSettingsProfile() throws Exception {
+    InputStream profile =
+        BrotliEvents.class.getResourceAsStream("jvmbrotli.jfc");
+    assertNotNull(profile);
+    Configuration configuration;
+    try {
+      configuration = Configuration.create(new InputStreamReader(profile, "UTF-8"));
+    } finally {
+      profile.close();
+    }
+    for (String name : EVENTS) {
+      String prefix = "com.nixxcode.jvmbrotli." + name + "#";
+      assertEquals("true", configuration.getSettings().get(prefix + "enabled"));
+      assertNotNull(configuration.getSettings().get(prefix + "threshold"));
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.framed.BrotliFramedChannel;
+import com.nixxcode.jvmbrotli.framed.BrotliFramedWriter;
+import com.nixxcode.jvmbrotli.framed.FrameIndex;
+import com.nixxcode.jvmbrotli.framed.ParallelFramedDecoder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for framed brotli files. */
+@RunWith(JUnit4.class)
+public class FramedTest extends BrotliJniTestBase {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private static final int BLOCK_SIZE = 65536;
+
+  private static byte[] generate(int length) {
+    Random random = new Random(length);
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      result[i] = (byte) ('a' + random.nextInt(8));
+    }
+    return result;
+  }
+
+  private static File writeFramed(byte[] data) throws IOException {
+    File file = File.createTempFile("jvmbrotli-framed", ".br");
+    BrotliFramedWriter writer = new BrotliFramedWriter(
+        FileChannel.open(file.toPath(), StandardOpenOption.WRITE),
+        new Encoder.Parameters().setQuality(5), BLOCK_SIZE);
+    /* Odd-sized writes straddle block boundaries. */
+    for (int offset = 0; offset < data.length; offset += 10000) {
+      writer.write(ByteBuffer.wrap(data, offset, Math.min(10000, data.length - offset)));
+    }
+    writer.close();
+    return file;
+  }
+
+  @Test
+  public void testRangeRead() throws IOException {
+    byte[] data = generate(10 * BLOCK_SIZE + 123);
+    File file = writeFramed(data);
+    try {
+      BrotliFramedChannel channel = new BrotliFramedChannel(FileChannel.open(file.toPath()));
+      try {
+        FrameIndex index = channel.getIndex();
+        assertEquals(11, index.getBlockCount());
+        assertEquals(data.length, channel.size());
+
+        ByteBuffer range = ByteBuffer.allocate(2 * BLOCK_SIZE);
+        channel.position(3 * BLOCK_SIZE + 17);
+        assertEquals(range.capacity(), channel.read(range));
+        assertArrayEquals(Arrays.copyOfRange(data, 3 * BLOCK_SIZE + 17, 5 * BLOCK_SIZE + 17),
+            range.array());
+
+        ByteBuffer tail = ByteBuffer.allocate(1000);
+        channel.position(data.length - 100);
+        assertEquals(100, channel.read(tail));
+        assertEquals(-1, channel.read(tail));
+        channel.position(data.length + 5);
+        tail.clear();
+        assertEquals(-1, channel.read(tail));
+
+        channel.position(0);
+        ByteBuffer all = ByteBuffer.allocate(data.length);
+        while (all.hasRemaining() && channel.read(all) > 0) { }
+        assertArrayEquals(data, all.array());
+      } finally {
+        channel.close();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testParallelDecode() throws IOException {
+    byte[] data = generate(37 * BLOCK_SIZE + 5);
+    File file = writeFramed(data);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      FileChannel source = FileChannel.open(file.toPath());
+      try {
+        assertEquals(data.length, ParallelFramedDecoder.decode(source,
+            Channels.newChannel(output), new Decoder.Parameters(), pool));
+      } finally {
+        source.close();
+      }
+      assertArrayEquals(data, output.toByteArray());
+    } finally {
+      pool.shutdown();
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    File file = writeFramed(new byte[0]);
+    try {
+      BrotliFramedChannel channel = new BrotliFramedChannel(FileChannel.open(file.toPath()));
+      try {
+        assertEquals(0, channel.getIndex().getBlockCount());
+        assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+      } finally {
+        channel.close();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testCorruptedIndex() throws IOException {
+    File file = writeFramed(generate(3 * BLOCK_SIZE));
+    try {
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+      channel.truncate(channel.size() - 1);
+      channel.close();
+      FileChannel source = FileChannel.open(file.toPath());
+      try {
+        new BrotliFramedChannel(source);
+        fail("truncated file should be rejected");
+      } catch (IOException ex) {
+        // Expected.
+      } finally {
+        source.close();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testOversizedBlockIsRejected() throws IOException {
+    File file = writeFramed(generate(3 * BLOCK_SIZE));
+    try {
+      FileChannel source = FileChannel.open(file.toPath());
+      try {
+        FrameIndex index = new BrotliFramedChannel(source).getIndex();
+        assertEquals(BLOCK_SIZE, index.getBlockSize());
+        assertEquals(3, index.getBlockCount());
+      } finally {
+        source.close();
+      }
+      /* Uncompressed length of the first block; index is followed by 16-byte trailer. */
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+      ByteBuffer length = ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE);
+      ((Buffer) length).flip();
+      channel.write(length, channel.size() - 16 - 3 * 8 + 4);
+      channel.close();
+      source = FileChannel.open(file.toPath());
+      try {
+        new BrotliFramedChannel(source);
+        fail("oversized block should be rejected");
+      } catch (IOException ex) {
+        // Expected.
+      } finally {
+        source.close();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.BrotliDecoderChannel;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.BrotliOutputStream;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for large window streams. */
+@RunWith(JUnit4.class)
+public class LargeWindowTest extends BrotliJniTestBase {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private static final int CHUNK_SIZE = 1 << 20;
+  /** Chunks repeat at 40 MiB distance, beyond the reach of regular 16 MiB window. */
+  private static final int CHUNK_PERIOD = 40;
+  private static final int TOTAL_CHUNKS = 256;
+
+  /** Fills chunk with low-entropy pseudo-random text; equal indices yield equal chunks. */
+  private static void fillChunk(byte[] chunk, int index) {
+    Random random = new Random(index % CHUNK_PERIOD);
+    for (int i = 0; i < chunk.length; ++i) {
+      chunk[i] = (byte) ('a' + random.nextInt(16));
+    }
+  }
+
+  /** Compresses generated input; returns CRC of the uncompressed data. */
+  private static long compressGenerated(OutputStream destination) throws IOException {
+    Encoder.Parameters params = new Encoder.Parameters()
+        .setQuality(1).setLargeWindow(true).setWindow(27);
+    byte[] chunk = new byte[CHUNK_SIZE];
+    CRC32 crc = new CRC32();
+    OutputStream encoder = new BrotliOutputStream(destination, params);
+    try {
+      for (int i = 0; i < TOTAL_CHUNKS; ++i) {
+        fillChunk(chunk, i);
+        crc.update(chunk);
+        encoder.write(chunk);
+      }
+    } finally {
+      encoder.close();
+    }
+    return crc.getValue();
+  }
+
+  private static long crcAndLength(InputStream input, long[] length) throws IOException {
+    byte[] buffer = new byte[65536];
+    CRC32 crc = new CRC32();
+    int read;
+    while ((read = input.read(buffer)) != -1) {
+      crc.update(buffer, 0, read);
+      length[0] += read;
+    }
+    return crc.getValue();
+  }
+
+  @Test
+  public void testStreamRoundTrip() throws IOException {
+    File compressed = File.createTempFile("jvmbrotli-large-window", ".br");
+    try {
+      long expectedCrc =
+          compressGenerated(new BufferedOutputStream(new FileOutputStream(compressed)));
+      Decoder.Parameters params = new Decoder.Parameters().setLargeWindow(true);
+
+      long[] length = new long[1];
+      InputStream decoder = new BrotliInputStream(new FileInputStream(compressed), params);
+      try {
+        assertEquals(expectedCrc, crcAndLength(decoder, length));
+      } finally {
+        decoder.close();
+      }
+      assertEquals((long) TOTAL_CHUNKS * CHUNK_SIZE, length[0]);
+
+      length[0] = 0;
+      ReadableByteChannel channel = new BrotliDecoderChannel(
+          new FileInputStream(compressed).getChannel(), params);
+      try {
+        assertEquals(expectedCrc, crcAndLength(Channels.newInputStream(channel), length));
+      } finally {
+        channel.close();
+      }
+      assertEquals((long) TOTAL_CHUNKS * CHUNK_SIZE, length[0]);
+    } finally {
+      compressed.delete();
+    }
+  }
+
+  @Test
+  public void testOneShotRoundTrip() throws IOException {
+    byte[] original = new byte[4 * CHUNK_SIZE];
+    byte[] chunk = new byte[CHUNK_SIZE];
+    for (int i = 0; i < 4; ++i) {
+      fillChunk(chunk, i);
+      System.arraycopy(chunk, 0, original, i * CHUNK_SIZE, CHUNK_SIZE);
+    }
+    byte[] compressed = Encoder.compress(original,
+        new Encoder.Parameters().setQuality(5).setLargeWindow(true).setWindow(26));
+    Decoder.Parameters params = new Decoder.Parameters().setLargeWindow(true);
+
+    assertArrayEquals(original, Decoder.decompress(compressed, params));
+
+    ByteBuffer dst = ByteBuffer.allocateDirect(original.length);
+    Decoder.decompress(ByteBuffer.wrap(compressed), dst, params);
+    dst.flip();
+    byte[] decoded = new byte[dst.remaining()];
+    dst.get(decoded);
+    assertArrayEquals(original, decoded);
+  }
+
+  @Test
+  public void testRequiresOptIn() throws IOException {
+    byte[] compressed = Encoder.compress(new byte[] {1, 2, 3},
+        new Encoder.Parameters().setLargeWindow(true).setWindow(26));
+    try {
+      Decoder.decompress(compressed);
+      fail("large window stream should be rejected without opt-in");
+    } catch (IOException ex) {
+      // Expected.
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWindowAbove24RequiresLargeWindow() throws IOException {
+    Encoder.compress(new byte[] {1, 2, 3}, new Encoder.Parameters().setWindow(25));
+  }
+}
@@ -0,0 +1,98 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.common.BrotliMetrics;
+import com.nixxcode.jvmbrotli.common.CompressionStats;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.BrotliOutputStream;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CompressionStats} and encoder / decoder instrumentation. */
+@RunWith(JUnit4.class)
+public class MetricsTest extends BrotliJniTestBase {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private static byte[] generate(int length) {
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      result[i] = (byte) ("metrics".charAt(i % 7) ^ (i >> 11));
+    }
+    return result;
+  }
+
+  @Test
+  public void testStreamsAndOneShot() throws Exception {
+    byte[] data = generate(200000);
+    CompressionStats stats = CompressionStats.install();
+    try {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      BrotliOutputStream encoder =
+          new BrotliOutputStream(output, new Encoder.Parameters().setQuality(5));
+      encoder.write(data, 0, 1000);
+      encoder.flush();
+      encoder.write(data, 1000, data.length - 1000);
+      encoder.close();
+      byte[] compressed = output.toByteArray();
+
+      BrotliInputStream decoder = new BrotliInputStream(new ByteArrayInputStream(compressed));
+      byte[] decoded = new byte[data.length];
+      int offset = 0;
+      int length;
+      while ((length = decoder.read(decoded, offset, decoded.length - offset)) > 0) {
+        offset += length;
+      }
+      decoder.close();
+      assertArrayEquals(data, decoded);
+
+      byte[] oneShot = Encoder.compress(data, new Encoder.Parameters().setQuality(2));
+      Decoder.decompress(oneShot);
+
+      assertEquals(2, stats.getEncodedStreams());
+      assertEquals(2L * data.length, stats.getEncodedBytesIn());
+      assertEquals(compressed.length + oneShot.length, stats.getEncodedBytesOut());
+      assertEquals(1, stats.getFlushCount());
+      assertTrue(stats.getEncodeNanos() > 0);
+      assertTrue(stats.getCompressionRatio() > 1);
+      assertEquals(2, stats.getDecodedStreams());
+      assertEquals(compressed.length + oneShot.length, stats.getDecodedBytesIn());
+      assertEquals(2L * data.length, stats.getDecodedBytesOut());
+
+      long[] histogram = stats.latencyHistogram(5);
+      long total = 0;
+      for (long count : histogram) {
+        total += count;
+      }
+      assertEquals(1, total);
+      assertTrue(stats.latencyPercentileMicros(5, 99) > 0);
+      assertEquals(0, stats.latencyPercentileMicros(9, 50));
+
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(CompressionStats.OBJECT_NAME);
+      assertEquals(2L, server.getAttribute(name, "EncodedStreams"));
+      server.invoke(name, "reset", new Object[0], new String[0]);
+      assertEquals(0, stats.getEncodedStreams());
+    } finally {
+      stats.uninstall();
+    }
+    assertEquals(null, BrotliMetrics.getListener());
+    Encoder.compress(data);
+    assertEquals(0, stats.getEncodedStreams());
+  }
+}
@@ -0,0 +1,205 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.common.NativeConcurrency;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.BrotliOutputStream;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.enc.EncoderPool;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link NativeConcurrency}. */
+@RunWith(JUnit4.class)
+public class NativeConcurrencyTest extends BrotliJniTestBase {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private static byte[] generate(int length) {
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      result[i] = (byte) ("permit".charAt(i % 6) ^ (i >> 8));
+    }
+    return result;
+  }
+
+  @After
+  public void tearDown() {
+    NativeConcurrency.setLimit(0);
+  }
+
+  private static void roundTrip(byte[] data) throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BrotliOutputStream encoder =
+        new BrotliOutputStream(output, new Encoder.Parameters().setQuality(6), 4096);
+    encoder.write(data);
+    encoder.close();
+    BrotliInputStream decoder =
+        new BrotliInputStream(new ByteArrayInputStream(output.toByteArray()), 4096);
+    byte[] decoded = new byte[data.length];
+    int offset = 0;
+    int length;
+    while ((length = decoder.read(decoded, offset, decoded.length - offset)) > 0) {
+      offset += length;
+    }
+    decoder.close();
+    assertArrayEquals(data, decoded);
+    assertArrayEquals(data, Decoder.decompress(Encoder.compress(data)));
+  }
+
+  @Test
+  public void testLimitedStreams() throws Exception {
+    NativeConcurrency.setLimit(2);
+    assertEquals(2, NativeConcurrency.getLimit());
+    final byte[] data = generate(300000);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[6];
+    for (int i = 0; i < threads.length; ++i) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            roundTrip(data);
+          } catch (Throwable ex) {
+            failure.set(ex);
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+    assertEquals(0, NativeConcurrency.getQueueLength());
+  }
+
+  @Test
+  public void testWaitAndInterrupt() throws Exception {
+    NativeConcurrency.setLimit(1);
+    Semaphore held = NativeConcurrency.acquire();
+    final byte[] data = generate(10000);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread waiter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Encoder.compress(data);
+        } catch (Throwable ex) {
+          failure.set(ex);
+        }
+      }
+    });
+    waiter.start();
+    while (NativeConcurrency.getQueueLength() == 0) {
+      Thread.sleep(1);
+    }
+    waiter.interrupt();
+    waiter.join();
+    assertTrue(failure.get() instanceof InterruptedIOException);
+
+    Thread second = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Encoder.compress(data);
+        } catch (Throwable ex) {
+          failure.set(ex);
+        }
+      }
+    });
+    failure.set(null);
+    second.start();
+    while (NativeConcurrency.getQueueLength() == 0) {
+      Thread.sleep(1);
+    }
+    NativeConcurrency.release(held);
+    second.join();
+    assertEquals(null, failure.get());
+  }
+
+  @Test
+  public void testOneShotDecompressWaits() throws Exception {
+    final byte[] data = generate(5 << 20);
+    final byte[] compressed = Encoder.compress(data, new Encoder.Parameters().setQuality(1));
+    NativeConcurrency.setLimit(1);
+    Semaphore held = NativeConcurrency.acquire();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread waiter = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          assertArrayEquals(data, Decoder.decompress(compressed));
+          /* Output larger than a slice is decoded in several calls. */
+          ByteBuffer output = ByteBuffer.allocate(data.length + 1);
+          assertEquals(data.length, Decoder.decompress(ByteBuffer.wrap(compressed), output));
+          assertArrayEquals(data, Arrays.copyOf(output.array(), data.length));
+        } catch (Throwable ex) {
+          failure.set(ex);
+        }
+      }
+    });
+    waiter.start();
+    while (NativeConcurrency.getQueueLength() == 0) {
+      Thread.sleep(1);
+    }
+    NativeConcurrency.release(held);
+    waiter.join();
+    assertEquals(null, failure.get());
+  }
+
+  @Test
+  public void testSlicedCompress() throws Exception {
+    /* Larger than a slice at quality 5; random data does not fit into the bound as a stream. */
+    byte[] random = new byte[600000];
+    new Random(42).nextBytes(random);
+    byte[] text = generate(600000);
+    Encoder.Parameters params = new Encoder.Parameters().setQuality(5);
+    EncoderPool pool = new EncoderPool(1);
+    NativeConcurrency.setLimit(1);
+    try {
+      for (byte[] data : Arrays.asList(random, text, random)) {
+        ByteBuffer src = ByteBuffer.allocateDirect(data.length);
+        src.put(data);
+        src.flip();
+        ByteBuffer dst = ByteBuffer.allocateDirect(Encoder.maxCompressedSize(data.length));
+        int size = Encoder.compress(src, dst, params, pool);
+        assertEquals(size, dst.position());
+        byte[] compressed = new byte[size];
+        dst.flip();
+        dst.get(compressed);
+        assertArrayEquals(data, Decoder.decompress(compressed));
+        /* Sliced input is compressed with pooled encoder. */
+        assertEquals(1, pool.getIdleCount());
+      }
+    } finally {
+      pool.clear();
+    }
+  }
+
+  @Test
+  public void testUnlimited() throws Exception {
+    assertEquals(0, NativeConcurrency.getLimit());
+    assertEquals(null, NativeConcurrency.acquire());
+    roundTrip(generate(50000));
+  }
+}
@@ -0,0 +1,141 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.common.NativeMemory;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.BrotliOutputStream;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link NativeMemory}. */
+@RunWith(JUnit4.class)
+public class NativeMemoryTest extends BrotliJniTestBase {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private static byte[] generate(int length) {
+    byte[] result = new byte[length];
+    long seed = 7;
+    for (int i = 0; i < length; ++i) {
+      seed = seed * 6364136223846793005L + 1442695040888963407L;
+      result[i] = (byte) ((i % 5 == 0) ? (seed >>> 58) : "arena".charAt(i % 5));
+    }
+    return result;
+  }
+
+  @After
+  public void tearDown() {
+    NativeMemory.setArenaCapacity(0);
+  }
+
+  @Test
+  public void testInstanceAccounting() throws IOException {
+    byte[] data = generate(1 << 20);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BrotliOutputStream encoder =
+        new BrotliOutputStream(output, new Encoder.Parameters().setQuality(9).setWindow(22));
+    long initial = encoder.getNativeBytes();
+    assertTrue(initial > 0);
+    encoder.write(data);
+    long live = encoder.getNativeBytes();
+    assertTrue(live > initial);
+    assertTrue(encoder.getPeakNativeBytes() >= live);
+    encoder.close();
+    assertEquals(0, encoder.getNativeBytes());
+    assertEquals(0, encoder.getPeakNativeBytes());
+
+    BrotliInputStream decoder =
+        new BrotliInputStream(new ByteArrayInputStream(output.toByteArray()));
+    decoder.read();
+    /* Ring buffer holds at least the first metablock. */
+    assertTrue(decoder.getNativeBytes() > 65536);
+    assertTrue(decoder.getPeakNativeBytes() >= decoder.getNativeBytes());
+    decoder.close();
+    assertEquals(0, decoder.getNativeBytes());
+  }
+
+  @Test
+  public void testOneShotIsAccounted() throws IOException {
+    byte[] data = generate(1 << 20);
+    NativeMemory.resetPeakBytes();
+    long live = NativeMemory.getLiveBytes();
+    assertTrue(NativeMemory.getPeakBytes() >= live);
+    byte[] encoded = Encoder.compress(data, new Encoder.Parameters().setQuality(9));
+    assertArrayEquals(data, Decoder.decompress(encoded));
+    /* Hasher tables of quality 9 exceed a megabyte. */
+    assertTrue(NativeMemory.getPeakBytes() - live > (1 << 20));
+    long peak = NativeMemory.resetPeakBytes();
+    assertTrue(peak >= NativeMemory.getPeakBytes());
+    assertTrue(NativeMemory.getPeakBytes() >= NativeMemory.getLiveBytes());
+  }
+
+  @Test
+  public void testQuality10AndEmptyAreAccounted() throws IOException {
+    byte[] data = generate(1 << 18);
+    NativeMemory.resetPeakBytes();
+    long live = NativeMemory.getLiveBytes();
+    byte[] encoded = Encoder.compress(data, new Encoder.Parameters().setQuality(10));
+    assertArrayEquals(data, Decoder.decompress(encoded));
+    /* Zopfli hasher tables of quality 10 exceed a megabyte. */
+    assertTrue(NativeMemory.getPeakBytes() - live > (1 << 20));
+
+    NativeMemory.resetPeakBytes();
+    live = NativeMemory.getLiveBytes();
+    encoded = Encoder.compress(new byte[0], new Encoder.Parameters().setQuality(10));
+    assertEquals(0, Decoder.decompress(encoded).length);
+    assertTrue(NativeMemory.getPeakBytes() > live);
+  }
+
+  @Test
+  public void testIncompressibleOneShot() throws IOException {
+    byte[] data = new byte[100000];
+    new Random(5).nextBytes(data);
+    for (int quality : new int[] {0, 5, 10, 11}) {
+      byte[] encoded = Encoder.compress(data, new Encoder.Parameters().setQuality(quality));
+      assertArrayEquals(data, Decoder.decompress(encoded));
+    }
+  }
+
+  @Test
+  public void testArena() throws IOException {
+    byte[] data = generate(100000);
+    Encoder.Parameters params = new Encoder.Parameters().setQuality(6);
+    assertEquals(0, NativeMemory.getArenaBytes());
+    NativeMemory.setArenaCapacity(64 << 20);
+    assertEquals(64 << 20, NativeMemory.getArenaCapacity());
+    byte[] encoded = Encoder.compress(data, params);
+    long kept = NativeMemory.getArenaBytes();
+    assertTrue(kept > 0);
+    assertTrue(NativeMemory.getLiveBytes() >= kept);
+
+    /* Same configuration takes the same blocks back. */
+    assertArrayEquals(encoded, Encoder.compress(data, params));
+    assertEquals(kept, NativeMemory.getArenaBytes());
+    assertArrayEquals(data, Decoder.decompress(encoded));
+
+    NativeMemory.setArenaCapacity(1024);
+    assertTrue(NativeMemory.getArenaBytes() <= 1024);
+    NativeMemory.setArenaCapacity(0);
+    assertEquals(0, NativeMemory.getArenaBytes());
+    assertEquals(0, NativeMemory.getArenaCapacity());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeCapacity() {
+    NativeMemory.setArenaCapacity(-1);
+  }
+}
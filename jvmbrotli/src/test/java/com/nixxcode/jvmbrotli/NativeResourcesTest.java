@@ -0,0 +1,89 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.common.NativeResources;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import com.nixxcode.jvmbrotli.enc.BrotliOutputStream;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.enc.EncoderPool;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link NativeResources}. */
+@RunWith(JUnit4.class)
+public class NativeResourcesTest extends BrotliJniTestBase {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  @Test
+  public void testLiveCount() throws IOException {
+    long encoders = NativeResources.getLiveCount(NativeResources.Kind.ENCODER);
+    long decoders = NativeResources.getLiveCount(NativeResources.Kind.DECODER);
+    long bytes = NativeResources.getNativeBytes();
+
+    BrotliOutputStream output = new BrotliOutputStream(new ByteArrayOutputStream());
+    assertEquals(encoders + 1, NativeResources.getLiveCount(NativeResources.Kind.ENCODER));
+    assertTrue(NativeResources.getNativeBytes() > bytes);
+    output.close();
+    assertEquals(encoders, NativeResources.getLiveCount(NativeResources.Kind.ENCODER));
+
+    BrotliInputStream input = new BrotliInputStream(
+        new ByteArrayInputStream(Encoder.compress(new byte[0])));
+    assertEquals(decoders + 1, NativeResources.getLiveCount(NativeResources.Kind.DECODER));
+    input.close();
+    assertEquals(decoders, NativeResources.getLiveCount(NativeResources.Kind.DECODER));
+  }
+
+  @Test
+  public void testLeakIsReleased() throws Exception {
+    long leaks = NativeResources.getLeakCount(NativeResources.Kind.ENCODER);
+    long encoders = NativeResources.getLiveCount(NativeResources.Kind.ENCODER);
+    NativeResources.setLeakSamplingInterval(1);
+    try {
+      new BrotliOutputStream(new ByteArrayOutputStream()).write(42);
+    } finally {
+      NativeResources.setLeakSamplingInterval(0);
+    }
+    for (int i = 0; i < 100; ++i) {
+      if (NativeResources.getLeakCount(NativeResources.Kind.ENCODER) != leaks) {
+        break;
+      }
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(leaks + 1, NativeResources.getLeakCount(NativeResources.Kind.ENCODER));
+    assertEquals(encoders, NativeResources.getLiveCount(NativeResources.Kind.ENCODER));
+  }
+
+  @Test
+  public void testIdlePooledInstanceIsNotLeak() throws Exception {
+    long leaks = NativeResources.getLeakCount(NativeResources.Kind.ENCODER);
+    long encoders = NativeResources.getLiveCount(NativeResources.Kind.ENCODER);
+    EncoderPool pool = new EncoderPool(1);
+    BrotliOutputStream output =
+        new BrotliOutputStream(new ByteArrayOutputStream(), new Encoder.Parameters(), pool);
+    output.write(42);
+    output.close();
+    assertEquals(1, pool.getIdleCount());
+    output = null;
+    pool = null;
+    for (int i = 0; i < 100; ++i) {
+      if (NativeResources.getLiveCount(NativeResources.Kind.ENCODER) == encoders) {
+        break;
+      }
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(encoders, NativeResources.getLiveCount(NativeResources.Kind.ENCODER));
+    assertEquals(leaks, NativeResources.getLeakCount(NativeResources.Kind.ENCODER));
+  }
+}
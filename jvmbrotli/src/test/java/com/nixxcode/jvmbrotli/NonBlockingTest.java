@@ -0,0 +1,202 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.BrotliDecoderChannel;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.BrotliEncoderChannel;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for non-blocking encoder and decoder channels. */
+@RunWith(JUnit4.class)
+public class NonBlockingTest extends BrotliJniTestBase {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  /** Accepts nothing until {@link #ready} is set, then at most 100 bytes per call. */
+  private static final class StallingDestination implements WritableByteChannel {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    boolean ready;
+    int stalls;
+
+    @Override
+    public int write(ByteBuffer src) {
+      if (!ready) {
+        stalls++;
+        return 0;
+      }
+      ready = false;
+      int length = Math.min(100, src.remaining());
+      byte[] chunk = new byte[length];
+      src.get(chunk);
+      output.write(chunk, 0, length);
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() { }
+  }
+
+  /** Has no data until {@link #ready} is set, then provides at most 100 bytes per call. */
+  private static final class StallingSource implements ReadableByteChannel {
+    final ByteBuffer data;
+    boolean ready;
+
+    StallingSource(byte[] data) {
+      this.data = ByteBuffer.wrap(data);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+      if (!data.hasRemaining()) {
+        return -1;
+      }
+      if (!ready) {
+        return 0;
+      }
+      ready = false;
+      ByteBuffer slice = data.slice();
+      ((Buffer) slice).limit(Math.min(100, Math.min(slice.remaining(), dst.remaining())));
+      int length = slice.remaining();
+      dst.put(slice);
+      ((Buffer) data).position(data.position() + length);
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() { }
+  }
+
+  private static byte[] generate(int length) {
+    Random random = new Random(length);
+    byte[] result = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      result[i] = (byte) random.nextInt(4);
+    }
+    return result;
+  }
+
+  @Test
+  public void testEncoderNeverWaits() throws IOException {
+    byte[] data = generate(100000);
+    StallingDestination destination = new StallingDestination();
+    BrotliEncoderChannel encoder = new BrotliEncoderChannel(destination,
+        new Encoder.Parameters().setQuality(1), 1024).configureBlocking(false);
+    ByteBuffer src = ByteBuffer.wrap(data);
+    while (src.hasRemaining()) {
+      if (encoder.write(src) == 0) {
+        /* Selector would report destination as writable. */
+        assertTrue(encoder.hasPendingOutput());
+        destination.ready = true;
+      }
+    }
+    while (!encoder.flush()) {
+      assertTrue(encoder.hasPendingOutput());
+      destination.ready = true;
+    }
+    assertFalse(encoder.hasPendingOutput());
+    while (!encoder.finish()) {
+      destination.ready = true;
+    }
+    encoder.close();
+    assertTrue(destination.stalls > 0);
+
+    byte[] compressed = destination.output.toByteArray();
+    assertArrayEquals(data, Decoder.decompress(compressed));
+  }
+
+  @Test
+  public void testDecoderNeverWaits() throws IOException {
+    byte[] data = generate(100000);
+    byte[] compressed = Encoder.compress(data, new Encoder.Parameters().setQuality(1));
+    StallingSource source = new StallingSource(compressed);
+    BrotliDecoderChannel decoder = new BrotliDecoderChannel(source, 1024);
+    ByteBuffer dst = ByteBuffer.allocate(data.length + 1);
+    int stalls = 0;
+    while (true) {
+      int read = decoder.read(dst);
+      if (read == -1) {
+        break;
+      }
+      if (read == 0) {
+        assertTrue(decoder.needsInput());
+        stalls++;
+        /* Selector would report source as readable. */
+        source.ready = true;
+      }
+    }
+    decoder.close();
+    assertTrue(stalls > 0);
+    assertEquals(data.length, dst.position());
+    byte[] decoded = new byte[data.length];
+    ((Buffer) dst).flip();
+    dst.get(decoded);
+    assertArrayEquals(data, decoded);
+  }
+
+  /** Returns empty reads every other call; single byte reads still block. */
+  private static final class EmptyReadsSource extends ByteArrayInputStream {
+    int emptyReads;
+
+    EmptyReadsSource(byte[] data) {
+      super(data);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      if (++emptyReads % 2 == 1) {
+        return 0;
+      }
+      return super.read(b, off, Math.min(len, 100));
+    }
+  }
+
+  @Test
+  public void testStreamKeepsBlocking() throws IOException {
+    byte[] data = generate(100000);
+    byte[] compressed = Encoder.compress(data, new Encoder.Parameters().setQuality(1));
+    EmptyReadsSource source = new EmptyReadsSource(compressed);
+    BrotliInputStream decoder = new BrotliInputStream(source, 1024);
+    ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+    byte[] buffer = new byte[500];
+    while (true) {
+      int read = decoder.read(buffer);
+      if (read == -1) {
+        break;
+      }
+      assertTrue(read > 0);
+      decoded.write(buffer, 0, read);
+    }
+    decoder.close();
+    assertTrue(source.emptyReads > 0);
+    assertArrayEquals(data, decoded.toByteArray());
+  }
+}
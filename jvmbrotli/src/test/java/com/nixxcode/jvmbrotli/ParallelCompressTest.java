@@ -0,0 +1,88 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.enc.ParallelBrotliOutputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ParallelBrotliOutputStream}. */
+@RunWith(JUnit4.class)
+public class ParallelCompressTest extends BrotliJniTestBase {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private static final int CHUNK_SIZE = 65536;
+
+  /** Text-like input with long-range repetitions. */
+  private static byte[] generate(int length) {
+    Random random = new Random(length);
+    String[] words = {"brotli ", "stream ", "window ", "chunk ", "offset ", "encoder "};
+    ByteArrayOutputStream result = new ByteArrayOutputStream(length);
+    while (result.size() < length) {
+      byte[] word = words[random.nextInt(words.length)].getBytes();
+      result.write(word, 0, Math.min(word.length, length - result.size()));
+    }
+    return result.toByteArray();
+  }
+
+  @Test
+  public void testAllQualities() throws IOException {
+    byte[] data = generate(5 * CHUNK_SIZE + 321);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      for (int quality = 0; quality <= 11; ++quality) {
+        Encoder.Parameters params = new Encoder.Parameters().setQuality(quality).setWindow(18);
+        byte[] compressed = ParallelBrotliOutputStream.compress(data, params, CHUNK_SIZE,
+            executor);
+        assertArrayEquals("quality " + quality, data, Decoder.decompress(compressed));
+        assertTrue(compressed.length < data.length / 2);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testFlushAndSmallWrites() throws IOException {
+    byte[] data = generate(3 * CHUNK_SIZE);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ParallelBrotliOutputStream encoder = new ParallelBrotliOutputStream(output,
+        new Encoder.Parameters().setQuality(6), CHUNK_SIZE);
+    encoder.write(data, 0, 1000);
+    encoder.flush();
+    for (int i = 1000; i < 2000; ++i) {
+      encoder.write(data[i]);
+    }
+    encoder.write(data, 2000, data.length - 2000);
+    encoder.close();
+    assertArrayEquals(data, Decoder.decompress(output.toByteArray()));
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    byte[] compressed = ParallelBrotliOutputStream.compress(new byte[0], new Encoder.Parameters());
+    assertArrayEquals(new byte[0], Decoder.decompress(compressed));
+  }
+
+  @Test
+  public void testLargeWindow() throws IOException {
+    byte[] data = generate(4 * CHUNK_SIZE);
+    byte[] compressed = ParallelBrotliOutputStream.compress(data,
+        new Encoder.Parameters().setQuality(5).setLargeWindow(true).setWindow(26));
+    assertArrayEquals(data,
+        Decoder.decompress(compressed, new Decoder.Parameters().setLargeWindow(true)));
+  }
+}
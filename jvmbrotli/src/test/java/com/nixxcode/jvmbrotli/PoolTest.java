@@ -0,0 +1,128 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.dec.DecoderPool;
+import com.nixxcode.jvmbrotli.enc.BrotliOutputStream;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.enc.EncoderPool;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.junit.runner.RunWith;
+import org.junit.runners.AllTests;
+
+/** Tests for {@link EncoderPool} and {@link DecoderPool}. */
+@RunWith(AllTests.class)
+public class PoolTest extends BrotliJniTestBase {
+
+  /** Shared by all test cases, so that every case runs on reset instances. */
+  private static final EncoderPool ENCODER_POOL = new EncoderPool(2);
+  private static final DecoderPool DECODER_POOL = new DecoderPool(2);
+
+  private enum TestMode {
+    ONE_SHOT,
+    STREAM
+  }
+
+  static InputStream getBundle() throws IOException {
+    Class clazz = PoolTest.class;
+    return clazz.getResourceAsStream("/file/test_corpus.zip");
+  }
+
+  static void loadLib() {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  /** Creates a test suite. */
+  public static TestSuite suite() throws IOException {
+    loadLib();
+    TestSuite suite = new TestSuite();
+    InputStream bundle = getBundle();
+    try {
+      List<String> entries = BundleHelper.listEntries(bundle);
+      for (String entry : entries) {
+        for (TestMode mode : TestMode.values()) {
+          suite.addTest(new PoolTestCase(entry, mode));
+        }
+      }
+    } finally {
+      bundle.close();
+    }
+    return suite;
+  }
+
+  /** Test case with a unique name. */
+  static class PoolTestCase extends TestCase {
+    final String entryName;
+    final TestMode mode;
+    PoolTestCase(String entryName, TestMode mode) {
+      super("PoolTest." + entryName + "." + mode.name());
+      this.entryName = entryName;
+      this.mode = mode;
+    }
+
+    @Override
+    protected void runTest() throws Throwable {
+      PoolTest.run(entryName, mode);
+    }
+  }
+
+  private static void run(String entryName, TestMode mode) throws Throwable {
+    InputStream bundle = getBundle();
+    byte[] original;
+    try {
+      original = BundleHelper.readEntry(bundle, entryName);
+    } finally {
+      bundle.close();
+    }
+    if (original == null) {
+      throw new RuntimeException("Can't read bundle entry: " + entryName);
+    }
+
+    Encoder.Parameters params = new Encoder.Parameters().setQuality(6);
+    /* Run twice: second round must reuse instances returned by the first one. */
+    for (int round = 0; round < 2; ++round) {
+      switch (mode) {
+        case ONE_SHOT: {
+          byte[] compressed = Encoder.compress(original, params, ENCODER_POOL);
+          assertArrayEquals(original, Decoder.decompress(compressed, DECODER_POOL));
+          break;
+        }
+
+        default: {
+          ByteArrayOutputStream sink = new ByteArrayOutputStream();
+          OutputStream encoder = new BrotliOutputStream(sink, params, ENCODER_POOL);
+          try {
+            encoder.write(original);
+          } finally {
+            encoder.close();
+          }
+          InputStream decoder = new BrotliInputStream(
+              new ByteArrayInputStream(sink.toByteArray()), DECODER_POOL);
+          try {
+            long originalCrc = BundleHelper.fingerprintStream(new ByteArrayInputStream(original));
+            long crc = BundleHelper.fingerprintStream(decoder);
+            assertEquals(originalCrc, crc);
+          } finally {
+            decoder.close();
+          }
+          break;
+        }
+      }
+      assertTrue(ENCODER_POOL.getIdleCount() > 0);
+      assertTrue(DECODER_POOL.getIdleCount() > 0);
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package com.nixxcode.jvmbrotli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.nixxcode.jvmbrotli.common.BrotliLoader;
+import com.nixxcode.jvmbrotli.dec.Decoder;
+import com.nixxcode.jvmbrotli.enc.BrotliOutputStream;
+import com.nixxcode.jvmbrotli.enc.Encoder;
+import com.nixxcode.jvmbrotli.enc.PreparedDictionary;
+import com.nixxcode.jvmbrotli.enc.QualityController;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link QualityController}. */
+@RunWith(JUnit4.class)
+public class QualityControllerTest extends BrotliJniTestBase {
+  static {
+    BrotliLoader.isBrotliAvailable();
+  }
+
+  private static QualityController.LoadSource load(final double cpu, final int queue) {
+    return new QualityController.LoadSource() {
+      @Override
+      public double cpuLoad() {
+        return cpu;
+      }
+
+      @Override
+      public int queueDepth() {
+        return queue;
+      }
+    };
+  }
+
+  private static QualityController controller(double cpu, int queue) {
+    return new QualityController(1, 11, 100, TimeUnit.MILLISECONDS, 10, load(cpu, queue));
+  }
+
+  @Test
+  public void testBacksOffUnderLoad() {
+    int idle = controller(0, 0).chooseQuality();
+    int busy = controller(0.5, 0).chooseQuality();
+    int queued = controller(0, 5).chooseQuality();
+    assertTrue(idle < 11);
+    assertTrue(busy < idle);
+    assertEquals(busy, queued);
+    assertEquals(1, controller(1, 0).chooseQuality());
+    assertEquals(1, controller(0, 10).chooseQuality());
+    /* Unknown CPU load does not limit quality. */
+    assertEquals(idle, controller(-1, 0).chooseQuality());
+  }
+
+  @Test
+  public void testMeasuresStreams() throws IOException {
+    QualityController controller = controller(0, 0);
+    Encoder.Parameters params = new Encoder.Parameters().setQualityController(controller);
+    byte[] data = new byte[1 << 20];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = (byte) ((i * 7) ^ (i >> 9));
+    }
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BrotliOutputStream encoder = new BrotliOutputStream(output, params);
+    encoder.write(data);
+    encoder.close();
+    assertArrayEquals(data, Decoder.decompress(output.toByteArray()));
+
+    int quality = controller.getLastQuality();
+    assertEquals(1, controller.getMeasuredStreams(quality));
+    assertTrue(controller.getNanosPerMiB(quality) > 0);
+    assertEquals(1.0, controller.getLoadFactor(), 0);
+  }
+
+  @Test
+  public void testExploresHigherQuality() {
+    QualityController controller = controller(0.5, 0);
+    int busy = controller.chooseQuality();
+    assertTrue(busy < 11);
+    /* Estimates are fresh right after creation. */
+    assertEquals(busy, controller.chooseQuality());
+
+    controller.setExplorationInterval(0, TimeUnit.MILLISECONDS);
+    assertEquals(busy + 1, controller.chooseQuality());
+    controller.setExplorationInterval(1, TimeUnit.HOURS);
+    assertEquals(busy, controller.chooseQuality());
+
+    /* No exploration without headroom. */
+    QualityController saturated = controller(1, 0).setExplorationInterval(0, TimeUnit.SECONDS);
+    assertEquals(1, saturated.chooseQuality());
+  }
+
+  @Test
+  public void testRejectsDictionary() throws IOException {
+    QualityController controller = controller(0, 0);
+    PreparedDictionary dictionary =
+        PreparedDictionary.prepare(new byte[1024], new Encoder.Parameters());
+    try {
+      new Encoder.Parameters().setDictionary(dictionary).setQualityController(controller);
+      fail("IllegalArgumentException should be thrown");
+    } catch (IllegalArgumentException ex) {
+      // Expected.
+    }
+    try {
+      new Encoder.Parameters().setQualityController(controller).setDictionary(dictionary);
+      fail("IllegalArgumentException should be thrown");
+    } catch (IllegalArgumentException ex) {
+      // Expected.
+    }
+  }
+}
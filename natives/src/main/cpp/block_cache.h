@@ -0,0 +1,224 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+#ifndef JVMBROTLI_BLOCK_CACHE_H_
+#define JVMBROTLI_BLOCK_CACHE_H_
+
+#include <stddef.h>
+#include <stdint.h>
+#include <stdlib.h>
+
+#include <atomic>
+#include <mutex>
+
+namespace jvmbrotli {
+
+/* Prepended to each block; 2 words keep malloc alignment. */
+typedef struct BlockHeader {
+  size_t size;
+  size_t cycle;
+} BlockHeader;
+
+/* Native memory held by all encoders and decoders; defined in common_jni.cc. */
+extern std::atomic<int64_t> native_bytes;
+/* Highest value of native_bytes since start or the last reset. */
+extern std::atomic<int64_t> peak_native_bytes;
+
+const int kMaxArenaBlocks = 256;
+
+/*
+ * Blocks released by all instances, kept for reuse by any other instance
+ * instead of being returned to malloc. Long-lived blocks of recurring sizes
+ * (hasher tables, ring buffers) then do not fragment malloc arenas. Arena is
+ * disabled while capacity is 0.
+ */
+typedef struct Arena {
+  std::mutex lock;
+  std::atomic<int64_t> capacity;
+  int64_t bytes;
+  int count;
+  BlockHeader* blocks[kMaxArenaBlocks];
+} Arena;
+
+extern Arena arena;
+
+inline void addNativeBytes(int64_t delta) {
+  int64_t value = native_bytes += delta;
+  int64_t peak = peak_native_bytes.load();
+  while (value > peak &&
+         !peak_native_bytes.compare_exchange_weak(peak, value)) {
+  }
+}
+
+/* Takes block of exactly given size from arena; nullptr if there is none. */
+inline BlockHeader* arenaTake(size_t size) {
+  if (arena.capacity.load(std::memory_order_relaxed) == 0) return nullptr;
+  std::lock_guard<std::mutex> guard(arena.lock);
+  for (int i = arena.count - 1; i >= 0; --i) {
+    BlockHeader* header = arena.blocks[i];
+    if (header->size == size) {
+      arena.blocks[i] = arena.blocks[--arena.count];
+      arena.bytes -= static_cast<int64_t>(size);
+      return header;
+    }
+  }
+  return nullptr;
+}
+
+/* Puts block to arena; returns false if arena is full or disabled. */
+inline bool arenaPut(BlockHeader* header) {
+  int64_t capacity = arena.capacity.load(std::memory_order_relaxed);
+  if (capacity == 0) return false;
+  std::lock_guard<std::mutex> guard(arena.lock);
+  int64_t size = static_cast<int64_t>(header->size);
+  if (arena.count == kMaxArenaBlocks || arena.bytes + size > capacity) {
+    return false;
+  }
+  arena.blocks[arena.count++] = header;
+  arena.bytes += size;
+  return true;
+}
+
+}  /* namespace jvmbrotli */
+
+namespace {
+
+using jvmbrotli::BlockHeader;
+
+/*
+ * Allocator that keeps blocks freed by a brotli instance, so that the next
+ * instance created by the same handle (see reset) takes its hasher tables and
+ * ring buffers from the cache instead of malloc.
+ *
+ * Blocks are reused only on exact size match. Blocks that stay unclaimed for a
+ * whole cycle (i.e. in between two resets) are released to the arena, or to
+ * malloc if arena does not take them.
+ *
+ * Memory held by the instance, including cached blocks, is accounted in stats:
+ * {int64 live, int64 peak}. For handles stats reside in the status block, so
+ * Java side reads them without a native call.
+ */
+const int kMaxCachedBlocks = 32;
+const int kStatsLive = 0;
+const int kStatsPeak = 1;
+
+typedef struct BlockCache {
+  BlockHeader* blocks[kMaxCachedBlocks];
+  int count;
+  size_t cycle;
+  int64_t* stats;
+} BlockCache;
+
+inline void initBlockCache(BlockCache* cache, int64_t* stats) {
+  cache->count = 0;
+  cache->cycle = 0;
+  cache->stats = stats;
+  stats[kStatsLive] = 0;
+  stats[kStatsPeak] = 0;
+}
+
+/* Accounts memory held by the instance owning the cache. */
+inline void addInstanceBytes(BlockCache* cache, int64_t delta) {
+  int64_t* stats = cache->stats;
+  stats[kStatsLive] += delta;
+  if (stats[kStatsLive] > stats[kStatsPeak]) {
+    stats[kStatsPeak] = stats[kStatsLive];
+  }
+}
+
+inline void releaseBlock(BlockCache* cache, BlockHeader* header) {
+  int64_t size = static_cast<int64_t>(header->size);
+  addInstanceBytes(cache, -size);
+  if (jvmbrotli::arenaPut(header)) return;
+  jvmbrotli::addNativeBytes(-size);
+  free(header);
+}
+
+/* brotli_alloc_func backed by the cache; opaque is BlockCache. */
+inline void* cacheAlloc(void* opaque, size_t size) {
+  BlockCache* cache = static_cast<BlockCache*>(opaque);
+  for (int i = cache->count - 1; i >= 0; --i) {
+    BlockHeader* header = cache->blocks[i];
+    if (header->size == size) {
+      cache->blocks[i] = cache->blocks[--cache->count];
+      return header + 1;
+    }
+  }
+  BlockHeader* header = jvmbrotli::arenaTake(size);
+  if (!header) {
+    header = static_cast<BlockHeader*>(malloc(sizeof(BlockHeader) + size));
+    if (!header) return nullptr;
+    header->size = size;
+    jvmbrotli::addNativeBytes(static_cast<int64_t>(size));
+  }
+  addInstanceBytes(cache, static_cast<int64_t>(size));
+  return header + 1;
+}
+
+/* brotli_free_func backed by the cache; opaque is BlockCache. */
+inline void cacheFree(void* opaque, void* address) {
+  if (!address) return;
+  BlockCache* cache = static_cast<BlockCache*>(opaque);
+  BlockHeader* header = static_cast<BlockHeader*>(address) - 1;
+  if (cache->count < kMaxCachedBlocks) {
+    header->cycle = cache->cycle;
+    cache->blocks[cache->count++] = header;
+  } else {
+    releaseBlock(cache, header);
+  }
+}
+
+/*
+ * Starts new cycle; releases blocks not claimed during the finished one. Peak
+ * of the instance is measured anew.
+ */
+inline void advanceBlockCache(BlockCache* cache) {
+  int kept = 0;
+  for (int i = 0; i < cache->count; ++i) {
+    BlockHeader* header = cache->blocks[i];
+    if (header->cycle == cache->cycle) {
+      cache->blocks[kept++] = header;
+    } else {
+      releaseBlock(cache, header);
+    }
+  }
+  cache->count = kept;
+  cache->cycle++;
+  cache->stats[kStatsPeak] = cache->stats[kStatsLive];
+}
+
+/* Releases all cached blocks. */
+inline void releaseBlockCache(BlockCache* cache) {
+  for (int i = 0; i < cache->count; ++i) {
+    releaseBlock(cache, cache->blocks[i]);
+  }
+  cache->count = 0;
+}
+
+/*
+ * Detaches stats from the status block, which might be already collected when
+ * instance is released by the cleaner.
+ */
+inline void detachBlockCache(BlockCache* cache, int64_t* stats) {
+  stats[kStatsLive] = 0;
+  stats[kStatsPeak] = 0;
+  cache->stats = stats;
+}
+
+}  /* namespace */
+
+#endif  /* JVMBROTLI_BLOCK_CACHE_H_ */
@@ -8,6 +8,16 @@
 
 #include <dictionary.h>
 
+#include "./block_cache.h"
+
+namespace jvmbrotli {
+
+std::atomic<int64_t> native_bytes(0);
+std::atomic<int64_t> peak_native_bytes(0);
+Arena arena;
+
+}  /* namespace jvmbrotli */
+
 #ifdef __cplusplus
 extern "C" {
 #endif
@@ -42,6 +52,67 @@ Java_com_nixxcode_jvmbrotli_common_CommonJNI_nativeSetDictionaryData(
   return true;
 }
 
+/**
+ * Reports native memory held by all encoders and decoders.
+ *
+ * @returns number of bytes of handles, input buffers and brotli state memory,
+ *          including memory cached for reuse after reset
+ */
+JNIEXPORT jlong JNICALL
+Java_com_nixxcode_jvmbrotli_common_CommonJNI_nativeGetAllocatedBytes(
+    JNIEnv* /*env*/, jobject /*jobj*/) {
+  return static_cast<jlong>(jvmbrotli::native_bytes.load());
+}
+
+/**
+ * Reports the highest amount of native memory held by all encoders and
+ * decoders since start or the last reset.
+ *
+ * @param reset start new measurement from the current amount
+ */
+JNIEXPORT jlong JNICALL
+Java_com_nixxcode_jvmbrotli_common_CommonJNI_nativeGetPeakBytes(
+    JNIEnv* /*env*/, jobject /*jobj*/, jboolean reset) {
+  if (!!reset) {
+    return static_cast<jlong>(jvmbrotli::peak_native_bytes.exchange(
+        jvmbrotli::native_bytes.load()));
+  }
+  return static_cast<jlong>(jvmbrotli::peak_native_bytes.load());
+}
+
+/**
+ * Sets the amount of released memory kept by arena for reuse; blocks above
+ * the new capacity are returned to malloc.
+ *
+ * @param capacity number of bytes; 0 disables arena
+ */
+JNIEXPORT void JNICALL
+Java_com_nixxcode_jvmbrotli_common_CommonJNI_nativeSetArenaCapacity(
+    JNIEnv* /*env*/, jobject /*jobj*/, jlong capacity) {
+  jvmbrotli::Arena& arena = jvmbrotli::arena;
+  std::lock_guard<std::mutex> guard(arena.lock);
+  arena.capacity = capacity;
+  while (arena.count > 0 && arena.bytes > capacity) {
+    jvmbrotli::BlockHeader* header = arena.blocks[--arena.count];
+    int64_t size = static_cast<int64_t>(header->size);
+    arena.bytes -= size;
+    jvmbrotli::addNativeBytes(-size);
+    free(header);
+  }
+}
+
+/**
+ * Reports native memory kept by arena for reuse; it is included in allocated
+ * bytes.
+ */
+JNIEXPORT jlong JNICALL
+Java_com_nixxcode_jvmbrotli_common_CommonJNI_nativeGetArenaBytes(
+    JNIEnv* /*env*/, jobject /*jobj*/) {
+  jvmbrotli::Arena& arena = jvmbrotli::arena;
+  std::lock_guard<std::mutex> guard(arena.lock);
+  return static_cast<jlong>(arena.bytes);
+}
+
 #ifdef __cplusplus
 }
 #endif
@@ -6,18 +6,37 @@
 
 #include <jni.h>
 
+#include <string.h>
+
 #include <new>
 
+#include "./block_cache.h"
+#include "./memory_region.h"
+
 #include <brotli/decode.h>
 
 namespace {
 /* A structure used to persist the decoder's state in between calls. */
 typedef struct DecoderHandle {
   BrotliDecoderState* state;
+  /* Status block shared with Java side. */
+  int32_t* status;
+  /* Keeps memory of the previous state for reuse after reset. */
+  BlockCache cache;
+  /* Accept large window streams; reapplied after reset. */
+  bool large_window;
+  /* Allocate ring buffer of full window size; reapplied after reset. */
+  bool fixed_ring_buffer;
+  /* Compressed dictionary prefix owned by Java side; nullptr if not used. */
+  const uint8_t* prefix;
+  size_t prefix_size;
 
   uint8_t* input_start;
+  size_t input_size;
   size_t input_offset;
   size_t input_length;
+  /* Set when last push stopped because output had to be flushed first. */
+  bool output_stalled;
 } DecoderHandle;
 
 /* Obtain handle from opaque pointer. */
@@ -25,6 +44,95 @@ DecoderHandle* getHandle(void* opaque) {
   return static_cast<DecoderHandle*>(opaque);
 }
 
+/*
+ * Status block layout: {int64 cookie, int32 status, int32 has_more_output,
+ * int64 native_bytes, int64 peak_native_bytes}; memory stats are maintained by
+ * BlockCache.
+ *
+ * status codes:
+ *  - 0 error happened
+ *  - 1 stream is finished, no more input / output expected
+ *  - 2 needs more input to process further
+ *  - 3 needs more output to process further
+ *  - 4 ok, can proceed further without additional input
+ */
+const jlong kStatusBlockSize = 32;
+/* Index of memory stats in int64 units. */
+const int kStatusStats = 2;
+const int kStatus = 2;
+const int kStatusHasMoreOutput = 3;
+
+/*
+ * Decode compressed dictionary prefix, so that the following input may refer
+ * to the dictionary. Output is discarded, but stays in the ring buffer.
+ */
+bool primeState(BrotliDecoderState* state, const uint8_t* prefix,
+                size_t prefix_size) {
+  size_t available_in = prefix_size;
+  const uint8_t* next_in = prefix;
+  while (true) {
+    size_t available_out = 0;
+    BrotliDecoderResult result = BrotliDecoderDecompressStream(
+        state, &available_in, &next_in, &available_out, nullptr, nullptr);
+    while (BrotliDecoderHasMoreOutput(state)) {
+      size_t out_size = 0;
+      BrotliDecoderTakeOutput(state, &out_size);
+    }
+    if (result != BROTLI_DECODER_RESULT_NEEDS_MORE_OUTPUT) {
+      return result == BROTLI_DECODER_RESULT_NEEDS_MORE_INPUT &&
+          available_in == 0;
+    }
+  }
+}
+
+/* Create decoder state, apply parameters and dictionary stored in handle. */
+bool createState(DecoderHandle* handle) {
+  handle->state =
+      BrotliDecoderCreateInstance(cacheAlloc, cacheFree, &handle->cache);
+  if (!handle->state) return false;
+  if (handle->large_window &&
+      !BrotliDecoderSetParameter(
+          handle->state, BROTLI_DECODER_PARAM_LARGE_WINDOW, 1u)) {
+    return false;
+  }
+  if (handle->fixed_ring_buffer &&
+      !BrotliDecoderSetParameter(
+          handle->state,
+          BROTLI_DECODER_PARAM_DISABLE_RING_BUFFER_REALLOCATION, 1u)) {
+    return false;
+  }
+  if (!!handle->prefix) {
+    return primeState(handle->state, handle->prefix, handle->prefix_size);
+  }
+  return true;
+}
+
+/* Publish result of BrotliDecoderDecompressStream to status block. */
+void updateStatus(DecoderHandle* handle, BrotliDecoderResult result,
+                  bool input_consumed) {
+  int32_t* status = handle->status;
+  switch (result) {
+    case BROTLI_DECODER_RESULT_SUCCESS:
+      /* Bytes after stream end are not allowed. */
+      status[kStatus] = input_consumed ? 1 : 0;
+      break;
+
+    case BROTLI_DECODER_RESULT_NEEDS_MORE_INPUT:
+      status[kStatus] = 2;
+      break;
+
+    case BROTLI_DECODER_RESULT_NEEDS_MORE_OUTPUT:
+      status[kStatus] = 3;
+      break;
+
+    default:
+      status[kStatus] = 0;
+      break;
+  }
+  status[kStatusHasMoreOutput] =
+      BrotliDecoderHasMoreOutput(handle->state) ? 1 : 0;
+}
+
 }  /* namespace */
 
 #ifdef __cplusplus
@@ -34,55 +142,87 @@ extern "C" {
 /**
  * Creates a new Decoder.
  *
- * Cookie to address created decoder is stored in out_cookie. In case of failure
- * cookie is 0.
+ * Cookie to address created decoder is stored in the first 8 bytes of status
+ * block. In case of failure cookie is 0. Status block must stay reachable for
+ * as long as decoder exists.
  *
- * @param ctx {out_cookie, in_directBufferSize} tuple
- * @returns direct ByteBuffer if directBufferSize is not 0; otherwise null
+ * @param status_block direct ByteBuffer; see kStatusBlockSize
+ * @param input_size size of direct input buffer
+ * @param large_window accept large window streams
+ * @param fixed_ring_buffer allocate ring buffer of window size at once, instead
+ *                          of growing it along with the content
+ * @param prefix direct ByteBuffer with compressed dictionary prefix, or null;
+ *               must stay reachable for as long as decoder exists
+ * @returns direct ByteBuffer if input_size is not 0; otherwise null
  */
 JNIEXPORT jobject JNICALL
 Java_com_nixxcode_jvmbrotli_dec_DecoderJNI_nativeCreate(
-    JNIEnv* env, jobject /*jobj*/, jlongArray ctx) {
+    JNIEnv* env, jobject /*jobj*/, jobject status_block, jint input_size,
+    jboolean large_window, jboolean fixed_ring_buffer, jobject prefix) {
   bool ok = true;
   DecoderHandle* handle = nullptr;
-  jlong context[3];
-  env->GetLongArrayRegion(ctx, 0, 3, context);
-  size_t input_size = context[1];
-  context[0] = 0;
-  context[2] = 0;
+  int32_t* status = static_cast<int32_t*>(
+      env->GetDirectBufferAddress(status_block));
+  if (!status ||
+      env->GetDirectBufferCapacity(status_block) < kStatusBlockSize) {
+    return nullptr;
+  }
+  jlong cookie = 0;
   handle = new (std::nothrow) DecoderHandle();
-  ok = !!handle;
+  ok = !!handle && input_size >= 0;
 
   if (ok) {
+    handle->status = status;
+    handle->state = nullptr;
+    handle->large_window = !!large_window;
+    handle->fixed_ring_buffer = !!fixed_ring_buffer;
+    initBlockCache(&handle->cache,
+                   reinterpret_cast<int64_t*>(status) + kStatusStats);
     handle->input_offset = 0;
     handle->input_length = 0;
+    handle->output_stalled = false;
     handle->input_start = nullptr;
+    handle->input_size = (input_size > 0) ? input_size : 0;
+    handle->prefix = nullptr;
+    handle->prefix_size = 0;
+    if (!!prefix) {
+      handle->prefix =
+          static_cast<const uint8_t*>(env->GetDirectBufferAddress(prefix));
+      handle->prefix_size =
+          static_cast<size_t>(env->GetDirectBufferCapacity(prefix));
+      ok = !!handle->prefix;
+    }
 
-    if (input_size == 0) {
-      ok = false;
-    } else {
+    if (ok && input_size != 0) {
       handle->input_start = new (std::nothrow) uint8_t[input_size];
       ok = !!handle->input_start;
     }
   }
 
   if (ok) {
-    handle->state = BrotliDecoderCreateInstance(nullptr, nullptr, nullptr);
-    ok = !!handle->state;
+    ok = createState(handle);
   }
 
   if (ok) {
     /* TODO: future versions (e.g. when 128-bit architecture comes)
                      might require thread-safe cookie<->handle mapping. */
-    context[0] = reinterpret_cast<jlong>(handle);
+    cookie = reinterpret_cast<jlong>(handle);
+    int64_t handle_bytes =
+        static_cast<int64_t>(sizeof(*handle) + handle->input_size);
+    jvmbrotli::addNativeBytes(handle_bytes);
+    addInstanceBytes(&handle->cache, handle_bytes);
+    status[kStatus] = 2;
+    status[kStatusHasMoreOutput] = 0;
   } else if (!!handle) {
+    if (!!handle->state) BrotliDecoderDestroyInstance(handle->state);
+    releaseBlockCache(&handle->cache);
     if (!!handle->input_start) delete[] handle->input_start;
     delete handle;
   }
 
-  env->SetLongArrayRegion(ctx, 0, 3, context);
+  memcpy(status, &cookie, sizeof(cookie));
 
-  if (!ok) {
+  if (!ok || input_size == 0) {
     return nullptr;
   }
 
@@ -92,26 +232,18 @@ Java_com_nixxcode_jvmbrotli_dec_DecoderJNI_nativeCreate(
 /**
  * Push data to decoder.
  *
- * status codes:
- *  - 0 error happened
- *  - 1 stream is finished, no more input / output expected
- *  - 2 needs more input to process further
- *  - 3 needs more output to process further
- *  - 4 ok, can proceed further without additional input
+ * Outcome is published to the status block.
  *
- * @param ctx {in_cookie, out_status} tuple
+ * @param cookie decoder cookie
  * @param input_length number of bytes provided in input or direct input;
  *                     0 to process further previous input
  */
 JNIEXPORT void JNICALL
 Java_com_nixxcode_jvmbrotli_dec_DecoderJNI_nativePush(
-    JNIEnv* env, jobject /*jobj*/, jlongArray ctx, jint input_length) {
-  jlong context[3];
-  env->GetLongArrayRegion(ctx, 0, 3, context);
-  DecoderHandle* handle = getHandle(reinterpret_cast<void*>(context[0]));
-  context[1] = 0;  /* ERROR */
-  context[2] = 0;
-  env->SetLongArrayRegion(ctx, 0, 3, context);
+    JNIEnv* /*env*/, jobject /*jobj*/, jlong cookie, jint input_length) {
+  DecoderHandle* handle = getHandle(reinterpret_cast<void*>(cookie));
+  handle->status[kStatus] = 0;  /* ERROR */
+  handle->status[kStatusHasMoreOutput] = 0;
 
   if (input_length != 0) {
     /* Still have unconsumed data. Workflow is broken. */
@@ -126,73 +258,195 @@ Java_com_nixxcode_jvmbrotli_dec_DecoderJNI_nativePush(
   const uint8_t* in = handle->input_start + handle->input_offset;
   size_t in_size = handle->input_length - handle->input_offset;
   size_t out_size = 0;
-  BrotliDecoderResult status = BrotliDecoderDecompressStream(
+  BrotliDecoderResult result = BrotliDecoderDecompressStream(
       handle->state, &in_size, &in, &out_size, nullptr, nullptr);
   handle->input_offset = handle->input_length - in_size;
-  switch (status) {
-    case BROTLI_DECODER_RESULT_SUCCESS:
-      /* Bytes after stream end are not allowed. */
-      context[1] = (handle->input_offset == handle->input_length) ? 1 : 0;
-      break;
-
-    case BROTLI_DECODER_RESULT_NEEDS_MORE_INPUT:
-      context[1] = 2;
-      break;
-
-    case BROTLI_DECODER_RESULT_NEEDS_MORE_OUTPUT:
-      context[1] = 3;
-      break;
-
-    default:
-      context[1] = 0;
-      break;
-  }
-  context[2] = BrotliDecoderHasMoreOutput(handle->state) ? 1 : 0;
-  env->SetLongArrayRegion(ctx, 0, 3, context);
+  handle->output_stalled = (result == BROTLI_DECODER_RESULT_NEEDS_MORE_OUTPUT);
+  updateStatus(handle, result,
+               handle->input_offset == handle->input_length);
 }
 
 /**
  * Pull decompressed data from decoder.
  *
- * @param ctx {in_cookie, out_status} tuple
+ * Decoder state is published to the status block.
+ *
+ * @param cookie decoder cookie
  * @returns direct ByteBuffer; all the produced data MUST be consumed before
  *          any further invocation; null in case of error
  */
 JNIEXPORT jobject JNICALL
 Java_com_nixxcode_jvmbrotli_dec_DecoderJNI_nativePull(
-    JNIEnv* env, jobject /*jobj*/, jlongArray ctx) {
-  jlong context[3];
-  env->GetLongArrayRegion(ctx, 0, 3, context);
-  DecoderHandle* handle = getHandle(reinterpret_cast<void*>(context[0]));
+    JNIEnv* env, jobject /*jobj*/, jlong cookie) {
+  DecoderHandle* handle = getHandle(reinterpret_cast<void*>(cookie));
+  int32_t* status = handle->status;
   size_t data_length = 0;
   const uint8_t* data = BrotliDecoderTakeOutput(handle->state, &data_length);
   bool hasMoreOutput = !!BrotliDecoderHasMoreOutput(handle->state);
   if (hasMoreOutput) {
-    context[1] = 3;
+    status[kStatus] = 3;
   } else if (BrotliDecoderIsFinished(handle->state)) {
     /* Bytes after stream end are not allowed. */
-    context[1] = (handle->input_offset == handle->input_length) ? 1 : 0;
+    status[kStatus] = (handle->input_offset == handle->input_length) ? 1 : 0;
   } else {
-    /* Can proceed, or more data is required? */
-    context[1] = (handle->input_offset == handle->input_length) ? 2 : 4;
+    /* Can proceed, or more data is required? Decoder might have consumed all
+       the input before it stopped to flush output; it proceeds without more. */
+    status[kStatus] = (handle->input_offset == handle->input_length &&
+                       !handle->output_stalled) ? 2 : 4;
   }
-  context[2] = hasMoreOutput ? 1 : 0;
-  env->SetLongArrayRegion(ctx, 0, 3, context);
+  status[kStatusHasMoreOutput] = hasMoreOutput ? 1 : 0;
   return env->NewDirectByteBuffer(const_cast<uint8_t*>(data), data_length);
 }
 
+/**
+ * Prepares decoder for a new stream.
+ *
+ * Memory of the previous state is reused by the new one where possible.
+ *
+ * @param cookie decoder cookie
+ * @returns false if new state could not be created
+ */
+JNIEXPORT jboolean JNICALL
+Java_com_nixxcode_jvmbrotli_dec_DecoderJNI_nativeReset(
+    JNIEnv* /*env*/, jobject /*jobj*/, jlong cookie) {
+  DecoderHandle* handle = getHandle(reinterpret_cast<void*>(cookie));
+  handle->status[kStatus] = 0;  /* ERROR */
+  handle->status[kStatusHasMoreOutput] = 0;
+  advanceBlockCache(&handle->cache);
+  BrotliDecoderDestroyInstance(handle->state);
+  handle->input_offset = 0;
+  handle->input_length = 0;
+  handle->output_stalled = false;
+  if (!createState(handle)) {
+    return JNI_FALSE;
+  }
+  handle->status[kStatus] = 2;
+  return JNI_TRUE;
+}
+
+/**
+ * Decompresses memory region into another memory region in one go.
+ *
+ * Source and destination are either direct ByteBuffers or byte[]s. Memory is
+ * accessed in place; byte[]s are pinned for the duration of the call.
+ * Input must contain exactly one complete brotli stream.
+ *
+ * @param large_window accept large window streams
+ *
+ * result codes:
+ *  - >= 0 number of bytes written to destination
+ *  - -1 input is corrupted, or there are bytes after stream end
+ *  - -2 destination is not large enough
+ *  - -3 input is truncated
+ */
+JNIEXPORT jint JNICALL
+Java_com_nixxcode_jvmbrotli_dec_DecoderJNI_nativeDecompress(
+    JNIEnv* env, jobject /*jobj*/, jobject src, jint src_offset,
+    jint src_length, jobject dst, jint dst_offset, jint dst_length,
+    jboolean large_window) {
+  MemoryRegion src_region;
+  MemoryRegion dst_region;
+  if (!resolveRegion(env, src, src_offset, src_length, &src_region) ||
+      !resolveRegion(env, dst, dst_offset, dst_length, &dst_region)) {
+    return -1;
+  }
+  int64_t stats[2];
+  BlockCache cache;
+  initBlockCache(&cache, stats);
+  BrotliDecoderState* state =
+      BrotliDecoderCreateInstance(cacheAlloc, cacheFree, &cache);
+  if (!state) {
+    return -1;
+  }
+  if (!!large_window) {
+    BrotliDecoderSetParameter(state, BROTLI_DECODER_PARAM_LARGE_WINDOW, 1u);
+  }
+  const uint8_t* in = pinRegion(env, &src_region);
+  uint8_t* out = !!in ? pinRegion(env, &dst_region) : nullptr;
+  size_t in_size = src_length;
+  size_t out_size = dst_length;
+  BrotliDecoderResult status = BROTLI_DECODER_RESULT_ERROR;
+  if (!!out) {
+    status = BrotliDecoderDecompressStream(
+        state, &in_size, &in, &out_size, &out, nullptr);
+  }
+  unpinRegion(env, &dst_region, status != BROTLI_DECODER_RESULT_ERROR);
+  unpinRegion(env, &src_region, false);
+  BrotliDecoderDestroyInstance(state);
+  releaseBlockCache(&cache);
+  switch (status) {
+    case BROTLI_DECODER_RESULT_SUCCESS:
+      /* Bytes after stream end are not allowed. */
+      return (in_size == 0) ? static_cast<jint>(dst_length - out_size) : -1;
+
+    case BROTLI_DECODER_RESULT_NEEDS_MORE_OUTPUT:
+      return -2;
+
+    case BROTLI_DECODER_RESULT_NEEDS_MORE_INPUT:
+      return -3;
+
+    default:
+      return -1;
+  }
+}
+
+/**
+ * Decompresses memory region into another memory region, keeping decoder
+ * state in between calls.
+ *
+ * Source and destination are either direct ByteBuffers or byte[]s. Memory is
+ * accessed in place; byte[]s are pinned for the duration of the call. Decoder
+ * internal input buffer is not used. Outcome is published to the status block.
+ *
+ * @param cookie decoder cookie
+ * @returns (number of bytes consumed << 32) | number of bytes produced
+ */
+JNIEXPORT jlong JNICALL
+Java_com_nixxcode_jvmbrotli_dec_DecoderJNI_nativeDecompressStream(
+    JNIEnv* env, jobject /*jobj*/, jlong cookie, jobject src,
+    jint src_offset, jint src_length, jobject dst, jint dst_offset,
+    jint dst_length) {
+  DecoderHandle* handle = getHandle(reinterpret_cast<void*>(cookie));
+  handle->status[kStatus] = 0;  /* ERROR */
+  handle->status[kStatusHasMoreOutput] = 0;
+  MemoryRegion src_region;
+  MemoryRegion dst_region;
+  if (!resolveRegion(env, src, src_offset, src_length, &src_region) ||
+      !resolveRegion(env, dst, dst_offset, dst_length, &dst_region)) {
+    return 0;
+  }
+  const uint8_t* in = pinRegion(env, &src_region);
+  uint8_t* out = !!in ? pinRegion(env, &dst_region) : nullptr;
+  size_t in_size = src_length;
+  size_t out_size = dst_length;
+  BrotliDecoderResult result = BROTLI_DECODER_RESULT_ERROR;
+  if (!!out) {
+    result = BrotliDecoderDecompressStream(
+        handle->state, &in_size, &in, &out_size, &out, nullptr);
+  }
+  unpinRegion(env, &dst_region, result != BROTLI_DECODER_RESULT_ERROR);
+  unpinRegion(env, &src_region, false);
+  updateStatus(handle, result, in_size == 0);
+  jlong consumed = src_length - static_cast<jint>(in_size);
+  jlong produced = dst_length - static_cast<jint>(out_size);
+  return (consumed << 32) | produced;
+}
+
 /**
  * Releases all used resources.
  *
- * @param ctx {in_cookie} tuple
+ * @param cookie decoder cookie
  */
 JNIEXPORT void JNICALL
 Java_com_nixxcode_jvmbrotli_dec_DecoderJNI_nativeDestroy(
-    JNIEnv* env, jobject /*jobj*/, jlongArray ctx) {
-  jlong context[3];
-  env->GetLongArrayRegion(ctx, 0, 3, context);
-  DecoderHandle* handle = getHandle(reinterpret_cast<void*>(context[0]));
+    JNIEnv* /*env*/, jobject /*jobj*/, jlong cookie) {
+  DecoderHandle* handle = getHandle(reinterpret_cast<void*>(cookie));
+  int64_t stats[2];
+  detachBlockCache(&handle->cache, stats);
   BrotliDecoderDestroyInstance(handle->state);
+  releaseBlockCache(&handle->cache);
+  jvmbrotli::addNativeBytes(
+      -static_cast<int64_t>(sizeof(*handle) + handle->input_size));
   delete[] handle->input_start;
   delete handle;
 }
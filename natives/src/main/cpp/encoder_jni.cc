@@ -6,16 +6,36 @@
 
 #include <jni.h>
 
+#include <string.h>
+
 #include <new>
+#include <vector>
+
+#include "./block_cache.h"
+#include "./memory_region.h"
 
 #include <brotli/encode.h>
 
 namespace {
+/* Number of BrotliEncoderParameter values forwarded from Java side. */
+const int kNumParams = 10;
+
 /* A structure used to persist the encoder's state in between calls. */
 typedef struct EncoderHandle {
   BrotliEncoderState* state;
+  /* Status block shared with Java side; see updateStatus. */
+  int32_t* status;
+  /* Keeps memory of the previous state for reuse after reset. */
+  BlockCache cache;
+
+  /* Indexed by BrotliEncoderParameter; negative values are not applied. */
+  jint params[kNumParams];
+  /* Raw prefix dictionary owned by Java side; nullptr if not used. */
+  const uint8_t* dictionary;
+  size_t dictionary_size;
 
   uint8_t* input_start;
+  size_t input_size;
   size_t input_offset;
   size_t input_last;
 } EncoderHandle;
@@ -25,6 +45,125 @@ EncoderHandle* getHandle(void* opaque) {
   return static_cast<EncoderHandle*>(opaque);
 }
 
+/*
+ * Status block layout: {int64 cookie, int32 success, int32 has_more_output,
+ * int32 has_remaining_input, int32 is_finished, int64 native_bytes,
+ * int64 peak_native_bytes}; memory stats are maintained by BlockCache.
+ */
+const jlong kStatusBlockSize = 40;
+/* Index of memory stats in int64 units. */
+const int kStatusStats = 3;
+const int kStatusSuccess = 2;
+const int kStatusHasMoreOutput = 3;
+const int kStatusHasRemainingInput = 4;
+const int kStatusIsFinished = 5;
+
+/* Copy parameters from Java array; returns false if array is malformed. */
+bool readParams(JNIEnv* env, jintArray params, jint* out) {
+  if (!params || env->GetArrayLength(params) != kNumParams) return false;
+  env->GetIntArrayRegion(params, 0, kNumParams, out);
+  return !env->ExceptionCheck();
+}
+
+/* Apply parameters that are set (i.e. non-negative). */
+bool applyParams(BrotliEncoderState* state, const jint* params) {
+  for (int i = 0; i < kNumParams; ++i) {
+    if (params[i] < 0) continue;
+    if (!BrotliEncoderSetParameter(state,
+            static_cast<BrotliEncoderParameter>(i),
+            static_cast<uint32_t>(params[i]))) {
+      return false;
+    }
+  }
+  return true;
+}
+
+/*
+ * Compress dictionary and flush, so that the following input may refer to it.
+ *
+ * Produced output is appended to prefix, or discarded if prefix is nullptr.
+ * Encoders and PreparedDictionary are primed by this very function, which
+ * keeps their states (and thus the recorded prefix) consistent.
+ */
+bool primeState(BrotliEncoderState* state, const uint8_t* dictionary,
+                size_t dictionary_size, std::vector<uint8_t>* prefix) {
+  size_t available_in = dictionary_size;
+  const uint8_t* next_in = dictionary;
+  while (true) {
+    size_t available_out = 0;
+    if (!BrotliEncoderCompressStream(state, BROTLI_OPERATION_FLUSH,
+            &available_in, &next_in, &available_out, nullptr, nullptr)) {
+      return false;
+    }
+    size_t out_size = 0;
+    const uint8_t* out = BrotliEncoderTakeOutput(state, &out_size);
+    if (!!prefix) prefix->insert(prefix->end(), out, out + out_size);
+    if (available_in == 0 && !BrotliEncoderHasMoreOutput(state)) return true;
+  }
+}
+
+/* Create encoder state, apply parameters and dictionary stored in handle. */
+bool createState(EncoderHandle* handle) {
+  handle->state =
+      BrotliEncoderCreateInstance(cacheAlloc, cacheFree, &handle->cache);
+  if (!handle->state) return false;
+  if (!applyParams(handle->state, handle->params)) return false;
+  if (!!handle->dictionary) {
+    return primeState(handle->state, handle->dictionary,
+                      handle->dictionary_size, nullptr);
+  }
+  return true;
+}
+
+/*
+ * Wrap data into uncompressed stream with minimal window size; mirrors
+ * MakeUncompressedStream, which is private to the encoder. Output should have
+ * at least BrotliEncoderMaxCompressedSize(input_size) bytes.
+ *
+ * Returns the length of stream.
+ */
+size_t makeUncompressedStream(const uint8_t* input, size_t input_size,
+                              uint8_t* output) {
+  size_t size = input_size;
+  size_t result = 0;
+  size_t offset = 0;
+  if (input_size == 0) {
+    output[0] = 6;
+    return 1;
+  }
+  output[result++] = 0x21;  /* window bits = 10, is_last = false */
+  output[result++] = 0x03;  /* empty metadata, padding */
+  while (size > 0) {
+    uint32_t nibbles = 0;
+    uint32_t chunk_size = (size > (1u << 24)) ? (1u << 24)
+                                              : static_cast<uint32_t>(size);
+    if (chunk_size > (1u << 16)) nibbles = (chunk_size > (1u << 20)) ? 2 : 1;
+    uint32_t bits =
+        (nibbles << 1) | ((chunk_size - 1) << 3) | (1u << (19 + 4 * nibbles));
+    output[result++] = static_cast<uint8_t>(bits);
+    output[result++] = static_cast<uint8_t>(bits >> 8);
+    output[result++] = static_cast<uint8_t>(bits >> 16);
+    if (nibbles == 2) output[result++] = static_cast<uint8_t>(bits >> 24);
+    memcpy(&output[result], &input[offset], chunk_size);
+    result += chunk_size;
+    offset += chunk_size;
+    size -= chunk_size;
+  }
+  output[result++] = 3;
+  return result;
+}
+
+/* Publish encoder state to status block. */
+void updateStatus(EncoderHandle* handle) {
+  BrotliEncoderState* state = handle->state;
+  int32_t* status = handle->status;
+  status[kStatusSuccess] = 1;
+  status[kStatusHasMoreOutput] = BrotliEncoderHasMoreOutput(state) ? 1 : 0;
+  status[kStatusHasRemainingInput] =
+      (handle->input_offset != handle->input_last) ? 1 : 0;
+  status[kStatusIsFinished] = BrotliEncoderIsFinished(state) ? 1 : 0;
+}
+
 }  /* namespace */
 
 #ifdef __cplusplus
@@ -34,65 +173,83 @@ extern "C" {
 /**
  * Creates a new Encoder.
  *
- * Cookie to address created encoder is stored in out_cookie. In case of failure
- * cookie is 0.
+ * Cookie to address created encoder is stored in the first 8 bytes of status
+ * block. In case of failure cookie is 0. Status block must stay reachable for
+ * as long as encoder exists.
  *
- * @param ctx {out_cookie, in_directBufferSize, in_quality, in_lgwin} tuple
- * @returns direct ByteBuffer if directBufferSize is not 0; otherwise null
+ * @param status_block direct ByteBuffer; see kStatusBlockSize
+ * @param input_size size of direct input buffer
+ * @param params values indexed by BrotliEncoderParameter; -1 for unset
+ * @param dictionary direct ByteBuffer with raw prefix dictionary, or null;
+ *                   must stay reachable for as long as encoder exists
+ * @returns direct ByteBuffer if input_size is not 0; otherwise null
  */
 JNIEXPORT jobject JNICALL
 Java_com_nixxcode_jvmbrotli_enc_EncoderJNI_nativeCreate(
-    JNIEnv* env, jobject /*jobj*/, jlongArray ctx) {
+    JNIEnv* env, jobject /*jobj*/, jobject status_block, jint input_size,
+    jintArray params, jobject dictionary) {
   bool ok = true;
   EncoderHandle* handle = nullptr;
-  jlong context[5];
-  env->GetLongArrayRegion(ctx, 0, 5, context);
-  size_t input_size = context[1];
-  context[0] = 0;
+  int32_t* status = static_cast<int32_t*>(
+      env->GetDirectBufferAddress(status_block));
+  if (!status ||
+      env->GetDirectBufferCapacity(status_block) < kStatusBlockSize) {
+    return nullptr;
+  }
+  jlong cookie = 0;
   handle = new (std::nothrow) EncoderHandle();
   ok = !!handle;
 
   if (ok) {
+    handle->status = status;
+    handle->state = nullptr;
+    initBlockCache(&handle->cache,
+                   reinterpret_cast<int64_t*>(status) + kStatusStats);
     handle->input_offset = 0;
     handle->input_last = 0;
     handle->input_start = nullptr;
+    handle->input_size = (input_size > 0) ? input_size : 0;
+    handle->dictionary = nullptr;
+    handle->dictionary_size = 0;
+    if (!!dictionary) {
+      handle->dictionary = static_cast<const uint8_t*>(
+          env->GetDirectBufferAddress(dictionary));
+      handle->dictionary_size = static_cast<size_t>(
+          env->GetDirectBufferCapacity(dictionary));
+    }
 
-    if (input_size == 0) {
+    if (input_size < 0 || !readParams(env, params, handle->params) ||
+        (!!dictionary && !handle->dictionary)) {
       ok = false;
-    } else {
+    } else if (input_size > 0) {
       handle->input_start = new (std::nothrow) uint8_t[input_size];
       ok = !!handle->input_start;
     }
   }
 
   if (ok) {
-    handle->state = BrotliEncoderCreateInstance(nullptr, nullptr, nullptr);
-    ok = !!handle->state;
-  }
-
-  if (ok) {
-    int quality = context[2];
-    if (quality >= 0) {
-      BrotliEncoderSetParameter(handle->state, BROTLI_PARAM_QUALITY, quality);
-    }
-    int lgwin = context[3];
-    if (lgwin >= 0) {
-      BrotliEncoderSetParameter(handle->state, BROTLI_PARAM_LGWIN, lgwin);
-    }
+    ok = createState(handle);
   }
 
   if (ok) {
     /* TODO: future versions (e.g. when 128-bit architecture comes)
                      might require thread-safe cookie<->handle mapping. */
-    context[0] = reinterpret_cast<jlong>(handle);
+    cookie = reinterpret_cast<jlong>(handle);
+    int64_t handle_bytes =
+        static_cast<int64_t>(sizeof(*handle) + handle->input_size);
+    jvmbrotli::addNativeBytes(handle_bytes);
+    addInstanceBytes(&handle->cache, handle_bytes);
+    updateStatus(handle);
   } else if (!!handle) {
+    if (!!handle->state) BrotliEncoderDestroyInstance(handle->state);
+    releaseBlockCache(&handle->cache);
     if (!!handle->input_start) delete[] handle->input_start;
     delete handle;
   }
 
-  env->SetLongArrayRegion(ctx, 0, 1, context);
+  memcpy(status, &cookie, sizeof(cookie));
 
-  if (!ok) {
+  if (!ok || input_size == 0) {
     return nullptr;
   }
 
@@ -102,20 +259,19 @@ Java_com_nixxcode_jvmbrotli_enc_EncoderJNI_nativeCreate(
 /**
  * Push data to encoder.
  *
- * @param ctx {in_cookie, in_operation_out_success, out_has_more_output,
- *             out_has_remaining_input} tuple
+ * Outcome is published to the status block.
+ *
+ * @param cookie encoder cookie
+ * @param operation 0 for process, 1 for flush, 2 for finish
  * @param input_length number of bytes provided in input or direct input;
  *                     0 to process further previous input
  */
 JNIEXPORT void JNICALL
 Java_com_nixxcode_jvmbrotli_enc_EncoderJNI_nativePush(
-    JNIEnv* env, jobject /*jobj*/, jlongArray ctx, jint input_length) {
-  jlong context[5];
-  env->GetLongArrayRegion(ctx, 0, 5, context);
-  EncoderHandle* handle = getHandle(reinterpret_cast<void*>(context[0]));
-  int operation = context[1];
-  context[1] = 0;  /* ERROR */
-  env->SetLongArrayRegion(ctx, 0, 5, context);
+    JNIEnv* /*env*/, jobject /*jobj*/, jlong cookie, jint operation,
+    jint input_length) {
+  EncoderHandle* handle = getHandle(reinterpret_cast<void*>(cookie));
+  handle->status[kStatusSuccess] = 0;  /* ERROR */
 
   BrotliEncoderOperation op;
   switch (operation) {
@@ -142,50 +298,304 @@ Java_com_nixxcode_jvmbrotli_enc_EncoderJNI_nativePush(
       handle->state, op, &in_size, &in, &out_size, nullptr, nullptr);
   handle->input_offset = handle->input_last - in_size;
   if (!!status) {
-    context[1] = 1;
-    context[2] = BrotliEncoderHasMoreOutput(handle->state) ? 1 : 0;
-    context[3] = (handle->input_offset != handle->input_last) ? 1 : 0;
-    context[4] = BrotliEncoderIsFinished(handle->state) ? 1 : 0;
+    updateStatus(handle);
   }
-  env->SetLongArrayRegion(ctx, 0, 5, context);
 }
 
 /**
  * Pull decompressed data from encoder.
  *
- * @param ctx {in_cookie, out_success, out_has_more_output,
- *             out_has_remaining_input} tuple
+ * Encoder state is published to the status block.
+ *
+ * @param cookie encoder cookie
  * @returns direct ByteBuffer; all the produced data MUST be consumed before
  *          any further invocation; null in case of error
  */
 JNIEXPORT jobject JNICALL
 Java_com_nixxcode_jvmbrotli_enc_EncoderJNI_nativePull(
-    JNIEnv* env, jobject /*jobj*/, jlongArray ctx) {
-  jlong context[5];
-  env->GetLongArrayRegion(ctx, 0, 5, context);
-  EncoderHandle* handle = getHandle(reinterpret_cast<void*>(context[0]));
+    JNIEnv* env, jobject /*jobj*/, jlong cookie) {
+  EncoderHandle* handle = getHandle(reinterpret_cast<void*>(cookie));
   size_t data_length = 0;
   const uint8_t* data = BrotliEncoderTakeOutput(handle->state, &data_length);
-  context[1] = 1;
-  context[2] = BrotliEncoderHasMoreOutput(handle->state) ? 1 : 0;
-  context[3] = (handle->input_offset != handle->input_last) ? 1 : 0;
-  context[4] = BrotliEncoderIsFinished(handle->state) ? 1 : 0;
-  env->SetLongArrayRegion(ctx, 0, 5, context);
+  updateStatus(handle);
   return env->NewDirectByteBuffer(const_cast<uint8_t*>(data), data_length);
 }
 
+/**
+ * Prepares encoder for a new stream with the same parameters.
+ *
+ * Memory of the previous state is reused by the new one where possible.
+ * Encoder state is published to the status block.
+ *
+ * @param cookie encoder cookie
+ * @returns false if new state could not be created
+ */
+JNIEXPORT jboolean JNICALL
+Java_com_nixxcode_jvmbrotli_enc_EncoderJNI_nativeReset(
+    JNIEnv* /*env*/, jobject /*jobj*/, jlong cookie) {
+  EncoderHandle* handle = getHandle(reinterpret_cast<void*>(cookie));
+  handle->status[kStatusSuccess] = 0;  /* ERROR */
+  advanceBlockCache(&handle->cache);
+  BrotliEncoderDestroyInstance(handle->state);
+  handle->input_offset = 0;
+  handle->input_last = 0;
+  if (!createState(handle)) {
+    return JNI_FALSE;
+  }
+  updateStatus(handle);
+  return JNI_TRUE;
+}
+
+/**
+ * Sets size hint of the stream that is about to start, unless size hint is
+ * set explicitly or fixed by dictionary; pooled encoders are shared by
+ * streams of any size, so the hint is not a part of their parameters.
+ *
+ * Reset brings back size hint the encoder was created with.
+ *
+ * @param cookie encoder cookie
+ * @param size_hint expected input size
+ */
+JNIEXPORT void JNICALL
+Java_com_nixxcode_jvmbrotli_enc_EncoderJNI_nativeSetSizeHint(
+    JNIEnv* /*env*/, jobject /*jobj*/, jlong cookie, jint size_hint) {
+  EncoderHandle* handle = getHandle(reinterpret_cast<void*>(cookie));
+  if (handle->params[BROTLI_PARAM_SIZE_HINT] >= 0 || !!handle->dictionary ||
+      size_hint < 0) {
+    return;
+  }
+  BrotliEncoderSetParameter(handle->state, BROTLI_PARAM_SIZE_HINT,
+                            static_cast<uint32_t>(size_hint));
+}
+
+/**
+ * Compresses memory region into another memory region, keeping encoder state
+ * in between calls.
+ *
+ * Source and destination are either direct ByteBuffers or byte[]s. Memory is
+ * accessed in place; byte[]s are pinned for the duration of the call. Encoder
+ * internal input buffer is not used, and must not hold unconsumed input.
+ * Outcome is published to the status block.
+ *
+ * @param cookie encoder cookie
+ * @param operation 0 for process, 1 for flush, 2 for finish
+ * @returns (number of bytes consumed << 32) | number of bytes produced
+ */
+JNIEXPORT jlong JNICALL
+Java_com_nixxcode_jvmbrotli_enc_EncoderJNI_nativeCompressRegion(
+    JNIEnv* env, jobject /*jobj*/, jlong cookie, jint operation, jobject src,
+    jint src_offset, jint src_length, jobject dst, jint dst_offset,
+    jint dst_length) {
+  EncoderHandle* handle = getHandle(reinterpret_cast<void*>(cookie));
+  handle->status[kStatusSuccess] = 0;  /* ERROR */
+
+  BrotliEncoderOperation op;
+  switch (operation) {
+    case 0: op = BROTLI_OPERATION_PROCESS; break;
+    case 1: op = BROTLI_OPERATION_FLUSH; break;
+    case 2: op = BROTLI_OPERATION_FINISH; break;
+    default: return 0;  /* ERROR */
+  }
+  if (handle->input_offset < handle->input_last) return 0;
+
+  MemoryRegion src_region;
+  MemoryRegion dst_region;
+  if (!resolveRegion(env, src, src_offset, src_length, &src_region) ||
+      !resolveRegion(env, dst, dst_offset, dst_length, &dst_region)) {
+    return 0;
+  }
+  const uint8_t* in = pinRegion(env, &src_region);
+  uint8_t* out = !!in ? pinRegion(env, &dst_region) : nullptr;
+  size_t in_size = src_length;
+  size_t out_size = dst_length;
+  bool ok = false;
+  if (!!out) {
+    ok = !!BrotliEncoderCompressStream(handle->state, op, &in_size, &in,
+                                       &out_size, &out, nullptr);
+  }
+  unpinRegion(env, &dst_region, ok);
+  unpinRegion(env, &src_region, false);
+  if (!ok) {
+    return 0;
+  }
+  updateStatus(handle);
+  jlong consumed = src_length - static_cast<jint>(in_size);
+  jlong produced = dst_length - static_cast<jint>(out_size);
+  return (consumed << 32) | produced;
+}
+
+/**
+ * Compresses memory region into another memory region in one go, using
+ * encoder state of a fresh (or reset) encoder.
+ *
+ * Source and destination are either direct ByteBuffers or byte[]s. Memory is
+ * accessed in place; byte[]s are pinned for the duration of the call. Encoder
+ * internal input buffer is not used.
+ *
+ * @param cookie encoder cookie
+ * @returns number of bytes written to destination; -1 in case of error, e.g.
+ *          when destination is not large enough
+ */
+JNIEXPORT jint JNICALL
+Java_com_nixxcode_jvmbrotli_enc_EncoderJNI_nativeCompressStream(
+    JNIEnv* env, jobject /*jobj*/, jlong cookie, jobject src, jint src_offset,
+    jint src_length, jobject dst, jint dst_offset, jint dst_length) {
+  EncoderHandle* handle = getHandle(reinterpret_cast<void*>(cookie));
+  handle->status[kStatusSuccess] = 0;  /* ERROR */
+  MemoryRegion src_region;
+  MemoryRegion dst_region;
+  if (!resolveRegion(env, src, src_offset, src_length, &src_region) ||
+      !resolveRegion(env, dst, dst_offset, dst_length, &dst_region)) {
+    return -1;
+  }
+  BrotliEncoderSetParameter(handle->state, BROTLI_PARAM_SIZE_HINT,
+                            static_cast<uint32_t>(src_length));
+  const uint8_t* in = pinRegion(env, &src_region);
+  uint8_t* out = !!in ? pinRegion(env, &dst_region) : nullptr;
+  size_t in_size = src_length;
+  size_t out_size = dst_length;
+  bool ok = false;
+  if (!!out) {
+    ok = !!BrotliEncoderCompressStream(handle->state, BROTLI_OPERATION_FINISH,
+        &in_size, &in, &out_size, &out, nullptr);
+    ok = ok && !!BrotliEncoderIsFinished(handle->state);
+  }
+  unpinRegion(env, &dst_region, ok);
+  unpinRegion(env, &src_region, false);
+  if (!ok) {
+    return -1;
+  }
+  updateStatus(handle);
+  return static_cast<jint>(dst_length - out_size);
+}
+
+/**
+ * Compresses memory region into another memory region in one go.
+ *
+ * Source and destination are either direct ByteBuffers or byte[]s. Memory is
+ * accessed in place; byte[]s are pinned for the duration of the call.
+ *
+ * Unless set explicitly, size hint is the source length.
+ *
+ * @param params values indexed by BrotliEncoderParameter; -1 for unset
+ * @returns number of bytes written to destination; -1 in case of error, e.g.
+ *          when destination is not large enough
+ */
+JNIEXPORT jint JNICALL
+Java_com_nixxcode_jvmbrotli_enc_EncoderJNI_nativeCompress(
+    JNIEnv* env, jobject /*jobj*/, jobject src, jint src_offset,
+    jint src_length, jobject dst, jint dst_offset, jint dst_length,
+    jintArray params) {
+  jint values[kNumParams];
+  MemoryRegion src_region;
+  MemoryRegion dst_region;
+  if (!readParams(env, params, values) ||
+      !resolveRegion(env, src, src_offset, src_length, &src_region) ||
+      !resolveRegion(env, dst, dst_offset, dst_length, &dst_region)) {
+    return -1;
+  }
+  if (values[BROTLI_PARAM_SIZE_HINT] < 0) {
+    values[BROTLI_PARAM_SIZE_HINT] = src_length;
+  }
+  /* BrotliEncoderCompress allocates with plain malloc, which is not accounted;
+     the streaming instance is used for all inputs instead. */
+  int64_t stats[2];
+  BlockCache cache;
+  initBlockCache(&cache, stats);
+  BrotliEncoderState* state =
+      BrotliEncoderCreateInstance(cacheAlloc, cacheFree, &cache);
+  if (!state || !applyParams(state, values)) {
+    if (!!state) BrotliEncoderDestroyInstance(state);
+    releaseBlockCache(&cache);
+    return -1;
+  }
+  const uint8_t* in = pinRegion(env, &src_region);
+  uint8_t* out = !!in ? pinRegion(env, &dst_region) : nullptr;
+  BROTLI_BOOL ok = BROTLI_FALSE;
+  size_t out_size = 0;
+  if (!!out) {
+    const uint8_t* next_in = in;
+    uint8_t* next_out = out;
+    size_t available_in = src_length;
+    size_t available_out = dst_length;
+    ok = BrotliEncoderCompressStream(state, BROTLI_OPERATION_FINISH,
+        &available_in, &next_in, &available_out, &next_out, nullptr);
+    ok = ok && BrotliEncoderIsFinished(state);
+    out_size = dst_length - available_out;
+    /* Incompressible input might not fit; like BrotliEncoderCompress, fall
+       back to uncompressed stream, which is only valid if stream header is
+       present. */
+    if (!ok && values[BROTLI_PARAM_STREAM_OFFSET] <= 0 &&
+        static_cast<size_t>(dst_length) >=
+            BrotliEncoderMaxCompressedSize(src_length)) {
+      out_size = makeUncompressedStream(in, src_length, out);
+      ok = BROTLI_TRUE;
+    }
+  }
+  unpinRegion(env, &dst_region, !!ok);
+  unpinRegion(env, &src_region, false);
+  if (!!state) BrotliEncoderDestroyInstance(state);
+  releaseBlockCache(&cache);
+  return ok ? static_cast<jint>(out_size) : -1;
+}
+
+/**
+ * Compresses dictionary and flushes; see primeState.
+ *
+ * @param dictionary direct ByteBuffer with raw prefix dictionary
+ * @param params values indexed by BrotliEncoderParameter; -1 for unset
+ * @returns compressed stream prefix; null in case of error
+ */
+JNIEXPORT jbyteArray JNICALL
+Java_com_nixxcode_jvmbrotli_enc_EncoderJNI_nativePrepareDictionary(
+    JNIEnv* env, jobject /*jobj*/, jobject dictionary, jintArray params) {
+  jint values[kNumParams];
+  const uint8_t* data =
+      static_cast<const uint8_t*>(env->GetDirectBufferAddress(dictionary));
+  if (!data || !readParams(env, params, values)) {
+    return nullptr;
+  }
+  int64_t stats[2];
+  BlockCache cache;
+  initBlockCache(&cache, stats);
+  BrotliEncoderState* state =
+      BrotliEncoderCreateInstance(cacheAlloc, cacheFree, &cache);
+  if (!state) {
+    return nullptr;
+  }
+  std::vector<uint8_t> prefix;
+  bool ok = applyParams(state, values) &&
+      primeState(state, data,
+                 static_cast<size_t>(env->GetDirectBufferCapacity(dictionary)),
+                 &prefix);
+  BrotliEncoderDestroyInstance(state);
+  releaseBlockCache(&cache);
+  if (!ok) {
+    return nullptr;
+  }
+  jbyteArray result = env->NewByteArray(static_cast<jsize>(prefix.size()));
+  if (!!result) {
+    env->SetByteArrayRegion(result, 0, static_cast<jsize>(prefix.size()),
+                            reinterpret_cast<const jbyte*>(prefix.data()));
+  }
+  return result;
+}
+
 /**
  * Releases all used resources.
  *
- * @param ctx {in_cookie} tuple
+ * @param cookie encoder cookie
  */
 JNIEXPORT void JNICALL
 Java_com_nixxcode_jvmbrotli_enc_EncoderJNI_nativeDestroy(
-    JNIEnv* env, jobject /*jobj*/, jlongArray ctx) {
-  jlong context[2];
-  env->GetLongArrayRegion(ctx, 0, 2, context);
-  EncoderHandle* handle = getHandle(reinterpret_cast<void*>(context[0]));
+    JNIEnv* /*env*/, jobject /*jobj*/, jlong cookie) {
+  EncoderHandle* handle = getHandle(reinterpret_cast<void*>(cookie));
+  int64_t stats[2];
+  detachBlockCache(&handle->cache, stats);
   BrotliEncoderDestroyInstance(handle->state);
+  releaseBlockCache(&handle->cache);
+  jvmbrotli::addNativeBytes(
+      -static_cast<int64_t>(sizeof(*handle) + handle->input_size));
   delete[] handle->input_start;
   delete handle;
 }
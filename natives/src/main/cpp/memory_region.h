@@ -0,0 +1,80 @@
+/*
+ *  Copyright (c) 2019 Dominik Petrovic (Nixxcode)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+#ifndef JVMBROTLI_MEMORY_REGION_H_
+#define JVMBROTLI_MEMORY_REGION_H_
+
+#include <jni.h>
+
+#include <stdint.h>
+
+namespace {
+
+/*
+ * Region of caller-provided memory, either a direct ByteBuffer or a byte[].
+ *
+ * Regions are resolved first and pinned afterwards: no JNI calls other than
+ * the critical ones are allowed while byte[] memory is pinned. Pinning blocks
+ * garbage collection for the whole call, so Java side passes byte[]s only for
+ * inputs that compress quickly (see Encoder.MAX_PINNED_INPUT_SIZE).
+ */
+typedef struct MemoryRegion {
+  jobject object;
+  uint8_t* direct;
+  void* pinned;
+  jint offset;
+  jint length;
+} MemoryRegion;
+
+/* Resolve region; returns false if object is not suitable or out of bounds. */
+inline bool resolveRegion(JNIEnv* env, jobject object, jint offset, jint length,
+                   MemoryRegion* region) {
+  region->object = object;
+  region->direct = nullptr;
+  region->pinned = nullptr;
+  region->offset = offset;
+  region->length = length;
+  if (!object || offset < 0 || length < 0) return false;
+  jlong capacity;
+  region->direct = static_cast<uint8_t*>(env->GetDirectBufferAddress(object));
+  if (region->direct) {
+    capacity = env->GetDirectBufferCapacity(object);
+  } else {
+    capacity = env->GetArrayLength(static_cast<jbyteArray>(object));
+  }
+  return static_cast<jlong>(offset) + length <= capacity;
+}
+
+/* Obtain address of region start; byte[] memory is pinned until released. */
+inline uint8_t* pinRegion(JNIEnv* env, MemoryRegion* region) {
+  if (region->direct) return region->direct + region->offset;
+  region->pinned = env->GetPrimitiveArrayCritical(
+      static_cast<jarray>(region->object), nullptr);
+  if (!region->pinned) return nullptr;
+  return static_cast<uint8_t*>(region->pinned) + region->offset;
+}
+
+/* Release pinned memory; changes are discarded if commit is false. */
+inline void unpinRegion(JNIEnv* env, MemoryRegion* region, bool commit) {
+  if (!region->pinned) return;
+  env->ReleasePrimitiveArrayCritical(static_cast<jarray>(region->object),
+                                     region->pinned, commit ? 0 : JNI_ABORT);
+  region->pinned = nullptr;
+}
+
+}  /* namespace */
+
+#endif  /* JVMBROTLI_MEMORY_REGION_H_ */